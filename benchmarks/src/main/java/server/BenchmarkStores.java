@@ -0,0 +1,71 @@
+package server;
+
+import utils.ILogger;
+import utils.LogLevel;
+import utils.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.NoSuchObjectException;
+import java.rmi.server.UnicastRemoteObject;
+
+/**
+ * BenchmarkStores sets up and tears down the stores the benchmarks run against.
+ */
+final class BenchmarkStores {
+
+    /** The value stored under every benchmark key, about the size of a small JSON document. */
+    static final String VALUE = "{\"name\":\"benchmark\",\"count\":42,\"tags\":[\"a\",\"b\",\"c\"]}";
+
+    private BenchmarkStores() {
+    }
+
+    /**
+     * Creates a logger that writes to a temporary file at the server's default level, so the per-request debug
+     * records cost what they cost in production.
+     */
+    static ILogger createLogger(Path logFile) {
+        ILogger logger = new Logger("BenchmarkLogger-" + System.nanoTime(), logFile.toString());
+        logger.setLevel(LogLevel.INFO);
+        return logger;
+    }
+
+    /**
+     * Creates an empty in-memory store with the given storage engine.
+     *
+     * @param storage "heap" or "offheap".
+     */
+    static KeyValueStoreImpl open(String storage, ILogger logger) throws IOException {
+        StorageEngine engine = storage.equals("offheap") ? new OffHeapStorageEngine() : new HeapStorageEngine();
+        return new KeyValueStoreImpl(logger, engine, null, null, null);
+    }
+
+    /**
+     * Inserts {@code count} keys named by {@link #key}.
+     */
+    static void fill(KeyValueStoreInterface store, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            store.put(key(i), VALUE);
+        }
+    }
+
+    static String key(int i) {
+        return "key:" + i;
+    }
+
+    /**
+     * Closes and unexports a store and its logger and deletes the log file.
+     */
+    static void close(KeyValueStoreImpl store, ILogger logger, Path logFile) throws IOException {
+        store.close();
+        try {
+            UnicastRemoteObject.unexportObject(store, true);
+        } catch (NoSuchObjectException e) {
+            // Already unexported
+        }
+        logger.close();
+        Files.deleteIfExists(logFile);
+        Files.deleteIfExists(logFile.resolveSibling(logFile.getFileName() + ".lck"));
+    }
+}
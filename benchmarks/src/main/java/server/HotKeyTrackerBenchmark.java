@@ -0,0 +1,71 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what {@link HotKeyTracker#record} adds to every request, for uniformly chosen keys and for traffic where
+ * one key in ten requests is the same hot key, on one and on four threads. The baseline only picks the key.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HotKeyTrackerBenchmark {
+
+    @Param({"0", "10"})
+    public int hotPercent;
+
+    @Param({"100000"})
+    public int keyCount;
+
+    private HotKeyTracker tracker;
+    private String[] keys;
+
+    @Setup
+    public void setUp() {
+        tracker = new HotKeyTracker();
+        keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = BenchmarkStores.key(i);
+        }
+    }
+
+    private String pick() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return random.nextInt(100) < hotPercent ? keys[0] : keys[random.nextInt(keyCount)];
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String baseline() {
+        return pick();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void threads1() {
+        tracker.record(pick());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void threads4() {
+        tracker.record(pick());
+    }
+}
@@ -0,0 +1,103 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.ILogger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures single-key operations called directly on KeyValueStoreImpl, without any transport.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyValueStoreBenchmark {
+
+    private static final int COUNTERS = 1024;
+
+    @Param({"heap", "offheap"})
+    public String storage;
+
+    @Param({"100000"})
+    public int keyCount;
+
+    private Path logFile;
+    private ILogger logger;
+    private KeyValueStoreImpl store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        logFile = Files.createTempFile("kvstore-bench", ".log");
+        logger = BenchmarkStores.createLogger(logFile);
+        store = BenchmarkStores.open(storage, logger);
+        BenchmarkStores.fill(store, keyCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkStores.close(store, logger, logFile);
+    }
+
+    /**
+     * Gives each benchmark thread its own keys to insert and delete.
+     */
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        private final String prefix = "thread-" + System.identityHashCode(this) + ":";
+        private long next;
+
+        String nextKey() {
+            return prefix + next++;
+        }
+    }
+
+    @Benchmark
+    public String getHit() throws IOException {
+        return store.get(BenchmarkStores.key(ThreadLocalRandom.current().nextInt(keyCount)));
+    }
+
+    @Benchmark
+    public String getMiss() throws IOException {
+        return store.get("missing:" + ThreadLocalRandom.current().nextInt(keyCount));
+    }
+
+    /**
+     * Inserts a new key and deletes it again, so the store keeps its size.
+     */
+    @Benchmark
+    public String putThenDelete(ThreadKeys keys) throws IOException {
+        String key = keys.nextKey();
+        store.put(key, BenchmarkStores.VALUE);
+        return store.delete(key);
+    }
+
+    @Benchmark
+    public String replace() throws IOException {
+        return store.replace(BenchmarkStores.key(ThreadLocalRandom.current().nextInt(keyCount)),
+                BenchmarkStores.VALUE);
+    }
+
+    @Benchmark
+    public String increment() throws IOException {
+        return store.increment("counter:" + ThreadLocalRandom.current().nextInt(COUNTERS), 1);
+    }
+}
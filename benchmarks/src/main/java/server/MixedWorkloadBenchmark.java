@@ -0,0 +1,89 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.ILogger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of a mix of reads and writes on uniformly chosen keys at several thread counts.
+ * Writes replace the value of an existing key, so the store keeps its size during a run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MixedWorkloadBenchmark {
+
+    @Param({"50", "90", "99"})
+    public int readPercent;
+
+    @Param({"heap", "offheap"})
+    public String storage;
+
+    @Param({"100000"})
+    public int keyCount;
+
+    private Path logFile;
+    private ILogger logger;
+    private KeyValueStoreImpl store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        logFile = Files.createTempFile("kvstore-bench", ".log");
+        logger = BenchmarkStores.createLogger(logFile);
+        store = BenchmarkStores.open(storage, logger);
+        BenchmarkStores.fill(store, keyCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkStores.close(store, logger, logFile);
+    }
+
+    private String operation() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String key = BenchmarkStores.key(random.nextInt(keyCount));
+        if (random.nextInt(100) < readPercent) {
+            return store.get(key);
+        }
+        return store.replace(key, BenchmarkStores.VALUE);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String threads1() throws IOException {
+        return operation();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String threads4() throws IOException {
+        return operation();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String threads16() throws IOException {
+        return operation();
+    }
+}
@@ -0,0 +1,96 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.ILogger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.server.RemoteObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures round trips through RMI to a store exported in the same process, so the numbers show the cost of
+ * serialization and the loopback connection on top of the store itself.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.rmi.server.hostname=127.0.0.1")
+@State(Scope.Benchmark)
+public class RmiLoopbackBenchmark {
+
+    @Param({"10000"})
+    public int keyCount;
+
+    private Path logFile;
+    private ILogger logger;
+    private KeyValueStoreImpl store;
+    private KeyValueStoreInterface stub;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        logFile = Files.createTempFile("kvstore-bench", ".log");
+        logger = BenchmarkStores.createLogger(logFile);
+        store = BenchmarkStores.open("heap", logger);
+        BenchmarkStores.fill(store, keyCount);
+        // The stub calls the exported store over a TCP connection like a remote client would
+        stub = (KeyValueStoreInterface) RemoteObject.toStub(store);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkStores.close(store, logger, logFile);
+    }
+
+    private String randomKey() {
+        return BenchmarkStores.key(ThreadLocalRandom.current().nextInt(keyCount));
+    }
+
+    @Benchmark
+    public String get() throws IOException {
+        return stub.get(randomKey());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String getConcurrent() throws IOException {
+        return stub.get(randomKey());
+    }
+
+    @Benchmark
+    public String replace() throws IOException {
+        return stub.replace(randomKey(), BenchmarkStores.VALUE);
+    }
+
+    /**
+     * Retrieves 100 keys in one call, to compare with 100 single gets.
+     */
+    @Benchmark
+    public Object multiGet100() throws IOException {
+        int first = ThreadLocalRandom.current().nextInt(keyCount - 100);
+        List<String> keys = new ArrayList<>(100);
+        for (int i = 0; i < 100; i++) {
+            keys.add(BenchmarkStores.key(first + i));
+        }
+        return stub.multiGet(Collections.unmodifiableList(keys));
+    }
+}
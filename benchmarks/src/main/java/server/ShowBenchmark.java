@@ -0,0 +1,81 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.ILogger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures listing a large store with SHOW, which builds the whole listing in one string, against paging through
+ * it with SCAN.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShowBenchmark {
+
+    private static final int PAGE_SIZE = 1000;
+
+    @Param({"10000", "1000000"})
+    public int keyCount;
+
+    @Param({"heap", "offheap"})
+    public String storage;
+
+    private Path logFile;
+    private ILogger logger;
+    private KeyValueStoreImpl store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        logFile = Files.createTempFile("kvstore-bench", ".log");
+        logger = BenchmarkStores.createLogger(logFile);
+        store = BenchmarkStores.open(storage, logger);
+        BenchmarkStores.fill(store, keyCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkStores.close(store, logger, logFile);
+    }
+
+    @Benchmark
+    public String show() throws IOException {
+        return store.show();
+    }
+
+    /**
+     * Pages through the whole store.
+     *
+     * @return The number of pairs seen.
+     */
+    @Benchmark
+    public int scan() throws IOException {
+        int seen = 0;
+        String cursor = null;
+        do {
+            ScanResult page = store.scan(cursor, PAGE_SIZE, null);
+            seen += page.getEntries().size();
+            cursor = page.getCursor();
+        } while (cursor != null);
+        return seen;
+    }
+}
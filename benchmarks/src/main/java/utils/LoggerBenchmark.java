@@ -0,0 +1,77 @@
+package utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of logging a record on the calling thread with the synchronous {@link Logger} and the
+ * {@link AsyncLogger}, for records that are written and for records below the threshold.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggerBenchmark {
+
+    @Param({"sync", "async"})
+    public String mode;
+
+    private Path logFile;
+    private ILogger logger;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        logFile = Files.createTempFile("logger-bench", ".log");
+        String name = "LoggerBenchmark-" + System.nanoTime();
+        // An async logger that blocks when full measures the sustained rate of its writer thread
+        logger = mode.equals("async")
+                ? new AsyncLogger(name, logFile.toString())
+                : new Logger(name, logFile.toString());
+        logger.setLevel(LogLevel.INFO);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        logger.close();
+        Files.deleteIfExists(logFile);
+        Files.deleteIfExists(logFile.resolveSibling(logFile.getFileName() + ".lck"));
+    }
+
+    @Benchmark
+    public void written() {
+        logger.log(LogLevel.INFO, "PUT: Key=\"{}\", Value=\"{}\" added successfully.", "key:42", "value");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void writtenContended() {
+        logger.log(LogLevel.INFO, "PUT: Key=\"{}\", Value=\"{}\" added successfully.", "key:42", "value");
+    }
+
+    /**
+     * Logs a debug record, which the threshold discards before formatting it.
+     */
+    @Benchmark
+    public void filtered() {
+        logger.log(LogLevel.DEBUG, "GET: Key=\"{}\", Value=\"{}\" retrieved successfully.", "key:42", "value");
+    }
+}
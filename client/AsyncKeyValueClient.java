@@ -0,0 +1,352 @@
+package client;
+
+import server.KeyValueStoreInterface;
+
+import java.io.Closeable;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AsyncKeyValueClient lets a thread issue many GET, PUT and DELETE requests without waiting for each answer.
+ * <p>
+ * Every call returns a {@link CompletableFuture} at once and is queued. Up to {@code concurrency} requests are
+ * sent at a time by a pool of dispatch threads, over any {@link KeyValueStoreInterface}: an RMI stub opens a
+ * connection for each, a {@link NioKeyValueClient} pipelines them over its one connection, and a sharded client
+ * routes them to their servers. With batching on, calls of the same kind that queue up while the dispatchers are
+ * busy are combined into one multiGet, multiPut or multiDelete, so the number of round trips falls as the load
+ * rises, while a lone call is still sent immediately.
+ * <p>
+ * Calls are not ordered with respect to each other: a GET issued after a PUT of the same key may be answered first.
+ * Chain dependent calls with {@link CompletableFuture#thenCompose}. Futures are completed on the dispatch threads,
+ * so long-running continuations should use the {@code ...Async} variants.
+ */
+public class AsyncKeyValueClient implements Closeable {
+
+    /**
+     * The kinds of calls, each with its own queue.
+     */
+    private enum Kind {
+        GET, PUT, DELETE
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private final KeyValueStoreInterface store;
+    private final int concurrency;
+    private final int maxBatchSize;
+    private final ExecutorService dispatchers;
+    private final List<Queue<Call>> queues = new ArrayList<>(KINDS.length);
+    /** Requests and batches being sent. */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    /** The queue the next dispatch looks at first, so that no kind of call waits behind the others. */
+    private final AtomicInteger nextQueue = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * Constructs an asynchronous client over a store.
+     *
+     * @param store        The store to send requests to, e.g. one created by {@link ClientConfig#createStore()};
+     *                     it remains owned by the caller.
+     * @param concurrency  The number of requests or batches sent at once.
+     * @param maxBatchSize The most calls combined into one batch request, or 1 to send every call on its own.
+     */
+    public AsyncKeyValueClient(KeyValueStoreInterface store, int concurrency, int maxBatchSize) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + maxBatchSize);
+        }
+        this.store = store;
+        this.concurrency = concurrency;
+        this.maxBatchSize = maxBatchSize;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.dispatchers = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread thread = new Thread(r, "async-client-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < KINDS.length; i++) {
+            queues.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * Retrieves the value associated with a key.
+     *
+     * @param key The key whose value is to be retrieved.
+     * @return A future completed with "OK: " and the value or an error message, or exceptionally with a
+     * RemoteException if the server could not be reached.
+     */
+    public CompletableFuture<String> get(String key) {
+        return enqueue(Kind.GET, key, null);
+    }
+
+    /**
+     * Inserts a key-value pair.
+     *
+     * @param key   The key to insert.
+     * @param value The value associated with the key.
+     * @return A future completed with the status message, or exceptionally with a RemoteException if the server
+     * could not be reached.
+     */
+    public CompletableFuture<String> put(String key, String value) {
+        return enqueue(Kind.PUT, key, value);
+    }
+
+    /**
+     * Deletes a key.
+     *
+     * @param key The key to delete.
+     * @return A future completed with the status message, or exceptionally with a RemoteException if the server
+     * could not be reached.
+     */
+    public CompletableFuture<String> delete(String key) {
+        return enqueue(Kind.DELETE, key, null);
+    }
+
+    private CompletableFuture<String> enqueue(Kind kind, String key, String value) {
+        Call call = new Call(key, value);
+        if (closed) {
+            call.future.completeExceptionally(new RemoteException("The client is closed."));
+            return call.future;
+        }
+        Queue<Call> queue = queues.get(kind.ordinal());
+        queue.add(call);
+        if (closed && queue.remove(call)) {
+            // close() may have drained the queues before the call was added
+            call.future.completeExceptionally(new RemoteException("The client is closed."));
+            return call.future;
+        }
+        dispatch();
+        return call.future;
+    }
+
+    /**
+     * Sends queued calls while fewer than {@code concurrency} requests are in flight.
+     */
+    private void dispatch() {
+        while (true) {
+            int sending = inFlight.get();
+            if (sending >= concurrency) {
+                // The request in flight dispatches again when it completes
+                return;
+            }
+            if (!inFlight.compareAndSet(sending, sending + 1)) {
+                continue;
+            }
+            Batch batch = nextBatch();
+            if (batch != null) {
+                send(batch);
+            } else {
+                inFlight.decrementAndGet();
+                // A call queued while the slot was held may have seen no free slot, so look once more
+                if (!hasQueued()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean hasQueued() {
+        for (Queue<Call> queue : queues) {
+            if (!queue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes the next batch, looking at the queues in turn.
+     *
+     * @return The batch, or null if no call is queued.
+     */
+    private Batch nextBatch() {
+        int first = Math.floorMod(nextQueue.getAndIncrement(), KINDS.length);
+        for (int i = 0; i < KINDS.length; i++) {
+            Kind kind = KINDS[(first + i) % KINDS.length];
+            List<Call> calls = takeBatch(queues.get(kind.ordinal()));
+            if (!calls.isEmpty()) {
+                return new Batch(kind, calls);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes up to {@code maxBatchSize} calls with distinct keys from the head of a queue. A batch request answers
+     * each key once, so a repeated key ends the batch and goes into the next one.
+     */
+    private List<Call> takeBatch(Queue<Call> queue) {
+        List<Call> batch = new ArrayList<>(Math.min(maxBatchSize, 16));
+        Set<String> keys = maxBatchSize > 1 ? new HashSet<>() : null;
+        while (batch.size() < maxBatchSize) {
+            Call next = queue.peek();
+            if (next == null || (keys != null && !keys.add(next.key))) {
+                break;
+            }
+            // Only dispatch threads holding a slot take from the queues, but they may race for the same head
+            if (queue.remove(next)) {
+                batch.add(next);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Hands a batch to a dispatch thread, which keeps the slot of the batch while more calls are queued and sends
+     * them as well, sparing a hand-off between threads for each request under load.
+     */
+    private void send(Batch first) {
+        try {
+            dispatchers.execute(() -> {
+                try {
+                    // Checks for close before taking from the queues, and fails any batch taken after it
+                    for (Batch batch = first; batch != null; batch = closed ? null : nextBatch()) {
+                        if (closed) {
+                            fail(batch.calls, new RemoteException("The client is closed."));
+                        } else {
+                            complete(batch);
+                        }
+                    }
+                } finally {
+                    inFlight.decrementAndGet();
+                    dispatch();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            fail(first.calls, new RemoteException("The client is closed."));
+        }
+    }
+
+    /**
+     * Sends one request for the calls of a batch and completes their futures.
+     */
+    private void complete(Batch batch) {
+        try {
+            if (batch.calls.size() == 1) {
+                Call call = batch.calls.get(0);
+                call.future.complete(sendOne(batch.kind, call));
+                return;
+            }
+            Map<String, String> results = sendBatch(batch.kind, batch.calls);
+            for (Call call : batch.calls) {
+                String result = results.get(call.key);
+                if (result != null) {
+                    call.future.complete(result);
+                } else {
+                    call.future.completeExceptionally(new RemoteException("No result for key " + call.key));
+                }
+            }
+        } catch (RemoteException | RuntimeException e) {
+            fail(batch.calls, e);
+        }
+    }
+
+    private String sendOne(Kind kind, Call call) throws RemoteException {
+        switch (kind) {
+            case GET:
+                return store.get(call.key);
+            case PUT:
+                return store.put(call.key, call.value);
+            default:
+                return store.delete(call.key);
+        }
+    }
+
+    private Map<String, String> sendBatch(Kind kind, List<Call> batch) throws RemoteException {
+        List<String> keys = new ArrayList<>(batch.size());
+        for (Call call : batch) {
+            keys.add(call.key);
+        }
+        switch (kind) {
+            case GET:
+                return store.multiGet(keys);
+            case PUT: {
+                Map<String, String> entries = new LinkedHashMap<>();
+                for (Call call : batch) {
+                    entries.put(call.key, call.value);
+                }
+                return store.multiPut(entries);
+            }
+            default:
+                return store.multiDelete(keys);
+        }
+    }
+
+    private static void fail(List<Call> calls, Throwable cause) {
+        for (Call call : calls) {
+            call.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Returns the number of calls waiting to be sent.
+     *
+     * @return The count.
+     */
+    public int queued() {
+        int queued = 0;
+        for (Queue<Call> queue : queues) {
+            queued += queue.size();
+        }
+        return queued;
+    }
+
+    /**
+     * Stops the dispatch threads. Requests in flight are completed; calls still queued fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        dispatchers.shutdown();
+        RemoteException closedError = new RemoteException("The client is closed.");
+        for (Queue<Call> queue : queues) {
+            Call call;
+            while ((call = queue.poll()) != null) {
+                call.future.completeExceptionally(closedError);
+            }
+        }
+    }
+
+    /**
+     * Calls of one kind sent in one request.
+     */
+    private static final class Batch {
+        final Kind kind;
+        final List<Call> calls;
+
+        Batch(Kind kind, List<Call> calls) {
+            this.kind = kind;
+            this.calls = calls;
+        }
+    }
+
+    /**
+     * A call waiting to be sent.
+     */
+    private static final class Call {
+        final String key;
+        final String value;
+        final CompletableFuture<String> future = new CompletableFuture<>();
+
+        Call(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
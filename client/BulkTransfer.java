@@ -0,0 +1,303 @@
+package client;
+
+import server.BulkFormat;
+import server.KeyValueStoreInterface;
+import server.ScanCursors;
+import server.ScanResult;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.rmi.NotBoundException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * BulkTransfer loads a file of key-value pairs into the store, or writes the pairs of the store to a file, one pair
+ * per line, and reports progress and throughput as it goes.
+ * <p>
+ * An import reads the file once, front to back, and sends it in chunks of lines that the server parses and inserts
+ * with one durability wait per chunk; {@code --parallelism} chunks are in flight at once, so the servers insert
+ * them in parallel while the client reads ahead. An export pages through a scan of the store and writes each page
+ * while the next ones are fetched. Neither holds more than a few chunks or pages in memory.
+ */
+public class BulkTransfer {
+
+    private final BulkTransferConfig config;
+    private final KeyValueStoreInterface store;
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder added = new LongAdder();
+    private final LongAdder existed = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    /**
+     * Constructs a transfer.
+     *
+     * @param config The transfer settings.
+     * @param store  The store to load into or export from.
+     */
+    public BulkTransfer(BulkTransferConfig config, KeyValueStoreInterface store) {
+        this.config = config;
+        this.store = store;
+    }
+
+    /**
+     * Main method to run an import or export.
+     *
+     * @param args Command-line arguments. Expects hostname, port number, mode and file, optionally followed by
+     *             options.
+     */
+    public static void main(String[] args) {
+        BulkTransferConfig config;
+        try {
+            config = BulkTransferConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(BulkTransferConfig.USAGE);
+            System.exit(1);
+            return; // Unreachable, but added to satisfy the compiler
+        }
+
+        KeyValueStoreInterface store;
+        try {
+            store = config.getClientConfig().createStore();
+        } catch (IOException | NotBoundException e) {
+            System.out.println("ERROR: Unable to connect to the server: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        boolean ok = false;
+        try {
+            BulkTransfer transfer = new BulkTransfer(config, store);
+            if (config.getMode() == BulkTransferConfig.Mode.IMPORT) {
+                transfer.importFile();
+            } else {
+                transfer.exportFile();
+            }
+            ok = true;
+        } catch (IOException e) {
+            System.out.println("ERROR: " + e.getMessage());
+        } catch (InterruptedException e) {
+            System.out.println("Interrupted.");
+        } finally {
+            ClientConfig.close(store);
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Loads the file into the store.
+     *
+     * @throws IOException          If the file cannot be read or a chunk fails to load.
+     * @throws InterruptedException If the import is interrupted.
+     */
+    public void importFile() throws IOException, InterruptedException {
+        String file = config.getFile();
+        long size = new File(file).length();
+        System.out.printf("Importing %s (%,d bytes, %s) in chunks of %d lines, %d at once...%n", file, size,
+                config.getFormat().name().toLowerCase(), config.getChunkLines(), config.getParallelism());
+        long start = System.nanoTime();
+        ExecutorService senders = Executors.newFixedThreadPool(config.getParallelism(), daemon("bulk-import"));
+        Semaphore inFlight = new Semaphore(config.getParallelism());
+        ScheduledExecutorService reporter = startReports(() -> String.format(
+                "%,d lines loaded (%.0f%% read), %,d keys added", lines.sum(),
+                size > 0 ? 100.0 * bytesRead.get() / size : 100.0, added.sum()), lines, start);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new CountingInputStream(new FileInputStream(file), bytesRead), StandardCharsets.UTF_8), 1 << 16)) {
+            StringBuilder chunk = new StringBuilder();
+            int chunkSize = 0;
+            String line;
+            while (failure.get() == null && (line = reader.readLine()) != null) {
+                chunk.append(line).append('\n');
+                if (++chunkSize == config.getChunkLines()) {
+                    send(senders, inFlight, chunk.toString(), chunkSize);
+                    chunk.setLength(0);
+                    chunkSize = 0;
+                }
+            }
+            if (chunkSize > 0 && failure.get() == null) {
+                send(senders, inFlight, chunk.toString(), chunkSize);
+            }
+            // Wait for the chunks in flight
+            inFlight.acquire(config.getParallelism());
+        } finally {
+            senders.shutdownNow();
+            reporter.shutdownNow();
+        }
+        if (failure.get() != null) {
+            throw new IOException("Import stopped after " + lines.sum() + " lines: " + failure.get().getMessage(),
+                    failure.get());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Imported %,d lines in %.1f s (%,.0f lines/s): %,d keys added, %,d already existed, "
+                + "%,d malformed lines.%n", lines.sum(), seconds, lines.sum() / Math.max(seconds, 1e-9), added.sum(),
+                existed.sum(), malformed.sum());
+    }
+
+    /**
+     * Sends a chunk once fewer than the configured number of chunks are in flight.
+     */
+    private void send(ExecutorService senders, Semaphore inFlight, String chunk, int chunkSize)
+            throws InterruptedException {
+        inFlight.acquire();
+        senders.execute(() -> {
+            try {
+                Map<String, Long> counts = store.bulkLoad(chunk, config.getFormat());
+                added.add(counts.getOrDefault("added", 0L));
+                existed.add(counts.getOrDefault("existed", 0L));
+                malformed.add(counts.getOrDefault("malformed", 0L));
+                lines.add(chunkSize);
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * Writes the pairs of the store to the file.
+     *
+     * @throws IOException          If the file cannot be written or a page cannot be fetched.
+     * @throws InterruptedException If the export is interrupted.
+     */
+    public void exportFile() throws IOException, InterruptedException {
+        String file = config.getFile();
+        System.out.printf("Exporting %s to %s (%s)...%n", config.getPrefix() == null
+                ? "every key" : "keys starting with \"" + config.getPrefix() + "\"", file,
+                config.getFormat().name().toLowerCase());
+        long start = System.nanoTime();
+        BlockingQueue<ScanResult> pages = new ArrayBlockingQueue<>(config.getParallelism());
+        Thread fetcher = new Thread(() -> fetchPages(pages), "bulk-export");
+        fetcher.setDaemon(true);
+        fetcher.start();
+        ScheduledExecutorService reporter = startReports(() -> String.format("%,d keys written", lines.sum()),
+                lines, start);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                StandardCharsets.UTF_8), 1 << 16)) {
+            while (true) {
+                ScanResult page = pages.take();
+                if (failure.get() != null) {
+                    throw new IOException("Export stopped after " + lines.sum() + " keys: "
+                            + failure.get().getMessage(), failure.get());
+                }
+                for (Map.Entry<String, String> entry : page.getEntries().entrySet()) {
+                    writer.write(config.getFormat().format(entry.getKey(), entry.getValue()));
+                    writer.write('\n');
+                }
+                lines.add(page.getEntries().size());
+                if (page.isComplete()) {
+                    break;
+                }
+            }
+        } finally {
+            fetcher.interrupt();
+            reporter.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Exported %,d keys in %.1f s (%,.0f keys/s).%n", lines.sum(), seconds,
+                lines.sum() / Math.max(seconds, 1e-9));
+    }
+
+    /**
+     * Fetches the pages of a scan into a queue until the scan is complete or fails; a failure is signalled with a
+     * final empty page.
+     */
+    private void fetchPages(BlockingQueue<ScanResult> pages) {
+        String cursor = null;
+        try {
+            ScanResult page;
+            do {
+                page = store.scan(cursor, ScanCursors.MAX_LIMIT, config.getPrefix());
+                pages.put(page);
+                cursor = page.getCursor();
+            } while (!page.isComplete());
+        } catch (InterruptedException e) {
+            // The export ended
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+            pages.offer(new ScanResult(Collections.emptyMap(), null));
+        }
+    }
+
+    /**
+     * Prints a progress line with the rate since the previous one every report interval.
+     */
+    private ScheduledExecutorService startReports(Supplier<String> progress, LongAdder done,
+                                                  long start) {
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(daemon("bulk-progress"));
+        long[] last = {0, start};
+        int interval = config.getReportIntervalSeconds();
+        reporter.scheduleAtFixedRate(() -> {
+            long now = System.nanoTime();
+            long count = done.sum();
+            System.out.printf("[%5.0f s] %s, %,.0f/s%n", (now - start) / 1e9, progress.get(),
+                    (count - last[0]) / ((now - last[1]) / 1e9));
+            last[0] = count;
+            last[1] = now;
+        }, interval, interval, TimeUnit.SECONDS);
+        return reporter;
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicLong count = new AtomicLong();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Counts the bytes read from a stream, for the progress of an import.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private final AtomicLong count;
+
+        CountingInputStream(InputStream in, AtomicLong count) {
+            super(in);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count.addAndGet(n);
+            }
+            return n;
+        }
+    }
+}
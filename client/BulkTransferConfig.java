@@ -0,0 +1,185 @@
+package client;
+
+import server.BulkFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BulkTransferConfig holds the settings of a BulkTransfer run.
+ * The server host and port are followed by the mode and the file, then by {@code --name=value} options; any
+ * option not listed here is a connection option of {@link ClientConfig}.
+ */
+public class BulkTransferConfig {
+
+    /**
+     * Usage text describing every supported option.
+     */
+    public static final String USAGE =
+            "Usage: java client.BulkTransfer <server-host> <server-port> import|export <file> [options]\n"
+                    + "Options:\n"
+                    + "  --format=tsv|jsonl                Line format (default jsonl for .jsonl/.json files, otherwise tsv)\n"
+                    + "  --chunk-lines=<n>                 Lines sent to the server per call when importing (default 10000)\n"
+                    + "  --parallelism=<n>                 Chunks or pages in flight at once (default 4)\n"
+                    + "  --prefix=<prefix>                 Only export keys starting with this prefix (default all)\n"
+                    + "  --report-interval=<seconds>       Period of the progress lines (default 5)\n"
+                    + "Connection options of client.ClientApp (--transport, --shards, --replicas, ...) apply as well.";
+
+    /**
+     * The directions of a transfer.
+     */
+    public enum Mode {
+        IMPORT, EXPORT
+    }
+
+    private final ClientConfig clientConfig;
+    private final Mode mode;
+    private final String file;
+    private BulkFormat format;
+    private int chunkLines = 10000;
+    private int parallelism = 4;
+    private String prefix;
+    private int reportIntervalSeconds = 5;
+
+    private BulkTransferConfig(ClientConfig clientConfig, Mode mode, String file) {
+        this.clientConfig = clientConfig;
+        this.mode = mode;
+        this.file = file;
+        this.format = BulkFormat.forFileName(file);
+    }
+
+    /**
+     * Parses the command-line arguments of BulkTransfer.
+     *
+     * @param args The server host and port, the mode and the file, followed by any number of
+     *             {@code --name=value} options.
+     * @return The parsed configuration.
+     * @throws IllegalArgumentException If an argument is missing, unknown or malformed.
+     */
+    public static BulkTransferConfig parse(String[] args) {
+        if (args.length < 4) {
+            throw new IllegalArgumentException("Missing server host, port number, mode or file.");
+        }
+        Mode mode;
+        try {
+            mode = Mode.valueOf(args[2].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid mode: " + args[2] + "; use import or export.");
+        }
+
+        List<String> clientArgs = new ArrayList<>();
+        clientArgs.add(args[0]);
+        clientArgs.add(args[1]);
+        List<String[]> transferOptions = new ArrayList<>();
+        for (int i = 4; i < args.length; i++) {
+            String arg = args[i];
+            int eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 0 && isTransferOption(arg.substring(2, eq))) {
+                transferOptions.add(new String[]{arg.substring(2, eq), arg.substring(eq + 1)});
+            } else {
+                clientArgs.add(arg);
+            }
+        }
+
+        BulkTransferConfig config = new BulkTransferConfig(ClientConfig.parse(clientArgs.toArray(new String[0])),
+                mode, args[3]);
+        for (String[] option : transferOptions) {
+            config.apply(option[0], option[1]);
+        }
+        return config;
+    }
+
+    private static boolean isTransferOption(String name) {
+        switch (name) {
+            case "format":
+            case "chunk-lines":
+            case "parallelism":
+            case "prefix":
+            case "report-interval":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Applies a single option.
+     *
+     * @param name  The option name without the leading dashes.
+     * @param value The option value.
+     */
+    private void apply(String name, String value) {
+        switch (name) {
+            case "format":
+                try {
+                    format = BulkFormat.valueOf(value.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Invalid value for --format: " + value);
+                }
+                break;
+            case "chunk-lines":
+                chunkLines = parsePositiveInt(name, value);
+                break;
+            case "parallelism":
+                parallelism = parsePositiveInt(name, value);
+                break;
+            case "prefix":
+                prefix = value;
+                break;
+            case "report-interval":
+                reportIntervalSeconds = parsePositiveInt(name, value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: --" + name);
+        }
+    }
+
+    private static int parsePositiveInt(String name, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Option --" + name + " requires a positive integer: " + value);
+    }
+
+    public ClientConfig getClientConfig() {
+        return clientConfig;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public BulkFormat getFormat() {
+        return format;
+    }
+
+    public int getChunkLines() {
+        return chunkLines;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Returns the prefix of the keys to export.
+     *
+     * @return The prefix, or null for every key.
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public int getReportIntervalSeconds() {
+        return reportIntervalSeconds;
+    }
+}
@@ -0,0 +1,540 @@
+package client;
+
+import server.BulkFormat;
+import server.InvalidationListener;
+import server.InvalidationService;
+import server.KeyValueStoreInterface;
+import server.ScanResult;
+import server.TransactionOp;
+import server.WatchListener;
+
+import java.io.Closeable;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CachingKeyValueClient keeps the responses to GET and MGET in a bounded local cache, so reads of keys that have
+ * not changed need no round trip.
+ * <p>
+ * The servers push the keys that are put or deleted to an RMI callback, which drops them from the cache. A read
+ * that misses reserves its key before asking the server and only fills the cache if no invalidation of the key
+ * arrived in the meantime, so a late response cannot bring back a value that has already changed.
+ * <p>
+ * Subscriptions are leases renewed every second. The cache is bypassed while a server's subscription is not
+ * known to be alive, and cleared when it has to be renewed with a new subscription, because invalidations may have
+ * been missed. When the least recently used entries exceed the entry or byte limit they are evicted.
+ */
+public class CachingKeyValueClient implements KeyValueStoreInterface, Closeable {
+
+    private static final long LEASE_MILLIS = 10000;
+    private static final long RENEW_MILLIS = 1000;
+    /** The cache is used for this long after a successful renewal, so one slow renewal does not disable it. */
+    private static final long VALID_MILLIS = 3 * RENEW_MILLIS;
+    private static final String NOT_FOUND = "ERROR: Key not found.";
+    /** Rough per-entry overhead of the map node, entry and string objects. */
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final KeyValueStoreInterface store;
+    private final int maxEntries;
+    private final long maxBytes;
+    // Guarded by this
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Object> pendingLoads = new HashMap<>();
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final List<Source> sources = new CopyOnWriteArrayList<>();
+    private final Listener listener = new Listener();
+    private final ScheduledExecutorService renewer;
+
+    /**
+     * Wraps a store with a cache that subscribes to the invalidations of the given servers.
+     *
+     * @param store      The store to cache reads of.
+     * @param endpoints  The RMI registries, as {@code host:port} strings, of every server behind the store.
+     * @param maxEntries The maximum number of cached keys.
+     * @param maxBytes   The approximate maximum size of the cached keys and responses.
+     * @throws RemoteException   If a server cannot be reached or the callback cannot be exported.
+     * @throws NotBoundException If a server does not publish invalidations.
+     */
+    public CachingKeyValueClient(KeyValueStoreInterface store, List<String> endpoints, int maxEntries,
+                                 long maxBytes) throws RemoteException, NotBoundException {
+        this.store = store;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        UnicastRemoteObject.exportObject(listener, 0);
+        renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cache-lease-renewer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (String endpoint : endpoints) {
+                addSource(endpoint);
+            }
+        } catch (RemoteException | NotBoundException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        renewer.scheduleWithFixedDelay(this::renewAll, RENEW_MILLIS, RENEW_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Subscribes to the invalidations of one more server, e.g. after it was added to a sharded store.
+     *
+     * @param endpoint The server's RMI registry as {@code host:port}.
+     * @throws RemoteException   If the server cannot be reached.
+     * @throws NotBoundException If the server does not publish invalidations.
+     */
+    public void addSource(String endpoint) throws RemoteException, NotBoundException {
+        Source source = new Source(ClientConfig.hostOf(endpoint), ClientConfig.portOf(endpoint));
+        try {
+            source.subscribe();
+        } catch (NotBoundException e) {
+            throw new NotBoundException("Server " + endpoint + " does not publish cache invalidations; "
+                    + "start it with --cache-invalidation=on.");
+        }
+        sources.add(source);
+    }
+
+    private void renewAll() {
+        for (Source source : sources) {
+            try {
+                source.renew();
+            } catch (RemoteException | NotBoundException | RuntimeException e) {
+                // Retried on the next round; the cache is bypassed once the last renewal is too old
+                source.service = null;
+            }
+        }
+    }
+
+    /**
+     * Checks whether every server's subscription is known to be alive.
+     */
+    private boolean isValid() {
+        long now = System.nanoTime();
+        for (Source source : sources) {
+            if (now - source.validUntilNanos > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String get(String key) throws RemoteException {
+        if (!isValid()) {
+            misses.increment();
+            return store.get(key);
+        }
+
+        Object token = new Object();
+        synchronized (this) {
+            String cached = entries.get(key);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+            pendingLoads.put(key, token);
+        }
+        misses.increment();
+
+        String response = null;
+        try {
+            response = store.get(key);
+            return response;
+        } finally {
+            fill(key, token, response);
+        }
+    }
+
+    @Override
+    public Map<String, String> multiGet(List<String> keys) throws RemoteException {
+        if (!isValid()) {
+            misses.add(keys.size());
+            return store.multiGet(keys);
+        }
+
+        Map<String, String> results = new LinkedHashMap<>();
+        Map<String, Object> tokens = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        synchronized (this) {
+            for (String key : keys) {
+                String cached = entries.get(key);
+                if (cached != null) {
+                    results.put(key, cached);
+                } else if (!tokens.containsKey(key)) {
+                    Object token = new Object();
+                    tokens.put(key, token);
+                    pendingLoads.put(key, token);
+                    missing.add(key);
+                }
+            }
+        }
+        hits.add(keys.size() - missing.size());
+        misses.add(missing.size());
+        if (missing.isEmpty()) {
+            return results;
+        }
+
+        Map<String, String> loaded = new HashMap<>();
+        try {
+            loaded = store.multiGet(missing);
+        } finally {
+            for (String key : missing) {
+                fill(key, tokens.get(key), loaded.get(key));
+            }
+        }
+
+        // Keep the order of the requested keys
+        Map<String, String> ordered = new LinkedHashMap<>();
+        for (String key : keys) {
+            ordered.put(key, results.containsKey(key) ? results.get(key) : loaded.get(key));
+        }
+        return ordered;
+    }
+
+    /**
+     * Caches a response if its key has not been invalidated since the load was reserved.
+     *
+     * @param key      The key.
+     * @param token    The reservation made before the load.
+     * @param response The server's response, or null if the load failed.
+     */
+    private synchronized void fill(String key, Object token, String response) {
+        if (pendingLoads.get(key) != token) {
+            return;
+        }
+        pendingLoads.remove(key);
+        if (response == null || !(response.startsWith("OK: ") || response.equals(NOT_FOUND))) {
+            return;
+        }
+
+        long size = sizeOf(key, response);
+        if (size > maxBytes || maxEntries == 0) {
+            return;
+        }
+        String previous = entries.put(key, response);
+        if (previous != null) {
+            bytes -= sizeOf(key, previous);
+        }
+        bytes += size;
+
+        Iterator<Map.Entry<String, String>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxEntries || bytes > maxBytes) {
+            Map.Entry<String, String> entry = eldest.next();
+            bytes -= sizeOf(entry.getKey(), entry.getValue());
+            eldest.remove();
+        }
+    }
+
+    private static long sizeOf(String key, String response) {
+        return 2L * (key.length() + response.length()) + ENTRY_OVERHEAD_BYTES;
+    }
+
+    /**
+     * Drops keys from the cache and cancels their pending loads.
+     */
+    private synchronized void invalidate(Collection<String> keys) {
+        for (String key : keys) {
+            pendingLoads.remove(key);
+            String previous = entries.remove(key);
+            if (previous != null) {
+                bytes -= sizeOf(key, previous);
+            }
+        }
+    }
+
+    private synchronized void clear() {
+        pendingLoads.clear();
+        entries.clear();
+        bytes = 0;
+    }
+
+    @Override
+    public String put(String key, String value) throws RemoteException {
+        try {
+            return store.put(key, value);
+        } finally {
+            // Our own writes are visible to our next read without waiting for the server's callback
+            invalidate(Collections.singletonList(key));
+        }
+    }
+
+    @Override
+    public String put(String key, String value, long ttlMillis) throws RemoteException {
+        try {
+            return store.put(key, value, ttlMillis);
+        } finally {
+            invalidate(Collections.singletonList(key));
+        }
+    }
+
+    @Override
+    public String expire(String key, long ttlMillis) throws RemoteException {
+        try {
+            return store.expire(key, ttlMillis);
+        } finally {
+            invalidate(Collections.singletonList(key));
+        }
+    }
+
+    @Override
+    public String replace(String key, String value) throws RemoteException {
+        try {
+            return store.replace(key, value);
+        } finally {
+            invalidate(Collections.singletonList(key));
+        }
+    }
+
+    @Override
+    public String compareAndSet(String key, String expected, String value) throws RemoteException {
+        try {
+            return store.compareAndSet(key, expected, value);
+        } finally {
+            invalidate(Collections.singletonList(key));
+        }
+    }
+
+    @Override
+    public String increment(String key, long delta) throws RemoteException {
+        try {
+            return store.increment(key, delta);
+        } finally {
+            invalidate(Collections.singletonList(key));
+        }
+    }
+
+    @Override
+    public String append(String key, String suffix) throws RemoteException {
+        try {
+            return store.append(key, suffix);
+        } finally {
+            invalidate(Collections.singletonList(key));
+        }
+    }
+
+    @Override
+    public String delete(String key) throws RemoteException {
+        try {
+            return store.delete(key);
+        } finally {
+            invalidate(Collections.singletonList(key));
+        }
+    }
+
+    @Override
+    public Map<String, String> multiPut(Map<String, String> batch) throws RemoteException {
+        try {
+            return store.multiPut(batch);
+        } finally {
+            invalidate(batch.keySet());
+        }
+    }
+
+    @Override
+    public Map<String, String> multiDelete(Collection<String> keys) throws RemoteException {
+        try {
+            return store.multiDelete(keys);
+        } finally {
+            invalidate(keys);
+        }
+    }
+
+    @Override
+    public List<String> transaction(List<TransactionOp> ops) throws RemoteException {
+        try {
+            return store.transaction(ops);
+        } finally {
+            List<String> written = new ArrayList<>();
+            for (TransactionOp op : ops) {
+                if (op.isWrite()) {
+                    written.add(op.getKey());
+                }
+            }
+            invalidate(written);
+        }
+    }
+
+    /**
+     * Loads a chunk of lines and clears the cache, which may hold the loaded keys as missing.
+     */
+    @Override
+    public Map<String, Long> bulkLoad(String lines, BulkFormat format) throws RemoteException {
+        try {
+            return store.bulkLoad(lines, format);
+        } finally {
+            clear();
+        }
+    }
+
+    @Override
+    public String show() throws RemoteException {
+        return store.show();
+    }
+
+    @Override
+    public ScanResult scan(String cursor, int limit, String prefix) throws RemoteException {
+        return store.scan(cursor, limit, prefix);
+    }
+
+    @Override
+    public Map<String, Long> hotKeys(int limit) throws RemoteException {
+        return store.hotKeys(limit);
+    }
+
+    @Override
+    public long watch(String keyOrPrefix, WatchListener listener) throws RemoteException {
+        return store.watch(keyOrPrefix, listener);
+    }
+
+    @Override
+    public boolean unwatch(long watchId) throws RemoteException {
+        return store.unwatch(watchId);
+    }
+
+    @Override
+    public ScanResult rangeScan(String from, String to, int limit) throws RemoteException {
+        return store.rangeScan(from, to, limit);
+    }
+
+    @Override
+    public ScanResult prefixScan(String prefix, String from, int limit) throws RemoteException {
+        return store.prefixScan(prefix, from, limit);
+    }
+
+    @Override
+    public long replicationLag() throws RemoteException {
+        return store.replicationLag();
+    }
+
+    @Override
+    public Map<String, String> stats() throws RemoteException {
+        return store.stats();
+    }
+
+    /**
+     * Returns the store behind the cache.
+     *
+     * @return The wrapped store.
+     */
+    public KeyValueStoreInterface getStore() {
+        return store;
+    }
+
+    /**
+     * Returns the fraction of reads served from the cache.
+     *
+     * @return The hit ratio between 0 and 1, or 0 before the first read.
+     */
+    public double hitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Summarizes the cache's effectiveness and size.
+     *
+     * @return A line with the hits, misses, hit ratio, entries and approximate bytes.
+     */
+    public synchronized String cacheStats() {
+        return String.format("%d hits, %d misses, %.1f%% hit ratio, %d entries, ~%d bytes",
+                hits.sum(), misses.sum(), hitRatio() * 100, entries.size(), bytes);
+    }
+
+    /**
+     * Ends the subscriptions and closes the store.
+     */
+    @Override
+    public void close() {
+        renewer.shutdownNow();
+        for (Source source : sources) {
+            try {
+                if (source.service != null) {
+                    source.service.unsubscribe(source.subscriptionId);
+                }
+            } catch (RemoteException e) {
+                // The server drops the subscription when its lease runs out
+            }
+        }
+        try {
+            UnicastRemoteObject.unexportObject(listener, true);
+        } catch (NoSuchObjectException e) {
+            // Not exported
+        }
+        ClientConfig.close(store);
+    }
+
+    /**
+     * A server publishing invalidations and this client's subscription to it.
+     */
+    private final class Source {
+        private final String host;
+        private final int port;
+        private volatile InvalidationService service;
+        private volatile long subscriptionId;
+        private volatile long validUntilNanos = System.nanoTime();
+
+        Source(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        /**
+         * Starts a new subscription and clears the cache, which may have missed invalidations before it.
+         */
+        void subscribe() throws RemoteException, NotBoundException {
+            long start = System.nanoTime();
+            InvalidationService lookedUp =
+                    (InvalidationService) LocateRegistry.getRegistry(host, port).lookup("Invalidation");
+            subscriptionId = lookedUp.subscribe(listener, LEASE_MILLIS);
+            service = lookedUp;
+            clear();
+            validUntilNanos = start + TimeUnit.MILLISECONDS.toNanos(VALID_MILLIS);
+        }
+
+        void renew() throws RemoteException, NotBoundException {
+            long start = System.nanoTime();
+            if (service == null || !service.renew(subscriptionId)) {
+                subscribe();
+                return;
+            }
+            validUntilNanos = start + TimeUnit.MILLISECONDS.toNanos(VALID_MILLIS);
+        }
+    }
+
+    /**
+     * The callback the servers push changed keys to.
+     */
+    private final class Listener implements InvalidationListener {
+        @Override
+        public void invalidate(String[] keys) {
+            CachingKeyValueClient.this.invalidate(Arrays.asList(keys));
+        }
+
+        @Override
+        public void invalidateAll() {
+            clear();
+        }
+    }
+}
@@ -192,11 +192,20 @@
 package client;
 
 import server.KeyValueStoreInterface;
+import server.ScanResult;
+import server.TransactionOp;
+import server.WatchListener;
 import utils.ILogger;
 import utils.Logger;
 
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 /**
@@ -205,9 +214,14 @@ import java.util.Scanner;
  */
 public class ClientApp {
 
+    private static final int SHOW_PAGE_SIZE = 1000;
+    private static final int HOT_KEYS_SHOWN = 10;
+
     private final KeyValueStoreInterface keyValueStore;
     private final ILogger logger;
     private final Scanner scanner;
+    /** Prints the changes of watched keys; exported on the first WATCH command. */
+    private WatchListener watchListener;
 
     /**
      * Constructs a new ClientApp and connects to the RMI server.
@@ -216,16 +230,27 @@ public class ClientApp {
      * @param port The port number of the RMI registry.
      */
     public ClientApp(String host, int port) {
+        this(ClientConfig.parse(new String[]{host, Integer.toString(port)}));
+    }
+
+    /**
+     * Constructs a new ClientApp and connects to the configured servers.
+     *
+     * @param config The servers to connect to and how.
+     */
+    public ClientApp(ClientConfig config) {
         logger = new Logger("ClientLogger", "ClientLog.log");
         scanner = new Scanner(System.in);
         KeyValueStoreInterface tempStore = null;
 
         try {
-            // Locate the RMI registry and lookup the remote object
-            Registry registry = LocateRegistry.getRegistry(host, port);
-            tempStore = (KeyValueStoreInterface) registry.lookup("KeyValueStore");
-            logger.log("Connected to KeyValueStore at " + host + ":" + port + ".");
-            System.out.println("Connected to the server at " + host + ":" + port + ".");
+            tempStore = config.createStore();
+            String servers = String.join(", ", config.getEndpoints());
+            if (config.isReplicated()) {
+                servers += " (reading from replicas " + String.join(", ", config.getReplicas()) + ")";
+            }
+            logger.log("Connected to KeyValueStore at " + servers + ".");
+            System.out.println("Connected to the server at " + servers + ".");
         } catch (Exception e) {
             logger.log("Client exception: " + e.getMessage());
             System.err.println("Client exception: " + e.getMessage());
@@ -254,11 +279,20 @@ public class ClientApp {
                     "PUT cherry red"
             };
 
+            // Send all pairs in a single batch instead of one round trip per key
+            Map<String, String> batch = new LinkedHashMap<>();
+            Map<String, String> commands = new LinkedHashMap<>();
             for (String command : initialData) {
                 String[] tokens = command.split("\\s+");
-                String response = keyValueStore.put(tokens[1], tokens[2]);
-                logger.log("Executed: " + command + " | Response: " + response);
-                System.out.println("Executed: " + command + " | Response: " + response);
+                batch.put(tokens[1], tokens[2]);
+                commands.put(tokens[1], command);
+            }
+
+            Map<String, String> responses = keyValueStore.multiPut(batch);
+            for (Map.Entry<String, String> entry : responses.entrySet()) {
+                String command = commands.get(entry.getKey());
+                logger.log("Executed: " + command + " | Response: " + entry.getValue());
+                System.out.println("Executed: " + command + " | Response: " + entry.getValue());
             }
 
             System.out.println("Pre-population completed.");
@@ -277,7 +311,11 @@ public class ClientApp {
         boolean running = true;
 
         while (running) {
-            System.out.print("Enter command (PUT key value | GET key | DELETE key | SHOW | exit): ");
+            System.out.print("Enter command (PUT key value [ttl-ms] | GET key | DELETE key | EXPIRE key ttl-ms | "
+                    + "REPLACE key value | CAS key expected value | INCR key [delta] | APPEND key suffix | "
+                    + "MPUT k v [k v ...] | MGET key [key ...] | MDELETE key [key ...] | SHOW [prefix] | "
+                    + "RANGE from [to] | PREFIX prefix | TX step; step ... | WATCH key|prefix* | UNWATCH id | STATS | "
+                    + "HOTKEYS [n] | exit): ");
             String input = scanner.nextLine().trim();
 
             if (input.equalsIgnoreCase("exit")) {
@@ -303,7 +341,15 @@ public class ClientApp {
                             System.out.println("PUT command requires a key and a value.");
                             continue;
                         }
-                        response = keyValueStore.put(key, value);
+                        if (tokens.length >= 4) {
+                            Long ttl = parseTtl(tokens[3]);
+                            if (ttl == null) {
+                                continue;
+                            }
+                            response = keyValueStore.put(key, value, ttl);
+                        } else {
+                            response = keyValueStore.put(key, value);
+                        }
                         break;
                     case "GET":
                         if (key.isEmpty()) {
@@ -319,15 +365,188 @@ public class ClientApp {
                         }
                         response = keyValueStore.delete(key);
                         break;
+                    case "EXPIRE": {
+                        if (value.isEmpty()) {
+                            System.out.println("EXPIRE command requires a key and a TTL in milliseconds.");
+                            continue;
+                        }
+                        Long ttl = parseTtl(value);
+                        if (ttl == null) {
+                            continue;
+                        }
+                        response = keyValueStore.expire(key, ttl);
+                        break;
+                    }
+                    case "REPLACE":
+                        if (value.isEmpty()) {
+                            System.out.println("REPLACE command requires a key and a value.");
+                            continue;
+                        }
+                        response = keyValueStore.replace(key, value);
+                        break;
+                    case "CAS":
+                        if (tokens.length < 4) {
+                            System.out.println("CAS command requires a key, the expected value and a new value.");
+                            continue;
+                        }
+                        response = keyValueStore.compareAndSet(key, value, tokens[3]);
+                        break;
+                    case "INCR": {
+                        if (key.isEmpty()) {
+                            System.out.println("INCR command requires a key.");
+                            continue;
+                        }
+                        long delta;
+                        try {
+                            delta = value.isEmpty() ? 1 : Long.parseLong(value);
+                        } catch (NumberFormatException e) {
+                            System.out.println("INCR delta must be an integer.");
+                            continue;
+                        }
+                        response = keyValueStore.increment(key, delta);
+                        break;
+                    }
+                    case "APPEND":
+                        if (value.isEmpty()) {
+                            System.out.println("APPEND command requires a key and a suffix.");
+                            continue;
+                        }
+                        response = keyValueStore.append(key, value);
+                        break;
+                    case "MPUT":
+                        if (tokens.length < 3 || tokens.length % 2 == 0) {
+                            System.out.println("MPUT command requires one or more key value pairs.");
+                            continue;
+                        }
+                        Map<String, String> entries = new LinkedHashMap<>();
+                        for (int i = 1; i < tokens.length; i += 2) {
+                            entries.put(tokens[i], tokens[i + 1]);
+                        }
+                        response = formatBatch(keyValueStore.multiPut(entries));
+                        break;
+                    case "MGET":
+                        if (tokens.length < 2) {
+                            System.out.println("MGET command requires one or more keys.");
+                            continue;
+                        }
+                        response = formatBatch(keyValueStore.multiGet(keysOf(tokens)));
+                        break;
+                    case "MDELETE":
+                        if (tokens.length < 2) {
+                            System.out.println("MDELETE command requires one or more keys.");
+                            continue;
+                        }
+                        response = formatBatch(keyValueStore.multiDelete(keysOf(tokens)));
+                        break;
+                    case "TX": {
+                        if (tokens.length < 3) {
+                            System.out.println("TX command requires steps separated by ';', e.g. "
+                                    + "TX CHECK a 1; PUT a 2; PUT b 3");
+                            continue;
+                        }
+                        List<TransactionOp> ops = parseTransaction(input.substring(tokens[0].length()));
+                        List<String> results = keyValueStore.transaction(ops);
+                        StringBuilder sb = new StringBuilder();
+                        for (int i = 0; i < ops.size(); i++) {
+                            sb.append("\n  ").append(ops.get(i)).append(" -> ").append(results.get(i));
+                        }
+                        response = sb.toString();
+                        break;
+                    }
                     case "SHOW":
-                        if (tokens.length != 1) {
-                            System.out.println("SHOW command does not require additional arguments.");
+                        if (tokens.length > 2) {
+                            System.out.println("SHOW command accepts at most one prefix argument.");
+                            continue;
+                        }
+                        response = show(tokens.length == 2 ? tokens[1] : null);
+                        break;
+                    case "RANGE": {
+                        if (tokens.length < 2 || tokens.length > 3) {
+                            System.out.println("RANGE command requires a first key and an optional end key.");
+                            continue;
+                        }
+                        String to = tokens.length == 3 ? tokens[2] : null;
+                        response = showOrdered(from -> keyValueStore.rangeScan(from, to, SHOW_PAGE_SIZE), tokens[1]);
+                        break;
+                    }
+                    case "PREFIX":
+                        if (tokens.length != 2) {
+                            System.out.println("PREFIX command requires one prefix.");
+                            continue;
+                        }
+                        response = showOrdered(from -> keyValueStore.prefixScan(tokens[1], from, SHOW_PAGE_SIZE),
+                                null);
+                        break;
+                    case "STATS":
+                        response = formatBatch(keyValueStore.stats());
+                        break;
+                    case "HOTKEYS": {
+                        if (tokens.length > 2) {
+                            System.out.println("HOTKEYS command accepts at most one count argument.");
+                            continue;
+                        }
+                        int count;
+                        try {
+                            count = tokens.length == 2 ? Integer.parseInt(tokens[1]) : HOT_KEYS_SHOWN;
+                        } catch (NumberFormatException e) {
+                            count = 0;
+                        }
+                        if (count <= 0) {
+                            System.out.println("HOTKEYS count must be a positive integer.");
+                            continue;
+                        }
+                        Map<String, String> rates = new LinkedHashMap<>();
+                        for (Map.Entry<String, Long> entry : keyValueStore.hotKeys(count).entrySet()) {
+                            rates.put(entry.getKey(), entry.getValue() + " requests/s");
+                        }
+                        response = rates.isEmpty() ? "No hot keys yet." : formatBatch(rates);
+                        break;
+                    }
+                    case "WATCH":
+                        if (tokens.length != 2) {
+                            System.out.println("WATCH command requires one key, or a prefix followed by *.");
+                            continue;
+                        }
+                        response = "OK: Watch #" + keyValueStore.watch(tokens[1], watchListener()) + " started.";
+                        break;
+                    case "UNWATCH":
+                        if (tokens.length != 2) {
+                            System.out.println("UNWATCH command requires one watch id.");
+                            continue;
+                        }
+                        response = keyValueStore.unwatch(Long.parseLong(tokens[1]))
+                                ? "OK: Watch stopped."
+                                : "ERROR: No such watch.";
+                        break;
+                    case "ADDNODE":
+                        if (tokens.length != 2) {
+                            System.out.println("ADDNODE command requires one host:port endpoint.");
+                            continue;
+                        }
+                        KeyValueStoreInterface uncached = keyValueStore instanceof CachingKeyValueClient
+                                ? ((CachingKeyValueClient) keyValueStore).getStore()
+                                : keyValueStore;
+                        if (!(uncached instanceof ShardedKeyValueClient)) {
+                            System.out.println("ADDNODE requires a client started with --shards.");
+                            continue;
+                        }
+                        long moved = ((ShardedKeyValueClient) uncached).addNode(tokens[1]);
+                        if (keyValueStore instanceof CachingKeyValueClient) {
+                            ((CachingKeyValueClient) keyValueStore).addSource(tokens[1]);
+                        }
+                        response = "OK: Server added, " + moved + " keys moved to it.";
+                        break;
+                    case "CACHE":
+                        if (!(keyValueStore instanceof CachingKeyValueClient)) {
+                            System.out.println("CACHE requires a client started with --cache-entries.");
                             continue;
                         }
-                        response = keyValueStore.show();
+                        response = "OK: " + ((CachingKeyValueClient) keyValueStore).cacheStats();
                         break;
                     default:
-                        System.out.println("Unknown command. Please use PUT, GET, DELETE, SHOW, or exit.");
+                        System.out.println("Unknown command. Please use PUT, GET, DELETE, EXPIRE, REPLACE, CAS, INCR, "
+                                + "APPEND, MPUT, MGET, MDELETE, SHOW, RANGE, PREFIX, TX, WATCH, UNWATCH, STATS, "
+                                + "HOTKEYS, ADDNODE, CACHE, or exit.");
                         continue;
                 }
 
@@ -343,12 +562,155 @@ public class ClientApp {
         shutdown();
     }
 
+    /**
+     * Parses a time to live given on the command line, printing a message if it is invalid.
+     *
+     * @param token The TTL in milliseconds.
+     * @return The TTL, or null if the token is not a positive number.
+     */
+    private static Long parseTtl(String token) {
+        try {
+            long ttl = Long.parseLong(token);
+            if (ttl > 0) {
+                return ttl;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        System.out.println("TTL must be a positive number of milliseconds.");
+        return null;
+    }
+
+    /**
+     * Prints the key-value pairs of the store page by page as they arrive from the server.
+     *
+     * @param prefix Only show keys starting with this prefix, or null for all keys.
+     * @return A summary of the listing.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    private String show(String prefix) throws RemoteException {
+        long shown = 0;
+        String cursor = null;
+        do {
+            ScanResult page = keyValueStore.scan(cursor, SHOW_PAGE_SIZE, prefix);
+            for (Map.Entry<String, String> entry : page.getEntries().entrySet()) {
+                System.out.println(entry.getKey() + " : " + entry.getValue());
+            }
+            shown += page.getEntries().size();
+            cursor = page.getCursor();
+        } while (cursor != null);
+
+        if (shown == 0) {
+            return prefix == null ? "The key-value store is empty." : "No keys start with \"" + prefix + "\".";
+        }
+        return shown + (shown == 1 ? " key-value pair shown." : " key-value pairs shown.");
+    }
+
+    /**
+     * Prints the key-value pairs of a range or prefix scan in key order, page by page.
+     *
+     * @param scan  Fetches the page starting at the given key.
+     * @param first The key the first page starts at, or null for the start of the range.
+     * @return A summary of the listing.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    private static String showOrdered(OrderedScan scan, String first) throws RemoteException {
+        long shown = 0;
+        String from = first;
+        do {
+            ScanResult page = scan.page(from);
+            for (Map.Entry<String, String> entry : page.getEntries().entrySet()) {
+                System.out.println(entry.getKey() + " : " + entry.getValue());
+            }
+            shown += page.getEntries().size();
+            from = page.getCursor();
+        } while (from != null);
+        if (shown == 0) {
+            return "No keys in range.";
+        }
+        return shown + (shown == 1 ? " key-value pair shown." : " key-value pairs shown.");
+    }
+
+    /**
+     * Returns the listener that prints watched changes, exporting it on first use.
+     */
+    private WatchListener watchListener() throws RemoteException {
+        if (watchListener == null) {
+            WatchListener listener = new PrintingWatchListener();
+            UnicastRemoteObject.exportObject(listener, 0);
+            watchListener = listener;
+        }
+        return watchListener;
+    }
+
+    /**
+     * Parses the steps of a TX command, e.g. {@code GET a; CHECK b 1; PUT b 2; DELETE c; EXISTS d; ABSENT e}.
+     *
+     * @param steps The steps, separated by semicolons.
+     * @return The steps in the order they were entered.
+     * @throws IllegalArgumentException If a step is malformed.
+     */
+    private static List<TransactionOp> parseTransaction(String steps) {
+        List<TransactionOp> ops = new ArrayList<>();
+        for (String step : steps.split(";")) {
+            String[] parts = step.trim().split("\\s+");
+            if (parts.length < 2 || parts.length > 3) {
+                throw new IllegalArgumentException("Invalid transaction step \"" + step.trim()
+                        + "\"; use TYPE key [value].");
+            }
+            TransactionOp.Type type;
+            try {
+                type = TransactionOp.Type.valueOf(parts[0].toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown transaction step " + parts[0]
+                        + "; use GET, PUT, DELETE, CHECK, EXISTS or ABSENT.");
+            }
+            ops.add(new TransactionOp(type, parts[1], parts.length == 3 ? parts[2] : null));
+        }
+        return ops;
+    }
+
+    /**
+     * Collects the key arguments of a batch command, skipping the command token itself.
+     *
+     * @param tokens The tokens of the command line.
+     * @return The keys in the order they were entered.
+     */
+    private static List<String> keysOf(String[] tokens) {
+        return new ArrayList<>(Arrays.asList(tokens).subList(1, tokens.length));
+    }
+
+    /**
+     * Formats the per-key results of a batch command, one key per line.
+     *
+     * @param results The per-key results returned by the server.
+     * @return A printable representation of the results.
+     */
+    private static String formatBatch(Map<String, String> results) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : results.entrySet()) {
+            sb.append("\n  ").append(entry.getKey()).append(" -> ").append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
     /**
      * Shuts down the client application gracefully.
      */
     public void shutdown() {
         System.out.println("Client is shutting down...");
         logger.log("Client is shutting down.");
+        if (keyValueStore instanceof CachingKeyValueClient) {
+            logger.log("Cache: " + ((CachingKeyValueClient) keyValueStore).cacheStats());
+        }
+        if (watchListener != null) {
+            try {
+                UnicastRemoteObject.unexportObject(watchListener, true);
+            } catch (NoSuchObjectException e) {
+                // Not exported
+            }
+        }
+        ClientConfig.close(keyValueStore);
         scanner.close();
         logger.close();
     }
@@ -356,28 +718,46 @@ public class ClientApp {
     /**
      * The main method serves as the entry point of the ClientApp.
      *
-     * @param args Command-line arguments: <server-host> <server-port>
+     * @param args Command-line arguments: <server-host> <server-port> [options]
      */
     public static void main(String[] args) {
-        if (args.length != 2) {
-            System.out.println("Usage: java client.ClientApp <server-host> <server-port>");
-            System.exit(1);
-        }
-
-        String host = args[0];
-        int port = 0;
-
+        ClientConfig config = null;
         try {
-            port = Integer.parseInt(args[1]);
-        } catch (NumberFormatException e) {
-            System.out.println("Invalid port number. Please enter a valid integer.");
+            config = ClientConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(ClientConfig.USAGE);
             System.exit(1);
         }
 
-        ClientApp app = new ClientApp(host, port);
+        ClientApp app = new ClientApp(config);
         app.prePopulate();
         app.start();
     }
 
-}
+    /**
+     * Fetches one page of a range or prefix scan.
+     */
+    private interface OrderedScan {
+        ScanResult page(String from) throws RemoteException;
+    }
 
+    /**
+     * Prints the changes the servers push for the watches of this client.
+     */
+    private static final class PrintingWatchListener implements WatchListener {
+        @Override
+        public void changed(Map<String, String> changes) {
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                System.out.println(change.getValue() == null
+                        ? "Watch: " + change.getKey() + " deleted"
+                        : "Watch: " + change.getKey() + " : " + change.getValue());
+            }
+        }
+
+        @Override
+        public void changesLost() {
+            System.out.println("Watch: changes were lost; read the watched keys again.");
+        }
+    }
+}
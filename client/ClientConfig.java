@@ -0,0 +1,312 @@
+package client;
+
+import server.KeyValueStoreInterface;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ClientConfig holds the settings of a ClientApp instance.
+ * Settings are given on the command line after the server host and port as {@code --name=value} options.
+ */
+public class ClientConfig {
+
+    /**
+     * Usage text describing every supported option.
+     */
+    public static final String USAGE =
+            "Usage: java client.ClientApp <server-host> <server-port> [options]\n"
+                    + "Options:\n"
+                    + "  --transport=rmi|nio               Protocol used to reach the servers (default rmi)\n"
+                    + "  --shards=<host:port>[,...]        More servers to spread the keys over by consistent hashing\n"
+                    + "  --replicas=<host:port>[,...]      Read replicas of the server to spread reads over\n"
+                    + "  --max-staleness=<ms>              How far behind a replica may be to serve reads (default 1000)\n"
+                    + "  --cache-entries=<n>               Cache up to n read keys, invalidated by the servers (default 0 = off)\n"
+                    + "  --cache-bytes=<bytes>             Approximate size limit of the cache (default 67108864)";
+
+    private final String host;
+    private final int port;
+    private boolean nio;
+    private final List<String> shards = new ArrayList<>();
+    private final List<String> replicas = new ArrayList<>();
+    private long maxStalenessMillis = 1000;
+    private int cacheEntries;
+    private long cacheBytes = 64L * 1024 * 1024;
+
+    private ClientConfig(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Parses the command-line arguments of ClientApp.
+     *
+     * @param args The server host and port followed by any number of {@code --name=value} options.
+     * @return The parsed configuration.
+     * @throws IllegalArgumentException If an argument is missing, unknown or malformed.
+     */
+    public static ClientConfig parse(String[] args) {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Missing server host or port number.");
+        }
+
+        ClientConfig config;
+        try {
+            config = new ClientConfig(args[0], Integer.parseInt(args[1]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid port number. Please enter a valid integer.");
+        }
+
+        for (int i = 2; i < args.length; i++) {
+            String arg = args[i];
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Invalid option: " + arg);
+            }
+            config.apply(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        if (config.isSharded() && config.isReplicated()) {
+            throw new IllegalArgumentException("--replicas cannot be combined with --shards.");
+        }
+        if (config.isCached() && config.nio) {
+            throw new IllegalArgumentException("Invalidations are pushed over RMI; --cache-entries requires "
+                    + "--transport=rmi.");
+        }
+        if (config.isCached() && config.isReplicated()) {
+            throw new IllegalArgumentException("Replicas lag behind the invalidations of the primary; "
+                    + "--cache-entries cannot be combined with --replicas.");
+        }
+        return config;
+    }
+
+    /**
+     * Applies a single option.
+     *
+     * @param name  The option name without the leading dashes.
+     * @param value The option value.
+     */
+    private void apply(String name, String value) {
+        switch (name) {
+            case "transport":
+                if (value.equalsIgnoreCase("nio")) {
+                    nio = true;
+                } else if (value.equalsIgnoreCase("rmi")) {
+                    nio = false;
+                } else {
+                    throw new IllegalArgumentException("Invalid transport: " + value);
+                }
+                break;
+            case "shards":
+                for (String endpoint : value.split(",")) {
+                    portOf(endpoint.trim()); // Validates the endpoint
+                    shards.add(endpoint.trim());
+                }
+                break;
+            case "replicas":
+                for (String endpoint : value.split(",")) {
+                    portOf(endpoint.trim()); // Validates the endpoint
+                    replicas.add(endpoint.trim());
+                }
+                break;
+            case "max-staleness":
+                try {
+                    maxStalenessMillis = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid staleness bound: " + value);
+                }
+                if (maxStalenessMillis < 0) {
+                    throw new IllegalArgumentException("Staleness bound must not be negative: " + value);
+                }
+                break;
+            case "cache-entries":
+                try {
+                    cacheEntries = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid cache size: " + value);
+                }
+                if (cacheEntries < 0) {
+                    throw new IllegalArgumentException("Cache size must not be negative: " + value);
+                }
+                break;
+            case "cache-bytes":
+                try {
+                    cacheBytes = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid cache byte limit: " + value);
+                }
+                if (cacheBytes <= 0) {
+                    throw new IllegalArgumentException("Cache byte limit must be positive: " + value);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: --" + name);
+        }
+    }
+
+    /**
+     * Connects to every configured server.
+     *
+     * @return A client for the single server, a client that shards keys across all servers, or a client that
+     * reads from the server's replicas; wrapped in a cache if one is configured.
+     * @throws IOException       If a server cannot be reached.
+     * @throws NotBoundException If a server's registry has no store bound.
+     */
+    public KeyValueStoreInterface createStore() throws IOException, NotBoundException {
+        KeyValueStoreInterface store = createUncachedStore();
+        if (isCached()) {
+            try {
+                return new CachingKeyValueClient(store, getEndpoints(), cacheEntries, cacheBytes);
+            } catch (IOException | NotBoundException | RuntimeException e) {
+                close(store);
+                throw e;
+            }
+        }
+        return store;
+    }
+
+    private KeyValueStoreInterface createUncachedStore() throws IOException, NotBoundException {
+        if (isSharded()) {
+            return new ShardedKeyValueClient(getEndpoints(), nio);
+        }
+        KeyValueStoreInterface store = connect(host, port, nio);
+        if (isReplicated()) {
+            try {
+                return new ReplicatedReadClient(store, replicas, nio, maxStalenessMillis);
+            } catch (IOException | NotBoundException | RuntimeException e) {
+                close(store);
+                throw e;
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Connects to one server.
+     *
+     * @param host The hostname where the server is running.
+     * @param port The port number of the RMI registry, or of the NIO transport.
+     * @param nio  True to use the NIO binary transport instead of RMI.
+     * @return A client for the server; close it with {@link #close} when done.
+     * @throws IOException       If the server cannot be reached.
+     * @throws NotBoundException If the server's registry has no store bound.
+     */
+    public static KeyValueStoreInterface connect(String host, int port, boolean nio)
+            throws IOException, NotBoundException {
+        if (nio) {
+            return new NioKeyValueClient(host, port);
+        }
+        // Locate the RMI registry and lookup the remote object
+        Registry registry = LocateRegistry.getRegistry(host, port);
+        return (KeyValueStoreInterface) registry.lookup("KeyValueStore");
+    }
+
+    /**
+     * Releases the connection held by a client created by this class; RMI stubs need no cleanup.
+     *
+     * @param store The client to close.
+     */
+    public static void close(KeyValueStoreInterface store) {
+        if (store instanceof Closeable) {
+            try {
+                ((Closeable) store).close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+        }
+    }
+
+    /**
+     * Returns the host of a {@code host:port} endpoint.
+     *
+     * @param endpoint The endpoint.
+     * @return The host.
+     */
+    static String hostOf(String endpoint) {
+        portOf(endpoint);
+        return endpoint.substring(0, endpoint.lastIndexOf(':'));
+    }
+
+    /**
+     * Returns the port of a {@code host:port} endpoint.
+     *
+     * @param endpoint The endpoint.
+     * @return The port.
+     * @throws IllegalArgumentException If the endpoint is malformed.
+     */
+    static int portOf(String endpoint) {
+        int colon = endpoint.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Invalid endpoint, expected host:port: " + endpoint);
+        }
+        try {
+            return Integer.parseInt(endpoint.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid port in endpoint: " + endpoint);
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public boolean isNio() {
+        return nio;
+    }
+
+    /**
+     * Returns every server endpoint: the server given by host and port, followed by the configured shards.
+     *
+     * @return The endpoints as {@code host:port} strings.
+     */
+    public List<String> getEndpoints() {
+        List<String> endpoints = new ArrayList<>();
+        endpoints.add(host + ":" + port);
+        endpoints.addAll(shards);
+        return Collections.unmodifiableList(endpoints);
+    }
+
+    /**
+     * Checks whether keys are spread over several servers.
+     *
+     * @return True if shards are configured.
+     */
+    public boolean isSharded() {
+        return !shards.isEmpty();
+    }
+
+    /**
+     * Checks whether reads are spread over read replicas.
+     *
+     * @return True if replicas are configured.
+     */
+    public boolean isReplicated() {
+        return !replicas.isEmpty();
+    }
+
+    /**
+     * Checks whether reads are cached locally.
+     *
+     * @return True if a cache size is configured.
+     */
+    public boolean isCached() {
+        return cacheEntries > 0;
+    }
+
+    public List<String> getReplicas() {
+        return Collections.unmodifiableList(replicas);
+    }
+
+    public long getMaxStalenessMillis() {
+        return maxStalenessMillis;
+    }
+}
@@ -0,0 +1,132 @@
+package client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ConsistentHashRing maps keys to nodes so that adding or removing one of N nodes only remaps about 1/N of the
+ * keys. Each node is placed on the ring at many pseudo-random points (virtual nodes), which spreads the keys
+ * evenly even with few nodes. A ring is immutable; adding or removing a node returns a new ring.
+ *
+ * @param <T> The node type.
+ */
+public final class ConsistentHashRing<T> {
+
+    /** The number of points per node; more points give a more even spread at the cost of memory. */
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final int virtualNodes;
+    private final Map<String, T> nodes;
+    private final long[] points;
+    private final List<T> owners;
+
+    /**
+     * Constructs an empty ring.
+     *
+     * @param virtualNodes The number of points per node.
+     */
+    public ConsistentHashRing(int virtualNodes) {
+        this(virtualNodes, Collections.<String, T>emptyMap());
+    }
+
+    private ConsistentHashRing(int virtualNodes, Map<String, T> nodes) {
+        this.virtualNodes = virtualNodes;
+        this.nodes = Collections.unmodifiableMap(new TreeMap<>(nodes));
+
+        TreeMap<Long, T> ring = new TreeMap<>();
+        for (Map.Entry<String, T> node : this.nodes.entrySet()) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // On the rare collision the node with the smaller id keeps the point, on every client alike
+                ring.putIfAbsent(hash(node.getKey() + "#" + i), node.getValue());
+            }
+        }
+        points = new long[ring.size()];
+        owners = new ArrayList<>(ring.size());
+        int i = 0;
+        for (Map.Entry<Long, T> point : ring.entrySet()) {
+            points[i++] = point.getKey();
+            owners.add(point.getValue());
+        }
+    }
+
+    /**
+     * Returns a ring that also contains the given node.
+     *
+     * @param id   The stable identity of the node, such as its endpoint; it determines the node's points.
+     * @param node The node.
+     * @return The new ring.
+     */
+    public ConsistentHashRing<T> withNode(String id, T node) {
+        Map<String, T> updated = new TreeMap<>(nodes);
+        updated.put(id, node);
+        return new ConsistentHashRing<>(virtualNodes, updated);
+    }
+
+    /**
+     * Returns a ring without the given node.
+     *
+     * @param id The identity the node was added with.
+     * @return The new ring.
+     */
+    public ConsistentHashRing<T> withoutNode(String id) {
+        Map<String, T> updated = new TreeMap<>(nodes);
+        updated.remove(id);
+        return new ConsistentHashRing<>(virtualNodes, updated);
+    }
+
+    /**
+     * Returns the node that owns a key: the node of the first point at or after the key's hash.
+     *
+     * @param key The key to route.
+     * @return The owning node.
+     * @throws IllegalStateException If the ring has no nodes.
+     */
+    public T nodeFor(String key) {
+        if (points.length == 0) {
+            throw new IllegalStateException("The hash ring has no nodes.");
+        }
+        long hash = hash(key);
+        int low = 0;
+        int high = points.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (points[mid] < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return owners.get(low == points.length ? 0 : low);
+    }
+
+    /**
+     * Returns the nodes of the ring.
+     *
+     * @return An unmodifiable map from node identity to node, ordered by identity.
+     */
+    public Map<String, T> nodes() {
+        return nodes;
+    }
+
+    /**
+     * Hashes a string to 64 bits: FNV-1a over its UTF-8 bytes followed by a MurmurHash3 finalizer.
+     * The result must be the same on every client, so it does not depend on {@link String#hashCode()}.
+     */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,352 @@
+package client;
+
+import server.KeyValueStoreInterface;
+import utils.LatencyHistogram;
+
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LoadGenerator drives a mix of GETs, PUTs and DELETEs against the store from many threads and reports throughput
+ * and latency percentiles, periodically and at the end of the run.
+ * <p>
+ * In the default closed loop every worker sends its next request as soon as the previous one is answered, which
+ * finds the throughput the servers can sustain at that concurrency. With {@code --rate} the workers send on a fixed
+ * schedule instead, whether or not earlier requests are late, and latency is measured from when a request was due
+ * rather than when it was sent. A stall then shows up in the percentiles with the full delay it caused every
+ * request queued behind it, instead of as a single slow sample (coordinated omission); the time from sending to
+ * the answer is reported separately as service time.
+ */
+public class LoadGenerator {
+
+    /**
+     * The operations of the workload.
+     */
+    private enum Operation {
+        GET, PUT, DELETE
+    }
+
+    private static final String KEY_PREFIX = "load:";
+    private static final int PRELOAD_BATCH = 1000;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private final LoadGeneratorConfig config;
+    private final KeyValueStoreInterface store;
+    private final ZipfianGenerator zipfian;
+    private final String value;
+    private final OperationStats[] stats = new OperationStats[Operation.values().length];
+    private final AtomicReference<String> firstFailure = new AtomicReference<>();
+    private volatile boolean running = true;
+
+    /**
+     * Constructs a load generator.
+     *
+     * @param config The workload settings.
+     * @param store  The store to drive; it must be safe for use by many threads.
+     */
+    public LoadGenerator(LoadGeneratorConfig config, KeyValueStoreInterface store) {
+        this.config = config;
+        this.store = store;
+        this.zipfian = config.getDistribution() == LoadGeneratorConfig.Distribution.ZIPFIAN
+                ? new ZipfianGenerator(config.getKeys(), config.getZipfTheta())
+                : null;
+        StringBuilder sb = new StringBuilder(config.getValueSize());
+        Random random = new Random(42);
+        for (int i = 0; i < config.getValueSize(); i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        this.value = sb.toString();
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new OperationStats();
+        }
+    }
+
+    /**
+     * Main method to start a load generator run.
+     *
+     * @param args Command-line arguments. Expects hostname and port number, optionally followed by options.
+     */
+    public static void main(String[] args) {
+        LoadGeneratorConfig config;
+        try {
+            config = LoadGeneratorConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(LoadGeneratorConfig.USAGE);
+            System.exit(1);
+            return; // Unreachable, but added to satisfy the compiler
+        }
+
+        KeyValueStoreInterface store;
+        try {
+            store = config.getClientConfig().createStore();
+        } catch (IOException | NotBoundException e) {
+            System.out.println("ERROR: Unable to connect to the server: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        try {
+            new LoadGenerator(config, store).run();
+        } catch (InterruptedException e) {
+            System.out.println("Interrupted.");
+        } finally {
+            ClientConfig.close(store);
+        }
+    }
+
+    /**
+     * Runs the workload for the configured warmup and duration and prints the results.
+     *
+     * @throws InterruptedException If the run is interrupted.
+     */
+    public void run() throws InterruptedException {
+        if (config.isPreload()) {
+            preload();
+        }
+        System.out.printf("Running %s with %d workers: GET:PUT:DELETE %d:%d:%d over %d %s keys, "
+                        + "%d s warmup, %d s measured.%n",
+                config.getRate() > 0 ? "open loop at " + config.getRate() + " ops/s" : "closed loop",
+                config.getWorkers(), config.getGetWeight(), config.getPutWeight(), config.getDeleteWeight(),
+                config.getKeys(), config.getDistribution().toString().toLowerCase(), config.getWarmupSeconds(),
+                config.getDurationSeconds());
+
+        long start = System.nanoTime();
+        Thread[] workers = new Thread[config.getWorkers()];
+        for (int i = 0; i < workers.length; i++) {
+            int index = i;
+            workers[i] = new Thread(() -> work(index, start), "load-worker-" + i);
+            workers[i].start();
+        }
+
+        try {
+            report(start);
+        } finally {
+            running = false;
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+        printSummary();
+    }
+
+    /**
+     * Inserts every key of the key space, so that GETs and DELETEs find keys from the start.
+     */
+    private void preload() {
+        System.out.printf("Preloading %d keys...%n", config.getKeys());
+        long start = System.nanoTime();
+        try {
+            for (int first = 0; first < config.getKeys(); first += PRELOAD_BATCH) {
+                Map<String, String> batch = new LinkedHashMap<>();
+                for (int i = first; i < Math.min(first + PRELOAD_BATCH, config.getKeys()); i++) {
+                    batch.put(KEY_PREFIX + i, value);
+                }
+                store.multiPut(batch);
+            }
+        } catch (Exception e) {
+            System.out.println("ERROR: Preloading failed: " + e.getMessage());
+            return;
+        }
+        System.out.printf("Preloaded in %.1f s.%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Sends requests until the run ends: back to back in a closed loop, or on this worker's share of the fixed
+     * schedule in an open loop.
+     */
+    private void work(int index, long start) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int workers = config.getWorkers();
+        long intervalNanos = config.getRate() > 0 ? TimeUnit.SECONDS.toNanos(workers) / config.getRate() : 0;
+        // Spread the workers' schedules over one interval, so an open loop does not send in bursts
+        long due = start + intervalNanos * index / workers;
+        int totalWeight = config.getGetWeight() + config.getPutWeight() + config.getDeleteWeight();
+
+        while (running) {
+            if (intervalNanos > 0) {
+                long delay;
+                while (running && (delay = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+                if (!running) {
+                    break;
+                }
+            }
+
+            int draw = random.nextInt(totalWeight);
+            Operation op = draw < config.getGetWeight() ? Operation.GET
+                    : draw < config.getGetWeight() + config.getPutWeight() ? Operation.PUT : Operation.DELETE;
+            long keyIndex = zipfian != null ? zipfian.next(random) : random.nextInt(config.getKeys());
+            String key = KEY_PREFIX + keyIndex;
+            OperationStats opStats = stats[op.ordinal()];
+
+            long sent = System.nanoTime();
+            try {
+                if (!execute(op, key).startsWith("OK")) {
+                    opStats.rejected.increment();
+                }
+            } catch (Exception e) {
+                opStats.failed.increment();
+                firstFailure.compareAndSet(null, e.toString());
+            }
+            long answered = System.nanoTime();
+
+            if (intervalNanos > 0) {
+                opStats.latency.record(answered - due);
+                opStats.serviceTime.record(answered - sent);
+                due += intervalNanos;
+            } else {
+                opStats.latency.record(answered - sent);
+            }
+        }
+    }
+
+    private String execute(Operation op, String key) throws IOException {
+        switch (op) {
+            case GET:
+                return store.get(key);
+            case PUT:
+                return store.put(key, value);
+            default:
+                return store.delete(key);
+        }
+    }
+
+    /**
+     * Prints a progress line every report interval until the run ends, adding the intervals after the warmup to
+     * the totals.
+     */
+    private void report(long start) throws InterruptedException {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(config.getReportIntervalSeconds());
+        long warmupEnd = start + TimeUnit.SECONDS.toNanos(config.getWarmupSeconds());
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+        boolean measuring = warmupEnd == start;
+        long nextReport = start + intervalNanos;
+        long intervalStart = start;
+
+        while (true) {
+            long tick = Math.min(nextReport, measuring ? end : warmupEnd);
+            long delay;
+            while ((delay = tick - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            }
+
+            printInterval(tick - start, tick - intervalStart, measuring);
+            intervalStart = tick;
+            if (tick == nextReport) {
+                nextReport += intervalNanos;
+            }
+            if (!measuring && tick == warmupEnd) {
+                measuring = true;
+                System.out.println("Warmup complete, measuring.");
+            } else if (tick == end) {
+                return;
+            }
+        }
+    }
+
+    private void printInterval(long elapsedNanos, long intervalNanos, boolean measuring) {
+        LatencyHistogram all = new LatencyHistogram();
+        long errors = 0;
+        for (OperationStats opStats : stats) {
+            LatencyHistogram interval = new LatencyHistogram();
+            opStats.latency.drainInto(interval);
+            LatencyHistogram serviceInterval = new LatencyHistogram();
+            opStats.serviceTime.drainInto(serviceInterval);
+            long rejected = opStats.rejected.sumThenReset();
+            long failed = opStats.failed.sumThenReset();
+            if (measuring) {
+                opStats.totalLatency.add(interval);
+                opStats.totalServiceTime.add(serviceInterval);
+                opStats.totalRejected += rejected;
+                opStats.totalFailed += failed;
+            }
+            all.add(interval);
+            errors += failed;
+        }
+        System.out.printf("[%4d s] %9.0f ops/s  p50 %s  p99 %s  p99.9 %s  max %s  failed %d%s%n",
+                TimeUnit.NANOSECONDS.toSeconds(elapsedNanos), all.count() * 1e9 / Math.max(1, intervalNanos),
+                LatencyHistogram.formatMillis(all.percentile(50)), LatencyHistogram.formatMillis(all.percentile(99)),
+                LatencyHistogram.formatMillis(all.percentile(99.9)), LatencyHistogram.formatMillis(all.max()),
+                errors, measuring ? "" : "  (warmup)");
+    }
+
+    private void printSummary() {
+        double seconds = config.getDurationSeconds();
+        LatencyHistogram all = new LatencyHistogram();
+        LatencyHistogram allService = new LatencyHistogram();
+        for (OperationStats opStats : stats) {
+            all.add(opStats.totalLatency);
+            allService.add(opStats.totalServiceTime);
+        }
+        System.out.printf("%nCompleted %d operations in %d s: %.0f ops/s%s.%n", all.count(),
+                config.getDurationSeconds(), all.count() / seconds,
+                config.getRate() > 0 ? " (target " + config.getRate() + " ops/s)" : "");
+
+        System.out.println(config.getRate() > 0
+                ? "Latency from when each request was due, in milliseconds:"
+                : "Latency in milliseconds:");
+        printTableHeader();
+        for (Operation op : Operation.values()) {
+            printTableRow(op.name(), stats[op.ordinal()].totalLatency, seconds);
+        }
+        printTableRow("ALL", all, seconds);
+        if (config.getRate() > 0) {
+            System.out.println("Service time from sending to the answer, in milliseconds:");
+            printTableHeader();
+            printTableRow("ALL", allService, seconds);
+        }
+
+        for (Operation op : Operation.values()) {
+            OperationStats opStats = stats[op.ordinal()];
+            if (opStats.totalRejected > 0 || opStats.totalFailed > 0) {
+                System.out.printf("%s: %d answered with an error (e.g. missing or existing key), %d failed.%n",
+                        op, opStats.totalRejected, opStats.totalFailed);
+            }
+        }
+        if (firstFailure.get() != null) {
+            System.out.println("First failure: " + firstFailure.get());
+        }
+    }
+
+    private static void printTableHeader() {
+        System.out.printf("%-7s %10s %10s %9s", "Op", "Count", "Ops/s", "Mean");
+        for (double percentile : PERCENTILES) {
+            System.out.printf(" %9s", "p" + (percentile == (long) percentile
+                    ? Long.toString((long) percentile) : Double.toString(percentile)));
+        }
+        System.out.printf(" %9s%n", "Max");
+    }
+
+    private static void printTableRow(String name, LatencyHistogram histogram, double seconds) {
+        System.out.printf("%-7s %10d %10.0f %9.3f", name, histogram.count(), histogram.count() / seconds,
+                histogram.mean() / 1e6);
+        for (double percentile : PERCENTILES) {
+            System.out.printf(" %9.3f", histogram.percentile(percentile) / 1e6);
+        }
+        System.out.printf(" %9.3f%n", histogram.max() / 1e6);
+    }
+
+    /**
+     * The measurements of one operation: the running interval, filled by the workers, and the totals of the
+     * measured intervals, kept by the reporting thread.
+     */
+    private static final class OperationStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LatencyHistogram totalLatency = new LatencyHistogram();
+        private final LatencyHistogram totalServiceTime = new LatencyHistogram();
+        private long totalRejected;
+        private long totalFailed;
+    }
+}
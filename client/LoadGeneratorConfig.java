@@ -0,0 +1,261 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LoadGeneratorConfig holds the settings of a LoadGenerator run.
+ * Settings are given on the command line after the server host and port as {@code --name=value} options; any
+ * option not listed here is a connection option of {@link ClientConfig}.
+ */
+public class LoadGeneratorConfig {
+
+    /**
+     * Usage text describing every supported option.
+     */
+    public static final String USAGE =
+            "Usage: java client.LoadGenerator <server-host> <server-port> [options]\n"
+                    + "Options:\n"
+                    + "  --workers=<n>                     Concurrent worker threads (default 8)\n"
+                    + "  --mix=<get>:<put>:<delete>        Relative weights of the operations (default 90:5:5)\n"
+                    + "  --keys=<n>                        Size of the key space (default 100000)\n"
+                    + "  --distribution=uniform|zipfian    How keys are chosen (default uniform)\n"
+                    + "  --zipf-theta=<theta>              Skew of the zipfian distribution, between 0 and 1 (default 0.99)\n"
+                    + "  --value-size=<chars>              Length of the values written (default 100)\n"
+                    + "  --rate=<ops/s>                    Fixed total request rate, open loop (default 0 = closed loop)\n"
+                    + "  --duration=<seconds>              Measured run time (default 60)\n"
+                    + "  --warmup=<seconds>                Run time before measuring starts (default 5)\n"
+                    + "  --report-interval=<seconds>       Period of the progress lines (default 5)\n"
+                    + "  --preload=on|off                  Insert every key before the run (default on)\n"
+                    + "Connection options of client.ClientApp (--transport, --shards, --replicas, ...) apply as well.";
+
+    /**
+     * The ways keys are chosen from the key space.
+     */
+    public enum Distribution {
+        UNIFORM, ZIPFIAN
+    }
+
+    private final ClientConfig clientConfig;
+    private int workers = 8;
+    private int getWeight = 90;
+    private int putWeight = 5;
+    private int deleteWeight = 5;
+    private int keys = 100000;
+    private Distribution distribution = Distribution.UNIFORM;
+    private double zipfTheta = 0.99;
+    private int valueSize = 100;
+    private int rate;
+    private int durationSeconds = 60;
+    private int warmupSeconds = 5;
+    private int reportIntervalSeconds = 5;
+    private boolean preload = true;
+
+    private LoadGeneratorConfig(ClientConfig clientConfig) {
+        this.clientConfig = clientConfig;
+    }
+
+    /**
+     * Parses the command-line arguments of LoadGenerator.
+     *
+     * @param args The server host and port followed by any number of {@code --name=value} options.
+     * @return The parsed configuration.
+     * @throws IllegalArgumentException If an argument is missing, unknown or malformed.
+     */
+    public static LoadGeneratorConfig parse(String[] args) {
+        List<String> clientArgs = new ArrayList<>();
+        List<String[]> loadOptions = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            int eq = arg.indexOf('=');
+            if (i >= 2 && arg.startsWith("--") && eq > 0 && isLoadOption(arg.substring(2, eq))) {
+                loadOptions.add(new String[]{arg.substring(2, eq), arg.substring(eq + 1)});
+            } else {
+                clientArgs.add(arg);
+            }
+        }
+
+        LoadGeneratorConfig config = new LoadGeneratorConfig(ClientConfig.parse(clientArgs.toArray(new String[0])));
+        for (String[] option : loadOptions) {
+            config.apply(option[0], option[1]);
+        }
+        if (config.getWeight + config.putWeight + config.deleteWeight == 0) {
+            throw new IllegalArgumentException("At least one operation of --mix needs a positive weight.");
+        }
+        return config;
+    }
+
+    private static boolean isLoadOption(String name) {
+        switch (name) {
+            case "workers":
+            case "mix":
+            case "keys":
+            case "distribution":
+            case "zipf-theta":
+            case "value-size":
+            case "rate":
+            case "duration":
+            case "warmup":
+            case "report-interval":
+            case "preload":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Applies a single option.
+     *
+     * @param name  The option name without the leading dashes.
+     * @param value The option value.
+     */
+    private void apply(String name, String value) {
+        switch (name) {
+            case "workers":
+                workers = parsePositiveInt(name, value);
+                break;
+            case "mix": {
+                String[] weights = value.split(":");
+                if (weights.length != 3) {
+                    throw new IllegalArgumentException("Option --mix requires get:put:delete weights: " + value);
+                }
+                getWeight = parseNonNegativeInt(name, weights[0]);
+                putWeight = parseNonNegativeInt(name, weights[1]);
+                deleteWeight = parseNonNegativeInt(name, weights[2]);
+                break;
+            }
+            case "keys":
+                keys = parsePositiveInt(name, value);
+                break;
+            case "distribution":
+                try {
+                    distribution = Distribution.valueOf(value.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Invalid value for --distribution: " + value);
+                }
+                break;
+            case "zipf-theta":
+                try {
+                    zipfTheta = Double.parseDouble(value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid Zipfian exponent: " + value);
+                }
+                if (!(zipfTheta > 0 && zipfTheta < 1)) {
+                    throw new IllegalArgumentException("Zipfian exponent must be between 0 and 1: " + value);
+                }
+                break;
+            case "value-size":
+                valueSize = parsePositiveInt(name, value);
+                break;
+            case "rate":
+                rate = parseNonNegativeInt(name, value);
+                break;
+            case "duration":
+                durationSeconds = parsePositiveInt(name, value);
+                break;
+            case "warmup":
+                warmupSeconds = parseNonNegativeInt(name, value);
+                break;
+            case "report-interval":
+                reportIntervalSeconds = parsePositiveInt(name, value);
+                break;
+            case "preload":
+                if (value.equalsIgnoreCase("on")) {
+                    preload = true;
+                } else if (value.equalsIgnoreCase("off")) {
+                    preload = false;
+                } else {
+                    throw new IllegalArgumentException("Invalid value for --preload: " + value);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: --" + name);
+        }
+    }
+
+    private static int parsePositiveInt(String name, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Option --" + name + " requires a positive integer: " + value);
+    }
+
+    private static int parseNonNegativeInt(String name, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Option --" + name + " requires a non-negative integer: " + value);
+    }
+
+    public ClientConfig getClientConfig() {
+        return clientConfig;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getGetWeight() {
+        return getWeight;
+    }
+
+    public int getPutWeight() {
+        return putWeight;
+    }
+
+    public int getDeleteWeight() {
+        return deleteWeight;
+    }
+
+    public int getKeys() {
+        return keys;
+    }
+
+    public Distribution getDistribution() {
+        return distribution;
+    }
+
+    public double getZipfTheta() {
+        return zipfTheta;
+    }
+
+    public int getValueSize() {
+        return valueSize;
+    }
+
+    /**
+     * Returns the fixed total request rate of an open-loop run.
+     *
+     * @return The rate in operations per second, or 0 for a closed-loop run.
+     */
+    public int getRate() {
+        return rate;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public int getReportIntervalSeconds() {
+        return reportIntervalSeconds;
+    }
+
+    public boolean isPreload() {
+        return preload;
+    }
+}
@@ -7,26 +7,20 @@ public class Main {
     /**
      * Main method to start the client application.
      *
-     * @param args Command-line arguments. Expects two arguments: hostname and port number.
+     * @param args Command-line arguments. Expects hostname and port number, optionally followed by options.
      */
     public static void main(String[] args) {
-        if (args.length != 2) {
-            System.out.println("Usage: java client.Main <host> <port-number>");
-            System.exit(1);
-        }
-
-        String host = args[0];
-        int port;
-
+        ClientConfig config;
         try {
-            port = Integer.parseInt(args[1]);
-        } catch (NumberFormatException e) {
-            System.out.println("Invalid port number. Please enter a valid integer.");
+            config = ClientConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(ClientConfig.USAGE);
             System.exit(1);
             return; // Unreachable, but added to satisfy the compiler
         }
 
-        ClientApp client = new ClientApp(host, port);
+        ClientApp client = new ClientApp(config);
         client.prePopulate();
         client.start();
     }
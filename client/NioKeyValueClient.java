@@ -0,0 +1,380 @@
+package client;
+
+import server.BinaryProtocol;
+import server.BulkFormat;
+import server.KeyValueStoreInterface;
+import server.ScanResult;
+import server.TransactionOp;
+import server.WatchListener;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NioKeyValueClient talks to a server's NIO transport using the binary protocol defined by
+ * {@link BinaryProtocol}, as a drop-in alternative to the RMI stub.
+ * <p>
+ * Requests are written on the caller's thread and matched to responses by a reader thread, so any number of
+ * threads can share one connection and each may have many requests outstanding through {@link #call}.
+ * The blocking methods of {@link KeyValueStoreInterface} give up on a response after the request timeout.
+ */
+public class NioKeyValueClient implements KeyValueStoreInterface, Closeable {
+
+    /**
+     * How long the blocking methods wait for a response by default, in milliseconds.
+     */
+    public static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 60_000;
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final DataInputStream in;
+    private final Map<Integer, CompletableFuture<BinaryProtocol.Reader>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final Thread reader;
+    private final long requestTimeoutMillis;
+    private volatile IOException failure;
+
+    /**
+     * Connects to a server's NIO transport.
+     *
+     * @param host The hostname where the server is running.
+     * @param port The port number of the NIO transport.
+     * @throws IOException If the connection cannot be established.
+     */
+    public NioKeyValueClient(String host, int port) throws IOException {
+        this(host, port, DEFAULT_REQUEST_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Connects to a server's NIO transport.
+     *
+     * @param host                 The hostname where the server is running.
+     * @param port                 The port number of the NIO transport.
+     * @param requestTimeoutMillis How long the blocking methods wait for a response.
+     * @throws IOException If the connection cannot be established.
+     */
+    public NioKeyValueClient(String host, int port, long requestTimeoutMillis) throws IOException {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port));
+        out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+
+        reader = new Thread(this::readLoop, "nio-client-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Sends a request without waiting for its response.
+     *
+     * @param opcode The operation to execute.
+     * @param args   Writes the request arguments into the frame.
+     * @return A future completed with the response payload, or exceptionally with a RemoteException.
+     */
+    public CompletableFuture<BinaryProtocol.Reader> call(byte opcode, ArgumentWriter args) {
+        CompletableFuture<BinaryProtocol.Reader> future = new CompletableFuture<>();
+        if (failure != null) {
+            future.completeExceptionally(new RemoteException("Connection to server lost", failure));
+            return future;
+        }
+
+        int requestId = nextRequestId.incrementAndGet();
+        BinaryProtocol.Writer frame = new BinaryProtocol.Writer(requestId, opcode);
+        args.write(frame);
+        ByteBuffer bytes = frame.toByteBuffer();
+
+        pending.put(requestId, future);
+        if (failure != null) {
+            // The reader may have drained the pending requests before this one was registered
+            pending.remove(requestId);
+            future.completeExceptionally(new RemoteException("Connection to server lost", failure));
+            return future;
+        }
+        try {
+            synchronized (out) {
+                out.write(bytes.array(), bytes.position(), bytes.remaining());
+                out.flush();
+            }
+        } catch (IOException e) {
+            pending.remove(requestId);
+            future.completeExceptionally(new RemoteException("Unable to send request", e));
+        }
+        return future;
+    }
+
+    /**
+     * Body of the reader thread: completes the pending request of every response frame.
+     */
+    private void readLoop() {
+        try {
+            while (true) {
+                int length = in.readInt();
+                if (length < BinaryProtocol.FRAME_HEADER_LENGTH - 4 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                ByteBuffer buf = ByteBuffer.wrap(frame);
+                int requestId = buf.getInt();
+                byte status = buf.get();
+
+                CompletableFuture<BinaryProtocol.Reader> future = pending.remove(requestId);
+                if (future == null) {
+                    continue;
+                }
+                BinaryProtocol.Reader payload = new BinaryProtocol.Reader(buf);
+                if (status == BinaryProtocol.STATUS_OK) {
+                    future.complete(payload);
+                } else {
+                    future.completeExceptionally(new RemoteException(payload.getString()));
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            RemoteException lost = new RemoteException("Connection to server lost", e);
+            for (Integer id : new ArrayList<>(pending.keySet())) {
+                CompletableFuture<BinaryProtocol.Reader> future = pending.remove(id);
+                if (future != null) {
+                    future.completeExceptionally(lost);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a request and waits for its response, at most for the request timeout.
+     */
+    private BinaryProtocol.Reader invoke(byte opcode, ArgumentWriter args) throws RemoteException {
+        CompletableFuture<BinaryProtocol.Reader> future = call(opcode, args);
+        try {
+            return future.get(requestTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // A late response finds no pending request and is skipped
+            pending.values().remove(future);
+            throw new RemoteException("No response from the server within " + requestTimeoutMillis + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for the server", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RemoteException) {
+                throw (RemoteException) e.getCause();
+            }
+            throw new RemoteException("Request failed", e.getCause());
+        }
+    }
+
+    @Override
+    public String put(String key, String value) throws RemoteException {
+        return readString(invoke(BinaryProtocol.OP_PUT, w -> w.putString(key).putString(value)));
+    }
+
+    @Override
+    public String put(String key, String value, long ttlMillis) throws RemoteException {
+        return readString(invoke(BinaryProtocol.OP_PUT_TTL,
+                w -> w.putString(key).putString(value).putLong(ttlMillis)));
+    }
+
+    @Override
+    public String get(String key) throws RemoteException {
+        return readString(invoke(BinaryProtocol.OP_GET, w -> w.putString(key)));
+    }
+
+    @Override
+    public String delete(String key) throws RemoteException {
+        return readString(invoke(BinaryProtocol.OP_DELETE, w -> w.putString(key)));
+    }
+
+    @Override
+    public String expire(String key, long ttlMillis) throws RemoteException {
+        return readString(invoke(BinaryProtocol.OP_EXPIRE, w -> w.putString(key).putLong(ttlMillis)));
+    }
+
+    @Override
+    public String replace(String key, String value) throws RemoteException {
+        return readString(invoke(BinaryProtocol.OP_REPLACE, w -> w.putString(key).putString(value)));
+    }
+
+    @Override
+    public String compareAndSet(String key, String expected, String value) throws RemoteException {
+        return readString(invoke(BinaryProtocol.OP_COMPARE_AND_SET,
+                w -> w.putString(key).putString(expected).putString(value)));
+    }
+
+    @Override
+    public String increment(String key, long delta) throws RemoteException {
+        return readString(invoke(BinaryProtocol.OP_INCREMENT, w -> w.putString(key).putLong(delta)));
+    }
+
+    @Override
+    public String append(String key, String suffix) throws RemoteException {
+        return readString(invoke(BinaryProtocol.OP_APPEND, w -> w.putString(key).putString(suffix)));
+    }
+
+    @Override
+    public String show() throws RemoteException {
+        return readString(invoke(BinaryProtocol.OP_SHOW, w -> { }));
+    }
+
+    @Override
+    public ScanResult scan(String cursor, int limit, String prefix) throws RemoteException {
+        return readPage(invoke(BinaryProtocol.OP_SCAN, w -> w.putString(cursor).putInt(limit).putString(prefix)));
+    }
+
+    @Override
+    public ScanResult rangeScan(String from, String to, int limit) throws RemoteException {
+        return readPage(invoke(BinaryProtocol.OP_RANGE_SCAN, w -> w.putString(from).putString(to).putInt(limit)));
+    }
+
+    @Override
+    public ScanResult prefixScan(String prefix, String from, int limit) throws RemoteException {
+        return readPage(invoke(BinaryProtocol.OP_PREFIX_SCAN,
+                w -> w.putString(prefix).putString(from).putInt(limit)));
+    }
+
+    @Override
+    public Map<String, String> multiPut(Map<String, String> entries) throws RemoteException {
+        return readMap(invoke(BinaryProtocol.OP_MULTI_PUT, w -> w.putMap(entries)));
+    }
+
+    @Override
+    public Map<String, String> multiGet(List<String> keys) throws RemoteException {
+        return readMap(invoke(BinaryProtocol.OP_MULTI_GET, w -> w.putStrings(keys)));
+    }
+
+    @Override
+    public Map<String, String> multiDelete(Collection<String> keys) throws RemoteException {
+        List<String> list = keys instanceof List ? (List<String>) keys : new ArrayList<>(keys);
+        return readMap(invoke(BinaryProtocol.OP_MULTI_DELETE, w -> w.putStrings(list)));
+    }
+
+    @Override
+    public List<String> transaction(List<TransactionOp> ops) throws RemoteException {
+        BinaryProtocol.Reader reply = invoke(BinaryProtocol.OP_TRANSACTION, w -> w.putOps(ops));
+        try {
+            return reply.getStrings();
+        } catch (IOException e) {
+            throw new RemoteException("Malformed response", e);
+        }
+    }
+
+    @Override
+    public Map<String, Long> bulkLoad(String lines, BulkFormat format) throws RemoteException {
+        BinaryProtocol.Reader reply = invoke(BinaryProtocol.OP_BULK_LOAD,
+                w -> w.putString(lines).putString(format.name()));
+        try {
+            return reply.getCounts();
+        } catch (IOException e) {
+            throw new RemoteException("Malformed response", e);
+        }
+    }
+
+    @Override
+    public long replicationLag() throws RemoteException {
+        BinaryProtocol.Reader reply = invoke(BinaryProtocol.OP_REPLICATION_LAG, w -> { });
+        try {
+            return reply.getLong();
+        } catch (IOException e) {
+            throw new RemoteException("Malformed response", e);
+        }
+    }
+
+    @Override
+    public Map<String, String> stats() throws RemoteException {
+        return readMap(invoke(BinaryProtocol.OP_STATS, w -> { }));
+    }
+
+    private static String readString(BinaryProtocol.Reader reply) throws RemoteException {
+        try {
+            return reply.getString();
+        } catch (IOException e) {
+            throw new RemoteException("Malformed response", e);
+        }
+    }
+
+    @Override
+    public Map<String, Long> hotKeys(int limit) throws RemoteException {
+        BinaryProtocol.Reader reply = invoke(BinaryProtocol.OP_HOT_KEYS, w -> w.putInt(limit));
+        try {
+            return reply.getCounts();
+        } catch (IOException e) {
+            throw new RemoteException("Malformed response", e);
+        }
+    }
+
+    /**
+     * Not available over this transport: the server pushes watched changes through RMI callbacks, which the binary
+     * protocol cannot carry.
+     *
+     * @throws IllegalStateException Always, as for a server that does not publish watches.
+     */
+    @Override
+    public long watch(String keyOrPrefix, WatchListener listener) {
+        throw new IllegalStateException("Watches are pushed over RMI; connect with --transport=rmi.");
+    }
+
+    @Override
+    public boolean unwatch(long watchId) {
+        throw new IllegalStateException("Watches are pushed over RMI; connect with --transport=rmi.");
+    }
+
+    private static ScanResult readPage(BinaryProtocol.Reader reply) throws RemoteException {
+        try {
+            Map<String, String> entries = reply.getMap();
+            return new ScanResult(entries, reply.getString());
+        } catch (IOException e) {
+            throw new RemoteException("Malformed response", e);
+        }
+    }
+
+    private static Map<String, String> readMap(BinaryProtocol.Reader reply) throws RemoteException {
+        try {
+            return reply.getMap();
+        } catch (IOException e) {
+            throw new RemoteException("Malformed response", e);
+        }
+    }
+
+    /**
+     * Closes the connection; outstanding requests fail with a RemoteException.
+     */
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    /**
+     * Writes the arguments of a request into its frame.
+     */
+    public interface ArgumentWriter {
+        /**
+         * Writes the arguments.
+         *
+         * @param frame The frame being built.
+         */
+        void write(BinaryProtocol.Writer frame);
+    }
+}
@@ -0,0 +1,326 @@
+package client;
+
+import server.BulkFormat;
+import server.KeyValueStoreInterface;
+import server.ScanResult;
+import server.TransactionOp;
+import server.WatchListener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ReplicatedReadClient sends writes to a primary and spreads reads over its read replicas.
+ * <p>
+ * A background thread polls the replication lag of every replica. A read goes to the next replica, round robin,
+ * whose data is known to be at most the configured staleness bound behind the primary, and to the primary when no
+ * replica is fresh enough or a replica fails. A scan stays on the server it started on.
+ */
+public class ReplicatedReadClient implements KeyValueStoreInterface, Closeable {
+
+    private static final long UNKNOWN = Long.MAX_VALUE;
+
+    private final KeyValueStoreInterface primary;
+    private final Replica[] replicas;
+    private final long maxStalenessMillis;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final ScheduledExecutorService poller;
+
+    /**
+     * Connects to the replicas and starts tracking their lag.
+     *
+     * @param primary            The primary, which receives every write.
+     * @param replicaEndpoints   The replicas as {@code host:port} strings.
+     * @param nio                True to use the NIO binary transport instead of RMI for the replicas.
+     * @param maxStalenessMillis How far behind the primary a replica may be to serve reads.
+     * @throws IOException       If a replica cannot be reached.
+     * @throws NotBoundException If a replica's registry has no store bound.
+     */
+    public ReplicatedReadClient(KeyValueStoreInterface primary, List<String> replicaEndpoints, boolean nio,
+                                long maxStalenessMillis) throws IOException, NotBoundException {
+        this.primary = primary;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.replicas = new Replica[replicaEndpoints.size()];
+        for (int i = 0; i < replicas.length; i++) {
+            String endpoint = replicaEndpoints.get(i);
+            try {
+                replicas[i] = new Replica(ClientConfig.connect(ClientConfig.hostOf(endpoint),
+                        ClientConfig.portOf(endpoint), nio));
+            } catch (IOException | NotBoundException | RuntimeException e) {
+                for (int j = 0; j < i; j++) {
+                    ClientConfig.close(replicas[j].store);
+                }
+                throw e;
+            }
+        }
+
+        // Poll several times per staleness bound, so a fresh replica is not dropped for lack of news
+        long pollMillis = Math.max(10, Math.min(1000, maxStalenessMillis / 4));
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "replica-lag-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pollLag();
+        poller.scheduleWithFixedDelay(this::pollLag, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void pollLag() {
+        for (Replica replica : replicas) {
+            long polledAt = System.nanoTime();
+            try {
+                replica.update(replica.store.replicationLag(), polledAt);
+            } catch (RemoteException | RuntimeException e) {
+                replica.update(UNKNOWN, polledAt);
+            }
+        }
+    }
+
+    /**
+     * Picks the server for a read.
+     *
+     * @return The index of a fresh replica, or -1 for the primary.
+     */
+    private int pickReader() {
+        long now = System.nanoTime();
+        int start = nextReplica.getAndIncrement();
+        for (int i = 0; i < replicas.length; i++) {
+            int candidate = Math.floorMod(start + i, replicas.length);
+            if (replicas[candidate].lagAt(now) <= maxStalenessMillis) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    private KeyValueStoreInterface server(int index) {
+        return index < 0 ? primary : replicas[index].store;
+    }
+
+    /**
+     * Runs a read on a fresh replica, falling back to the primary if the replica fails.
+     */
+    private <T> T read(Read<T> read) throws RemoteException {
+        int index = pickReader();
+        if (index >= 0) {
+            try {
+                return read.apply(replicas[index].store);
+            } catch (RemoteException e) {
+                replicas[index].update(UNKNOWN, System.nanoTime());
+            }
+        }
+        return read.apply(primary);
+    }
+
+    @Override
+    public String put(String key, String value) throws RemoteException {
+        return primary.put(key, value);
+    }
+
+    @Override
+    public String put(String key, String value, long ttlMillis) throws RemoteException {
+        return primary.put(key, value, ttlMillis);
+    }
+
+    @Override
+    public String get(String key) throws RemoteException {
+        return read(store -> store.get(key));
+    }
+
+    @Override
+    public String delete(String key) throws RemoteException {
+        return primary.delete(key);
+    }
+
+    @Override
+    public String expire(String key, long ttlMillis) throws RemoteException {
+        return primary.expire(key, ttlMillis);
+    }
+
+    @Override
+    public String replace(String key, String value) throws RemoteException {
+        return primary.replace(key, value);
+    }
+
+    @Override
+    public String compareAndSet(String key, String expected, String value) throws RemoteException {
+        return primary.compareAndSet(key, expected, value);
+    }
+
+    @Override
+    public String increment(String key, long delta) throws RemoteException {
+        return primary.increment(key, delta);
+    }
+
+    @Override
+    public String append(String key, String suffix) throws RemoteException {
+        return primary.append(key, suffix);
+    }
+
+    @Override
+    public String show() throws RemoteException {
+        return read(KeyValueStoreInterface::show);
+    }
+
+    /**
+     * Returns the next page of a scan. A new scan starts on a fresh replica or the primary; the cursor names the
+     * server so that the following pages come from the same one.
+     */
+    @Override
+    public ScanResult scan(String cursor, int limit, String prefix) throws RemoteException {
+        int index;
+        String serverCursor;
+        if (cursor == null || cursor.isEmpty()) {
+            index = pickReader();
+            serverCursor = null;
+        } else {
+            int at = cursor.indexOf('@');
+            try {
+                index = Integer.parseInt(cursor.substring(0, Math.max(at, 0)));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Unknown or expired scan cursor: " + cursor);
+            }
+            if (index < -1 || index >= replicas.length) {
+                throw new IllegalArgumentException("Unknown or expired scan cursor: " + cursor);
+            }
+            serverCursor = cursor.substring(at + 1);
+        }
+
+        ScanResult page = server(index).scan(serverCursor, limit, prefix);
+        return page.isComplete() ? page : new ScanResult(page.getEntries(), index + "@" + page.getCursor());
+    }
+
+    /**
+     * Returns the hot keys of the primary; the reads served by replicas are counted by the replicas.
+     */
+    @Override
+    public Map<String, Long> hotKeys(int limit) throws RemoteException {
+        return primary.hotKeys(limit);
+    }
+
+    @Override
+    public long watch(String keyOrPrefix, WatchListener listener) throws RemoteException {
+        return primary.watch(keyOrPrefix, listener);
+    }
+
+    @Override
+    public boolean unwatch(long watchId) throws RemoteException {
+        return primary.unwatch(watchId);
+    }
+
+    /**
+     * Returns a page of a range scan from a fresh replica or the primary. The cursor is a key, so each page may
+     * come from a different server.
+     */
+    @Override
+    public ScanResult rangeScan(String from, String to, int limit) throws RemoteException {
+        return read(store -> store.rangeScan(from, to, limit));
+    }
+
+    @Override
+    public ScanResult prefixScan(String prefix, String from, int limit) throws RemoteException {
+        return read(store -> store.prefixScan(prefix, from, limit));
+    }
+
+    @Override
+    public Map<String, String> multiPut(Map<String, String> entries) throws RemoteException {
+        return primary.multiPut(entries);
+    }
+
+    /**
+     * Runs a transaction on the primary, including one that only reads: replicas apply changes one key at a time.
+     */
+    @Override
+    public List<String> transaction(List<TransactionOp> ops) throws RemoteException {
+        return primary.transaction(ops);
+    }
+
+    @Override
+    public Map<String, Long> bulkLoad(String lines, BulkFormat format) throws RemoteException {
+        return primary.bulkLoad(lines, format);
+    }
+
+    @Override
+    public Map<String, String> multiGet(List<String> keys) throws RemoteException {
+        return read(store -> store.multiGet(keys));
+    }
+
+    @Override
+    public Map<String, String> multiDelete(Collection<String> keys) throws RemoteException {
+        return primary.multiDelete(keys);
+    }
+
+    /**
+     * Returns the lag of the primary, which is where writes and stale reads go.
+     */
+    @Override
+    public long replicationLag() throws RemoteException {
+        return primary.replicationLag();
+    }
+
+    /**
+     * Returns the metrics of the primary; each replica reports its own when asked directly.
+     */
+    @Override
+    public Map<String, String> stats() throws RemoteException {
+        return primary.stats();
+    }
+
+    /**
+     * Stops polling and closes the connections to the primary and the replicas.
+     */
+    @Override
+    public void close() {
+        poller.shutdownNow();
+        ClientConfig.close(primary);
+        for (Replica replica : replicas) {
+            ClientConfig.close(replica.store);
+        }
+    }
+
+    /**
+     * One replica and what is known about its lag.
+     */
+    private static final class Replica {
+        private final KeyValueStoreInterface store;
+        private volatile long lagMillis = UNKNOWN;
+        private volatile long polledAtNanos;
+
+        Replica(KeyValueStoreInterface store) {
+            this.store = store;
+        }
+
+        void update(long lag, long polledAt) {
+            lagMillis = lag;
+            polledAtNanos = polledAt;
+        }
+
+        /**
+         * Estimates the lag at the given time: the replica has not become staler since the poll than the time
+         * that has passed.
+         */
+        long lagAt(long nowNanos) {
+            long lag = lagMillis;
+            if (lag == UNKNOWN) {
+                return UNKNOWN;
+            }
+            return lag + TimeUnit.NANOSECONDS.toMillis(nowNanos - polledAtNanos);
+        }
+    }
+
+    /**
+     * A read that can run on any server.
+     */
+    private interface Read<T> {
+        T apply(KeyValueStoreInterface store) throws RemoteException;
+    }
+}
@@ -0,0 +1,660 @@
+package client;
+
+import server.BulkFormat;
+import server.KeyValueStoreInterface;
+import server.ScanResult;
+import server.TransactionOp;
+import server.WatchListener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ShardedKeyValueClient spreads the keys of one logical store over several servers.
+ * <p>
+ * Each key is owned by the server chosen by a {@link ConsistentHashRing} of the server endpoints, so every client
+ * configured with the same endpoints routes a key to the same server. Batch operations are split by owner and
+ * sent to all owners in parallel. A scan runs on every server in parallel, and its cursor carries the cursor of
+ * each server; a range or prefix scan merges the pages of every server in key order. Adding a server with
+ * {@link #addNode} moves only the keys the new server takes over, about 1/N of them.
+ */
+public class ShardedKeyValueClient implements KeyValueStoreInterface, Closeable {
+
+    /** Scan cursor state of a server whose scan has not started. */
+    private static final String NOT_STARTED = "";
+    /** Scan cursor state of a server whose scan is complete. */
+    private static final String DONE = "~";
+    private static final int MIGRATION_PAGE_SIZE = 1000;
+
+    private final boolean nio;
+    private final ExecutorService executor;
+    private volatile ConsistentHashRing<Shard> ring =
+            new ConsistentHashRing<>(ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+    /** The server-side watch ids behind each watch of this client. */
+    private final Map<Long, Map<Shard, Long>> watches = new ConcurrentHashMap<>();
+    private final AtomicLong nextWatchId = new AtomicLong(1);
+
+    /**
+     * Connects to every server.
+     *
+     * @param endpoints The servers as {@code host:port} strings.
+     * @param nio       True to use the NIO binary transport instead of RMI.
+     * @throws IOException       If a server cannot be reached.
+     * @throws NotBoundException If a server's registry has no store bound.
+     */
+    public ShardedKeyValueClient(List<String> endpoints, boolean nio) throws IOException, NotBoundException {
+        this.nio = nio;
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "shard-call");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (String endpoint : endpoints) {
+                ring = ring.withNode(endpoint, connect(endpoint));
+            }
+        } catch (IOException | NotBoundException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private Shard connect(String endpoint) throws IOException, NotBoundException {
+        String host = ClientConfig.hostOf(endpoint);
+        return new Shard(endpoint, ClientConfig.connect(host, ClientConfig.portOf(endpoint), nio));
+    }
+
+    @Override
+    public String put(String key, String value) throws RemoteException {
+        return ring.nodeFor(key).store.put(key, value);
+    }
+
+    @Override
+    public String put(String key, String value, long ttlMillis) throws RemoteException {
+        return ring.nodeFor(key).store.put(key, value, ttlMillis);
+    }
+
+    @Override
+    public String get(String key) throws RemoteException {
+        return ring.nodeFor(key).store.get(key);
+    }
+
+    @Override
+    public String expire(String key, long ttlMillis) throws RemoteException {
+        return ring.nodeFor(key).store.expire(key, ttlMillis);
+    }
+
+    @Override
+    public String replace(String key, String value) throws RemoteException {
+        return ring.nodeFor(key).store.replace(key, value);
+    }
+
+    @Override
+    public String compareAndSet(String key, String expected, String value) throws RemoteException {
+        return ring.nodeFor(key).store.compareAndSet(key, expected, value);
+    }
+
+    @Override
+    public String increment(String key, long delta) throws RemoteException {
+        return ring.nodeFor(key).store.increment(key, delta);
+    }
+
+    @Override
+    public String append(String key, String suffix) throws RemoteException {
+        return ring.nodeFor(key).store.append(key, suffix);
+    }
+
+    @Override
+    public String delete(String key) throws RemoteException {
+        return ring.nodeFor(key).store.delete(key);
+    }
+
+    /**
+     * Displays all key-value pairs of every server.
+     *
+     * @return The listings of all servers, or a message if every server is empty.
+     * @throws RemoteException If a server cannot be reached.
+     */
+    @Override
+    public String show() throws RemoteException {
+        List<Shard> shards = new ArrayList<>(ring.nodes().values());
+        List<Callable<String>> calls = new ArrayList<>(shards.size());
+        for (Shard shard : shards) {
+            calls.add(() -> shard.store.show());
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String listing : runAll(calls)) {
+            if (!listing.equals("The key-value store is empty.")) {
+                sb.append(listing).append("\n");
+            }
+        }
+        return sb.length() == 0 ? "The key-value store is empty." : sb.toString().trim();
+    }
+
+    /**
+     * Returns the next page of a scan over every server. Each call asks every server whose scan is not complete
+     * for its share of the page, in parallel.
+     *
+     * @param cursor The cursor returned with the previous page, or null to start a new scan.
+     * @param limit  The maximum number of pairs to return in this page.
+     * @param prefix Only return keys starting with this prefix, or null for all keys.
+     * @return The page and the cursor for the next one; the cursor is null once the scan is complete.
+     * @throws RemoteException If a server cannot be reached.
+     */
+    @Override
+    public ScanResult scan(String cursor, int limit, String prefix) throws RemoteException {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Scan limit must be positive: " + limit);
+        }
+        List<Shard> shards = new ArrayList<>(ring.nodes().values());
+        String[] states = parseCursor(cursor, shards.size());
+
+        List<Integer> active = new ArrayList<>();
+        for (int i = 0; i < states.length; i++) {
+            if (!states[i].equals(DONE)) {
+                active.add(i);
+            }
+        }
+        // Split the limit over the servers that still have entries, so the page never exceeds it
+        List<Integer> asked = new ArrayList<>();
+        List<Callable<ScanResult>> calls = new ArrayList<>();
+        for (int j = 0; j < active.size(); j++) {
+            int share = limit / active.size() + (j < limit % active.size() ? 1 : 0);
+            if (share == 0) {
+                continue;
+            }
+            int i = active.get(j);
+            String shardCursor = states[i].equals(NOT_STARTED) ? null : states[i];
+            asked.add(i);
+            calls.add(() -> shards.get(i).store.scan(shardCursor, share, prefix));
+        }
+
+        List<ScanResult> pages = runAll(calls);
+        Map<String, String> entries = new LinkedHashMap<>();
+        boolean complete = true;
+        for (int j = 0; j < pages.size(); j++) {
+            ScanResult page = pages.get(j);
+            entries.putAll(page.getEntries());
+            states[asked.get(j)] = page.isComplete() ? DONE : page.getCursor();
+        }
+        for (String state : states) {
+            complete &= state.equals(DONE);
+        }
+        return new ScanResult(entries, complete ? null : String.join(",", states));
+    }
+
+    @Override
+    public ScanResult rangeScan(String from, String to, int limit) throws RemoteException {
+        return mergeOrdered(limit, store -> store.rangeScan(from, to, limit));
+    }
+
+    @Override
+    public ScanResult prefixScan(String prefix, String from, int limit) throws RemoteException {
+        return mergeOrdered(limit, store -> store.prefixScan(prefix, from, limit));
+    }
+
+    /**
+     * Asks every server for a page of an ordered scan, in parallel, and merges the pages in key order. A server's
+     * keys beyond its page are unknown, so the merged page ends before the lowest cursor of any server, which is
+     * where the next page starts.
+     */
+    private ScanResult mergeOrdered(int limit, PageCall call) throws RemoteException {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Scan limit must be positive: " + limit);
+        }
+        List<Callable<ScanResult>> calls = new ArrayList<>();
+        for (Shard shard : ring.nodes().values()) {
+            calls.add(() -> call.apply(shard.store));
+        }
+        TreeMap<String, String> merged = new TreeMap<>();
+        String next = null;
+        for (ScanResult page : runAll(calls)) {
+            merged.putAll(page.getEntries());
+            if (!page.isComplete() && (next == null || page.getCursor().compareTo(next) < 0)) {
+                next = page.getCursor();
+            }
+        }
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : merged.entrySet()) {
+            if (next != null && entry.getKey().compareTo(next) >= 0) {
+                break;
+            }
+            if (entries.size() == limit) {
+                next = entry.getKey();
+                break;
+            }
+            entries.put(entry.getKey(), entry.getValue());
+        }
+        return new ScanResult(entries, next);
+    }
+
+    /**
+     * Splits a composite scan cursor into the cursor states of the servers.
+     */
+    private static String[] parseCursor(String cursor, int shardCount) {
+        if (cursor == null || cursor.isEmpty()) {
+            String[] states = new String[shardCount];
+            Arrays.fill(states, NOT_STARTED);
+            return states;
+        }
+        String[] states = cursor.split(",", -1);
+        if (states.length != shardCount) {
+            throw new IllegalArgumentException("Scan cursor does not match the current servers: " + cursor);
+        }
+        return states;
+    }
+
+    @Override
+    public Map<String, String> multiPut(Map<String, String> entries) throws RemoteException {
+        return fanOut(entries.keySet(), (shard, keys) -> {
+            Map<String, String> batch = new LinkedHashMap<>();
+            for (String key : keys) {
+                batch.put(key, entries.get(key));
+            }
+            return shard.store.multiPut(batch);
+        });
+    }
+
+    @Override
+    public Map<String, String> multiGet(List<String> keys) throws RemoteException {
+        return fanOut(keys, (shard, shardKeys) -> shard.store.multiGet(shardKeys));
+    }
+
+    @Override
+    public Map<String, String> multiDelete(Collection<String> keys) throws RemoteException {
+        return fanOut(keys, (shard, shardKeys) -> shard.store.multiDelete(shardKeys));
+    }
+
+    /**
+     * Runs a transaction on the server that owns its keys. Each server isolates only its own keys, so the keys of
+     * a transaction must all belong to one server.
+     *
+     * @throws IllegalArgumentException If the keys belong to several servers.
+     */
+    @Override
+    public List<String> transaction(List<TransactionOp> ops) throws RemoteException {
+        Shard owner = null;
+        for (TransactionOp op : ops) {
+            Shard shard = ring.nodeFor(op.getKey());
+            if (owner != null && shard != owner) {
+                throw new IllegalArgumentException("Transaction keys belong to several servers: " + owner.endpoint
+                        + " and " + shard.endpoint + ".");
+            }
+            owner = shard;
+        }
+        if (owner == null) {
+            throw new IllegalArgumentException("A transaction requires at least one step.");
+        }
+        return owner.store.transaction(ops);
+    }
+
+    /**
+     * Loads a chunk of lines, sending each server the lines of the keys it owns, all at once. The client parses
+     * each line to find its owner; malformed lines go to the first server, which counts them.
+     *
+     * @return The counts of all servers, summed.
+     */
+    @Override
+    public Map<String, Long> bulkLoad(String lines, BulkFormat format) throws RemoteException {
+        ConsistentHashRing<Shard> current = ring;
+        Shard first = current.nodes().values().iterator().next();
+        Map<Shard, StringBuilder> byShard = new LinkedHashMap<>();
+        for (String line : lines.split("\n")) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            Map.Entry<String, String> pair = format.parse(line);
+            Shard owner = pair != null ? current.nodeFor(pair.getKey()) : first;
+            byShard.computeIfAbsent(owner, s -> new StringBuilder()).append(line).append('\n');
+        }
+
+        List<Callable<Map<String, Long>>> calls = new ArrayList<>(byShard.size());
+        for (Map.Entry<Shard, StringBuilder> entry : byShard.entrySet()) {
+            String shardLines = entry.getValue().toString();
+            calls.add(() -> entry.getKey().store.bulkLoad(shardLines, format));
+        }
+        Map<String, Long> totals = new LinkedHashMap<>();
+        for (Map<String, Long> counts : runAll(calls)) {
+            for (Map.Entry<String, Long> count : counts.entrySet()) {
+                totals.merge(count.getKey(), count.getValue(), Long::sum);
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Returns the largest replication lag of the servers.
+     *
+     * @return The staleness bound of the whole store in milliseconds.
+     * @throws RemoteException If a server cannot be reached.
+     */
+    @Override
+    public long replicationLag() throws RemoteException {
+        List<Callable<Long>> calls = new ArrayList<>();
+        for (Shard shard : ring.nodes().values()) {
+            calls.add(() -> shard.store.replicationLag());
+        }
+        long lag = 0;
+        for (long shardLag : runAll(calls)) {
+            lag = Math.max(lag, shardLag);
+        }
+        return lag;
+    }
+
+    /**
+     * Returns the metrics of every server. Percentiles cannot be combined, so each server's metrics are kept
+     * apart, named with the server's endpoint followed by a slash.
+     *
+     * @return The metrics by name, server by server.
+     * @throws RemoteException If a server cannot be reached.
+     */
+    @Override
+    public Map<String, String> stats() throws RemoteException {
+        List<Shard> shards = new ArrayList<>(ring.nodes().values());
+        List<Callable<Map<String, String>>> calls = new ArrayList<>(shards.size());
+        for (Shard shard : shards) {
+            calls.add(() -> shard.store.stats());
+        }
+        List<Map<String, String>> shardStats = runAll(calls);
+        Map<String, String> stats = new LinkedHashMap<>();
+        for (int i = 0; i < shards.size(); i++) {
+            for (Map.Entry<String, String> metric : shardStats.get(i).entrySet()) {
+                stats.put(shards.get(i).endpoint + "/" + metric.getKey(), metric.getValue());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the hottest keys of all servers. Each key is owned by one server, so the lists are merged by rate.
+     *
+     * @param limit The largest number of keys to return.
+     * @return The estimated requests per second of each key, highest first.
+     * @throws RemoteException If a server cannot be reached.
+     */
+    @Override
+    public Map<String, Long> hotKeys(int limit) throws RemoteException {
+        List<Callable<Map<String, Long>>> calls = new ArrayList<>();
+        for (Shard shard : ring.nodes().values()) {
+            calls.add(() -> shard.store.hotKeys(limit));
+        }
+        List<Map.Entry<String, Long>> merged = new ArrayList<>();
+        for (Map<String, Long> shardKeys : runAll(calls)) {
+            merged.addAll(shardKeys.entrySet());
+        }
+        merged.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        Map<String, Long> top = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : merged.subList(0, Math.min(Math.max(limit, 0), merged.size()))) {
+            top.put(entry.getKey(), entry.getValue());
+        }
+        return top;
+    }
+
+    /**
+     * Splits a batch by owning server, runs the parts in parallel and merges the per-key results.
+     * If a server cannot be reached, its keys get an error result and the other parts are unaffected.
+     *
+     * @return The per-key results, in the order of the given keys.
+     */
+    private Map<String, String> fanOut(Collection<String> keys, BatchCall call) throws RemoteException {
+        ConsistentHashRing<Shard> current = ring;
+        Map<Shard, List<String>> byShard = new LinkedHashMap<>();
+        for (String key : keys) {
+            byShard.computeIfAbsent(current.nodeFor(key), s -> new ArrayList<>()).add(key);
+        }
+
+        List<Shard> shards = new ArrayList<>(byShard.keySet());
+        List<Callable<Map<String, String>>> calls = new ArrayList<>(shards.size());
+        for (Shard shard : shards) {
+            List<String> shardKeys = byShard.get(shard);
+            calls.add(() -> {
+                try {
+                    return call.apply(shard, shardKeys);
+                } catch (RemoteException e) {
+                    Map<String, String> failed = new LinkedHashMap<>();
+                    for (String key : shardKeys) {
+                        failed.put(key, "ERROR: Server " + shard.endpoint + " is unavailable.");
+                    }
+                    return failed;
+                }
+            });
+        }
+
+        Map<String, String> merged = new LinkedHashMap<>();
+        for (Map<String, String> part : runAll(calls)) {
+            merged.putAll(part);
+        }
+        Map<String, String> results = new LinkedHashMap<>((int) (merged.size() / 0.75f) + 1);
+        for (String key : keys) {
+            results.put(key, merged.get(key));
+        }
+        return results;
+    }
+
+    /**
+     * Runs the calls in parallel, the first one on the calling thread.
+     *
+     * @return The results, in the order of the calls.
+     * @throws RemoteException If a call fails.
+     */
+    private <T> List<T> runAll(List<Callable<T>> calls) throws RemoteException {
+        List<Future<T>> futures = new ArrayList<>(calls.size());
+        for (int i = 1; i < calls.size(); i++) {
+            futures.add(executor.submit(calls.get(i)));
+        }
+        List<T> results = new ArrayList<>(calls.size());
+        try {
+            if (!calls.isEmpty()) {
+                results.add(calls.get(0).call());
+            }
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for the servers", e);
+        } catch (ExecutionException e) {
+            throw asRemoteException(e.getCause());
+        } catch (Exception e) {
+            throw asRemoteException(e);
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static RemoteException asRemoteException(Throwable cause) {
+        if (cause instanceof RemoteException) {
+            return (RemoteException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new RemoteException("Server call failed", cause);
+    }
+
+    /**
+     * Adds a server and moves to it the keys it now owns. The keys are copied before routing switches to the
+     * new server and removed from their previous servers afterwards, so they stay readable throughout.
+     * Writes made by other clients during the move are not coordinated; add servers while writes are paused.
+     * Moved keys lose their time to live, which a scan does not return.
+     *
+     * @param endpoint The new server as a {@code host:port} string.
+     * @return The number of keys moved to the new server.
+     * @throws IOException       If a server cannot be reached.
+     * @throws NotBoundException If the new server's registry has no store bound.
+     */
+    public synchronized long addNode(String endpoint) throws IOException, NotBoundException {
+        if (ring.nodes().containsKey(endpoint)) {
+            throw new IllegalArgumentException("Server " + endpoint + " is already part of the store.");
+        }
+        Shard added = connect(endpoint);
+        ConsistentHashRing<Shard> before = ring;
+        ConsistentHashRing<Shard> after = before.withNode(endpoint, added);
+
+        // Copy the keys the new server takes over from every existing server, in parallel
+        List<Shard> sources = new ArrayList<>(before.nodes().values());
+        List<Callable<List<String>>> copies = new ArrayList<>(sources.size());
+        for (Shard source : sources) {
+            copies.add(() -> copyOwnedKeys(source, added, after));
+        }
+        List<List<String>> moved = runAll(copies);
+
+        ring = after;
+
+        long count = 0;
+        for (int i = 0; i < sources.size(); i++) {
+            List<String> keys = moved.get(i);
+            for (int from = 0; from < keys.size(); from += MIGRATION_PAGE_SIZE) {
+                int to = Math.min(keys.size(), from + MIGRATION_PAGE_SIZE);
+                sources.get(i).store.multiDelete(new ArrayList<>(keys.subList(from, to)));
+            }
+            count += keys.size();
+        }
+        return count;
+    }
+
+    /**
+     * Copies every key of the source server that the target server owns in the given ring.
+     *
+     * @return The keys that were copied.
+     */
+    private static List<String> copyOwnedKeys(Shard source, Shard target, ConsistentHashRing<Shard> ring)
+            throws RemoteException {
+        List<String> copied = new ArrayList<>();
+        String cursor = null;
+        do {
+            ScanResult page = source.store.scan(cursor, MIGRATION_PAGE_SIZE, null);
+            Map<String, String> moving = new LinkedHashMap<>();
+            for (Map.Entry<String, String> entry : page.getEntries().entrySet()) {
+                if (ring.nodeFor(entry.getKey()) == target) {
+                    moving.put(entry.getKey(), entry.getValue());
+                }
+            }
+            if (!moving.isEmpty()) {
+                for (Map.Entry<String, String> result : target.store.multiPut(moving).entrySet()) {
+                    if (result.getValue().startsWith("OK")) {
+                        copied.add(result.getKey());
+                    }
+                }
+            }
+            cursor = page.getCursor();
+        } while (cursor != null);
+        return copied;
+    }
+
+    /**
+     * Watches a key on the server that owns it, or a prefix on every server; each server pushes its own changes
+     * to the listener. A watch does not follow the keys that {@link #addNode} moves to a new server.
+     */
+    @Override
+    public long watch(String keyOrPrefix, WatchListener listener) throws RemoteException {
+        if (keyOrPrefix == null || keyOrPrefix.isEmpty()) {
+            throw new IllegalArgumentException("Watch requires a key or a prefix followed by *.");
+        }
+        Collection<Shard> targets = keyOrPrefix.endsWith("*")
+                ? ring.nodes().values()
+                : Collections.singletonList(ring.nodeFor(keyOrPrefix));
+        Map<Shard, Long> ids = new LinkedHashMap<>();
+        try {
+            for (Shard shard : targets) {
+                ids.put(shard, shard.store.watch(keyOrPrefix, listener));
+            }
+        } catch (RemoteException | RuntimeException e) {
+            try {
+                unwatchAll(ids);
+            } catch (RemoteException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        long id = nextWatchId.getAndIncrement();
+        watches.put(id, ids);
+        return id;
+    }
+
+    @Override
+    public boolean unwatch(long watchId) throws RemoteException {
+        Map<Shard, Long> ids = watches.remove(watchId);
+        return ids != null && unwatchAll(ids);
+    }
+
+    /**
+     * Stops the server-side watches behind one watch of this client.
+     *
+     * @return True if any of them was active.
+     */
+    private static boolean unwatchAll(Map<Shard, Long> ids) throws RemoteException {
+        boolean active = false;
+        for (Map.Entry<Shard, Long> entry : ids.entrySet()) {
+            active |= entry.getKey().store.unwatch(entry.getValue());
+        }
+        return active;
+    }
+
+    /**
+     * Returns the servers of the store.
+     *
+     * @return The endpoints, in the order scan cursors list them.
+     */
+    public Collection<String> endpoints() {
+        return Collections.unmodifiableCollection(ring.nodes().keySet());
+    }
+
+    /**
+     * Closes the connections to every server.
+     */
+    @Override
+    public void close() {
+        for (Shard shard : ring.nodes().values()) {
+            ClientConfig.close(shard.store);
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * One server of the store.
+     */
+    private static final class Shard {
+        private final String endpoint;
+        private final KeyValueStoreInterface store;
+
+        Shard(String endpoint, KeyValueStoreInterface store) {
+            this.endpoint = endpoint;
+            this.store = store;
+        }
+    }
+
+    /**
+     * Executes the part of a batch owned by one server.
+     */
+    private interface BatchCall {
+        Map<String, String> apply(Shard shard, List<String> keys) throws RemoteException;
+    }
+
+    /**
+     * Requests one page of an ordered scan from a server.
+     */
+    private interface PageCall {
+        ScanResult apply(KeyValueStoreInterface store) throws RemoteException;
+    }
+}
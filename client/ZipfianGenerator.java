@@ -0,0 +1,66 @@
+package client;
+
+import java.util.Random;
+
+/**
+ * ZipfianGenerator draws integers from 0 to n - 1 so that the probability of i is proportional to
+ * 1 / (i + 1)^theta: 0 is the most popular value, 1 the next, and so on.
+ * <p>
+ * It uses the rejection-free method of Gray et al., "Quickly Generating Billion-Record Synthetic Databases",
+ * as popularized by YCSB. Construction sums n terms once; each draw then takes constant time.
+ */
+public class ZipfianGenerator {
+
+    private final long n;
+    private final double zetaN;
+    private final double alpha;
+    private final double eta;
+    private final double halfPowTheta;
+
+    /**
+     * Constructs a generator.
+     *
+     * @param n     The number of distinct values; must be positive.
+     * @param theta The skew, between 0 (exclusive, uniform in the limit) and 1 (exclusive); YCSB uses 0.99.
+     */
+    public ZipfianGenerator(long n, double theta) {
+        if (n < 1) {
+            throw new IllegalArgumentException("The number of values must be positive: " + n);
+        }
+        if (!(theta > 0 && theta < 1)) {
+            throw new IllegalArgumentException("The Zipfian exponent must be between 0 and 1: " + theta);
+        }
+        this.n = n;
+        this.zetaN = zeta(n, theta);
+        this.alpha = 1 / (1 - theta);
+        double zeta2 = zeta(Math.min(n, 2), theta);
+        this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetaN);
+        this.halfPowTheta = 1 + Math.pow(0.5, theta);
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+
+    /**
+     * Draws the next value.
+     *
+     * @param random The source of randomness; each thread should pass its own.
+     * @return A value from 0 to n - 1.
+     */
+    public long next(Random random) {
+        double u = random.nextDouble();
+        double uz = u * zetaN;
+        if (uz < 1) {
+            return 0;
+        }
+        if (uz < halfPowTheta) {
+            return Math.min(1, n - 1);
+        }
+        return Math.min(n - 1, (long) (n * Math.pow(eta * u - eta + 1, alpha)));
+    }
+}
@@ -0,0 +1,76 @@
+package server;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AdmissionControl bounds the number of requests a store executes at once.
+ * <p>
+ * A request that arrives while the limit is reached is rejected at once with a "server busy" error rather than
+ * queued: an overloaded server then keeps answering the requests it admitted in predictable time, and clients learn
+ * immediately that they should back off or try another server instead of waiting on a growing queue.
+ */
+public class AdmissionControl {
+
+    /** The response to a request rejected because the server is saturated. */
+    public static final String BUSY = "ERROR: Server busy, try again later.";
+
+    private final int maxInFlight;
+    private final Semaphore permits;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Constructs an admission control.
+     *
+     * @param maxInFlight The number of requests that may execute at once; must be positive.
+     */
+    public AdmissionControl(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("The in-flight limit must be positive: " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Admits a request if the limit allows. Never blocks.
+     *
+     * @return True if the request may execute; it must then call {@link #exit()} once done.
+     */
+    public boolean tryEnter() {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Ends an admitted request.
+     */
+    public void exit() {
+        permits.release();
+    }
+
+    /**
+     * Returns the number of requests executing now.
+     *
+     * @return The count.
+     */
+    public int inFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Returns the number of requests rejected so far.
+     *
+     * @return The count.
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+}
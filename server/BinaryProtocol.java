@@ -0,0 +1,271 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BinaryProtocol defines the length-prefixed binary wire format of the NIO transport.
+ * <p>
+ * Every message is a frame: a 4-byte length of the rest of the frame, a 4-byte request id chosen by the client,
+ * one byte holding the opcode (requests) or status (responses), and the payload. Strings are encoded as a
+ * 4-byte UTF-8 length followed by the bytes, with length -1 for null. Responses carry the id of their request,
+ * so a client may send many requests before reading any response; the server answers each connection's
+ * requests in the order they were sent.
+ */
+public final class BinaryProtocol {
+
+    /** Frames larger than this are rejected to protect both sides from malformed input. */
+    public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+    /** Size of the length, request id and opcode/status fields that start every frame. */
+    public static final int FRAME_HEADER_LENGTH = 9;
+
+    public static final byte OP_PUT = 1;
+    public static final byte OP_GET = 2;
+    public static final byte OP_DELETE = 3;
+    public static final byte OP_SHOW = 4;
+    public static final byte OP_MULTI_PUT = 5;
+    public static final byte OP_MULTI_GET = 6;
+    public static final byte OP_MULTI_DELETE = 7;
+    public static final byte OP_SCAN = 8;
+    public static final byte OP_REPLICATION_LAG = 9;
+    public static final byte OP_PUT_TTL = 10;
+    public static final byte OP_EXPIRE = 11;
+    public static final byte OP_REPLACE = 12;
+    public static final byte OP_COMPARE_AND_SET = 13;
+    public static final byte OP_INCREMENT = 14;
+    public static final byte OP_APPEND = 15;
+    public static final byte OP_STATS = 16;
+    public static final byte OP_RANGE_SCAN = 17;
+    public static final byte OP_PREFIX_SCAN = 18;
+    public static final byte OP_HOT_KEYS = 19;
+    public static final byte OP_TRANSACTION = 20;
+    public static final byte OP_BULK_LOAD = 21;
+
+    /** The payload holds the result of the operation. */
+    public static final byte STATUS_OK = 0;
+    /** The payload holds an error message string. */
+    public static final byte STATUS_ERROR = 1;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Writer builds one frame in a growable byte array.
+     */
+    public static final class Writer {
+        private byte[] buf;
+        private int length;
+
+        /**
+         * Starts a new frame.
+         *
+         * @param requestId The id that ties a response to its request.
+         * @param code      The opcode of a request or the status of a response.
+         */
+        public Writer(int requestId, byte code) {
+            buf = new byte[128];
+            length = 4; // Frame length, filled in by toByteBuffer()
+            putInt(requestId);
+            putByte(code);
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + extra));
+            }
+        }
+
+        public Writer putByte(byte v) {
+            ensure(1);
+            buf[length++] = v;
+            return this;
+        }
+
+        public Writer putInt(int v) {
+            ensure(4);
+            buf[length++] = (byte) (v >>> 24);
+            buf[length++] = (byte) (v >>> 16);
+            buf[length++] = (byte) (v >>> 8);
+            buf[length++] = (byte) v;
+            return this;
+        }
+
+        public Writer putLong(long v) {
+            putInt((int) (v >>> 32));
+            return putInt((int) v);
+        }
+
+        public Writer putString(String s) {
+            if (s == null) {
+                return putInt(-1);
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, length, bytes.length);
+            length += bytes.length;
+            return this;
+        }
+
+        public Writer putStrings(List<String> strings) {
+            putInt(strings.size());
+            for (String s : strings) {
+                putString(s);
+            }
+            return this;
+        }
+
+        public Writer putMap(Map<String, String> map) {
+            putInt(map.size());
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                putString(entry.getKey());
+                putString(entry.getValue());
+            }
+            return this;
+        }
+
+        public Writer putOps(List<TransactionOp> ops) {
+            putInt(ops.size());
+            for (TransactionOp op : ops) {
+                putByte((byte) op.getType().ordinal());
+                putString(op.getKey());
+                putString(op.getValue());
+            }
+            return this;
+        }
+
+        public Writer putCounts(Map<String, Long> counts) {
+            putInt(counts.size());
+            for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                putString(entry.getKey());
+                putLong(entry.getValue());
+            }
+            return this;
+        }
+
+        /**
+         * Completes the frame.
+         *
+         * @return A buffer holding the whole frame, ready to be written.
+         */
+        public ByteBuffer toByteBuffer() {
+            int frameLength = length - 4;
+            buf[0] = (byte) (frameLength >>> 24);
+            buf[1] = (byte) (frameLength >>> 16);
+            buf[2] = (byte) (frameLength >>> 8);
+            buf[3] = (byte) frameLength;
+            return ByteBuffer.wrap(buf, 0, length);
+        }
+    }
+
+    /**
+     * Reader decodes the payload of one frame.
+     */
+    public static final class Reader {
+        private final ByteBuffer buf;
+
+        /**
+         * Wraps a payload positioned at its first byte.
+         *
+         * @param buf The payload; its limit must be the end of the frame.
+         */
+        public Reader(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        public byte getByte() throws IOException {
+            check(1);
+            return buf.get();
+        }
+
+        public int getInt() throws IOException {
+            check(4);
+            return buf.getInt();
+        }
+
+        public long getLong() throws IOException {
+            check(8);
+            return buf.getLong();
+        }
+
+        public String getString() throws IOException {
+            int len = getInt();
+            if (len < 0) {
+                return null;
+            }
+            check(len);
+            String s;
+            if (buf.hasArray()) {
+                s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+                buf.position(buf.position() + len);
+            } else {
+                byte[] bytes = new byte[len];
+                buf.get(bytes);
+                s = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return s;
+        }
+
+        public List<String> getStrings() throws IOException {
+            int count = getCount();
+            List<String> strings = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                strings.add(getString());
+            }
+            return strings;
+        }
+
+        public Map<String, String> getMap() throws IOException {
+            int count = getCount();
+            Map<String, String> map = new LinkedHashMap<>((int) (count / 0.75f) + 1);
+            for (int i = 0; i < count; i++) {
+                map.put(getString(), getString());
+            }
+            return map;
+        }
+
+        public List<TransactionOp> getOps() throws IOException {
+            int count = getCount();
+            TransactionOp.Type[] types = TransactionOp.Type.values();
+            List<TransactionOp> ops = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int type = getByte();
+                if (type < 0 || type >= types.length) {
+                    throw new IOException("Malformed frame: invalid transaction step " + type);
+                }
+                ops.add(new TransactionOp(types[type], getString(), getString()));
+            }
+            return ops;
+        }
+
+        public Map<String, Long> getCounts() throws IOException {
+            int count = getCount();
+            Map<String, Long> counts = new LinkedHashMap<>((int) (count / 0.75f) + 1);
+            for (int i = 0; i < count; i++) {
+                counts.put(getString(), getLong());
+            }
+            return counts;
+        }
+
+        private int getCount() throws IOException {
+            int count = getInt();
+            // Every element takes at least four bytes, which bounds allocations driven by a corrupt count
+            if (count < 0 || count > buf.remaining() / 4) {
+                throw new IOException("Malformed frame: invalid element count " + count);
+            }
+            return count;
+        }
+
+        private void check(int needed) throws IOException {
+            if (buf.remaining() < needed) {
+                throw new IOException("Malformed frame: truncated payload");
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package server;
+
+import java.util.AbstractMap;
+import java.util.Map;
+
+/**
+ * BulkFormat is a line format for importing and exporting key-value pairs, one pair per line.
+ * <p>
+ * {@link #TSV} lines are the key, a tab and the value, with backslash, tab, newline and carriage return escaped as
+ * {@code \\}, {@code \t}, {@code \n} and {@code \r}. {@link #JSONL} lines are JSON objects with string members
+ * {@code "key"} and {@code "value"}; other members are ignored, and a number or boolean value is taken as its text.
+ */
+public enum BulkFormat {
+    TSV {
+        @Override
+        public Map.Entry<String, String> parse(String line) {
+            int tab = line.indexOf('\t');
+            if (tab <= 0) {
+                return null;
+            }
+            String key = unescapeTsv(line, 0, tab);
+            String value = unescapeTsv(line, tab + 1, line.length());
+            return key != null && value != null ? new AbstractMap.SimpleImmutableEntry<>(key, value) : null;
+        }
+
+        @Override
+        public String format(String key, String value) {
+            StringBuilder sb = new StringBuilder(key.length() + value.length() + 8);
+            escapeTsv(sb, key);
+            sb.append('\t');
+            escapeTsv(sb, value);
+            return sb.toString();
+        }
+    },
+
+    JSONL {
+        @Override
+        public Map.Entry<String, String> parse(String line) {
+            return new JsonLine(line).parse();
+        }
+
+        @Override
+        public String format(String key, String value) {
+            StringBuilder sb = new StringBuilder(key.length() + value.length() + 24);
+            sb.append("{\"key\":");
+            quoteJson(sb, key);
+            sb.append(",\"value\":");
+            quoteJson(sb, value);
+            return sb.append('}').toString();
+        }
+    };
+
+    /**
+     * Parses one line.
+     *
+     * @param line A line without its line terminator.
+     * @return The key-value pair, or null if the line is malformed.
+     */
+    public abstract Map.Entry<String, String> parse(String line);
+
+    /**
+     * Formats one pair as a line, without a line terminator.
+     *
+     * @param key   The key.
+     * @param value The value.
+     * @return The line.
+     */
+    public abstract String format(String key, String value);
+
+    /**
+     * Returns the format a file name suggests: JSONL for {@code .jsonl} and {@code .json} files, otherwise TSV.
+     *
+     * @param fileName The name of the file.
+     * @return The format.
+     */
+    public static BulkFormat forFileName(String fileName) {
+        String name = fileName.toLowerCase();
+        return name.endsWith(".jsonl") || name.endsWith(".json") ? JSONL : TSV;
+    }
+
+    private static String unescapeTsv(String line, int from, int to) {
+        int backslash = line.indexOf('\\', from);
+        if (backslash < 0 || backslash >= to) {
+            return line.substring(from, to);
+        }
+        StringBuilder sb = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            char c = line.charAt(i);
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (++i == to) {
+                return null;
+            }
+            switch (line.charAt(i)) {
+                case '\\':
+                    sb.append('\\');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void escapeTsv(StringBuilder sb, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+    }
+
+    private static void quoteJson(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Reads the key and value of one JSON object line.
+     */
+    private static final class JsonLine {
+        private final String line;
+        private int pos;
+
+        JsonLine(String line) {
+            this.line = line;
+        }
+
+        Map.Entry<String, String> parse() {
+            String key = null;
+            String value = null;
+            skipSpace();
+            if (!consume('{')) {
+                return null;
+            }
+            skipSpace();
+            if (!consume('}')) {
+                do {
+                    skipSpace();
+                    String name = string();
+                    skipSpace();
+                    if (name == null || !consume(':')) {
+                        return null;
+                    }
+                    skipSpace();
+                    String member = scalar();
+                    if (member == null) {
+                        return null;
+                    }
+                    if (name.equals("key")) {
+                        key = member;
+                    } else if (name.equals("value")) {
+                        value = member;
+                    }
+                    skipSpace();
+                } while (consume(','));
+                if (!consume('}')) {
+                    return null;
+                }
+            }
+            skipSpace();
+            return pos == line.length() && key != null && value != null
+                    ? new AbstractMap.SimpleImmutableEntry<>(key, value)
+                    : null;
+        }
+
+        /**
+         * Reads a string, number or boolean; null for anything else, including JSON null.
+         */
+        private String scalar() {
+            if (pos < line.length() && line.charAt(pos) == '"') {
+                return string();
+            }
+            int start = pos;
+            while (pos < line.length() && "+-.0123456789eEtrufals".indexOf(line.charAt(pos)) >= 0) {
+                pos++;
+            }
+            String token = line.substring(start, pos);
+            if (token.equals("true") || token.equals("false")) {
+                return token;
+            }
+            try {
+                Double.parseDouble(token);
+                return token.isEmpty() || !Character.isDigit(token.charAt(token.length() - 1)) ? null : token;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private String string() {
+            if (!consume('"')) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder();
+            while (pos < line.length()) {
+                char c = line.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos == line.length()) {
+                    return null;
+                }
+                char escaped = line.charAt(pos++);
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        sb.append(escaped);
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > line.length()) {
+                            return null;
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(line.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            return null;
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        return null;
+                }
+            }
+            return null;
+        }
+
+        private boolean consume(char c) {
+            if (pos < line.length() && line.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipSpace() {
+            while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+}
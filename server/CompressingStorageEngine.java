@@ -0,0 +1,325 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * CompressingStorageEngine compresses large values before handing them to another storage engine, and restores
+ * them when they are read.
+ * <p>
+ * A value of at least the threshold length is encoded as UTF-8 and compressed by a {@link ValueCodec}, once, when
+ * it is written. The compressed bytes are packed seven bits to a character, so they take about 8/7 bytes per byte
+ * in either engine: one byte per character in the compact strings of the heap engine, and in the UTF-8 of the
+ * off-heap engine. A compressed value starts with a NUL character and the codec's id; a value the codec cannot
+ * shrink by a tenth is stored as it is, and one that happens to start with NUL is escaped with a second marker.
+ * Values are compressed only in memory: the write-ahead log, snapshots and clients see them unchanged.
+ * {@link #storedLength} reports the compressed length, so a memory budget charges what the value actually takes;
+ * it keeps the stored form it computed, and the write of the same value on the same thread reuses it.
+ */
+public class CompressingStorageEngine implements StorageEngine {
+
+    private static final char MARKER = '\u0000';
+    /** Follows the marker in a value stored uncompressed because it starts with the marker itself. */
+    private static final char RAW = 'r';
+    private static final String RAW_PREFIX = new String(new char[]{MARKER, RAW});
+    private static final int HEADER_LENGTH = 2;
+
+    private final StorageEngine engine;
+    private final ValueCodec codec;
+    private final int threshold;
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder incompressible = new LongAdder();
+    private final LongAdder charsIn = new LongAdder();
+    private final LongAdder charsOut = new LongAdder();
+    /** The last value {@link #storedLength} encoded on this thread and its stored form. */
+    private final ThreadLocal<String[]> lastEncoded = ThreadLocal.withInitial(() -> new String[2]);
+
+    /**
+     * Constructs an engine that compresses values into another one.
+     *
+     * @param engine    The empty engine to keep the encoded values in; it is closed with this engine.
+     * @param codec     The codec to compress values with.
+     * @param threshold The length in characters from which values are compressed.
+     */
+    public CompressingStorageEngine(StorageEngine engine, ValueCodec codec, int threshold) {
+        if (codec.id() == RAW || codec.id() > 0x7f) {
+            throw new IllegalArgumentException("Invalid codec id: " + codec.id());
+        }
+        this.engine = engine;
+        this.codec = codec;
+        this.threshold = Math.max(threshold, HEADER_LENGTH + 1);
+    }
+
+    /**
+     * Returns the form a value is stored in, reusing the one {@link #storedLength} computed for it.
+     */
+    private String encode(String value) {
+        if (value == null) {
+            return null;
+        }
+        String[] last = lastEncoded.get();
+        if (last[0] == value) {
+            String stored = last[1];
+            last[0] = null;
+            last[1] = null;
+            return stored;
+        }
+        return encodeNew(value);
+    }
+
+    private String encodeNew(String value) {
+        if (value.length() >= threshold) {
+            String packed = compress(value);
+            if (packed != null) {
+                return packed;
+            }
+        }
+        return !value.isEmpty() && value.charAt(0) == MARKER ? RAW_PREFIX + value : value;
+    }
+
+    /**
+     * Compresses a value.
+     *
+     * @return The stored form, or null if compression does not save a tenth of the value's length.
+     */
+    private String compress(String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        byte[] body = codec.compress(utf8);
+        byte[] payload = new byte[varIntLength(utf8.length) + body.length];
+        int offset = putVarInt(payload, utf8.length);
+        System.arraycopy(body, 0, payload, offset, body.length);
+
+        int packedLength = HEADER_LENGTH + (payload.length * 8 + 6) / 7;
+        if (packedLength > value.length() - value.length() / 10) {
+            incompressible.increment();
+            return null;
+        }
+        char[] chars = new char[packedLength];
+        chars[0] = MARKER;
+        chars[1] = codec.id();
+        pack(payload, chars, HEADER_LENGTH);
+        compressed.increment();
+        charsIn.add(value.length());
+        charsOut.add(packedLength);
+        return new String(chars);
+    }
+
+    /**
+     * Restores a value from its stored form.
+     */
+    private String decode(String stored) {
+        if (stored == null || stored.isEmpty() || stored.charAt(0) != MARKER) {
+            return stored;
+        }
+        char id = stored.charAt(1);
+        if (id == RAW) {
+            return stored.substring(HEADER_LENGTH);
+        }
+        if (id != codec.id()) {
+            throw new IllegalStateException("Value compressed by an unknown codec: " + id);
+        }
+        byte[] payload = unpack(stored, HEADER_LENGTH);
+        int originalLength = 0;
+        int offset = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = payload[offset++];
+            originalLength |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        byte[] utf8 = codec.decompress(payload, offset, payload.length - offset, originalLength);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Packs bytes into characters of seven bits each, starting at the given index.
+     */
+    private static void pack(byte[] bytes, char[] chars, int start) {
+        int bits = 0;
+        int bitCount = 0;
+        int index = start;
+        for (byte b : bytes) {
+            bits = (bits << 8) | (b & 0xff);
+            bitCount += 8;
+            while (bitCount >= 7) {
+                bitCount -= 7;
+                chars[index++] = (char) ((bits >>> bitCount) & 0x7f);
+            }
+        }
+        if (bitCount > 0) {
+            chars[index] = (char) ((bits << (7 - bitCount)) & 0x7f);
+        }
+    }
+
+    /**
+     * Reverses {@link #pack} for the characters of a string from the given index on.
+     */
+    private static byte[] unpack(String chars, int start) {
+        byte[] bytes = new byte[(chars.length() - start) * 7 / 8];
+        int bits = 0;
+        int bitCount = 0;
+        int index = 0;
+        for (int i = start; i < chars.length() && index < bytes.length; i++) {
+            bits = (bits << 7) | chars.charAt(i);
+            bitCount += 7;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                bytes[index++] = (byte) (bits >>> bitCount);
+            }
+        }
+        return bytes;
+    }
+
+    private static int varIntLength(int value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Writes a non-negative int in 7-bit groups, least significant first.
+     *
+     * @return The number of bytes written.
+     */
+    private static int putVarInt(byte[] bytes, int value) {
+        int offset = 0;
+        while ((value & ~0x7f) != 0) {
+            bytes[offset++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        bytes[offset++] = (byte) value;
+        return offset;
+    }
+
+    @Override
+    public String get(String key) {
+        return decode(engine.get(key));
+    }
+
+    @Override
+    public String put(String key, String value) {
+        return decode(engine.put(key, encode(value)));
+    }
+
+    @Override
+    public String putIfAbsent(String key, String value) {
+        return decode(engine.putIfAbsent(key, encode(value)));
+    }
+
+    @Override
+    public String remove(String key) {
+        return decode(engine.remove(key));
+    }
+
+    @Override
+    public String computeIfAbsent(String key, Function<? super String, ? extends String> function) {
+        String[] inserted = {null};
+        String stored = engine.computeIfAbsent(key, k -> {
+            inserted[0] = function.apply(k);
+            return encode(inserted[0]);
+        });
+        // Spares decoding the value just encoded
+        return inserted[0] != null ? inserted[0] : decode(stored);
+    }
+
+    @Override
+    public String computeIfPresent(String key,
+                                   BiFunction<? super String, ? super String, ? extends String> function) {
+        String[] updated = {null};
+        engine.computeIfPresent(key, (k, old) -> {
+            updated[0] = function.apply(k, decode(old));
+            return encode(updated[0]);
+        });
+        return updated[0];
+    }
+
+    @Override
+    public String compute(String key, BiFunction<? super String, ? super String, ? extends String> function) {
+        String[] updated = {null};
+        engine.compute(key, (k, old) -> {
+            updated[0] = function.apply(k, decode(old));
+            return encode(updated[0]);
+        });
+        return updated[0];
+    }
+
+    @Override
+    public int storedLength(String value) {
+        String[] last = lastEncoded.get();
+        if (last[0] != value) {
+            last[1] = encodeNew(value);
+            last[0] = value;
+        }
+        return last[1].length();
+    }
+
+    @Override
+    public int storedLengthOf(String key) {
+        String stored = engine.get(key);
+        return stored != null ? stored.length() : -1;
+    }
+
+    @Override
+    public int size() {
+        return engine.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return engine.isEmpty();
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return decoding(engine.iterator());
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> orderedIterator(String from) {
+        Iterator<Map.Entry<String, String>> entries = engine.orderedIterator(from);
+        return entries == null ? null : decoding(entries);
+    }
+
+    private Iterator<Map.Entry<String, String>> decoding(Iterator<Map.Entry<String, String>> entries) {
+        return new Iterator<Map.Entry<String, String>>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                Map.Entry<String, String> entry = entries.next();
+                return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), decode(entry.getValue()));
+            }
+        };
+    }
+
+    /**
+     * Adds the number of values compressed and the ratio of their lengths before and after compression.
+     */
+    @Override
+    public void addMetrics(Map<String, Number> metrics) {
+        engine.addMetrics(metrics);
+        long in = charsIn.sum();
+        long out = charsOut.sum();
+        metrics.put("compression.values", compressed.sum());
+        metrics.put("compression.incompressible", incompressible.sum());
+        metrics.put("compression.input-chars", in);
+        metrics.put("compression.output-chars", out);
+        metrics.put("compression.ratio", out > 0 ? (double) in / out : 0.0);
+    }
+
+    @Override
+    public void close() {
+        engine.close();
+    }
+}
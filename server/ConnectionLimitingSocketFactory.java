@@ -0,0 +1,138 @@
+package server;
+
+import utils.ILogger;
+import utils.LogLevel;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMISocketFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ConnectionLimitingSocketFactory caps the number of RMI connections a server keeps open.
+ * <p>
+ * The RMI runtime serves every connection on a thread of its own and a client opens a connection for each call it
+ * has outstanding, so a burst of clients would otherwise create threads without bound. Once the cap is reached, a
+ * new connection is accepted and closed at once: the client's call fails immediately instead of waiting in the
+ * accept backlog, and the threads of the admitted connections keep the CPU. Idle connections count until the
+ * client's RMI runtime closes them, after 15 seconds by default.
+ * <p>
+ * Installed with {@link RMISocketFactory#setSocketFactory}, it applies to every remote object the server exports.
+ * Client sockets, such as those of cache invalidation callbacks, are created by the default factory.
+ */
+public class ConnectionLimitingSocketFactory extends RMISocketFactory {
+
+    private static final long WARNING_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final int maxConnections;
+    private final ILogger logger;
+    private final AtomicInteger open = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicLong lastWarning = new AtomicLong(System.nanoTime() - WARNING_INTERVAL_NANOS);
+
+    /**
+     * Constructs a factory.
+     *
+     * @param maxConnections The number of connections the server keeps open at most; must be positive.
+     * @param logger         The logger for rejected connections.
+     */
+    public ConnectionLimitingSocketFactory(int maxConnections, ILogger logger) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("The connection limit must be positive: " + maxConnections);
+        }
+        this.maxConnections = maxConnections;
+        this.logger = logger;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return RMISocketFactory.getDefaultSocketFactory().createSocket(host, port);
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        return new LimitedServerSocket(port);
+    }
+
+    /**
+     * Returns the number of connections open now.
+     *
+     * @return The count.
+     */
+    public int openConnections() {
+        return open.get();
+    }
+
+    /**
+     * Returns the number of connections closed on arrival so far.
+     *
+     * @return The count.
+     */
+    public long rejectedConnections() {
+        return rejected.sum();
+    }
+
+    /**
+     * Counts a rejected connection, logging a warning at most every ten seconds so that an overload does not
+     * flood the log.
+     */
+    private void reject(Socket socket) {
+        rejected.increment();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // The connection is dropped either way
+        }
+        long now = System.nanoTime();
+        long last = lastWarning.get();
+        if (now - last >= WARNING_INTERVAL_NANOS && lastWarning.compareAndSet(last, now)) {
+            logger.log(LogLevel.WARN, "RMI: Server busy, {} connections rejected so far at the limit of {}.",
+                    rejected.sum(), maxConnections);
+        }
+    }
+
+    /**
+     * A server socket that accepts connections while fewer than the limit are open.
+     */
+    private final class LimitedServerSocket extends ServerSocket {
+
+        LimitedServerSocket(int port) throws IOException {
+            super(port);
+        }
+
+        @Override
+        public Socket accept() throws IOException {
+            while (true) {
+                CountedSocket socket = new CountedSocket();
+                implAccept(socket);
+                if (open.incrementAndGet() <= maxConnections) {
+                    socket.counted.set(true);
+                    return socket;
+                }
+                open.decrementAndGet();
+                reject(socket);
+            }
+        }
+    }
+
+    /**
+     * An accepted socket that leaves the count of open connections when it is closed, directly or through its
+     * streams.
+     */
+    private final class CountedSocket extends Socket {
+        private final AtomicBoolean counted = new AtomicBoolean();
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (counted.compareAndSet(true, false)) {
+                open.decrementAndGet();
+            }
+            super.close();
+        }
+    }
+}
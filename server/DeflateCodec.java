@@ -0,0 +1,79 @@
+package server;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * DeflateCodec compresses values with the DEFLATE algorithm of {@link java.util.zip}, without a zlib header.
+ * <p>
+ * Creating a Deflater allocates native buffers of a few hundred kilobytes, so each thread keeps one Deflater and one
+ * Inflater and resets them between values.
+ */
+public class DeflateCodec implements ValueCodec {
+
+    private final int level;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    /**
+     * Constructs a codec.
+     *
+     * @param level The compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}.
+     */
+    public DeflateCodec(int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.level = level;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    }
+
+    @Override
+    public char id() {
+        return 'd';
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] out = new byte[data.length / 2 + 64];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length, int originalLength) {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(data, offset, length);
+        byte[] out = new byte[originalLength];
+        try {
+            int inflated = 0;
+            while (inflated < originalLength) {
+                int n = inflater.inflate(out, inflated, originalLength - inflated);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != originalLength) {
+                throw new IllegalStateException("Compressed value is truncated.");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Compressed value is corrupt: " + e.getMessage(), e);
+        }
+        return out;
+    }
+}
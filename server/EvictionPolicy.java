@@ -0,0 +1,40 @@
+package server;
+
+/**
+ * EvictionPolicy decides which key a memory-bounded store gives up when it is over its budget.
+ * <p>
+ * The notifications arrive from many threads at once, while the store holds the lock of the key concerned, so
+ * they must be cheap and must not call back into the store. {@link #selectVictim()} is only called by one thread
+ * at a time. A policy may return a key that has been removed since; the caller discards it and asks again.
+ */
+public interface EvictionPolicy {
+
+    /**
+     * A key was read.
+     *
+     * @param key     The key.
+     * @param tracked The tracked key, or null if the key is not in the store.
+     */
+    void onAccess(String key, MemoryBudget.TrackedKey tracked);
+
+    /**
+     * A key was inserted.
+     *
+     * @param tracked The new tracked key.
+     */
+    void onInsert(MemoryBudget.TrackedKey tracked);
+
+    /**
+     * A key was removed, by a delete, an expiry or an eviction.
+     *
+     * @param tracked The tracked key.
+     */
+    void onRemove(MemoryBudget.TrackedKey tracked);
+
+    /**
+     * Chooses the next key to evict.
+     *
+     * @return The key to evict, or null if the policy tracks no keys.
+     */
+    MemoryBudget.TrackedKey selectVictim();
+}
@@ -0,0 +1,108 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * FrequencySketch estimates how often each key has been seen recently, in a fixed amount of memory.
+ * <p>
+ * It is a count-min sketch with four 4-bit counters per key, packed sixteen to a long. The estimate is the
+ * smallest of the four counters, so collisions only ever overestimate, and counters stop at 15. After every
+ * ten increments per table slot all counters are halved, so the estimate follows recent popularity rather than
+ * the all-time count.
+ */
+class FrequencySketch {
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private final AtomicLongArray table;
+    private final int mask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger();
+
+    /**
+     * Constructs an empty sketch.
+     *
+     * @param expectedKeys Roughly how many keys the sketch should tell apart.
+     */
+    FrequencySketch(long expectedKeys) {
+        int size = Integer.highestOneBit((int) Math.max(64, Math.min(1 << 22, expectedKeys)) - 1) << 1;
+        this.table = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.sampleSize = 10 * size;
+    }
+
+    /**
+     * Returns the estimated recent frequency of a key, from 0 to 15.
+     */
+    int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            int shift = counterShift(hash, i);
+            frequency = Math.min(frequency, (int) ((table.get(index) >>> shift) & 0xf));
+        }
+        return frequency;
+    }
+
+    /**
+     * Counts one occurrence of a key.
+     */
+    void increment(String key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            added |= incrementAt(indexOf(hash, i), counterShift(hash, i));
+        }
+        if (added && additions.incrementAndGet() >= sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int shift) {
+        long mask = 0xfL << shift;
+        while (true) {
+            long word = table.get(index);
+            if ((word & mask) == mask) {
+                return false;
+            }
+            if (table.compareAndSet(index, word, word + (1L << shift))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Halves every counter. Increments racing with the reset may be lost, which only blurs the estimate.
+     */
+    private void reset() {
+        additions.set(0);
+        for (int i = 0; i < table.length(); i++) {
+            long word;
+            do {
+                word = table.get(i);
+            } while (!table.compareAndSet(i, word, (word >>> 1) & RESET_MASK));
+        }
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & mask;
+    }
+
+    /**
+     * Picks one of the sixteen counters in a long, a different one for each row.
+     */
+    private static int counterShift(int hash, int row) {
+        return (((hash >>> (row << 3)) & 3) << 2 | row) << 2;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
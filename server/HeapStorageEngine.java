@@ -0,0 +1,73 @@
+package server;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * HeapStorageEngine keeps the key-value pairs in a {@link ConcurrentHashMap} on the Java heap.
+ * It is the default engine.
+ */
+public class HeapStorageEngine implements StorageEngine {
+
+    private final ConcurrentHashMap<String, String> map = new ConcurrentHashMap<>();
+
+    @Override
+    public String get(String key) {
+        return map.get(key);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        return map.put(key, value);
+    }
+
+    @Override
+    public String putIfAbsent(String key, String value) {
+        return map.putIfAbsent(key, value);
+    }
+
+    @Override
+    public String remove(String key) {
+        return map.remove(key);
+    }
+
+    @Override
+    public String computeIfAbsent(String key, Function<? super String, ? extends String> function) {
+        return map.computeIfAbsent(key, function);
+    }
+
+    @Override
+    public String computeIfPresent(String key,
+                                   BiFunction<? super String, ? super String, ? extends String> function) {
+        return map.computeIfPresent(key, function);
+    }
+
+    @Override
+    public String compute(String key, BiFunction<? super String, ? super String, ? extends String> function) {
+        return map.compute(key, function);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return Collections.unmodifiableMap(map).entrySet().iterator();
+    }
+
+    @Override
+    public void close() {
+        map.clear();
+    }
+}
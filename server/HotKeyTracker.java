@@ -0,0 +1,209 @@
+package server;
+
+import utils.ILogger;
+import utils.LogLevel;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HotKeyTracker finds the keys that receive the most requests, in a fixed amount of memory.
+ * <p>
+ * One request in {@link #SAMPLE_RATE} is counted, chosen by a thread-local random number, so the others cost a
+ * few nanoseconds and hot keys do not make every request contend on the same counters. A counted key increments
+ * one counter in each row of a count-min sketch; the smallest of them estimates how often the key was counted,
+ * never underestimating. Keys whose estimate beats the least counted of a small set of candidates replace it;
+ * candidates that are already in the set only update their count. Every {@link #DECAY_SECONDS} seconds, on the
+ * first counted request after the period ends, all counts are halved, so the ranking follows recent traffic and
+ * the counters never overflow.
+ */
+public class HotKeyTracker {
+
+    /** Counts one request in this many. */
+    public static final int SAMPLE_RATE = 16;
+    /** How often all counts are halved. */
+    public static final int DECAY_SECONDS = 10;
+    /** The largest number of keys the tracker ranks. */
+    public static final int CAPACITY = 64;
+
+    private static final int ROWS = 4;
+    private static final int ROW_BITS = 12;
+    private static final int ROW_MASK = (1 << ROW_BITS) - 1;
+    private static final int[] SEEDS = {0x9e3779b9, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f};
+    private static final long DECAY_NANOS = TimeUnit.SECONDS.toNanos(DECAY_SECONDS);
+
+    private final AtomicIntegerArray counters = new AtomicIntegerArray(ROWS << ROW_BITS);
+    private final Map<String, Candidate> candidates = new ConcurrentHashMap<>();
+    /** The smallest count a new key needs to become a candidate once the set is full. */
+    private volatile int threshold;
+    private final AtomicLong lastDecayNanos = new AtomicLong(System.nanoTime());
+    private ScheduledExecutorService reporter;
+
+    /**
+     * Counts a request for a key, if it is sampled.
+     *
+     * @param key The requested key.
+     */
+    public void record(String key) {
+        if ((ThreadLocalRandom.current().nextInt() & (SAMPLE_RATE - 1)) != 0) {
+            return;
+        }
+        decayIfDue();
+        int hash = spread(key.hashCode());
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < ROWS; row++) {
+            estimate = Math.min(estimate, counters.incrementAndGet(indexOf(hash, row)));
+        }
+
+        Candidate candidate = candidates.get(key);
+        if (candidate != null) {
+            candidate.count = estimate;
+        } else if (estimate > threshold) {
+            admit(key, estimate);
+        }
+    }
+
+    /**
+     * Adds a key to the candidates, replacing the least counted one if the set is full.
+     */
+    private void admit(String key, int estimate) {
+        synchronized (candidates) {
+            if (candidates.size() >= CAPACITY) {
+                String victim = null;
+                int least = Integer.MAX_VALUE;
+                for (Map.Entry<String, Candidate> entry : candidates.entrySet()) {
+                    if (entry.getValue().count < least) {
+                        least = entry.getValue().count;
+                        victim = entry.getKey();
+                    }
+                }
+                if (least >= estimate) {
+                    threshold = least;
+                    return;
+                }
+                candidates.remove(victim);
+            }
+            candidates.put(key, new Candidate(estimate));
+            updateThreshold();
+        }
+    }
+
+    /**
+     * Recomputes the admission threshold. Called while holding the candidates' lock.
+     */
+    private void updateThreshold() {
+        if (candidates.size() < CAPACITY) {
+            threshold = 0;
+            return;
+        }
+        int least = Integer.MAX_VALUE;
+        for (Candidate candidate : candidates.values()) {
+            least = Math.min(least, candidate.count);
+        }
+        threshold = least;
+    }
+
+    /**
+     * Halves every count once the decay period has passed. Counts racing with the decay may be lost, which only
+     * blurs the estimate.
+     */
+    private void decayIfDue() {
+        long last = lastDecayNanos.get();
+        long now = System.nanoTime();
+        if (now - last < DECAY_NANOS || !lastDecayNanos.compareAndSet(last, now)) {
+            return;
+        }
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, counters.get(i) >>> 1);
+        }
+        synchronized (candidates) {
+            candidates.values().removeIf(candidate -> (candidate.count >>>= 1) == 0);
+            updateThreshold();
+        }
+    }
+
+    /**
+     * Returns the keys with the most requests recently, with their estimated request rates.
+     *
+     * @param limit The largest number of keys to return; capped at {@link #CAPACITY}, and no keys if negative.
+     * @return The estimated requests per second of each key, highest first.
+     */
+    public Map<String, Long> top(int limit) {
+        List<Map.Entry<String, Candidate>> ranked = new ArrayList<>(candidates.entrySet());
+        ranked.sort((a, b) -> Integer.compare(b.getValue().count, a.getValue().count));
+        // A count halved at the last decay and grown since covers one period plus the time since then
+        long window = DECAY_NANOS + Math.max(0, System.nanoTime() - lastDecayNanos.get());
+        Map<String, Long> top = new LinkedHashMap<>();
+        for (Map.Entry<String, Candidate> entry : ranked) {
+            long rate = (long) ((double) entry.getValue().count * SAMPLE_RATE * TimeUnit.SECONDS.toNanos(1) / window);
+            if (top.size() >= limit || rate == 0) {
+                break;
+            }
+            top.put(entry.getKey(), rate);
+        }
+        return top;
+    }
+
+    /**
+     * Logs the hottest keys periodically until {@link #close} is called.
+     *
+     * @param logger          The logger to report to.
+     * @param intervalSeconds The time between reports.
+     * @param limit           The number of keys to report.
+     */
+    public synchronized void startReports(ILogger logger, long intervalSeconds, int limit) {
+        if (reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hot-keys");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> {
+            Map<String, Long> top = top(limit);
+            if (!top.isEmpty()) {
+                logger.log(LogLevel.INFO, "HOT-KEYS: Requests per second: {}", top);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic reports.
+     */
+    public synchronized void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+    }
+
+    private static int indexOf(int hash, int row) {
+        int h = (hash ^ SEEDS[row]) * SEEDS[row];
+        return (row << ROW_BITS) | ((h >>> (32 - ROW_BITS)) & ROW_MASK);
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+
+    /**
+     * A key ranked among the hottest and its estimated count.
+     */
+    private static final class Candidate {
+        private volatile int count;
+
+        Candidate(int count) {
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package server;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Remote callback through which a server tells a caching client which keys have changed.
+ */
+public interface InvalidationListener extends Remote {
+
+    /**
+     * Drops the given keys from the cache; they have been put or deleted since they may have been read.
+     *
+     * @param keys The changed keys.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    void invalidate(String[] keys) throws RemoteException;
+
+    /**
+     * Drops the whole cache; the server no longer knows which keys have changed.
+     *
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    void invalidateAll() throws RemoteException;
+}
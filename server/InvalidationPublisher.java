@@ -0,0 +1,272 @@
+package server;
+
+import utils.ILogger;
+import utils.LogLevel;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implementation of the InvalidationService interface.
+ * <p>
+ * A background thread follows the store's {@link ReplicationLog} and hands the keys of each run of mutations,
+ * without duplicates, to every subscribed client. Like a watch of the {@link WatchPublisher}, each subscription has
+ * at most one callback in progress, on a delivery thread of its own, and its keys keep coalescing meanwhile, so a
+ * slow client does not hold up the others. A subscription whose oldest undelivered invalidation has waited longer
+ * than {@link #MAX_LAG_MILLIS} is dropped: its client then fails to renew the lease, stops using its cache and
+ * subscribes again with an empty one. The publisher starts from the log's head when constructed, so a client
+ * never misses a mutation made after it subscribed; it may only receive a few made just before.
+ */
+public class InvalidationPublisher extends UnicastRemoteObject implements InvalidationService {
+
+    private static final long serialVersionUID = 1L;
+    private static final int BATCH_SIZE = 10000;
+    /** Bounds how long expired subscriptions linger when the store is idle. */
+    private static final long POLL_WAIT_MILLIS = 1000;
+    private static final long MAX_LEASE_MILLIS = 60000;
+    /** How long an invalidation may wait for a subscriber before the subscription is dropped. */
+    public static final long MAX_LAG_MILLIS = 2000;
+    /** Keys a subscription keeps for its listener before it invalidates everything instead. */
+    private static final int MAX_PENDING = 100000;
+
+    private final transient ReplicationLog log;
+    private final transient ILogger logger;
+    private final transient Map<Long, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final transient AtomicLong nextId = new AtomicLong(1);
+    private final transient ExecutorService delivery;
+    private final transient Thread thread;
+    private transient volatile boolean running = true;
+    private transient long nextSeq;
+
+    /**
+     * Constructs a publisher for the mutations appended to a log and starts following it.
+     *
+     * @param log    The replication log of the store.
+     * @param logger The logger for subscriptions and failed callbacks.
+     * @throws RemoteException If the object cannot be exported.
+     */
+    public InvalidationPublisher(ReplicationLog log, ILogger logger) throws RemoteException {
+        super();
+        this.log = log;
+        this.logger = logger;
+        this.nextSeq = log.headSeq();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.delivery = Executors.newCachedThreadPool(r -> {
+            Thread deliveryThread = new Thread(r, "invalidation-delivery-" + threadCount.incrementAndGet());
+            deliveryThread.setDaemon(true);
+            return deliveryThread;
+        });
+        this.thread = new Thread(this::run, "invalidation-publisher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public long subscribe(InvalidationListener listener, long leaseMillis) throws RemoteException {
+        long id = nextId.getAndIncrement();
+        subscriptions.put(id, new Subscription(id, listener,
+                Math.max(1, Math.min(leaseMillis, MAX_LEASE_MILLIS))));
+        logger.log(LogLevel.INFO, "INVALIDATION: Client subscription #{} started.", id);
+        return id;
+    }
+
+    @Override
+    public boolean renew(long subscriptionId) throws RemoteException {
+        Subscription subscription = subscriptions.get(subscriptionId);
+        if (subscription == null) {
+            return false;
+        }
+        subscription.renew();
+        return true;
+    }
+
+    @Override
+    public void unsubscribe(long subscriptionId) throws RemoteException {
+        if (subscriptions.remove(subscriptionId) != null) {
+            logger.log(LogLevel.INFO, "INVALIDATION: Client subscription #{} ended.", subscriptionId);
+        }
+    }
+
+    private void run() {
+        while (running) {
+            ReplicationBatch batch;
+            try {
+                batch = log.read(nextSeq, BATCH_SIZE, POLL_WAIT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            dropExpiredAndLagging();
+            if (batch.isResyncRequired()) {
+                // The log wrapped past mutations not yet published, so any cached key may be stale
+                logger.log(LogLevel.WARN, "INVALIDATION: Fell behind the replication log at #{}.", nextSeq);
+                publish(null);
+            } else if (batch.size() > 0) {
+                Set<String> keys = new LinkedHashSet<>();
+                for (int i = 0; i < batch.size(); i++) {
+                    byte op = batch.getOp(i);
+                    if (op != WriteAheadLog.OP_TX_BEGIN && op != WriteAheadLog.OP_TX_COMMIT) {
+                        keys.add(batch.getKey(i));
+                    }
+                }
+                publish(keys.toArray(new String[0]));
+            }
+            nextSeq = batch.getNextSeq();
+        }
+    }
+
+    private void dropExpiredAndLagging() {
+        long now = System.nanoTime();
+        long maxLagNanos = TimeUnit.MILLISECONDS.toNanos(MAX_LAG_MILLIS);
+        for (Map.Entry<Long, Subscription> entry : subscriptions.entrySet()) {
+            Subscription subscription = entry.getValue();
+            if (subscription.isExpired(now)) {
+                subscriptions.remove(entry.getKey());
+                logger.log(LogLevel.WARN, "INVALIDATION: Client subscription #{} expired.", entry.getKey());
+            } else if (subscription.lagNanos(now) > maxLagNanos) {
+                subscriptions.remove(entry.getKey());
+                logger.log(LogLevel.WARN, "INVALIDATION: Dropped client subscription #{}: invalidations waited "
+                        + "more than {} ms.", entry.getKey(), MAX_LAG_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Hands changed keys to every subscription.
+     *
+     * @param keys The changed keys, or null to invalidate everything.
+     */
+    private void publish(String[] keys) {
+        for (Subscription subscription : subscriptions.values()) {
+            subscription.offer(keys);
+        }
+    }
+
+    /**
+     * Stops publishing.
+     */
+    public void close() {
+        running = false;
+        thread.interrupt();
+        delivery.shutdownNow();
+    }
+
+    /**
+     * A subscribed client, its lease, and the invalidations waiting for its listener.
+     */
+    private final class Subscription {
+        private final long id;
+        private final InvalidationListener listener;
+        private final long leaseNanos;
+        private volatile long expiresAtNanos;
+        // Guarded by this
+        private Set<String> pending = new LinkedHashSet<>();
+        private boolean all;
+        /** Set while a delivery task is queued or running. */
+        private boolean delivering;
+        /** When the oldest undelivered invalidation was offered; valid while delivering. */
+        private long oldestNanos;
+        /** When the oldest of the pending keys was offered; valid while keys are pending. */
+        private long pendingSinceNanos;
+
+        Subscription(long id, InvalidationListener listener, long leaseMillis) {
+            this.id = id;
+            this.listener = listener;
+            this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+            renew();
+        }
+
+        void renew() {
+            expiresAtNanos = System.nanoTime() + leaseNanos;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAtNanos > 0;
+        }
+
+        /**
+         * Returns how long the oldest undelivered invalidation has waited, or 0 if all were delivered.
+         */
+        synchronized long lagNanos(long now) {
+            return delivering ? now - oldestNanos : 0;
+        }
+
+        /**
+         * Adds changed keys to the pending ones.
+         *
+         * @param keys The changed keys, or null to invalidate everything.
+         */
+        void offer(String[] keys) {
+            long now = System.nanoTime();
+            synchronized (this) {
+                if (pending.isEmpty() && !all) {
+                    pendingSinceNanos = now;
+                }
+                if (keys == null || pending.size() + keys.length > MAX_PENDING) {
+                    pending = new LinkedHashSet<>();
+                    all = true;
+                } else if (!all) {
+                    Collections.addAll(pending, keys);
+                }
+                if (delivering) {
+                    return;
+                }
+                delivering = true;
+                oldestNanos = now;
+            }
+            try {
+                delivery.execute(this::deliver);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+            }
+        }
+
+        /**
+         * Calls the listener until no invalidations are pending.
+         */
+        private void deliver() {
+            while (true) {
+                Set<String> keys;
+                boolean invalidateAll;
+                synchronized (this) {
+                    if (pending.isEmpty() && !all) {
+                        delivering = false;
+                        return;
+                    }
+                    keys = pending;
+                    invalidateAll = all;
+                    pending = new LinkedHashSet<>();
+                    all = false;
+                }
+                try {
+                    if (invalidateAll) {
+                        listener.invalidateAll();
+                    } else {
+                        listener.invalidate(keys.toArray(new String[0]));
+                    }
+                } catch (RemoteException | RuntimeException e) {
+                    // Leaves delivering set, so the dropped subscription is never scheduled again
+                    if (subscriptions.remove(id) != null) {
+                        logger.log(LogLevel.WARN, "INVALIDATION: Dropped client subscription #{}: {}", id,
+                                e.getMessage());
+                    }
+                    return;
+                }
+                synchronized (this) {
+                    oldestNanos = pendingSinceNanos;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package server;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Remote interface through which caching clients subscribe to the changes of a server's keys.
+ * A server binds it in its RMI registry as "Invalidation".
+ * <p>
+ * A subscription is a lease: the server drops it when the client does not renew it in time or when a callback
+ * fails, after which {@link #renew} returns false and the client must clear its cache and subscribe again.
+ */
+public interface InvalidationService extends Remote {
+
+    /**
+     * Subscribes a listener to the keys changed from now on.
+     *
+     * @param listener    The callback to send changed keys to.
+     * @param leaseMillis How long the subscription lasts without a renewal.
+     * @return The subscription id.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    long subscribe(InvalidationListener listener, long leaseMillis) throws RemoteException;
+
+    /**
+     * Extends a subscription by its lease.
+     *
+     * @param subscriptionId The id returned by {@link #subscribe}.
+     * @return True if the subscription was still active; false if invalidations may have been missed.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    boolean renew(long subscriptionId) throws RemoteException;
+
+    /**
+     * Ends a subscription.
+     *
+     * @param subscriptionId The id returned by {@link #subscribe}.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    void unsubscribe(long subscriptionId) throws RemoteException;
+}
@@ -1,22 +1,94 @@
 package server;
 
 import utils.ILogger;
+import utils.LogLevel;
 import utils.Logger;
 
+import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * Implementation of the KeyValueStoreInterface.
  * Handles the actual storage and retrieval of key-value pairs.
+ * When a write-ahead log is configured, every mutation is appended to it while the key is locked in the storage engine,
+ * so the log order matches the order of changes to each key, and the reply is sent once the record is durable.
+ * Periodic snapshots bound how much of the log has to be replayed on startup.
+ * A primary also records mutations in a replication log for its replicas; a replica rejects writes from clients
+ * and applies the mutations it pulls from its primary instead.
+ * <p>
+ * Keys can be given a time to live. Their deadlines are kept beside the storage engine and fired by a
+ * {@link TimingWheel}, which removes each key like a DELETE, and reads check the deadline of a key they find so
+ * that no expired key is returned between its deadline and the wheel's next tick.
+ * <p>
+ * With a {@link MemoryBudget} the store evicts keys once its keys and values take more than the budget. An
+ * eviction is recorded like a DELETE, so the write-ahead log, replicas and client caches see it.
+ * <p>
+ * A {@link #transaction} locks the {@link StripedLocks} stripes of its keys exclusively, evaluates its steps, and
+ * applies its writes only if every check passed. Single-key writes hold their key's stripe in shared mode and
+ * single-key reads validate an optimistic stamp, so neither sees a transaction half applied. Expiry and eviction
+ * do not take the stripes.
+ * <p>
+ * Every call is counted and timed by {@link StoreMetrics}; {@link #stats()} returns the figures. The keys of a
+ * sample of calls are counted by a {@link HotKeyTracker}, which {@link #hotKeys} reports. With an
+ * {@link AdmissionControl}, calls beyond its limit are answered at once with {@link AdmissionControl#BUSY}.
  */
 public class KeyValueStoreImpl extends UnicastRemoteObject implements KeyValueStoreInterface {
 
     private static final long serialVersionUID = 1L;
-    private final ConcurrentHashMap<String, String> store;
+
+    /** Returned by a mutation helper when the change was not applied. */
+    private static final long NOT_APPLIED = 0L;
+    /** Returned by a mutation helper when the change was applied without a write-ahead log. */
+    private static final long UNLOGGED = -1L;
+    /** Passed to a mutation helper for a key without a deadline. */
+    private static final long NO_DEADLINE = 0L;
+    private static final long EXPIRY_TICK_MILLIS = 10;
+    private static final int HOT_KEYS_REPORTED = 10;
+    private static final int LOCK_STRIPES = 1024;
+    /** The largest number of steps in a transaction. */
+    public static final int MAX_TRANSACTION_OPS = 1000;
+
+    private final StorageEngine store;
     private final ILogger logger;
+    private final WriteAheadLog wal;
+    private final SnapshotManager snapshots;
+    private final ReplicationLog replicationLog;
+    private volatile ReplicaSync replica;
+    private final ScanCursors scanCursors = new ScanCursors();
+    /** The deadlines of the keys with a time to live, in epoch milliseconds; changed while the key is locked. */
+    private final Map<String, Long> deadlines = new ConcurrentHashMap<>();
+    private final TimingWheel expiryWheel;
+    /** Set once any key gets a deadline; until then mutations can skip the deadline bookkeeping. */
+    private volatile boolean deadlinesUsed;
+    /** Set once a transaction runs; until then a single-key write never waits for another writer. */
+    private volatile boolean transactionsUsed;
+    /** The memory budget to evict keys under, or null for an unbounded store. */
+    private final MemoryBudget memory;
+    private final StoreMetrics metrics = new StoreMetrics();
+    private final HotKeyTracker hotKeys = new HotKeyTracker();
+    /** Isolates transactions; single-key writes hold their key's stripe, transactions every stripe they touch. */
+    private final StripedLocks locks = new StripedLocks(LOCK_STRIPES);
+    /** Bounds the calls executing at once, or null for no limit. */
+    private volatile AdmissionControl admission;
+    /** Pushes changes to watching clients, or null if watches are off. */
+    private volatile WatchPublisher watches;
 
     /**
      * Constructs a new KeyValueStoreImpl object and initializes the store and logger.
@@ -24,9 +96,178 @@ public class KeyValueStoreImpl extends UnicastRemoteObject implements KeyValueSt
      * @throws RemoteException If a remote communication error occurs.
      */
     protected KeyValueStoreImpl() throws RemoteException {
+        this(new Logger("ServerLogger", "ServerLog.log"));
+    }
+
+    /**
+     * Constructs a new KeyValueStoreImpl object that records its operations with the given logger.
+     *
+     * @param logger The logger for store operations; it is owned and closed by the caller.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    protected KeyValueStoreImpl(ILogger logger) throws RemoteException {
+        super();
+        this.store = new HeapStorageEngine();
+        this.logger = logger;
+        this.wal = null;
+        this.snapshots = null;
+        this.replicationLog = null;
+        this.memory = null;
+        this.expiryWheel = new TimingWheel(EXPIRY_TICK_MILLIS, this::onDeadline, logger);
+        expiryWheel.start();
+    }
+
+    /**
+     * Constructs a new KeyValueStoreImpl object that restores its contents from a write-ahead log
+     * and records every subsequent mutation in it.
+     *
+     * @param logger The logger for store operations; it is owned and closed by the caller.
+     * @param wal    The write-ahead log to recover from and append to, or null to keep data in memory only.
+     * @throws IOException If a remote communication error occurs or the log cannot be recovered.
+     */
+    protected KeyValueStoreImpl(ILogger logger, WriteAheadLog wal) throws IOException {
+        this(logger, wal, null);
+    }
+
+    /**
+     * Constructs a new KeyValueStoreImpl object that restores its contents from the latest snapshot and the
+     * write-ahead log segments written after it, then records every subsequent mutation in the log.
+     *
+     * @param logger    The logger for store operations; it is owned and closed by the caller.
+     * @param wal       The write-ahead log to recover from and append to, or null to keep data in memory only.
+     * @param snapshots The snapshot manager to load from and take periodic snapshots with, or null for none.
+     *                  Requires a write-ahead log.
+     * @throws IOException If a remote communication error occurs or the data cannot be recovered.
+     */
+    protected KeyValueStoreImpl(ILogger logger, WriteAheadLog wal, SnapshotManager snapshots) throws IOException {
+        this(logger, new HeapStorageEngine(), wal, snapshots);
+    }
+
+    /**
+     * Constructs a new KeyValueStoreImpl object that keeps its contents in the given storage engine, restoring
+     * them from the latest snapshot and the write-ahead log segments written after it.
+     *
+     * @param logger    The logger for store operations; it is owned and closed by the caller.
+     * @param store     The empty storage engine to keep the key-value pairs in; it is closed with the store.
+     * @param wal       The write-ahead log to recover from and append to, or null to keep data in memory only.
+     * @param snapshots The snapshot manager to load from and take periodic snapshots with, or null for none.
+     *                  Requires a write-ahead log.
+     * @throws IOException If a remote communication error occurs or the data cannot be recovered.
+     */
+    protected KeyValueStoreImpl(ILogger logger, StorageEngine store, WriteAheadLog wal, SnapshotManager snapshots)
+            throws IOException {
+        this(logger, store, wal, snapshots, null);
+    }
+
+    /**
+     * Constructs a new KeyValueStoreImpl object that keeps its contents in the given storage engine, restoring
+     * them from the latest snapshot and the write-ahead log segments written after it, and that records every
+     * mutation in a replication log for replicas to pull.
+     *
+     * @param logger         The logger for store operations; it is owned and closed by the caller.
+     * @param store          The empty storage engine to keep the key-value pairs in; it is closed with the store.
+     * @param wal            The write-ahead log to recover from and append to, or null to keep data in memory only.
+     * @param snapshots      The snapshot manager to load from and take periodic snapshots with, or null for none.
+     *                       Requires a write-ahead log.
+     * @param replicationLog The log to record mutations in for replicas, or null if this store has no replicas.
+     * @throws IOException If a remote communication error occurs or the data cannot be recovered.
+     */
+    protected KeyValueStoreImpl(ILogger logger, StorageEngine store, WriteAheadLog wal, SnapshotManager snapshots,
+                                ReplicationLog replicationLog) throws IOException {
+        this(logger, store, wal, snapshots, replicationLog, null);
+    }
+
+    /**
+     * Constructs a new KeyValueStoreImpl object that keeps its contents in the given storage engine, restoring
+     * them from the latest snapshot and the write-ahead log segments written after it, records every mutation in a
+     * replication log for replicas to pull, and evicts keys to stay within a memory budget.
+     *
+     * @param logger         The logger for store operations; it is owned and closed by the caller.
+     * @param store          The empty storage engine to keep the key-value pairs in; it is closed with the store.
+     * @param wal            The write-ahead log to recover from and append to, or null to keep data in memory only.
+     * @param snapshots      The snapshot manager to load from and take periodic snapshots with, or null for none.
+     *                       Requires a write-ahead log.
+     * @param replicationLog The log to record mutations in for replicas, or null if this store has no replicas.
+     * @param memory         The empty memory budget to evict keys under, or null for an unbounded store.
+     *                       Not supported on replicas, which follow the evictions of their primary.
+     * @throws IOException If a remote communication error occurs or the data cannot be recovered.
+     */
+    protected KeyValueStoreImpl(ILogger logger, StorageEngine store, WriteAheadLog wal, SnapshotManager snapshots,
+                                ReplicationLog replicationLog, MemoryBudget memory) throws IOException {
         super();
-        store = new ConcurrentHashMap<>();
-        logger = new Logger("ServerLogger", "ServerLog.log");
+        this.store = store;
+        this.logger = logger;
+        this.wal = wal;
+        this.snapshots = wal != null ? snapshots : null;
+        this.replicationLog = replicationLog;
+        this.memory = memory;
+        this.expiryWheel = new TimingWheel(EXPIRY_TICK_MILLIS, this::onDeadline, logger);
+        if (wal != null) {
+            try {
+                long replayFromSeq = this.snapshots != null ? this.snapshots.load(store) : 1;
+                long replayed = wal.recover(replayFromSeq, this::applyRecord);
+                logger.log("WAL: Recovered " + store.size() + " keys, replaying " + replayed + " log records.");
+                if (this.snapshots != null) {
+                    // Deadlines are not in the snapshot, so they are logged again after each rotation
+                    this.snapshots.setRotationHook(this::relogDeadlines);
+                    this.snapshots.start(store);
+                }
+            } catch (IOException e) {
+                // Do not leave a half-initialized store exported
+                UnicastRemoteObject.unexportObject(this, true);
+                throw e;
+            }
+        }
+        if (memory != null) {
+            // Recovered keys bypass the mutation helpers, so they are tracked afterwards
+            for (Iterator<Map.Entry<String, String>> it = store.iterator(); it.hasNext(); ) {
+                Map.Entry<String, String> entry = it.next();
+                int length = store.storedLengthOf(entry.getKey());
+                if (length >= 0) {
+                    memory.track(entry.getKey(), length);
+                }
+            }
+            memory.evictIfNeeded(this::evict);
+        }
+        // Started after recovery, so keys that expired while the server was down are removed only once it is up
+        expiryWheel.start();
+    }
+
+    /**
+     * Applies a record read back from the write-ahead log during recovery, or pulled from the primary by a replica.
+     */
+    void applyRecord(byte op, String key, String value) {
+        if (op == WriteAheadLog.OP_PUT) {
+            store.put(key, value);
+        } else if (op == WriteAheadLog.OP_DELETE) {
+            store.remove(key);
+            deadlines.remove(key);
+        } else if (op == WriteAheadLog.OP_EXPIRE && store.get(key) != null) {
+            setDeadline(key, Long.parseLong(value));
+        }
+    }
+
+    /**
+     * Applies the mutations of a transaction pulled from the primary by a replica, holding their stripes so that
+     * readers see either none or all of them.
+     *
+     * @param batch The batch holding the transaction.
+     * @param from  The index of the first mutation after the begin marker.
+     * @param count The number of mutations.
+     */
+    void applyTransaction(ReplicationBatch batch, int from, int count) {
+        List<String> keys = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            keys.add(batch.getKey(i));
+        }
+        StripedLocks.Held held = locks.lockAll(keys);
+        try {
+            for (int i = from; i < from + count; i++) {
+                applyRecord(batch.getOp(i), batch.getKey(i), batch.getValue(i));
+            }
+        } finally {
+            locks.unlockAll(held);
+        }
     }
 
     /**
@@ -39,11 +280,41 @@ public class KeyValueStoreImpl extends UnicastRemoteObject implements KeyValueSt
      */
     @Override
     public String put(String key, String value) throws RemoteException {
-        if (store.putIfAbsent(key, value) == null) {
-            logger.log("PUT: Key=\"" + key + "\", Value=\"" + value + "\" added successfully.");
+        return call(StoreMetrics.Operation.PUT, key, () -> insert(key, value, NO_DEADLINE));
+    }
+
+    /**
+     * Inserts a key-value pair that is removed once the given time has passed.
+     *
+     * @param key       The key to insert.
+     * @param value     The value associated with the key.
+     * @param ttlMillis The time to live of the pair in milliseconds.
+     * @return A status message indicating success or failure.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public String put(String key, String value, long ttlMillis) throws RemoteException {
+        return call(StoreMetrics.Operation.PUT, key, () -> ttlMillis <= 0
+                ? "ERROR: TTL must be positive."
+                : insert(key, value, deadlineAfter(ttlMillis)));
+    }
+
+    private String insert(String key, String value, long deadline) {
+        if (replica != null) {
+            return readOnlyError();
+        }
+        long seq = insertIfAbsent(key, value, deadline);
+        if (memory != null) {
+            memory.evictIfNeeded(this::evict);
+        }
+        if (seq != NOT_APPLIED) {
+            if (!makeDurable(seq)) {
+                return "ERROR: Unable to persist the change.";
+            }
+            logger.log(LogLevel.DEBUG, "PUT: Key=\"{}\", Value=\"{}\" added successfully.", key, value);
             return "OK: Key added successfully.";
         } else {
-            logger.log("PUT FAILED: Key=\"" + key + "\" already exists.");
+            logger.log(LogLevel.DEBUG, "PUT FAILED: Key=\"{}\" already exists.", key);
             return "ERROR: Key already exists.";
         }
     }
@@ -57,16 +328,44 @@ public class KeyValueStoreImpl extends UnicastRemoteObject implements KeyValueSt
      */
     @Override
     public String get(String key) throws RemoteException {
-        if (store.containsKey(key)) {
-            String value = store.get(key);
-            logger.log("GET: Key=\"" + key + "\", Value=\"" + value + "\" retrieved successfully.");
+        return call(StoreMetrics.Operation.GET, key, () -> lookup(key));
+    }
+
+    private String lookup(String key) {
+        if (memory != null) {
+            memory.recordAccess(key);
+        }
+        String value = readValue(key);
+        if (value != null && deadlinesUsed && expireIfDue(key)) {
+            value = null;
+        }
+        metrics.recordRead(value != null);
+        if (value != null) {
+            logger.log(LogLevel.DEBUG, "GET: Key=\"{}\", Value=\"{}\" retrieved successfully.", key, value);
             return "OK: " + value;
         } else {
-            logger.log("GET FAILED: Key=\"" + key + "\" not found.");
+            logger.log(LogLevel.DEBUG, "GET FAILED: Key=\"{}\" not found.", key);
             return "ERROR: Key not found.";
         }
     }
 
+    /**
+     * Reads a key without locking, unless a transaction holding the key's stripe may have changed it meanwhile.
+     */
+    private String readValue(String key) {
+        long stamp = locks.tryOptimisticRead(key);
+        String value = store.get(key);
+        if (!locks.validate(key, stamp)) {
+            stamp = locks.lockKey(key);
+            try {
+                value = store.get(key);
+            } finally {
+                locks.unlockKey(key, stamp);
+            }
+        }
+        return value;
+    }
+
     /**
      * Deletes the key-value pair associated with a given key.
      *
@@ -76,14 +375,251 @@ public class KeyValueStoreImpl extends UnicastRemoteObject implements KeyValueSt
      */
     @Override
     public String delete(String key) throws RemoteException {
-        if (store.containsKey(key)) {
-            store.remove(key);
-            logger.log("DELETE: Key=\"" + key + "\" removed successfully.");
+        return call(StoreMetrics.Operation.DELETE, key, () -> deleteKey(key));
+    }
+
+    private String deleteKey(String key) {
+        if (replica != null) {
+            return readOnlyError();
+        }
+        long seq = removeKey(key);
+        if (seq != NOT_APPLIED) {
+            if (!makeDurable(seq)) {
+                return "ERROR: Unable to persist the change.";
+            }
+            logger.log(LogLevel.DEBUG, "DELETE: Key=\"{}\" removed successfully.", key);
             return "OK: Key deleted successfully.";
         } else {
-            logger.log("DELETE FAILED: Key=\"" + key + "\" does not exist.");
+            logger.log(LogLevel.DEBUG, "DELETE FAILED: Key=\"{}\" does not exist.", key);
+            return "ERROR: Key does not exist.";
+        }
+    }
+
+    /**
+     * Sets the time to live of an existing key, replacing any previous one.
+     *
+     * @param key       The key to expire.
+     * @param ttlMillis The time to live from now in milliseconds.
+     * @return A status message indicating success or failure.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public String expire(String key, long ttlMillis) throws RemoteException {
+        return call(StoreMetrics.Operation.EXPIRE, key, () -> expireKey(key, ttlMillis));
+    }
+
+    private String expireKey(String key, long ttlMillis) {
+        if (replica != null) {
+            return readOnlyError();
+        }
+        if (ttlMillis <= 0) {
+            return "ERROR: TTL must be positive.";
+        }
+        deadlinesUsed = true;
+        long deadline = deadlineAfter(ttlMillis);
+        long[] seq = {NOT_APPLIED};
+        long stamp = locks.lockKey(key);
+        try {
+            if (!expireIfDue(key)) {
+                store.computeIfPresent(key, (k, value) -> {
+                    seq[0] = record(WriteAheadLog.OP_EXPIRE, k, Long.toString(deadline));
+                    setDeadline(k, deadline);
+                    return value;
+                });
+            }
+        } finally {
+            locks.unlockKey(key, stamp);
+        }
+        if (seq[0] != NOT_APPLIED) {
+            if (!makeDurable(seq[0])) {
+                return "ERROR: Unable to persist the change.";
+            }
+            logger.log(LogLevel.DEBUG, "EXPIRE: Key=\"{}\" expires in {} ms.", key, ttlMillis);
+            return "OK: Expiry set.";
+        } else {
+            logger.log(LogLevel.DEBUG, "EXPIRE FAILED: Key=\"{}\" does not exist.", key);
+            return "ERROR: Key does not exist.";
+        }
+    }
+
+    /**
+     * Replaces the value of an existing key. The key keeps its time to live.
+     *
+     * @param key   The key to update.
+     * @param value The new value.
+     * @return A status message indicating success or failure.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public String replace(String key, String value) throws RemoteException {
+        return call(StoreMetrics.Operation.REPLACE, key, () -> replaceValue(key, value));
+    }
+
+    private String replaceValue(String key, String value) {
+        if (replica != null) {
+            return readOnlyError();
+        }
+        long[] seq = {NOT_APPLIED};
+        long stamp = locks.lockKey(key);
+        try {
+            if (!expireIfDue(key)) {
+                store.computeIfPresent(key, (k, old) -> {
+                    seq[0] = recordUpdate(k, value, false);
+                    return value;
+                });
+            }
+        } finally {
+            locks.unlockKey(key, stamp);
+        }
+        if (seq[0] == NOT_APPLIED) {
+            logger.log(LogLevel.DEBUG, "REPLACE FAILED: Key=\"{}\" does not exist.", key);
             return "ERROR: Key does not exist.";
         }
+        if (!finishUpdate(seq[0])) {
+            return "ERROR: Unable to persist the change.";
+        }
+        logger.log(LogLevel.DEBUG, "REPLACE: Key=\"{}\", Value=\"{}\" replaced successfully.", key, value);
+        return "OK: Key replaced successfully.";
+    }
+
+    /**
+     * Replaces the value of an existing key only if it currently holds the expected value.
+     *
+     * @param key      The key to update.
+     * @param expected The value the key must hold.
+     * @param value    The new value.
+     * @return A status message indicating success, a mismatch or a missing key.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public String compareAndSet(String key, String expected, String value) throws RemoteException {
+        return call(StoreMetrics.Operation.COMPARE_AND_SET, key, () -> compareAndSetValue(key, expected, value));
+    }
+
+    private String compareAndSetValue(String key, String expected, String value) {
+        if (replica != null) {
+            return readOnlyError();
+        }
+        long[] seq = {NOT_APPLIED};
+        boolean[] found = {false};
+        long stamp = locks.lockKey(key);
+        try {
+            if (!expireIfDue(key)) {
+                store.computeIfPresent(key, (k, old) -> {
+                    found[0] = true;
+                    if (!old.equals(expected)) {
+                        return old;
+                    }
+                    seq[0] = recordUpdate(k, value, false);
+                    return value;
+                });
+            }
+        } finally {
+            locks.unlockKey(key, stamp);
+        }
+        if (seq[0] == NOT_APPLIED) {
+            logger.log(LogLevel.DEBUG, "CAS FAILED: Key=\"{}\" {}.", key,
+                    found[0] ? "does not hold the expected value" : "does not exist");
+            return found[0] ? "ERROR: Value does not match." : "ERROR: Key does not exist.";
+        }
+        if (!finishUpdate(seq[0])) {
+            return "ERROR: Unable to persist the change.";
+        }
+        logger.log(LogLevel.DEBUG, "CAS: Key=\"{}\", Value=\"{}\" updated successfully.", key, value);
+        return "OK: Value updated.";
+    }
+
+    /**
+     * Adds to the integer value of a key, creating the key with value 0 first if it does not exist.
+     *
+     * @param key   The key of the counter.
+     * @param delta The amount to add; may be negative.
+     * @return "OK: " followed by the new value, or an error message.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public String increment(String key, long delta) throws RemoteException {
+        return call(StoreMetrics.Operation.INCREMENT, key, () -> incrementValue(key, delta));
+    }
+
+    private String incrementValue(String key, long delta) {
+        if (replica != null) {
+            return readOnlyError();
+        }
+        long[] seq = {NOT_APPLIED};
+        String[] error = {null};
+        String result;
+        long stamp = locks.lockKey(key);
+        try {
+            expireIfDue(key);
+            result = store.compute(key, (k, old) -> {
+                long current;
+                try {
+                    current = old == null ? 0 : Long.parseLong(old);
+                } catch (NumberFormatException e) {
+                    error[0] = "ERROR: Value is not an integer.";
+                    return old;
+                }
+                long next;
+                try {
+                    next = Math.addExact(current, delta);
+                } catch (ArithmeticException e) {
+                    error[0] = "ERROR: Increment would overflow.";
+                    return old;
+                }
+                String value = Long.toString(next);
+                seq[0] = recordUpdate(k, value, old == null);
+                return value;
+            });
+        } finally {
+            locks.unlockKey(key, stamp);
+        }
+        if (error[0] != null) {
+            logger.log(LogLevel.DEBUG, "INCREMENT FAILED: Key=\"{}\": {}", key, error[0]);
+            return error[0];
+        }
+        if (!finishUpdate(seq[0])) {
+            return "ERROR: Unable to persist the change.";
+        }
+        logger.log(LogLevel.DEBUG, "INCREMENT: Key=\"{}\" is now {}.", key, result);
+        return "OK: " + result;
+    }
+
+    /**
+     * Appends to the value of a key, creating the key with the suffix as its value if it does not exist.
+     *
+     * @param key    The key to update.
+     * @param suffix The string to append.
+     * @return "OK: " followed by the new length of the value, or an error message.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public String append(String key, String suffix) throws RemoteException {
+        return call(StoreMetrics.Operation.APPEND, key, () -> appendValue(key, suffix));
+    }
+
+    private String appendValue(String key, String suffix) {
+        if (replica != null) {
+            return readOnlyError();
+        }
+        long[] seq = {NOT_APPLIED};
+        String result;
+        long stamp = locks.lockKey(key);
+        try {
+            expireIfDue(key);
+            result = store.compute(key, (k, old) -> {
+                String value = old == null ? suffix : old.concat(suffix);
+                seq[0] = recordUpdate(k, value, old == null);
+                return value;
+            });
+        } finally {
+            locks.unlockKey(key, stamp);
+        }
+        if (!finishUpdate(seq[0])) {
+            return "ERROR: Unable to persist the change.";
+        }
+        logger.log(LogLevel.DEBUG, "APPEND: Key=\"{}\" is now {} characters long.", key, result.length());
+        return "OK: " + result.length();
     }
 
     /**
@@ -94,16 +630,1120 @@ public class KeyValueStoreImpl extends UnicastRemoteObject implements KeyValueSt
      */
     @Override
     public String show() throws RemoteException {
-        if (store.isEmpty()) {
-            logger.log("SHOW: The key-value store is empty.");
+        long start = System.nanoTime();
+        String listing = admit(this::listAll, () -> AdmissionControl.BUSY);
+        metrics.record(StoreMetrics.Operation.SHOW, start);
+        return listing;
+    }
+
+    private String listAll() {
+        StringBuilder sb = new StringBuilder();
+        for (Iterator<Map.Entry<String, String>> it = liveEntries(); it.hasNext(); ) {
+            Map.Entry<String, String> entry = it.next();
+            sb.append(entry.getKey()).append(" : ").append(entry.getValue()).append("\n");
+        }
+        if (sb.length() == 0) {
+            logger.log(LogLevel.DEBUG, "SHOW: The key-value store is empty.");
             return "The key-value store is empty.";
         } else {
-            StringBuilder sb = new StringBuilder();
-            for (Map.Entry<String, String> entry : store.entrySet()) {
-                sb.append(entry.getKey()).append(" : ").append(entry.getValue()).append("\n");
-            }
-            logger.log("SHOW: Displaying all key-value pairs.");
+            logger.log(LogLevel.DEBUG, "SHOW: Displaying all key-value pairs.");
             return sb.toString().trim();
         }
     }
+
+    /**
+     * Returns the next page of a cursor-based scan over the store.
+     *
+     * @param cursor The cursor returned with the previous page, or null to start a new scan.
+     * @param limit  The maximum number of pairs to return in this page.
+     * @param prefix Only return keys starting with this prefix, or null for all keys.
+     * @return The page and the cursor for the next one; the cursor is null once the scan is complete.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public ScanResult scan(String cursor, int limit, String prefix) throws RemoteException {
+        long start = System.nanoTime();
+        ScanResult result = admit(() -> scanCursors.next(cursor, limit, prefix, this::liveEntries), () -> {
+            throw new IllegalStateException(AdmissionControl.BUSY);
+        });
+        logger.log(LogLevel.DEBUG, "SCAN: Returned {} key-value pairs{}.", result.getEntries().size(),
+                result.isComplete() ? ", scan complete" : "");
+        metrics.record(StoreMetrics.Operation.SCAN, start);
+        return result;
+    }
+
+    /**
+     * Returns a page of the key-value pairs whose keys lie in a range, in key order.
+     * With an ordered storage engine a page costs time proportional to its size; otherwise every page is a pass
+     * over the whole store.
+     *
+     * @param from  The lowest key to return, or null to start at the lowest key in the store.
+     * @param to    The key the range ends before, or null for no upper bound.
+     * @param limit The maximum number of pairs to return in this page; capped at {@link ScanCursors#MAX_LIMIT}.
+     * @return The page and the key the next page starts at; the cursor is null once the range is exhausted.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public ScanResult rangeScan(String from, String to, int limit) throws RemoteException {
+        return orderedScan(StoreMetrics.Operation.RANGE_SCAN, from, to, limit);
+    }
+
+    /**
+     * Returns a page of the key-value pairs whose keys start with a prefix, in key order.
+     *
+     * @param prefix The prefix of the keys to return; empty for all keys.
+     * @param from   The lowest key to return, or null to start at the first key with the prefix.
+     * @param limit  The maximum number of pairs to return in this page; capped at {@link ScanCursors#MAX_LIMIT}.
+     * @return The page and the key the next page starts at; the cursor is null once the keys are exhausted.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public ScanResult prefixScan(String prefix, String from, int limit) throws RemoteException {
+        String lowest = prefix == null ? "" : prefix;
+        String start = from == null || from.compareTo(lowest) < 0 ? lowest : from;
+        return orderedScan(StoreMetrics.Operation.PREFIX_SCAN, start, prefixEnd(lowest), limit);
+    }
+
+    private ScanResult orderedScan(StoreMetrics.Operation op, String from, String to, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Scan limit must be positive: " + limit);
+        }
+        long start = System.nanoTime();
+        ScanResult result = admit(() -> rangePage(from, to, Math.min(limit, ScanCursors.MAX_LIMIT)), () -> {
+            throw new IllegalStateException(AdmissionControl.BUSY);
+        });
+        logger.log(LogLevel.DEBUG, "RANGE-SCAN: Returned {} key-value pairs{}.", result.getEntries().size(),
+                result.isComplete() ? ", range complete" : "");
+        metrics.record(op, start);
+        return result;
+    }
+
+    private ScanResult rangePage(String from, String to, int limit) {
+        Iterator<Map.Entry<String, String>> ordered = store.orderedIterator(from);
+        Iterator<Map.Entry<String, String>> entries = ordered != null
+                ? liveEntries(ordered)
+                : lowestInRange(from, to, limit + 1);
+        Map<String, String> page = new LinkedHashMap<>(capacityFor(limit));
+        while (entries.hasNext()) {
+            Map.Entry<String, String> entry = entries.next();
+            if (to != null && entry.getKey().compareTo(to) >= 0) {
+                break;
+            }
+            if (page.size() == limit) {
+                return new ScanResult(page, entry.getKey());
+            }
+            page.put(entry.getKey(), entry.getValue());
+        }
+        return new ScanResult(page, null);
+    }
+
+    /**
+     * Sorts the lowest keys of a range for a storage engine that does not keep its keys in order, in one pass over
+     * the store.
+     */
+    private Iterator<Map.Entry<String, String>> lowestInRange(String from, String to, int count) {
+        TreeMap<String, String> lowest = new TreeMap<>();
+        for (Iterator<Map.Entry<String, String>> it = liveEntries(); it.hasNext(); ) {
+            Map.Entry<String, String> entry = it.next();
+            String key = entry.getKey();
+            if ((from != null && key.compareTo(from) < 0) || (to != null && key.compareTo(to) >= 0)
+                    || (lowest.size() == count && key.compareTo(lowest.lastKey()) > 0)) {
+                continue;
+            }
+            lowest.put(key, entry.getValue());
+            if (lowest.size() > count) {
+                lowest.pollLastEntry();
+            }
+        }
+        return lowest.entrySet().iterator();
+    }
+
+    /**
+     * Returns the lowest key greater than every key starting with a prefix, or null if there is none.
+     */
+    private static String prefixEnd(String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        if (end == 0) {
+            return null;
+        }
+        return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    }
+
+    /**
+     * Inserts a batch of key-value pairs into the store.
+     * Each pair is inserted independently; a failure for one key does not affect the others.
+     *
+     * @param entries The key-value pairs to insert.
+     * @return A map from each key to its status message, in the iteration order of the given entries.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public Map<String, String> multiPut(Map<String, String> entries) throws RemoteException {
+        return callBatch(StoreMetrics.Operation.MULTI_PUT, entries.keySet(), () -> insertAll(entries));
+    }
+
+    private Map<String, String> insertAll(Map<String, String> entries) {
+        if (replica != null) {
+            return rejectAll(entries.keySet(), readOnlyError());
+        }
+        Map<String, String> results = new LinkedHashMap<>(capacityFor(entries.size()));
+        int added = 0;
+        long lastSeq = NOT_APPLIED;
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            long seq = insertIfAbsent(entry.getKey(), entry.getValue(), NO_DEADLINE);
+            if (seq != NOT_APPLIED) {
+                results.put(entry.getKey(), "OK: Key added successfully.");
+                lastSeq = Math.max(lastSeq, seq);
+                added++;
+            } else {
+                results.put(entry.getKey(), "ERROR: Key already exists.");
+            }
+        }
+        if (memory != null) {
+            memory.evictIfNeeded(this::evict);
+        }
+        // One durability wait covers the whole batch
+        if (!makeDurable(lastSeq)) {
+            failApplied(results);
+        }
+        logger.log(LogLevel.DEBUG, "MULTI-PUT: {} of {} keys added successfully.", added, entries.size());
+        return results;
+    }
+
+    /**
+     * Retrieves the values associated with a batch of keys.
+     *
+     * @param keys The keys whose values are to be retrieved.
+     * @return A map from each key to its value or an error message, in the order of the given keys.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public Map<String, String> multiGet(List<String> keys) throws RemoteException {
+        return callBatch(StoreMetrics.Operation.MULTI_GET, keys, () -> lookupAll(keys));
+    }
+
+    private Map<String, String> lookupAll(List<String> keys) {
+        Map<String, String> results = new LinkedHashMap<>(capacityFor(keys.size()));
+        int found = 0;
+        for (String key : keys) {
+            if (memory != null) {
+                memory.recordAccess(key);
+            }
+            String value = readValue(key);
+            if (value != null && deadlinesUsed && expireIfDue(key)) {
+                value = null;
+            }
+            metrics.recordRead(value != null);
+            if (value != null) {
+                results.put(key, "OK: " + value);
+                found++;
+            } else {
+                results.put(key, "ERROR: Key not found.");
+            }
+        }
+        logger.log(LogLevel.DEBUG, "MULTI-GET: {} of {} keys retrieved successfully.", found, keys.size());
+        return results;
+    }
+
+    /**
+     * Deletes a batch of keys from the store.
+     *
+     * @param keys The keys to delete.
+     * @return A map from each key to its status message, in the iteration order of the given keys.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public Map<String, String> multiDelete(Collection<String> keys) throws RemoteException {
+        return callBatch(StoreMetrics.Operation.MULTI_DELETE, keys, () -> removeAll(keys));
+    }
+
+    private Map<String, String> removeAll(Collection<String> keys) {
+        if (replica != null) {
+            return rejectAll(keys, readOnlyError());
+        }
+        Map<String, String> results = new LinkedHashMap<>(capacityFor(keys.size()));
+        int removed = 0;
+        long lastSeq = NOT_APPLIED;
+        for (String key : keys) {
+            long seq = removeKey(key);
+            if (seq != NOT_APPLIED) {
+                results.put(key, "OK: Key deleted successfully.");
+                lastSeq = Math.max(lastSeq, seq);
+                removed++;
+            } else {
+                results.put(key, "ERROR: Key does not exist.");
+            }
+        }
+        if (!makeDurable(lastSeq)) {
+            failApplied(results);
+        }
+        logger.log(LogLevel.DEBUG, "MULTI-DELETE: {} of {} keys removed successfully.", removed, keys.size());
+        return results;
+    }
+
+    /**
+     * Inserts the key-value pairs of a chunk of lines, parsing them on the server. Keys that already exist keep
+     * their values, as with PUT. The whole chunk waits for durability once. Clients load large files by sending
+     * several chunks at once, which the server parses and inserts in parallel on its request threads. Loaded keys
+     * are not counted as hot keys.
+     *
+     * @param lines  Lines separated by newlines, each holding one pair; blank lines are skipped.
+     * @param format The format of the lines.
+     * @return The numbers of keys {@code added}, keys that already {@code existed}, and {@code malformed} lines.
+     * @throws RemoteException       If a remote communication error occurs.
+     * @throws IllegalStateException If the server is a replica or busy, or the keys could not be made durable.
+     */
+    @Override
+    public Map<String, Long> bulkLoad(String lines, BulkFormat format) throws RemoteException {
+        if (lines == null || format == null) {
+            throw new IllegalArgumentException("Bulk load requires lines and a format.");
+        }
+        long start = System.nanoTime();
+        Map<String, Long> counts = admit(() -> loadLines(lines, format), () -> {
+            throw new IllegalStateException(AdmissionControl.BUSY);
+        });
+        long existed = counts.get("existed");
+        long malformed = counts.get("malformed");
+        metrics.record(StoreMetrics.Operation.BULK_LOAD, start, counts.get("added") + existed + malformed,
+                existed + malformed);
+        return counts;
+    }
+
+    private Map<String, Long> loadLines(String lines, BulkFormat format) {
+        if (replica != null) {
+            throw new IllegalStateException("This server is a read-only replica; load data into the primary at "
+                    + replica.getPrimary() + ".");
+        }
+        long added = 0;
+        long existed = 0;
+        long malformed = 0;
+        long lastSeq = NOT_APPLIED;
+        int from = 0;
+        while (from < lines.length()) {
+            int end = lines.indexOf('\n', from);
+            if (end < 0) {
+                end = lines.length();
+            }
+            String line = lines.substring(from, end > from && lines.charAt(end - 1) == '\r' ? end - 1 : end);
+            from = end + 1;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            Map.Entry<String, String> pair = format.parse(line);
+            if (pair == null) {
+                malformed++;
+                continue;
+            }
+            long seq = insertIfAbsent(pair.getKey(), pair.getValue(), NO_DEADLINE);
+            if (seq != NOT_APPLIED) {
+                lastSeq = Math.max(lastSeq, seq);
+                added++;
+            } else {
+                existed++;
+            }
+        }
+        if (memory != null) {
+            memory.evictIfNeeded(this::evict);
+        }
+        if (!makeDurable(lastSeq)) {
+            throw new IllegalStateException("Unable to persist the loaded keys.");
+        }
+        logger.log(LogLevel.DEBUG, "BULK-LOAD: {} keys added, {} already existed, {} malformed lines.", added,
+                existed, malformed);
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counts.put("added", added);
+        counts.put("existed", existed);
+        counts.put("malformed", malformed);
+        return counts;
+    }
+
+    /**
+     * Executes a list of steps atomically: no other call sees some of its writes without the others, and no
+     * write of another call lands between its checks and its writes. The steps run in order, each seeing the
+     * writes of the steps before it. If a check fails, nothing is written, the failed check returns why, and the
+     * writes and the steps after it return "ERROR: Transaction aborted."; the reads before it keep their values.
+     *
+     * @param ops The steps; at most {@link #MAX_TRANSACTION_OPS}.
+     * @return The status message or value of each step, in the order of the steps.
+     * @throws RemoteException          If a remote communication error occurs.
+     * @throws IllegalArgumentException If there are no steps, too many, or a step is malformed.
+     */
+    @Override
+    public List<String> transaction(List<TransactionOp> ops) throws RemoteException {
+        if (ops == null || ops.isEmpty() || ops.size() > MAX_TRANSACTION_OPS) {
+            throw new IllegalArgumentException("A transaction requires 1 to " + MAX_TRANSACTION_OPS + " steps.");
+        }
+        List<String> keys = new ArrayList<>(ops.size());
+        for (TransactionOp op : ops) {
+            // Deserialized steps bypass the constructor's checks
+            if (op == null || op.getType() == null || op.getKey() == null
+                    || (op.getValue() != null) != (op.getType() == TransactionOp.Type.PUT
+                    || op.getType() == TransactionOp.Type.CHECK)) {
+                throw new IllegalArgumentException("Malformed transaction step: " + op);
+            }
+            keys.add(op.getKey());
+        }
+        long start = System.nanoTime();
+        for (String key : keys) {
+            hotKeys.record(key);
+        }
+        return metrics.record(StoreMetrics.Operation.TRANSACTION, start,
+                admit(() -> runTransaction(ops, keys), () -> failAll(ops.size(), AdmissionControl.BUSY)));
+    }
+
+    private List<String> runTransaction(List<TransactionOp> ops, List<String> keys) {
+        if (replica != null) {
+            return failAll(ops.size(), readOnlyError());
+        }
+        transactionsUsed = true;
+        List<String> results = new ArrayList<>(ops.size());
+        // The value of each key before the transaction, and as the steps so far left it; null for absent keys
+        Map<String, String> before = new HashMap<>();
+        Map<String, String> current = new HashMap<>();
+        Set<String> written = new LinkedHashSet<>();
+        int failed = -1;
+        long lastSeq = NOT_APPLIED;
+
+        StripedLocks.Held held = locks.lockAll(keys);
+        try {
+            for (TransactionOp op : ops) {
+                String key = op.getKey();
+                if (!current.containsKey(key)) {
+                    String value = readInTransaction(key);
+                    before.put(key, value);
+                    current.put(key, value);
+                }
+                String value = current.get(key);
+                String result;
+                switch (op.getType()) {
+                    case GET:
+                        metrics.recordRead(value != null);
+                        result = value != null ? "OK: " + value : "ERROR: Key not found.";
+                        break;
+                    case PUT:
+                        current.put(key, op.getValue());
+                        written.add(key);
+                        result = "OK: Key set.";
+                        break;
+                    case DELETE:
+                        if (value == null) {
+                            result = "ERROR: Key does not exist.";
+                        } else {
+                            current.put(key, null);
+                            written.add(key);
+                            result = "OK: Key deleted successfully.";
+                        }
+                        break;
+                    case CHECK:
+                        result = value == null ? "ERROR: Key does not exist."
+                                : value.equals(op.getValue()) ? "OK: Value matches." : "ERROR: Value does not match.";
+                        break;
+                    case EXISTS:
+                        result = value != null ? "OK: Key exists." : "ERROR: Key does not exist.";
+                        break;
+                    default:
+                        result = value == null ? "OK: Key is absent." : "ERROR: Key already exists.";
+                        break;
+                }
+                results.add(result);
+                if (result.startsWith("ERROR") && op.getType() != TransactionOp.Type.GET
+                        && op.getType() != TransactionOp.Type.DELETE) {
+                    failed = results.size() - 1;
+                    break;
+                }
+            }
+
+            if (failed < 0) {
+                List<String> changed = new ArrayList<>(written.size());
+                for (String key : written) {
+                    String value = current.get(key);
+                    if (!Objects.equals(value, before.get(key))) {
+                        if (value != null) {
+                            setInTransaction(key, value);
+                        } else {
+                            removeInTransaction(key);
+                        }
+                        changed.add(key);
+                    }
+                }
+                lastSeq = recordTransaction(changed, current);
+            }
+        } finally {
+            locks.unlockAll(held);
+        }
+
+        if (failed >= 0) {
+            for (int i = 0; i < ops.size(); i++) {
+                if (i > failed) {
+                    results.add("ERROR: Transaction aborted.");
+                } else if (ops.get(i).isWrite()) {
+                    results.set(i, "ERROR: Transaction aborted.");
+                }
+            }
+            logger.log(LogLevel.DEBUG, "TRANSACTION ABORTED: {} failed: {}", ops.get(failed), results.get(failed));
+            return results;
+        }
+        if (memory != null) {
+            memory.evictIfNeeded(this::evict);
+        }
+        if (!makeDurable(lastSeq)) {
+            for (int i = 0; i < ops.size(); i++) {
+                if (ops.get(i).isWrite() && results.get(i).startsWith("OK")) {
+                    results.set(i, "ERROR: Unable to persist the change.");
+                }
+            }
+        }
+        logger.log(LogLevel.DEBUG, "TRANSACTION: {} steps committed, {} keys written.", ops.size(), written.size());
+        return results;
+    }
+
+    /**
+     * Reads a key for a transaction, which holds its stripe; a key past its deadline counts as absent.
+     */
+    private String readInTransaction(String key) {
+        if (deadlinesUsed) {
+            expireIfDue(key);
+        }
+        if (memory != null) {
+            memory.recordAccess(key);
+        }
+        return store.get(key);
+    }
+
+    /**
+     * Sets the value of a key for a transaction, which holds its stripe and logs the change once all its keys are
+     * set. A replaced key keeps its deadline.
+     */
+    private void setInTransaction(String key, String value) {
+        store.compute(key, (k, old) -> {
+            if (old == null && deadlinesUsed) {
+                // Left behind if the key was removed without the bookkeeping while its first deadline was set
+                deadlines.remove(k);
+            }
+            if (memory != null) {
+                memory.track(k, store.storedLength(value));
+            }
+            return value;
+        });
+    }
+
+    /**
+     * Removes a key the transaction read as present, for a transaction, which holds its stripe and logs the
+     * change once all its keys are set.
+     */
+    private void removeInTransaction(String key) {
+        store.remove(key);
+        deadlines.remove(key);
+        if (memory != null) {
+            memory.untrack(key);
+        }
+    }
+
+    /**
+     * Records the changes of a transaction in the replication log and the write-ahead log as one unit, so that
+     * recovery, replicas and subscribers see all of them or none. Must be called while the keys are locked.
+     *
+     * @param changed The keys the transaction changed.
+     * @param values  The new value of each key, null for a removed key.
+     * @return The log sequence number of the last change, {@link #UNLOGGED}, or {@link #NOT_APPLIED} if nothing
+     * changed.
+     */
+    private long recordTransaction(List<String> changed, Map<String, String> values) {
+        if (changed.isEmpty()) {
+            return NOT_APPLIED;
+        }
+        if (changed.size() == 1) {
+            String key = changed.get(0);
+            String value = values.get(key);
+            return record(value != null ? WriteAheadLog.OP_PUT : WriteAheadLog.OP_DELETE, key, value);
+        }
+        byte[] ops = new byte[changed.size()];
+        String[] keys = changed.toArray(new String[0]);
+        String[] newValues = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            newValues[i] = values.get(keys[i]);
+            ops[i] = newValues[i] != null ? WriteAheadLog.OP_PUT : WriteAheadLog.OP_DELETE;
+        }
+        if (replicationLog != null) {
+            replicationLog.appendTransaction(ops, keys, newValues);
+        }
+        return wal != null ? wal.appendTransaction(ops, keys, newValues) : UNLOGGED;
+    }
+
+    /**
+     * Runs a call on a key that answers with a status message, unless admission control rejects it, and records
+     * it in the metrics and the hot keys.
+     */
+    private String call(StoreMetrics.Operation op, String key, Supplier<String> body) {
+        long start = System.nanoTime();
+        hotKeys.record(key);
+        return metrics.record(op, start, admit(body, () -> AdmissionControl.BUSY));
+    }
+
+    /**
+     * Runs a batch call, unless admission control rejects it, and records it in the metrics and each key in the
+     * hot keys. Every key of a rejected batch fails with the busy error.
+     */
+    private Map<String, String> callBatch(StoreMetrics.Operation op, Collection<String> keys,
+                                          Supplier<Map<String, String>> body) {
+        long start = System.nanoTime();
+        for (String key : keys) {
+            hotKeys.record(key);
+        }
+        return metrics.record(op, start, admit(body, () -> rejectAll(keys, AdmissionControl.BUSY)));
+    }
+
+    /**
+     * Runs a call if admission control admits it.
+     *
+     * @param body The call.
+     * @param busy Supplies the answer to a rejected call.
+     */
+    private <T> T admit(Supplier<T> body, Supplier<T> busy) {
+        AdmissionControl limit = admission;
+        if (limit == null) {
+            return body.get();
+        }
+        if (!limit.tryEnter()) {
+            return busy.get();
+        }
+        try {
+            return body.get();
+        } finally {
+            limit.exit();
+        }
+    }
+
+    /**
+     * Inserts a key-value pair if the key is absent, appending the change to the write-ahead log.
+     *
+     * @param deadline When the pair expires, in epoch milliseconds, or {@link #NO_DEADLINE}.
+     * @return The log sequence number of the change, {@link #UNLOGGED}, or {@link #NOT_APPLIED} if the key exists.
+     */
+    private long insertIfAbsent(String key, String value, long deadline) {
+        if (deadline != NO_DEADLINE) {
+            deadlinesUsed = true;
+        }
+        long stamp = locks.lockKey(key);
+        try {
+            return insertIfAbsentLocked(key, value, deadline);
+        } finally {
+            locks.unlockKey(key, stamp);
+        }
+    }
+
+    /**
+     * Inserts a key-value pair if the key is absent. Must be called while the key's stripe is locked.
+     */
+    private long insertIfAbsentLocked(String key, String value, long deadline) {
+        if (plainMutations()) {
+            return store.putIfAbsent(key, value) == null ? UNLOGGED : NOT_APPLIED;
+        }
+        if (deadlinesUsed) {
+            // An expired key the wheel has not removed yet counts as absent
+            expireIfDue(key);
+        }
+        long[] seq = {NOT_APPLIED};
+        store.computeIfAbsent(key, k -> {
+            seq[0] = record(WriteAheadLog.OP_PUT, k, value);
+            if (deadline != NO_DEADLINE) {
+                seq[0] = record(WriteAheadLog.OP_EXPIRE, k, Long.toString(deadline));
+                setDeadline(k, deadline);
+            } else if (deadlinesUsed) {
+                // Left behind if the key was removed without the bookkeeping while its first deadline was set
+                deadlines.remove(k);
+            }
+            if (memory != null) {
+                memory.track(k, store.storedLength(value));
+            }
+            return value;
+        });
+        return seq[0];
+    }
+
+    /**
+     * Removes a key if present, appending the change to the write-ahead log.
+     *
+     * @return The log sequence number of the change, {@link #UNLOGGED}, or {@link #NOT_APPLIED} if the key is absent.
+     */
+    private long removeKey(String key) {
+        long stamp = locks.lockKey(key);
+        try {
+            return removeKeyLocked(key);
+        } finally {
+            locks.unlockKey(key, stamp);
+        }
+    }
+
+    /**
+     * Removes a key if present. Must be called while the key's stripe is locked.
+     */
+    private long removeKeyLocked(String key) {
+        if (plainMutations()) {
+            return store.remove(key) != null ? UNLOGGED : NOT_APPLIED;
+        }
+        if (deadlinesUsed && expireIfDue(key)) {
+            return NOT_APPLIED;
+        }
+        long[] seq = {NOT_APPLIED};
+        store.computeIfPresent(key, (k, old) -> {
+            seq[0] = record(WriteAheadLog.OP_DELETE, k, null);
+            deadlines.remove(k);
+            if (memory != null) {
+                memory.untrack(k);
+            }
+            return null;
+        });
+        return seq[0];
+    }
+
+    /**
+     * Records the new value an atomic update computed for a key. Must be called while the key is locked.
+     *
+     * @param created True if the update created the key.
+     * @return The log sequence number of the change, or {@link #UNLOGGED}.
+     */
+    private long recordUpdate(String key, String value, boolean created) {
+        long seq = record(WriteAheadLog.OP_PUT, key, value);
+        if (created && deadlinesUsed) {
+            // Left behind if the key was removed without the bookkeeping while its first deadline was set
+            deadlines.remove(key);
+        }
+        if (memory != null) {
+            memory.track(key, store.storedLength(value));
+        }
+        return seq;
+    }
+
+    /**
+     * Completes an applied update: evicts if the value grew the store past its budget and waits for durability.
+     *
+     * @return True if the change is durable or no log is configured.
+     */
+    private boolean finishUpdate(long seq) {
+        if (memory != null) {
+            memory.evictIfNeeded(this::evict);
+        }
+        return makeDurable(seq);
+    }
+
+    /**
+     * Returns true if mutations need no bookkeeping while the key is locked, so the storage engine's atomic
+     * operations suffice.
+     */
+    private boolean plainMutations() {
+        return wal == null && replicationLog == null && memory == null && !deadlinesUsed;
+    }
+
+    /**
+     * Evicts a key chosen by the memory budget, recording the removal like a DELETE.
+     *
+     * @return True if the key was present.
+     */
+    private boolean evict(String key) {
+        boolean[] removed = {false};
+        store.computeIfPresent(key, (k, value) -> {
+            record(WriteAheadLog.OP_DELETE, k, null);
+            deadlines.remove(k);
+            memory.untrack(k);
+            removed[0] = true;
+            return null;
+        });
+        if (removed[0]) {
+            logger.log(LogLevel.DEBUG, "EVICT: Key=\"{}\" evicted.", key);
+        }
+        return removed[0];
+    }
+
+    /**
+     * Returns the deadline a time to live from now ends at.
+     */
+    private static long deadlineAfter(long ttlMillis) {
+        long now = System.currentTimeMillis();
+        return ttlMillis > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + ttlMillis;
+    }
+
+    /**
+     * Gives a key a deadline. Must be called while the key is locked, except during recovery.
+     */
+    private void setDeadline(String key, long deadline) {
+        deadlinesUsed = true;
+        deadlines.put(key, deadline);
+        if (replica == null) {
+            expiryWheel.schedule(key, deadline);
+        }
+    }
+
+    /**
+     * Called by the timing wheel; skips timers of keys whose deadline has changed since they were scheduled.
+     */
+    private void onDeadline(String key, long deadline) {
+        Long current = deadlines.get(key);
+        if (current != null && current == deadline) {
+            expireIfDue(key);
+        }
+    }
+
+    /**
+     * Removes a key whose deadline has passed, recording the removal like a DELETE. A replica leaves the removal
+     * to its primary.
+     *
+     * @return True if the key has expired.
+     */
+    private boolean expireIfDue(String key) {
+        Long deadline = deadlines.get(key);
+        if (deadline == null || deadline > System.currentTimeMillis()) {
+            return false;
+        }
+        if (replica == null) {
+            boolean[] removed = {false};
+            store.computeIfPresent(key, (k, value) -> {
+                Long current = deadlines.get(k);
+                if (current == null || current > System.currentTimeMillis()) {
+                    return value;
+                }
+                record(WriteAheadLog.OP_DELETE, k, null);
+                deadlines.remove(k);
+                if (memory != null) {
+                    memory.untrack(k);
+                }
+                removed[0] = true;
+                return null;
+            });
+            if (removed[0]) {
+                metrics.recordExpiration();
+                logger.log(LogLevel.DEBUG, "EXPIRE: Key=\"{}\" expired.", key);
+            } else {
+                // The key was removed without the bookkeeping while its deadline was set
+                deadlines.remove(key, deadline);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Iterates over the pairs of the store, skipping keys past their deadline.
+     */
+    private Iterator<Map.Entry<String, String>> liveEntries() {
+        return liveEntries(store.iterator());
+    }
+
+    /**
+     * Filters an iterator over the pairs of the store, skipping keys past their deadline.
+     */
+    private Iterator<Map.Entry<String, String>> liveEntries(Iterator<Map.Entry<String, String>> entries) {
+        if (!deadlinesUsed) {
+            return entries;
+        }
+        long now = System.currentTimeMillis();
+        return new Iterator<Map.Entry<String, String>>() {
+            private Map.Entry<String, String> next = advance();
+
+            private Map.Entry<String, String> advance() {
+                while (entries.hasNext()) {
+                    Map.Entry<String, String> entry = entries.next();
+                    Long deadline = deadlines.get(entry.getKey());
+                    if (deadline == null || deadline > now) {
+                        return entry;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<String, String> entry = next;
+                next = advance();
+                return entry;
+            }
+        };
+    }
+
+    /**
+     * Appends the deadline of every key to the write-ahead log, after it was rotated for a snapshot.
+     */
+    private void relogDeadlines() throws IOException {
+        long lastSeq = NOT_APPLIED;
+        for (String key : deadlines.keySet()) {
+            long[] seq = {NOT_APPLIED};
+            store.computeIfPresent(key, (k, value) -> {
+                Long deadline = deadlines.get(k);
+                if (deadline != null) {
+                    seq[0] = wal.append(WriteAheadLog.OP_EXPIRE, k, deadline.toString());
+                }
+                return value;
+            });
+            lastSeq = Math.max(lastSeq, seq[0]);
+        }
+        if (lastSeq != NOT_APPLIED) {
+            wal.awaitDurable(lastSeq);
+        }
+    }
+
+    /**
+     * Records a mutation in the replication log and the write-ahead log. Must be called while the key is locked.
+     *
+     * @return The write-ahead log sequence number of the mutation, or {@link #UNLOGGED} without a write-ahead log.
+     */
+    private long record(byte op, String key, String value) {
+        if (replicationLog != null) {
+            replicationLog.append(op, key, value);
+        }
+        return wal != null ? wal.append(op, key, value) : UNLOGGED;
+    }
+
+    /**
+     * Waits until the change with the given log sequence number is durable.
+     *
+     * @param seq The value returned by a mutation helper.
+     * @return True if the change is durable or no log is configured, false if the log could not be written.
+     */
+    private boolean makeDurable(long seq) {
+        if (seq <= NOT_APPLIED) {
+            return true;
+        }
+        try {
+            wal.awaitDurable(seq);
+            return true;
+        } catch (IOException e) {
+            logger.log(LogLevel.ERROR, "WAL: Unable to persist change #{}: {}", seq, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Starts pushing the changes of a key, or of every key with a prefix, to a client's listener.
+     *
+     * @param keyOrPrefix A key, or a prefix followed by {@code *}; {@code *} alone watches every key.
+     * @param listener    The exported callback to push changes to.
+     * @return The watch id, for {@link #unwatch}.
+     * @throws RemoteException          If a remote communication error occurs.
+     * @throws IllegalStateException    If this server does not publish watches.
+     * @throws IllegalArgumentException If the key is empty or the server has too many watches.
+     */
+    @Override
+    public long watch(String keyOrPrefix, WatchListener listener) throws RemoteException {
+        return watchPublisher().watch(keyOrPrefix, listener);
+    }
+
+    /**
+     * Stops a watch.
+     *
+     * @param watchId The id returned by {@link #watch}.
+     * @return True if the watch was active; false if it was already stopped or dropped.
+     * @throws RemoteException       If a remote communication error occurs.
+     * @throws IllegalStateException If this server does not publish watches.
+     */
+    @Override
+    public boolean unwatch(long watchId) throws RemoteException {
+        return watchPublisher().unwatch(watchId);
+    }
+
+    private WatchPublisher watchPublisher() {
+        WatchPublisher publisher = watches;
+        if (publisher == null) {
+            throw new IllegalStateException(replica != null
+                    ? "A replica does not publish changes; watch the primary."
+                    : "Watches are off; start the server with --watches=on.");
+        }
+        return publisher;
+    }
+
+    /**
+     * Returns how far the data of this store may lag behind its primary.
+     *
+     * @return 0 for a primary, or the staleness of this replica in milliseconds.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public long replicationLag() throws RemoteException {
+        ReplicaSync sync = replica;
+        return sync == null ? 0 : sync.lagMillis();
+    }
+
+    /**
+     * Returns the operation counters and latency percentiles of this store, with its size.
+     *
+     * @return The metrics by name, in a fixed order; latencies are in microseconds.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public Map<String, String> stats() throws RemoteException {
+        Map<String, Number> metrics = metrics();
+        Map<String, String> stats = new LinkedHashMap<>(capacityFor(metrics.size()));
+        for (Map.Entry<String, Number> metric : metrics.entrySet()) {
+            Number value = metric.getValue();
+            stats.put(metric.getKey(), value instanceof Double
+                    ? String.format(Locale.ROOT, "%.3f", value.doubleValue())
+                    : value.toString());
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the keys that received the most calls recently, estimated from a sample of the calls.
+     *
+     * @param limit The largest number of keys to return; capped at {@link HotKeyTracker#CAPACITY}.
+     * @return The estimated calls per second of each key, highest first.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public Map<String, Long> hotKeys(int limit) throws RemoteException {
+        return hotKeys.top(limit);
+    }
+
+    /**
+     * Returns the metrics of this store as numbers, for {@link #stats()} and the JMX MBean. The names do not change
+     * over the life of the store.
+     */
+    Map<String, Number> metrics() {
+        Map<String, Number> snapshot = new LinkedHashMap<>();
+        snapshot.put("keys", (long) store.size());
+        if (memory != null) {
+            snapshot.put("memory.used-bytes", memory.usedBytes());
+            snapshot.put("memory.max-bytes", memory.maxBytes());
+            snapshot.put("evictions", memory.evictions());
+        }
+        store.addMetrics(snapshot);
+        ReplicaSync sync = replica;
+        snapshot.put("replication-lag-ms", sync == null ? 0 : sync.lagMillis());
+        AdmissionControl limit = admission;
+        if (limit != null) {
+            snapshot.put("admission.in-flight", limit.inFlight());
+            snapshot.put("admission.max-in-flight", limit.getMaxInFlight());
+            snapshot.put("admission.rejected", limit.rejected());
+        }
+        WatchPublisher publisher = watches;
+        if (publisher != null) {
+            snapshot.put("watches.active", publisher.activeWatches());
+            snapshot.put("watches.delivered", publisher.deliveredChanges());
+        }
+        metrics.snapshotInto(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Limits the number of calls the store executes at once; calls beyond the limit are rejected as busy.
+     * Must be called before the store is published.
+     */
+    void limitInFlight(AdmissionControl admission) {
+        this.admission = admission;
+    }
+
+    /**
+     * Logs the hottest keys periodically until the store is closed.
+     *
+     * @param intervalSeconds The time between reports, or 0 for none.
+     */
+    void reportHotKeys(int intervalSeconds) {
+        if (intervalSeconds > 0) {
+            hotKeys.startReports(logger, intervalSeconds, HOT_KEYS_REPORTED);
+        }
+    }
+
+    /**
+     * Lets clients watch keys through the given publisher. Must be called before the store is published.
+     */
+    void publishWatches(WatchPublisher watches) {
+        this.watches = watches;
+    }
+
+    /**
+     * Checks whether a single-key write may wait: for the write-ahead log, for the eviction lock of the memory
+     * budget, or for a transaction holding its stripe once transactions are in use.
+     */
+    boolean writesMayWait() {
+        return wal != null || memory != null || transactionsUsed;
+    }
+
+    /**
+     * Turns this store into a read-only replica kept up to date by the given ReplicaSync.
+     */
+    void becomeReplicaOf(ReplicaSync sync) {
+        replica = sync;
+    }
+
+    /**
+     * Removes every key, before a replica reloads the store from its primary.
+     */
+    void clearReplica() {
+        for (Iterator<Map.Entry<String, String>> it = store.iterator(); it.hasNext(); ) {
+            store.remove(it.next().getKey());
+        }
+        deadlines.clear();
+    }
+
+    private String readOnlyError() {
+        return "ERROR: This server is a read-only replica; send writes to the primary at "
+                + replica.getPrimary() + ".";
+    }
+
+    /**
+     * Fails every step of a transaction with the same error.
+     */
+    private static List<String> failAll(int steps, String error) {
+        return new ArrayList<>(Collections.nCopies(steps, error));
+    }
+
+    /**
+     * Fails every key of a batch with the same error.
+     */
+    private static Map<String, String> rejectAll(Collection<String> keys, String error) {
+        Map<String, String> results = new LinkedHashMap<>(capacityFor(keys.size()));
+        for (String key : keys) {
+            results.put(key, error);
+        }
+        return results;
+    }
+
+    /**
+     * Marks every successful entry of a batch result as failed after the batch could not be made durable.
+     */
+    private static void failApplied(Map<String, String> results) {
+        for (Map.Entry<String, String> entry : results.entrySet()) {
+            if (entry.getValue().startsWith("OK")) {
+                entry.setValue("ERROR: Unable to persist the change.");
+            }
+        }
+    }
+
+    /**
+     * Releases the resources held by the store, syncing and closing the write-ahead log.
+     */
+    public void close() {
+        expiryWheel.close();
+        hotKeys.close();
+        if (memory != null) {
+            memory.logStats();
+        }
+        if (snapshots != null) {
+            snapshots.close();
+        }
+        if (wal != null) {
+            try {
+                wal.close();
+            } catch (IOException e) {
+                logger.log(LogLevel.ERROR, "WAL: Error while closing the log: {}", e.getMessage());
+            }
+        }
+        store.close();
+    }
+
+    /**
+     * Returns an initial capacity that lets a hash map hold the given number of entries without resizing.
+     */
+    private static int capacityFor(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
 }
@@ -2,6 +2,9 @@ package server;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Remote interface for the Key-Value Store.
@@ -19,6 +22,17 @@ public interface KeyValueStoreInterface extends Remote {
      */
     String put(String key, String value) throws RemoteException;
 
+    /**
+     * Inserts a key-value pair that is removed once its time to live has passed.
+     *
+     * @param key       The key to insert.
+     * @param value     The value associated with the key.
+     * @param ttlMillis The time to live of the pair in milliseconds; must be positive.
+     * @return A status message indicating success or failure.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    String put(String key, String value, long ttlMillis) throws RemoteException;
+
     /**
      * Retrieves the value associated with a given key.
      *
@@ -37,11 +51,207 @@ public interface KeyValueStoreInterface extends Remote {
      */
     String delete(String key) throws RemoteException;
 
+    /**
+     * Sets the time to live of an existing key, replacing any previous one.
+     *
+     * @param key       The key to expire.
+     * @param ttlMillis The time to live from now in milliseconds; must be positive.
+     * @return A status message indicating success or failure.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    String expire(String key, long ttlMillis) throws RemoteException;
+
+    /**
+     * Replaces the value of an existing key. The key keeps its time to live.
+     *
+     * @param key   The key to update.
+     * @param value The new value.
+     * @return A status message indicating success or failure.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    String replace(String key, String value) throws RemoteException;
+
+    /**
+     * Replaces the value of an existing key only if it currently holds the expected value.
+     *
+     * @param key      The key to update.
+     * @param expected The value the key must hold.
+     * @param value    The new value.
+     * @return A status message indicating success, a mismatch or a missing key.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    String compareAndSet(String key, String expected, String value) throws RemoteException;
+
+    /**
+     * Adds to the integer value of a key, creating the key with value 0 first if it does not exist.
+     *
+     * @param key   The key of the counter.
+     * @param delta The amount to add; may be negative.
+     * @return "OK: " followed by the new value, or an error message if the value is not a 64-bit integer or the
+     * result would overflow.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    String increment(String key, long delta) throws RemoteException;
+
+    /**
+     * Appends to the value of a key, creating the key with the suffix as its value if it does not exist.
+     *
+     * @param key    The key to update.
+     * @param suffix The string to append.
+     * @return "OK: " followed by the new length of the value, or an error message.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    String append(String key, String suffix) throws RemoteException;
+
     /**
      * Displays all key-value pairs in the store.
+     * The whole store is returned in one response; use {@link #scan} for large stores.
      *
      * @return A string representation of all key-value pairs, or a message if the store is empty.
      * @throws RemoteException If a remote communication error occurs.
      */
     String show() throws RemoteException;
+
+    /**
+     * Returns the next page of key-value pairs of a cursor-based scan over the store.
+     * Keys present for the whole scan are returned exactly once, in no particular order.
+     *
+     * @param cursor The cursor returned with the previous page, or null to start a new scan.
+     * @param limit  The maximum number of pairs to return in this page.
+     * @param prefix Only return keys starting with this prefix, or null for all keys.
+     * @return The page and the cursor for the next one; the cursor is null once the scan is complete.
+     * @throws RemoteException          If a remote communication error occurs.
+     * @throws IllegalArgumentException If the cursor is unknown or has expired, or the limit is not positive.
+     */
+    ScanResult scan(String cursor, int limit, String prefix) throws RemoteException;
+
+    /**
+     * Returns a page of the key-value pairs whose keys lie in a range, in key order.
+     * The next page starts at the returned cursor, which is a key: pass it as {@code from} with the same bound.
+     *
+     * @param from  The lowest key to return, or null to start at the lowest key in the store.
+     * @param to    The key the range ends before, or null for no upper bound.
+     * @param limit The maximum number of pairs to return in this page.
+     * @return The page and the key the next page starts at; the cursor is null once the range is exhausted.
+     * @throws RemoteException          If a remote communication error occurs.
+     * @throws IllegalArgumentException If the limit is not positive.
+     */
+    ScanResult rangeScan(String from, String to, int limit) throws RemoteException;
+
+    /**
+     * Returns a page of the key-value pairs whose keys start with a prefix, in key order.
+     * The next page starts at the returned cursor, which is a key: pass it as {@code from} with the same prefix.
+     *
+     * @param prefix The prefix of the keys to return; empty for all keys.
+     * @param from   The lowest key to return, or null to start at the first key with the prefix.
+     * @param limit  The maximum number of pairs to return in this page.
+     * @return The page and the key the next page starts at; the cursor is null once the keys are exhausted.
+     * @throws RemoteException          If a remote communication error occurs.
+     * @throws IllegalArgumentException If the limit is not positive.
+     */
+    ScanResult prefixScan(String prefix, String from, int limit) throws RemoteException;
+
+    /**
+     * Inserts a batch of key-value pairs into the store in a single remote call.
+     *
+     * @param entries The key-value pairs to insert.
+     * @return A map from each key to its status message, in the iteration order of the given entries.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    Map<String, String> multiPut(Map<String, String> entries) throws RemoteException;
+
+    /**
+     * Retrieves the values associated with a batch of keys in a single remote call.
+     *
+     * @param keys The keys whose values are to be retrieved.
+     * @return A map from each key to its value or an error message, in the order of the given keys.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    Map<String, String> multiGet(List<String> keys) throws RemoteException;
+
+    /**
+     * Deletes a batch of keys in a single remote call.
+     *
+     * @param keys The keys to delete.
+     * @return A map from each key to its status message, in the iteration order of the given keys.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    Map<String, String> multiDelete(Collection<String> keys) throws RemoteException;
+
+    /**
+     * Executes reads, writes and checks on several keys atomically in a single remote call. The steps run in
+     * order and each sees the writes of the steps before it; if a CHECK, EXISTS or ABSENT step fails, none of the
+     * writes is applied.
+     *
+     * @param ops The steps of the transaction.
+     * @return The status message or value of each step, in the order of the steps; the steps of an aborted
+     * transaction that were not applied return "ERROR: Transaction aborted."
+     * @throws RemoteException          If a remote communication error occurs.
+     * @throws IllegalArgumentException If there are no steps, too many, or the keys belong to several servers.
+     */
+    List<String> transaction(List<TransactionOp> ops) throws RemoteException;
+
+    /**
+     * Inserts the key-value pairs of a chunk of lines in a single remote call, parsing them on the server. Keys that
+     * already exist keep their values.
+     *
+     * @param lines  Lines separated by newlines, each holding one pair; blank lines are skipped.
+     * @param format The format of the lines.
+     * @return The numbers of keys {@code added}, keys that already {@code existed}, and {@code malformed} lines.
+     * @throws RemoteException       If a remote communication error occurs.
+     * @throws IllegalStateException If the server is a replica or busy, or the keys could not be made durable.
+     */
+    Map<String, Long> bulkLoad(String lines, BulkFormat format) throws RemoteException;
+
+    /**
+     * Returns how far the data served by this server may lag behind the primary it replicates.
+     *
+     * @return The staleness bound in milliseconds: 0 for a primary, {@link Long#MAX_VALUE} for a replica that
+     * has not caught up with its primary yet.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    long replicationLag() throws RemoteException;
+
+    /**
+     * Returns the metrics of the server: its size, and the number of calls, failures and latency percentiles
+     * of each operation since it started.
+     *
+     * @return The metrics by name, in a fixed order, with the values formatted as numbers; latencies are in
+     * microseconds.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    Map<String, String> stats() throws RemoteException;
+
+    /**
+     * Returns the keys that received the most requests recently. The server counts a sample of the requests in a
+     * fixed amount of memory, so the figures are estimates, and a key must be requested often to be listed.
+     *
+     * @param limit The largest number of keys to return.
+     * @return The estimated requests per second of each key, highest first.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    Map<String, Long> hotKeys(int limit) throws RemoteException;
+
+    /**
+     * Starts pushing the changes of a key, or of every key with a prefix, to a listener the client has exported.
+     * Rapid changes to a key are coalesced, so the listener may only see its latest value.
+     *
+     * @param keyOrPrefix A key, or a prefix followed by {@code *}; {@code *} alone watches every key.
+     * @param listener    The exported callback to push changes to.
+     * @return The watch id, for {@link #unwatch}.
+     * @throws RemoteException          If a remote communication error occurs.
+     * @throws IllegalStateException    If the server does not publish watches.
+     * @throws IllegalArgumentException If the key is empty or the server has too many watches.
+     */
+    long watch(String keyOrPrefix, WatchListener listener) throws RemoteException;
+
+    /**
+     * Stops a watch.
+     *
+     * @param watchId The id returned by {@link #watch}.
+     * @return True if the watch was active; false if it was already stopped, or dropped after a failed callback.
+     * @throws RemoteException       If a remote communication error occurs.
+     * @throws IllegalStateException If the server does not publish watches.
+     */
+    boolean unwatch(long watchId) throws RemoteException;
 }
@@ -0,0 +1,202 @@
+package server;
+
+import utils.ILogger;
+import utils.LogLevel;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * MemoryBudget bounds the approximate memory a store's keys and values take and evicts keys to stay within it.
+ * <p>
+ * The store reports inserts, removals and reads while it holds the key's lock; these only touch the key's own
+ * entry, one stripe of the policy and an atomic byte count, so writers do not contend on a global lock. A writer
+ * that finds the store over budget afterwards evicts until it is within budget again. Only one thread evicts at a
+ * time; the others carry on, unless the store has overshot the budget by a tenth, in which case they wait for the
+ * evicting thread.
+ */
+public class MemoryBudget {
+
+    /**
+     * Removes evicted keys from the store.
+     */
+    public interface Evictor {
+        /**
+         * Evicts a key.
+         *
+         * @param key The key.
+         * @return True if the key was in the store.
+         */
+        boolean evict(String key);
+    }
+
+    /** Approximate size of the store's and the budget's bookkeeping for one entry, in bytes. */
+    static final int ENTRY_OVERHEAD = 128;
+    /** Victims to go through without freeing memory before giving up on an eviction round. */
+    private static final int MAX_FUTILE_VICTIMS = 1000;
+
+    private final long maxBytes;
+    private final EvictionPolicy policy;
+    private final ILogger logger;
+    private final ConcurrentHashMap<String, TrackedKey> keys = new ConcurrentHashMap<>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final LongAdder evictions = new LongAdder();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /**
+     * Constructs an empty budget.
+     *
+     * @param maxBytes The budget in bytes.
+     * @param policy   The policy that chooses which keys to evict.
+     * @param logger   The logger.
+     */
+    public MemoryBudget(long maxBytes, EvictionPolicy policy, ILogger logger) {
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+        this.logger = logger;
+    }
+
+    /**
+     * Estimates the memory an entry takes. Java strings take two bytes per character.
+     */
+    static long sizeOf(String key, int valueLength) {
+        return 2L * (key.length() + valueLength) + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Starts tracking an inserted key. Called while the store holds the key's lock.
+     *
+     * @param key         The key.
+     * @param valueLength The length of the value in the form the storage engine keeps it, e.g. compressed.
+     */
+    public void track(String key, int valueLength) {
+        TrackedKey tracked = new TrackedKey(key, sizeOf(key, valueLength));
+        TrackedKey previous = keys.put(key, tracked);
+        if (previous != null) {
+            usedBytes.addAndGet(-previous.size);
+            policy.onRemove(previous);
+        }
+        usedBytes.addAndGet(tracked.size);
+        policy.onInsert(tracked);
+    }
+
+    /**
+     * Stops tracking a removed key. Called while the store holds the key's lock.
+     */
+    public void untrack(String key) {
+        TrackedKey tracked = keys.get(key);
+        if (tracked != null) {
+            forget(tracked);
+        }
+    }
+
+    /**
+     * Records a read of a key, whether or not it is present.
+     */
+    public void recordAccess(String key) {
+        policy.onAccess(key, keys.get(key));
+    }
+
+    /**
+     * Evicts keys until the store is within budget, unless another thread is already doing so.
+     *
+     * @param evictor Removes the chosen keys from the store.
+     */
+    public void evictIfNeeded(Evictor evictor) {
+        if (usedBytes.get() <= maxBytes) {
+            return;
+        }
+        if (!evictionLock.tryLock()) {
+            if (usedBytes.get() <= maxBytes + maxBytes / 10) {
+                return;
+            }
+            // Writers are outrunning the evicting thread; hold them back until it catches up
+            evictionLock.lock();
+        }
+        try {
+            int futile = 0;
+            while (usedBytes.get() > maxBytes && futile < MAX_FUTILE_VICTIMS) {
+                TrackedKey victim = policy.selectVictim();
+                if (victim == null) {
+                    break;
+                }
+                if (keys.get(victim.key) != victim) {
+                    // Removed or replaced while the policy still held it
+                    policy.onRemove(victim);
+                    futile++;
+                } else if (evictor.evict(victim.key)) {
+                    evictions.increment();
+                } else {
+                    // Not in the store after all; forget it unless the key was inserted again meanwhile
+                    forget(victim);
+                    futile++;
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void forget(TrackedKey tracked) {
+        if (keys.remove(tracked.key, tracked)) {
+            usedBytes.addAndGet(-tracked.size);
+            policy.onRemove(tracked);
+        }
+    }
+
+    /**
+     * Returns the approximate memory the tracked keys and values take.
+     *
+     * @return The used bytes.
+     */
+    public long usedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * Returns the budget.
+     *
+     * @return The budget in bytes.
+     */
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the number of keys evicted so far.
+     *
+     * @return The number of evictions.
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Logs how much of the budget is in use and how many keys were evicted.
+     */
+    public void logStats() {
+        logger.log(LogLevel.INFO, "EVICTION: {} of {} bytes used, {} keys evicted", usedBytes(), maxBytes,
+                evictions());
+    }
+
+    /**
+     * A key the budget tracks, with the state the policies keep for it.
+     */
+    public static final class TrackedKey {
+        final String key;
+        final int hash;
+        final long size;
+        volatile long lastAccess = System.nanoTime();
+        /** The key's position in a {@link SampledKeySet}, guarded by the set's stripe lock. */
+        int slot = -1;
+
+        TrackedKey(String key, long size) {
+            this.key = key;
+            int h = key.hashCode();
+            this.hash = h ^ (h >>> 16);
+            this.size = size;
+        }
+    }
+}
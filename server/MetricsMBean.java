@@ -0,0 +1,103 @@
+package server;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ReflectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * MetricsMBean publishes the metrics of a store over JMX, one read-only attribute per metric, so that JConsole,
+ * VisualVM or a JMX exporter can chart them.
+ * <p>
+ * The attributes are read from a snapshot of all metrics. Monitoring tools fetch attributes one at a time, so a
+ * snapshot is reused for a second rather than computing every percentile again for each attribute.
+ */
+public class MetricsMBean implements DynamicMBean {
+
+    private static final long SNAPSHOT_MAX_AGE_NANOS = 1_000_000_000L;
+
+    private final Supplier<Map<String, Number>> source;
+    private final MBeanInfo info;
+    private Map<String, Number> snapshot;
+    private long snapshotAt;
+
+    /**
+     * Constructs an MBean over a source of metrics.
+     *
+     * @param description The description shown by JMX clients.
+     * @param source      Returns the current metrics; the names must not change between calls.
+     */
+    public MetricsMBean(String description, Supplier<Map<String, Number>> source) {
+        this.source = source;
+        Map<String, Number> first = snapshot();
+        List<MBeanAttributeInfo> attributes = new ArrayList<>(first.size());
+        for (Map.Entry<String, Number> metric : first.entrySet()) {
+            attributes.add(new MBeanAttributeInfo(metric.getKey(), metric.getValue().getClass().getName(),
+                    metric.getKey(), true, false, false));
+        }
+        this.info = new MBeanInfo(getClass().getName(), description,
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+
+    /**
+     * Returns the latest snapshot, taking a new one if it is older than a second.
+     */
+    private synchronized Map<String, Number> snapshot() {
+        long now = System.nanoTime();
+        if (snapshot == null || now - snapshotAt > SNAPSHOT_MAX_AGE_NANOS) {
+            snapshot = source.get();
+            snapshotAt = now;
+        }
+        return snapshot;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException("Unknown metric: " + attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> metrics = snapshot();
+        AttributeList list = new AttributeList(attributes.length);
+        for (String attribute : attributes) {
+            Number value = metrics.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metric " + attribute.getName() + " is read-only.");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        // Every attribute is read-only, so none is set
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName), "No operations are supported.");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        return info;
+    }
+}
@@ -0,0 +1,470 @@
+package server;
+
+import utils.ILogger;
+import utils.LogLevel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * NioServer serves the key-value store over the binary protocol defined by {@link BinaryProtocol}.
+ * <p>
+ * An acceptor thread hands new connections round-robin to a small set of event loops. Each loop owns a
+ * {@link Selector} and decodes the requests of its connections. Lookups that never wait (GET, MGET, STATS, HOTKEYS
+ * and the replication lag) run on the loop thread, sparing them a hand-off, and so do single-key writes while the
+ * store has no write-ahead log, no memory budget and no transaction has run. Every other request, which may wait
+ * for the log, the eviction lock, a transaction's locks or a long batch or scan, runs on a pool of worker threads,
+ * so one slow call never stalls the other connections of its loop. Responses are written in request order: a
+ * connection's responses queue in arrival order and are sent as soon as every one before them is ready, coalesced
+ * into as few writes as possible.
+ */
+public class NioServer {
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    /** The smallest valid frame body: request id plus opcode. */
+    private static final int FRAME_BODY_MIN = BinaryProtocol.FRAME_HEADER_LENGTH - 4;
+    /** A connection with more unsent responses than this is not read from until the client catches up. */
+    private static final int MAX_QUEUED_RESPONSES = 4096;
+
+    private final KeyValueStoreInterface store;
+    private final int port;
+    private final ILogger logger;
+    private final EventLoop[] loops;
+    private final int workerCount;
+    private final BooleanSupplier writesMayWait;
+    private ExecutorService workers;
+    private ServerSocketChannel serverChannel;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    /**
+     * Constructs a NioServer that serves the given store.
+     *
+     * @param store         The store that handles the requests.
+     * @param port          The TCP port to listen on.
+     * @param loopCount     The number of event loop threads.
+     * @param workerCount   The number of threads running the requests that may block.
+     * @param writesMayWait Tells whether a single-key write may currently wait; while it may not, single-key
+     *                      writes run on the event loops.
+     * @param logger        The logger for connection problems.
+     */
+    public NioServer(KeyValueStoreInterface store, int port, int loopCount, int workerCount,
+                     BooleanSupplier writesMayWait, ILogger logger) {
+        this.store = store;
+        this.port = port;
+        this.logger = logger;
+        this.loops = new EventLoop[loopCount];
+        this.workerCount = workerCount;
+        this.writesMayWait = writesMayWait;
+    }
+
+    /**
+     * Binds the listening socket and starts the acceptor and event loop threads.
+     *
+     * @throws IOException If the port cannot be bound.
+     */
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        running = true;
+
+        AtomicInteger workerThreads = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerCount, r -> {
+            Thread thread = new Thread(r, "nio-worker-" + workerThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(Selector.open());
+            Thread thread = new Thread(loops[i], "nio-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        acceptor = new Thread(this::acceptLoop, "nio-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Accepts connections and assigns each to the next event loop.
+     */
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            } catch (IOException e) {
+                if (running) {
+                    logger.log(LogLevel.WARN, "NIO: Accept failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes every open connection.
+     */
+    public void close() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.close();
+            }
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks whether a request never waits, and so runs on the event loop thread.
+     */
+    private boolean runsOnLoop(byte opcode) {
+        switch (opcode) {
+            case BinaryProtocol.OP_GET:
+            case BinaryProtocol.OP_MULTI_GET:
+            case BinaryProtocol.OP_REPLICATION_LAG:
+            case BinaryProtocol.OP_STATS:
+            case BinaryProtocol.OP_HOT_KEYS:
+                return true;
+            case BinaryProtocol.OP_PUT:
+            case BinaryProtocol.OP_PUT_TTL:
+            case BinaryProtocol.OP_DELETE:
+            case BinaryProtocol.OP_EXPIRE:
+            case BinaryProtocol.OP_REPLACE:
+            case BinaryProtocol.OP_COMPARE_AND_SET:
+            case BinaryProtocol.OP_INCREMENT:
+            case BinaryProtocol.OP_APPEND:
+                return !writesMayWait.getAsBoolean();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Executes one request and encodes its response.
+     *
+     * @param requestId The id of the request, echoed in the response.
+     * @param opcode    The operation to execute.
+     * @param payload   The request arguments.
+     * @return The encoded response frame.
+     */
+    private ByteBuffer handle(int requestId, byte opcode, BinaryProtocol.Reader payload) {
+        try {
+            BinaryProtocol.Writer out = new BinaryProtocol.Writer(requestId, BinaryProtocol.STATUS_OK);
+            switch (opcode) {
+                case BinaryProtocol.OP_PUT:
+                    out.putString(store.put(payload.getString(), payload.getString()));
+                    break;
+                case BinaryProtocol.OP_GET:
+                    out.putString(store.get(payload.getString()));
+                    break;
+                case BinaryProtocol.OP_DELETE:
+                    out.putString(store.delete(payload.getString()));
+                    break;
+                case BinaryProtocol.OP_SHOW:
+                    out.putString(store.show());
+                    break;
+                case BinaryProtocol.OP_MULTI_PUT:
+                    out.putMap(store.multiPut(payload.getMap()));
+                    break;
+                case BinaryProtocol.OP_MULTI_GET:
+                    out.putMap(store.multiGet(payload.getStrings()));
+                    break;
+                case BinaryProtocol.OP_MULTI_DELETE:
+                    out.putMap(store.multiDelete(payload.getStrings()));
+                    break;
+                case BinaryProtocol.OP_SCAN: {
+                    ScanResult result = store.scan(payload.getString(), payload.getInt(), payload.getString());
+                    out.putMap(result.getEntries()).putString(result.getCursor());
+                    break;
+                }
+                case BinaryProtocol.OP_REPLICATION_LAG:
+                    out.putLong(store.replicationLag());
+                    break;
+                case BinaryProtocol.OP_PUT_TTL:
+                    out.putString(store.put(payload.getString(), payload.getString(), payload.getLong()));
+                    break;
+                case BinaryProtocol.OP_EXPIRE:
+                    out.putString(store.expire(payload.getString(), payload.getLong()));
+                    break;
+                case BinaryProtocol.OP_REPLACE:
+                    out.putString(store.replace(payload.getString(), payload.getString()));
+                    break;
+                case BinaryProtocol.OP_COMPARE_AND_SET:
+                    out.putString(store.compareAndSet(payload.getString(), payload.getString(),
+                            payload.getString()));
+                    break;
+                case BinaryProtocol.OP_INCREMENT:
+                    out.putString(store.increment(payload.getString(), payload.getLong()));
+                    break;
+                case BinaryProtocol.OP_APPEND:
+                    out.putString(store.append(payload.getString(), payload.getString()));
+                    break;
+                case BinaryProtocol.OP_STATS:
+                    out.putMap(store.stats());
+                    break;
+                case BinaryProtocol.OP_HOT_KEYS:
+                    out.putCounts(store.hotKeys(payload.getInt()));
+                    break;
+                case BinaryProtocol.OP_TRANSACTION:
+                    out.putStrings(store.transaction(payload.getOps()));
+                    break;
+                case BinaryProtocol.OP_BULK_LOAD:
+                    out.putCounts(store.bulkLoad(payload.getString(), BulkFormat.valueOf(payload.getString())));
+                    break;
+                case BinaryProtocol.OP_RANGE_SCAN: {
+                    ScanResult result = store.rangeScan(payload.getString(), payload.getString(), payload.getInt());
+                    out.putMap(result.getEntries()).putString(result.getCursor());
+                    break;
+                }
+                case BinaryProtocol.OP_PREFIX_SCAN: {
+                    ScanResult result = store.prefixScan(payload.getString(), payload.getString(), payload.getInt());
+                    out.putMap(result.getEntries()).putString(result.getCursor());
+                    break;
+                }
+                default:
+                    return error(requestId, "Unknown opcode " + opcode);
+            }
+            return out.toByteBuffer();
+        } catch (Exception e) {
+            return error(requestId, e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+
+    private static ByteBuffer error(int requestId, String message) {
+        return new BinaryProtocol.Writer(requestId, BinaryProtocol.STATUS_ERROR).putString(message).toByteBuffer();
+    }
+
+    /**
+     * The per-connection read buffer and responses, in request order.
+     */
+    private static final class Connection {
+        private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private final Queue<Response> out = new ArrayDeque<>();
+    }
+
+    /**
+     * The response to one request, set by the thread that ran it.
+     */
+    private static final class Response {
+        private volatile ByteBuffer frame;
+
+        Response(ByteBuffer frame) {
+            this.frame = frame;
+        }
+    }
+
+    /**
+     * A single-threaded selector loop serving a subset of the connections.
+     */
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        /** Connections with a response completed by a worker. */
+        private final Queue<SelectionKey> completed = new ConcurrentLinkedQueue<>();
+        /** Set between a worker's wakeup and the loop draining {@link #completed}, to spare repeated wakeups. */
+        private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Called by a worker when it completed a response of the connection.
+         */
+        void responseReady(SelectionKey key) {
+            completed.add(key);
+            if (wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        void close() {
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            } catch (IOException | ClosedSelectorException e) {
+                // Shutting down anyway
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    SocketChannel channel;
+                    while ((channel = pending.poll()) != null) {
+                        channel.register(selector, SelectionKey.OP_READ, new Connection());
+                    }
+                    wakeupPending.set(false);
+                    SelectionKey ready;
+                    while ((ready = completed.poll()) != null) {
+                        try {
+                            if (ready.isValid()) {
+                                write(ready);
+                            }
+                        } catch (IOException e) {
+                            logger.log(LogLevel.DEBUG, "NIO: Closing connection: {}", e.getMessage());
+                            ready.channel().close();
+                        }
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key);
+                            }
+                        } catch (IOException e) {
+                            logger.log(LogLevel.DEBUG, "NIO: Closing connection: {}", e.getMessage());
+                            key.channel().close();
+                        }
+                    }
+                } catch (ClosedSelectorException e) {
+                    return;
+                } catch (IOException e) {
+                    logger.log(LogLevel.ERROR, "NIO: Event loop error: {}", e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Reads what is available, executes or hands off every complete request in it and writes the responses
+         * that are ready.
+         */
+        private void read(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection conn = (Connection) key.attachment();
+            if (channel.read(conn.in) < 0) {
+                channel.close();
+                return;
+            }
+
+            ByteBuffer in = conn.in;
+            in.flip();
+            while (in.remaining() >= 4) {
+                int frameLength = in.getInt(in.position());
+                if (frameLength < FRAME_BODY_MIN || frameLength > BinaryProtocol.MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid frame length " + frameLength);
+                }
+                if (in.remaining() < 4 + frameLength) {
+                    break;
+                }
+                int frameEnd = in.position() + 4 + frameLength;
+                int requestId = in.getInt(in.position() + 4);
+                byte opcode = in.get(in.position() + 8);
+
+                ByteBuffer payload = in.duplicate();
+                payload.position(in.position() + BinaryProtocol.FRAME_HEADER_LENGTH).limit(frameEnd);
+                if (runsOnLoop(opcode)) {
+                    conn.out.add(new Response(handle(requestId, opcode, new BinaryProtocol.Reader(payload))));
+                } else {
+                    // The read buffer is reused, so the worker gets a copy of the arguments
+                    ByteBuffer args = ByteBuffer.allocate(payload.remaining());
+                    args.put(payload).flip();
+                    Response response = new Response(null);
+                    conn.out.add(response);
+                    submit(key, response, requestId, opcode, args);
+                }
+                in.position(frameEnd);
+            }
+            in.compact();
+
+            // Make room for a frame that does not fit in the current buffer
+            if (in.position() >= 4) {
+                int needed = 4 + in.getInt(0);
+                if (needed > in.capacity()) {
+                    ByteBuffer grown = ByteBuffer.allocate(needed);
+                    in.flip();
+                    grown.put(in);
+                    conn.in = grown;
+                }
+            }
+
+            write(key);
+        }
+
+        /**
+         * Runs a request on a worker thread and hands its response back to this loop.
+         */
+        private void submit(SelectionKey key, Response response, int requestId, byte opcode, ByteBuffer args) {
+            try {
+                workers.execute(() -> {
+                    response.frame = handle(requestId, opcode, new BinaryProtocol.Reader(args));
+                    responseReady(key);
+                });
+            } catch (RejectedExecutionException e) {
+                response.frame = error(requestId, "Server is shutting down.");
+            }
+        }
+
+        /**
+         * Writes the ready responses at the head of the queue until the socket buffer is full, then waits for
+         * writability; a response still running holds back the ones after it.
+         */
+        private void write(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection conn = (Connection) key.attachment();
+            List<ByteBuffer> batch = new ArrayList<>();
+            for (Response response : conn.out) {
+                ByteBuffer frame = response.frame;
+                if (frame == null) {
+                    break;
+                }
+                batch.add(frame);
+            }
+            if (!batch.isEmpty()) {
+                channel.write(batch.toArray(new ByteBuffer[0]));
+                for (int i = 0; i < batch.size() && !batch.get(i).hasRemaining(); i++) {
+                    conn.out.poll();
+                }
+            }
+            boolean unsent = !conn.out.isEmpty() && conn.out.peek().frame != null;
+            int ops = conn.out.size() > MAX_QUEUED_RESPONSES ? 0 : SelectionKey.OP_READ;
+            key.interestOps(unsent ? ops | SelectionKey.OP_WRITE : ops);
+        }
+    }
+}
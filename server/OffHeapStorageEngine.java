@@ -0,0 +1,621 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * OffHeapStorageEngine keeps keys and values as UTF-8 bytes in direct memory, outside the Java heap.
+ * <p>
+ * The engine is split into independently locked segments. Each segment stores its entries in 64 KB direct
+ * {@link ByteBuffer} pages, where every page is carved into chunks of one size class, and finds them through an
+ * open-addressing index of primitive arrays holding each entry's hash and address. The heap therefore holds
+ * about 16 bytes per key and no objects per key, so garbage collection work does not grow with the data.
+ * Freed chunks are reused by later entries of the same size class; entries larger than a page get a buffer
+ * of their own.
+ * <p>
+ * Entries never move once written, and iteration walks the pages rather than the index. A value replaced by
+ * one of a different size class is written to a new chunk, so a key whose value changes size during an
+ * iteration may be returned twice or not at all.
+ * <p>
+ * Direct memory is limited by {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap size.
+ */
+public class OffHeapStorageEngine implements StorageEngine {
+
+    private static final int DEFAULT_SEGMENTS = 64;
+    private static final int PAGE_SIZE = 64 * 1024;
+    private static final int ENTRY_HEADER_SIZE = 8; // key length + value length
+    /** Key length of a chunk that is not in use. */
+    private static final int FREE_CHUNK = -1;
+    private static final int[] CHUNK_SIZES = chunkSizes();
+    /** Size class of pages holding a single entry larger than a regular page. */
+    private static final int LARGE = -1;
+    private static final long EMPTY = -1L;
+    private static final int INITIAL_TABLE_SIZE = 256;
+    private static final int ITERATOR_BATCH = 256;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    /**
+     * Constructs an empty engine with the default number of segments.
+     */
+    public OffHeapStorageEngine() {
+        this(DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * Constructs an empty engine.
+     *
+     * @param segmentCount The number of independently locked segments; rounded up to a power of two.
+     */
+    public OffHeapStorageEngine(int segmentCount) {
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(2, segmentCount) - 1);
+        segments = new Segment[1 << bits];
+        segmentShift = 32 - bits;
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Returns the chunk sizes of the size classes, each about 25% larger than the previous one.
+     */
+    private static int[] chunkSizes() {
+        List<Integer> sizes = new ArrayList<>();
+        int size = 32;
+        while (size < PAGE_SIZE) {
+            sizes.add(size);
+            size = Math.max(size + 8, ((size + size / 4) + 7) & ~7);
+        }
+        sizes.add(PAGE_SIZE);
+        int[] result = new int[sizes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = sizes.get(i);
+        }
+        return result;
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> segmentShift];
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String get(String key) {
+        int hash = hash(key);
+        byte[] k = utf8(key);
+        Segment segment = segmentFor(hash);
+        segment.lock.readLock().lock();
+        try {
+            int slot = segment.indexOf(hash, k);
+            return slot >= 0 ? segment.readValue(segment.addresses[slot]) : null;
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String put(String key, String value) {
+        int hash = hash(key);
+        byte[] k = utf8(key);
+        Segment segment = segmentFor(hash);
+        segment.lock.writeLock().lock();
+        try {
+            int slot = segment.indexOf(hash, k);
+            String previous = slot >= 0 ? segment.readValue(segment.addresses[slot]) : null;
+            segment.set(slot, hash, k, utf8(value));
+            return previous;
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String putIfAbsent(String key, String value) {
+        int hash = hash(key);
+        byte[] k = utf8(key);
+        Segment segment = segmentFor(hash);
+        segment.lock.writeLock().lock();
+        try {
+            int slot = segment.indexOf(hash, k);
+            if (slot >= 0) {
+                return segment.readValue(segment.addresses[slot]);
+            }
+            segment.set(slot, hash, k, utf8(value));
+            return null;
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String remove(String key) {
+        int hash = hash(key);
+        byte[] k = utf8(key);
+        Segment segment = segmentFor(hash);
+        segment.lock.writeLock().lock();
+        try {
+            int slot = segment.indexOf(hash, k);
+            if (slot < 0) {
+                return null;
+            }
+            String previous = segment.readValue(segment.addresses[slot]);
+            segment.removeAt(slot);
+            return previous;
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String computeIfAbsent(String key, Function<? super String, ? extends String> function) {
+        int hash = hash(key);
+        byte[] k = utf8(key);
+        Segment segment = segmentFor(hash);
+        segment.lock.writeLock().lock();
+        try {
+            int slot = segment.indexOf(hash, k);
+            if (slot >= 0) {
+                return segment.readValue(segment.addresses[slot]);
+            }
+            String value = function.apply(key);
+            if (value != null) {
+                segment.set(slot, hash, k, utf8(value));
+            }
+            return value;
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String computeIfPresent(String key,
+                                   BiFunction<? super String, ? super String, ? extends String> function) {
+        int hash = hash(key);
+        byte[] k = utf8(key);
+        Segment segment = segmentFor(hash);
+        segment.lock.writeLock().lock();
+        try {
+            int slot = segment.indexOf(hash, k);
+            if (slot < 0) {
+                return null;
+            }
+            return segment.update(slot, hash, k, function.apply(key, segment.readValue(segment.addresses[slot])));
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String compute(String key, BiFunction<? super String, ? super String, ? extends String> function) {
+        int hash = hash(key);
+        byte[] k = utf8(key);
+        Segment segment = segmentFor(hash);
+        segment.lock.writeLock().lock();
+        try {
+            int slot = segment.indexOf(hash, k);
+            String current = slot >= 0 ? segment.readValue(segment.addresses[slot]) : null;
+            return segment.update(slot, hash, k, function.apply(key, current));
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.count;
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Segment segment : segments) {
+            if (segment.count > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return new EntryIterator();
+    }
+
+    /**
+     * Drops every page so the direct memory can be reclaimed.
+     */
+    @Override
+    public void close() {
+        for (Segment segment : segments) {
+            segment.lock.writeLock().lock();
+            try {
+                segment.clear();
+            } finally {
+                segment.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of direct memory held by the engine's pages.
+     *
+     * @return The number of bytes allocated, including free chunks.
+     */
+    public long allocatedBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.allocatedBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * One independently locked part of the engine: an index plus the pages holding its entries.
+     * An address is the page number in the upper 32 bits and the chunk offset in the lower 32 bits.
+     * All methods require the caller to hold the lock; methods that modify the segment require the write lock.
+     */
+    private static final class Segment {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        // The index: linear probing, with EMPTY addresses marking free slots
+        int[] hashes;
+        long[] addresses;
+        volatile int count;
+
+        // The pages, their size class and the end of their carved-out part
+        final List<ByteBuffer> pages = new ArrayList<>();
+        int[] pageClass = new int[16];
+        int[] pageLimit = new int[16];
+        /** Page numbers of released large pages, for reuse. */
+        final ArrayDeque<Integer> freePageNumbers = new ArrayDeque<>();
+        long allocatedBytes;
+
+        // Per size class: the page being carved and the stack of freed chunk addresses
+        final int[] carvingPage = new int[CHUNK_SIZES.length];
+        final long[][] freeChunks = new long[CHUNK_SIZES.length][];
+        final int[] freeChunkCount = new int[CHUNK_SIZES.length];
+
+        Segment() {
+            clear();
+        }
+
+        void clear() {
+            hashes = new int[INITIAL_TABLE_SIZE];
+            addresses = new long[INITIAL_TABLE_SIZE];
+            Arrays.fill(addresses, EMPTY);
+            count = 0;
+            pages.clear();
+            freePageNumbers.clear();
+            allocatedBytes = 0;
+            Arrays.fill(carvingPage, -1);
+            for (int c = 0; c < CHUNK_SIZES.length; c++) {
+                freeChunks[c] = new long[16];
+                freeChunkCount[c] = 0;
+            }
+        }
+
+        /**
+         * Finds the slot of a key.
+         *
+         * @return The slot index, or the complement (~) of the free slot where the key would be inserted.
+         */
+        int indexOf(int hash, byte[] key) {
+            int mask = addresses.length - 1;
+            int i = hash & mask;
+            while (true) {
+                long address = addresses[i];
+                if (address == EMPTY) {
+                    return ~i;
+                }
+                if (hashes[i] == hash && keyEquals(address, key)) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        private boolean keyEquals(long address, byte[] key) {
+            ByteBuffer page = pages.get(pageOf(address));
+            int offset = offsetOf(address);
+            if (page.getInt(offset) != key.length) {
+                return false;
+            }
+            int start = offset + ENTRY_HEADER_SIZE;
+            for (int i = 0; i < key.length; i++) {
+                if (page.get(start + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String readKey(ByteBuffer page, int offset) {
+            return readString(page, offset + ENTRY_HEADER_SIZE, page.getInt(offset));
+        }
+
+        String readValue(ByteBuffer page, int offset) {
+            return readString(page, offset + ENTRY_HEADER_SIZE + page.getInt(offset), page.getInt(offset + 4));
+        }
+
+        String readValue(long address) {
+            return readValue(pages.get(pageOf(address)), offsetOf(address));
+        }
+
+        private static String readString(ByteBuffer page, int position, int length) {
+            byte[] bytes = new byte[length];
+            ByteBuffer view = page.duplicate();
+            view.position(position);
+            view.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Applies the result of a compute function to the slot found by {@link #indexOf}.
+         *
+         * @return The new value.
+         */
+        String update(int slot, int hash, byte[] key, String value) {
+            if (value == null) {
+                if (slot >= 0) {
+                    removeAt(slot);
+                }
+                return null;
+            }
+            set(slot, hash, key, utf8(value));
+            return value;
+        }
+
+        /**
+         * Stores a value in the slot found by {@link #indexOf}, replacing the entry's value or inserting a new entry.
+         */
+        void set(int slot, int hash, byte[] key, byte[] value) {
+            if (slot >= 0) {
+                long address = addresses[slot];
+                ByteBuffer page = pages.get(pageOf(address));
+                int offset = offsetOf(address);
+                int size = ENTRY_HEADER_SIZE + key.length + value.length;
+                if (sizeClassOf(size) == pageClass[pageOf(address)] && size <= chunkSize(pageOf(address))) {
+                    // Overwrite in place, so the entry keeps its position for running iterations
+                    page.putInt(offset + 4, value.length);
+                    ByteBuffer view = page.duplicate();
+                    view.position(offset + ENTRY_HEADER_SIZE + key.length);
+                    view.put(value);
+                } else {
+                    addresses[slot] = write(key, value);
+                    free(address);
+                }
+                return;
+            }
+
+            if (count + 1 > addresses.length - (addresses.length >>> 2)) {
+                resize();
+                slot = indexOf(hash, key);
+            }
+            int i = ~slot;
+            addresses[i] = write(key, value);
+            hashes[i] = hash;
+            count++;
+        }
+
+        /**
+         * Removes the entry in a slot, shifting later entries of its probe sequence back so that no
+         * tombstones are needed.
+         */
+        void removeAt(int slot) {
+            free(addresses[slot]);
+            count--;
+
+            int mask = addresses.length - 1;
+            int hole = slot;
+            int i = slot;
+            while (true) {
+                i = (i + 1) & mask;
+                if (addresses[i] == EMPTY) {
+                    break;
+                }
+                int home = hashes[i] & mask;
+                // The entry can move into the hole unless its home slot lies cyclically in (hole, i]
+                boolean stays = hole <= i ? (hole < home && home <= i) : (hole < home || home <= i);
+                if (!stays) {
+                    addresses[hole] = addresses[i];
+                    hashes[hole] = hashes[i];
+                    hole = i;
+                }
+            }
+            addresses[hole] = EMPTY;
+        }
+
+        private void resize() {
+            int[] oldHashes = hashes;
+            long[] oldAddresses = addresses;
+            hashes = new int[oldAddresses.length * 2];
+            addresses = new long[oldAddresses.length * 2];
+            Arrays.fill(addresses, EMPTY);
+            int mask = addresses.length - 1;
+            for (int j = 0; j < oldAddresses.length; j++) {
+                if (oldAddresses[j] != EMPTY) {
+                    int i = oldHashes[j] & mask;
+                    while (addresses[i] != EMPTY) {
+                        i = (i + 1) & mask;
+                    }
+                    addresses[i] = oldAddresses[j];
+                    hashes[i] = oldHashes[j];
+                }
+            }
+        }
+
+        /**
+         * Allocates a chunk and writes an entry into it.
+         *
+         * @return The address of the entry.
+         */
+        private long write(byte[] key, byte[] value) {
+            long address = allocate(ENTRY_HEADER_SIZE + key.length + value.length);
+            ByteBuffer view = pages.get(pageOf(address)).duplicate();
+            view.position(offsetOf(address));
+            view.putInt(key.length).putInt(value.length).put(key).put(value);
+            return address;
+        }
+
+        private static int sizeClassOf(int size) {
+            int c = Arrays.binarySearch(CHUNK_SIZES, size);
+            if (c < 0) {
+                c = -c - 1;
+            }
+            return c == CHUNK_SIZES.length ? LARGE : c;
+        }
+
+        private long allocate(int size) {
+            int c = sizeClassOf(size);
+            if (c == LARGE) {
+                return address(addPage(ByteBuffer.allocateDirect(size), LARGE, size), 0);
+            }
+
+            if (freeChunkCount[c] > 0) {
+                return freeChunks[c][--freeChunkCount[c]];
+            }
+            int chunkSize = CHUNK_SIZES[c];
+            int page = carvingPage[c];
+            if (page < 0 || pageLimit[page] + chunkSize > PAGE_SIZE) {
+                page = addPage(ByteBuffer.allocateDirect(PAGE_SIZE), c, 0);
+                carvingPage[c] = page;
+            }
+            int offset = pageLimit[page];
+            pageLimit[page] = offset + chunkSize;
+            return address(page, offset);
+        }
+
+        private int addPage(ByteBuffer buffer, int sizeClass, int limit) {
+            int page;
+            if (sizeClass == LARGE && !freePageNumbers.isEmpty()) {
+                page = freePageNumbers.pop();
+                pages.set(page, buffer);
+            } else {
+                page = pages.size();
+                pages.add(buffer);
+                if (page == pageClass.length) {
+                    pageClass = Arrays.copyOf(pageClass, page * 2);
+                    pageLimit = Arrays.copyOf(pageLimit, page * 2);
+                }
+            }
+            pageClass[page] = sizeClass;
+            pageLimit[page] = limit;
+            allocatedBytes += buffer.capacity();
+            return page;
+        }
+
+        private void free(long address) {
+            int page = pageOf(address);
+            int c = pageClass[page];
+            if (c == LARGE) {
+                allocatedBytes -= pages.get(page).capacity();
+                pages.set(page, null);
+                freePageNumbers.push(page);
+                return;
+            }
+            pages.get(page).putInt(offsetOf(address), FREE_CHUNK);
+            if (freeChunkCount[c] == freeChunks[c].length) {
+                freeChunks[c] = Arrays.copyOf(freeChunks[c], freeChunkCount[c] * 2);
+            }
+            freeChunks[c][freeChunkCount[c]++] = address;
+        }
+
+        int chunkSize(int page) {
+            int c = pageClass[page];
+            return c == LARGE ? pages.get(page).capacity() : CHUNK_SIZES[c];
+        }
+
+        private static long address(int page, int offset) {
+            return ((long) page << 32) | offset;
+        }
+
+        private static int pageOf(long address) {
+            return (int) (address >>> 32);
+        }
+
+        private static int offsetOf(long address) {
+            return (int) address;
+        }
+    }
+
+    /**
+     * Walks the pages of each segment in turn, decoding a batch of entries under the segment's read lock.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<String, String>> {
+        private final ArrayDeque<Map.Entry<String, String>> batch = new ArrayDeque<>();
+        private int segment;
+        private int page;
+        private int offset;
+
+        @Override
+        public boolean hasNext() {
+            while (batch.isEmpty() && segment < segments.length) {
+                fill(segments[segment]);
+            }
+            return !batch.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.poll();
+        }
+
+        private void fill(Segment s) {
+            s.lock.readLock().lock();
+            try {
+                while (batch.size() < ITERATOR_BATCH && page < s.pages.size()) {
+                    ByteBuffer buffer = s.pages.get(page);
+                    if (buffer != null) {
+                        int chunkSize = s.chunkSize(page);
+                        int limit = s.pageClass[page] == LARGE ? chunkSize : s.pageLimit[page];
+                        while (offset < limit && batch.size() < ITERATOR_BATCH) {
+                            if (buffer.getInt(offset) != FREE_CHUNK) {
+                                batch.add(new AbstractMap.SimpleImmutableEntry<>(
+                                        s.readKey(buffer, offset), s.readValue(buffer, offset)));
+                            }
+                            offset += chunkSize;
+                        }
+                        if (offset < limit) {
+                            return;
+                        }
+                    }
+                    page++;
+                    offset = 0;
+                }
+                if (page >= s.pages.size()) {
+                    segment++;
+                    page = 0;
+                    offset = 0;
+                }
+            } finally {
+                s.lock.readLock().unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package server;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * OrderedStorageEngine keeps the keys of another storage engine in a sorted index, so they can be iterated in key
+ * order from any key on.
+ * <p>
+ * The index is a concurrent skip list updated from within the compute functions of the wrapped engine, while the
+ * key is locked, so every change to a key reaches the index in the order it was made to the engine. Plain writes
+ * and removals are turned into compute calls for the same reason. Reaching a key through the index costs a lookup
+ * in the wrapped engine, and a key is briefly in the index before its value is visible, or gone from it before
+ * its value is removed; ordered iteration skips such keys.
+ */
+public class OrderedStorageEngine implements StorageEngine {
+
+    private final StorageEngine engine;
+    private final NavigableSet<String> index = new ConcurrentSkipListSet<>();
+
+    /**
+     * Constructs an engine that indexes the keys of another one.
+     *
+     * @param engine The empty engine to keep the pairs in; it is closed with this engine.
+     */
+    public OrderedStorageEngine(StorageEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Brings the index up to date with the outcome of a change to a key. Called while the key is locked.
+     *
+     * @return The new value.
+     */
+    private String indexed(String key, String old, String value) {
+        if (value == null) {
+            if (old != null) {
+                index.remove(key);
+            }
+        } else if (old == null) {
+            index.add(key);
+        }
+        return value;
+    }
+
+    @Override
+    public String get(String key) {
+        return engine.get(key);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        String[] previous = {null};
+        engine.compute(key, (k, old) -> {
+            previous[0] = old;
+            return indexed(k, old, value);
+        });
+        return previous[0];
+    }
+
+    @Override
+    public String putIfAbsent(String key, String value) {
+        boolean[] inserted = {false};
+        String current = engine.computeIfAbsent(key, k -> {
+            inserted[0] = true;
+            return indexed(k, null, value);
+        });
+        return inserted[0] ? null : current;
+    }
+
+    @Override
+    public String remove(String key) {
+        String[] previous = {null};
+        engine.computeIfPresent(key, (k, old) -> {
+            previous[0] = old;
+            return indexed(k, old, null);
+        });
+        return previous[0];
+    }
+
+    @Override
+    public String computeIfAbsent(String key, Function<? super String, ? extends String> function) {
+        return engine.computeIfAbsent(key, k -> indexed(k, null, function.apply(k)));
+    }
+
+    @Override
+    public String computeIfPresent(String key,
+                                   BiFunction<? super String, ? super String, ? extends String> function) {
+        return engine.computeIfPresent(key, (k, old) -> indexed(k, old, function.apply(k, old)));
+    }
+
+    @Override
+    public String compute(String key, BiFunction<? super String, ? super String, ? extends String> function) {
+        return engine.compute(key, (k, old) -> indexed(k, old, function.apply(k, old)));
+    }
+
+    @Override
+    public int size() {
+        return engine.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return engine.isEmpty();
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return engine.iterator();
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the pairs in key order, walking the index and looking up the
+     * value of each key.
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> orderedIterator(String from) {
+        Iterator<String> keys = (from == null ? index : index.tailSet(from, true)).iterator();
+        return new Iterator<Map.Entry<String, String>>() {
+            private Map.Entry<String, String> next = advance();
+
+            private Map.Entry<String, String> advance() {
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    String value = engine.get(key);
+                    if (value != null) {
+                        return new AbstractMap.SimpleImmutableEntry<>(key, value);
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<String, String> entry = next;
+                next = advance();
+                return entry;
+            }
+        };
+    }
+
+    @Override
+    public int storedLength(String value) {
+        return engine.storedLength(value);
+    }
+
+    @Override
+    public int storedLengthOf(String key) {
+        return engine.storedLengthOf(key);
+    }
+
+    @Override
+    public void addMetrics(Map<String, Number> metrics) {
+        engine.addMetrics(metrics);
+    }
+
+    @Override
+    public void close() {
+        index.clear();
+        engine.close();
+    }
+}
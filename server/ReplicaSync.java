@@ -0,0 +1,173 @@
+package server;
+
+import utils.ILogger;
+import utils.LogLevel;
+
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ReplicaSync keeps a replica's store up to date by pulling its primary's mutations in sequence order.
+ * <p>
+ * On start, and whenever it falls further behind than the primary's replication log reaches, the replica
+ * clears its store, notes the primary's head sequence number, loads the whole store with a scan and then
+ * applies the mutations from that sequence number on. Changes made during the scan are among those mutations,
+ * so the replica converges to the primary's state. The mutations of a transaction are applied together, so
+ * readers of the replica never see half of one.
+ * <p>
+ * The replica records when it was last known to match the primary, measured on its own clock, and reports
+ * the time since then as its staleness.
+ */
+public class ReplicaSync {
+
+    private static final int PULL_BATCH = 10000;
+    /** Short pulls keep an idle replica's staleness close to the round trip time. */
+    private static final long PULL_WAIT_MILLIS = 50;
+    private static final int RESYNC_PAGE_SIZE = 5000;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    private static final long NEVER = Long.MIN_VALUE;
+
+    private final KeyValueStoreImpl store;
+    private final String host;
+    private final int port;
+    private final ILogger logger;
+    private volatile boolean running;
+    private volatile long upToDateAtNanos = NEVER;
+    private long nextSeq;
+    private Thread thread;
+
+    /**
+     * Constructs a ReplicaSync that replicates the primary at the given address into a store.
+     *
+     * @param store  The replica's store; it rejects writes from clients from now on.
+     * @param host   The hostname of the primary.
+     * @param port   The port of the primary's RMI registry.
+     * @param logger The logger for replication progress and problems.
+     */
+    public ReplicaSync(KeyValueStoreImpl store, String host, int port, ILogger logger) {
+        this.store = store;
+        this.host = host;
+        this.port = port;
+        this.logger = logger;
+        store.becomeReplicaOf(this);
+    }
+
+    /**
+     * Starts replicating on a background thread.
+     */
+    public synchronized void start() {
+        running = true;
+        thread = new Thread(this::run, "replica-sync");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        ReplicationSource source = null;
+        while (running) {
+            try {
+                if (source == null) {
+                    Registry registry = LocateRegistry.getRegistry(host, port);
+                    source = (ReplicationSource) registry.lookup("Replication");
+                    resync(source, (KeyValueStoreInterface) registry.lookup("KeyValueStore"));
+                }
+
+                long requestStart = System.nanoTime();
+                ReplicationBatch batch = source.pull(nextSeq, PULL_BATCH, PULL_WAIT_MILLIS);
+                if (batch.isResyncRequired()) {
+                    logger.log(LogLevel.WARN, "REPLICA: Fell behind the primary's replication log at #{}.", nextSeq);
+                    source = null;
+                    continue;
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    if (batch.getOp(i) == WriteAheadLog.OP_TX_BEGIN) {
+                        // The primary returns a transaction whole, ending with its commit marker
+                        int count = Integer.parseInt(batch.getValue(i));
+                        store.applyTransaction(batch, i + 1, count);
+                        i += count + 1;
+                    } else {
+                        store.applyRecord(batch.getOp(i), batch.getKey(i), batch.getValue(i));
+                    }
+                }
+                nextSeq = batch.getNextSeq();
+                if (batch.isCaughtUp()) {
+                    // The primary had nothing newer for as long as it waited after receiving the request
+                    upToDateAtNanos = requestStart + TimeUnit.MILLISECONDS.toNanos(batch.getWaitedMillis());
+                }
+            } catch (RemoteException | NotBoundException | RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                logger.log(LogLevel.WARN, "REPLICA: Lost the primary at {}:{}: {}", host, port, e.getMessage());
+                source = null;
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reloads the whole store from the primary.
+     */
+    private void resync(ReplicationSource source, KeyValueStoreInterface primary) throws RemoteException {
+        long start = System.nanoTime();
+        upToDateAtNanos = NEVER;
+        long headSeq = source.headSeq();
+        store.clearReplica();
+
+        long loaded = 0;
+        String cursor = null;
+        do {
+            ScanResult page = primary.scan(cursor, RESYNC_PAGE_SIZE, null);
+            for (Map.Entry<String, String> entry : page.getEntries().entrySet()) {
+                store.applyRecord(WriteAheadLog.OP_PUT, entry.getKey(), entry.getValue());
+            }
+            loaded += page.getEntries().size();
+            cursor = page.getCursor();
+        } while (cursor != null && running);
+
+        nextSeq = headSeq;
+        logger.log("REPLICA: Loaded " + loaded + " keys from the primary at " + host + ":" + port + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms, following from #" + headSeq + ".");
+    }
+
+    /**
+     * Returns how far the replica may lag behind its primary.
+     *
+     * @return The milliseconds since the replica was last known to match the primary, or {@link Long#MAX_VALUE}
+     * if it has not caught up since it last (re)loaded the store.
+     */
+    public long lagMillis() {
+        long upToDateAt = upToDateAtNanos;
+        if (upToDateAt == NEVER) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - upToDateAt));
+    }
+
+    /**
+     * Returns the address of the primary.
+     *
+     * @return The primary as {@code host:port}.
+     */
+    public String getPrimary() {
+        return host + ":" + port;
+    }
+
+    /**
+     * Stops replicating.
+     */
+    public synchronized void close() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+}
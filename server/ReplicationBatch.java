@@ -0,0 +1,106 @@
+package server;
+
+import java.io.Serializable;
+
+/**
+ * ReplicationBatch is a run of consecutive mutations pulled by a replica from its primary.
+ */
+public class ReplicationBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean resyncRequired;
+    private final long firstSeq;
+    private final long headSeq;
+    private final long waitedMillis;
+    private final byte[] ops;
+    private final String[] keys;
+    private final String[] values;
+
+    /**
+     * Constructs a batch of mutations.
+     *
+     * @param firstSeq     The sequence number of the first mutation.
+     * @param headSeq      The sequence number the primary's next mutation will get.
+     * @param waitedMillis How long the primary waited for mutations before answering.
+     * @param ops          The operation of each mutation.
+     * @param keys         The key of each mutation.
+     * @param values       The new value or deadline of each mutation, null for deletes.
+     */
+    public ReplicationBatch(long firstSeq, long headSeq, long waitedMillis, byte[] ops, String[] keys,
+                            String[] values) {
+        this(false, firstSeq, headSeq, waitedMillis, ops, keys, values);
+    }
+
+    private ReplicationBatch(boolean resyncRequired, long firstSeq, long headSeq, long waitedMillis, byte[] ops,
+                             String[] keys, String[] values) {
+        this.resyncRequired = resyncRequired;
+        this.firstSeq = firstSeq;
+        this.headSeq = headSeq;
+        this.waitedMillis = waitedMillis;
+        this.ops = ops;
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * Creates the answer to a pull for mutations the primary no longer has.
+     *
+     * @param headSeq The sequence number the primary's next mutation will get.
+     * @return A batch telling the replica to resynchronize.
+     */
+    public static ReplicationBatch resync(long headSeq) {
+        return new ReplicationBatch(true, headSeq, headSeq, 0, new byte[0], new String[0], new String[0]);
+    }
+
+    /**
+     * Checks whether the replica has to reload the whole store because the requested mutations are gone.
+     *
+     * @return True if the replica must resynchronize.
+     */
+    public boolean isResyncRequired() {
+        return resyncRequired;
+    }
+
+    public long getFirstSeq() {
+        return firstSeq;
+    }
+
+    /**
+     * Returns the sequence number to pull from next.
+     *
+     * @return The sequence number after the last mutation of this batch.
+     */
+    public long getNextSeq() {
+        return firstSeq + ops.length;
+    }
+
+    /**
+     * Checks whether this batch ends with the primary's latest mutation.
+     *
+     * @return True if applying this batch brings the replica up to date.
+     */
+    public boolean isCaughtUp() {
+        return !resyncRequired && getNextSeq() == headSeq;
+    }
+
+    public long getWaitedMillis() {
+        return waitedMillis;
+    }
+
+    public int size() {
+        return ops.length;
+    }
+
+    public byte getOp(int i) {
+        return ops[i];
+    }
+
+    public String getKey(int i) {
+        return keys[i];
+    }
+
+    public String getValue(int i) {
+        return values[i];
+    }
+}
@@ -0,0 +1,216 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * ReplicationLog keeps the most recent mutations of a primary in memory for its replicas to pull.
+ * <p>
+ * Every mutation gets the next sequence number, and the store appends it while the key is locked, so applying
+ * the mutations in sequence order reproduces the primary's state. The log is a ring buffer: a replica that falls
+ * more than its capacity behind has to resynchronize from a full scan.
+ * <p>
+ * Appending takes no lock: a mutation claims its sequence number from a counter and publishes an immutable record
+ * in its slot, so writers of different keys never wait for each other or for a reader copying a batch. A reader
+ * returns the published records from its sequence number up to the first one still being written, and only takes
+ * a monitor to wait when there is nothing to return.
+ * <p>
+ * A transaction claims consecutive sequence numbers for its mutations between
+ * {@link WriteAheadLog#OP_TX_BEGIN} and {@link WriteAheadLog#OP_TX_COMMIT} markers, and a read returns either all
+ * of them or none, so no reader ever sees half a transaction.
+ */
+public class ReplicationLog {
+
+    private final int capacity;
+    private final AtomicReferenceArray<Record> slots;
+    /** The sequence number of the next mutation. */
+    private final AtomicLong nextSeq = new AtomicLong(1);
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final Object monitor = new Object();
+
+    /**
+     * Constructs an empty log.
+     *
+     * @param capacity The number of most recent mutations to keep.
+     */
+    public ReplicationLog(int capacity) {
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Appends a mutation.
+     *
+     * @param op    {@link WriteAheadLog#OP_PUT}, {@link WriteAheadLog#OP_DELETE} or {@link WriteAheadLog#OP_EXPIRE}.
+     * @param key   The key.
+     * @param value The new value, the deadline of an expire, or null for a delete.
+     * @return The sequence number of the mutation.
+     */
+    public long append(byte op, String key, String value) {
+        long seq = nextSeq.getAndIncrement();
+        slots.set(slotOf(seq), new Record(seq, op, key, value));
+        wakeReaders();
+        return seq;
+    }
+
+    /**
+     * Appends the mutations of a transaction between begin and commit markers, with no other mutation in between.
+     * A transaction longer than the capacity of the log makes its readers resynchronize.
+     *
+     * @param ops    The type of each mutation, as for {@link #append}.
+     * @param keys   The key of each mutation.
+     * @param values The value of each mutation, as for {@link #append}.
+     * @return The sequence number of the commit marker.
+     */
+    public long appendTransaction(byte[] ops, String[] keys, String[] values) {
+        long seq = nextSeq.getAndAdd(ops.length + 2);
+        slots.set(slotOf(seq), new Record(seq, WriteAheadLog.OP_TX_BEGIN, "", Integer.toString(ops.length)));
+        for (int i = 0; i < ops.length; i++) {
+            seq++;
+            slots.set(slotOf(seq), new Record(seq, ops[i], keys[i], values[i]));
+        }
+        seq++;
+        slots.set(slotOf(seq), new Record(seq, WriteAheadLog.OP_TX_COMMIT, "", ""));
+        wakeReaders();
+        return seq;
+    }
+
+    private void wakeReaders() {
+        if (waiters.get() > 0) {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the sequence number the next mutation will get.
+     *
+     * @return One more than the sequence number of the latest mutation.
+     */
+    public long headSeq() {
+        return nextSeq.get();
+    }
+
+    private int slotOf(long seq) {
+        return (int) (seq % capacity);
+    }
+
+    /**
+     * Checks whether the mutation with the given sequence number has been published, and if it begins a
+     * transaction, the commit marker too.
+     */
+    private boolean isPublished(long seq) {
+        Record record = slots.get(slotOf(seq));
+        if (record == null || record.seq < seq) {
+            return false;
+        }
+        if (record.seq == seq && record.op == WriteAheadLog.OP_TX_BEGIN) {
+            return isPublished(seq + Integer.parseInt(record.value) + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the mutations from a sequence number on, waiting for one if there are none yet. A transaction is
+     * returned whole: the batch ends before one it cannot hold yet, unless the transaction starts the batch, in
+     * which case it is returned even if it is longer than maxRecords.
+     *
+     * @param fromSeq     The sequence number of the first mutation to return.
+     * @param maxRecords  The maximum number of mutations to return.
+     * @param waitMillis  How long to wait for a mutation if there are none from fromSeq on.
+     * @return The mutations, or a batch requiring a resynchronization if they are no longer in the log.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public ReplicationBatch read(long fromSeq, int maxRecords, long waitMillis) throws InterruptedException {
+        long start = System.nanoTime();
+        long head = nextSeq.get();
+        if (fromSeq < 1 || fromSeq < head - capacity || fromSeq > head) {
+            return ReplicationBatch.resync(head);
+        }
+
+        if (!isPublished(fromSeq)) {
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+            waiters.incrementAndGet();
+            try {
+                synchronized (monitor) {
+                    long remaining;
+                    while (!isPublished(fromSeq) && (remaining = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+                    }
+                }
+            } finally {
+                waiters.decrementAndGet();
+            }
+        }
+
+        head = nextSeq.get();
+        int limit = (int) Math.min(maxRecords, head - fromSeq);
+        Record first = slots.get(slotOf(fromSeq));
+        if (first != null && first.seq == fromSeq && first.op == WriteAheadLog.OP_TX_BEGIN) {
+            limit = (int) Math.min(Math.max(limit, Integer.parseInt(first.value) + 2), head - fromSeq);
+        }
+        byte[] ops = new byte[limit];
+        String[] keys = new String[limit];
+        String[] values = new String[limit];
+        int count = 0;
+        // The number of records up to the end of the last complete transaction or plain mutation
+        int complete = 0;
+        long commitSeq = 0;
+        while (count < limit) {
+            long seq = fromSeq + count;
+            Record record = slots.get(slotOf(seq));
+            if (record == null || record.seq < seq) {
+                // Claimed but still being written; later records wait for the next read
+                break;
+            }
+            if (record.seq > seq) {
+                // The buffer wrapped past fromSeq while waiting or copying
+                return ReplicationBatch.resync(nextSeq.get());
+            }
+            ops[count] = record.op;
+            keys[count] = record.key;
+            values[count] = record.value;
+            count++;
+            if (record.op == WriteAheadLog.OP_TX_BEGIN) {
+                commitSeq = seq + Integer.parseInt(record.value) + 1;
+            } else if (commitSeq == 0 || seq == commitSeq) {
+                complete = count;
+                commitSeq = 0;
+            }
+        }
+        count = complete;
+        if (count < limit) {
+            byte[] publishedOps = new byte[count];
+            String[] publishedKeys = new String[count];
+            String[] publishedValues = new String[count];
+            System.arraycopy(ops, 0, publishedOps, 0, count);
+            System.arraycopy(keys, 0, publishedKeys, 0, count);
+            System.arraycopy(values, 0, publishedValues, 0, count);
+            ops = publishedOps;
+            keys = publishedKeys;
+            values = publishedValues;
+        }
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return new ReplicationBatch(fromSeq, head, waitedMillis, ops, keys, values);
+    }
+
+    /**
+     * One mutation in its slot of the ring.
+     */
+    private static final class Record {
+        private final long seq;
+        private final byte op;
+        private final String key;
+        private final String value;
+
+        Record(long seq, byte op, String key, String value) {
+            this.seq = seq;
+            this.op = op;
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package server;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Remote interface through which replicas pull the mutations of a primary.
+ * A primary binds it in its RMI registry as "Replication".
+ */
+public interface ReplicationSource extends Remote {
+
+    /**
+     * Returns the mutations from a sequence number on, waiting briefly for one if there are none yet.
+     *
+     * @param fromSeq    The sequence number of the first mutation to return.
+     * @param maxRecords The maximum number of mutations to return.
+     * @param waitMillis How long to wait for a mutation if there are none from fromSeq on.
+     * @return The mutations, or a batch requiring a resynchronization if they are no longer available.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    ReplicationBatch pull(long fromSeq, int maxRecords, long waitMillis) throws RemoteException;
+
+    /**
+     * Returns the sequence number the next mutation will get. A replica that loads the whole store with a scan
+     * started after this call and then applies the mutations from this number on reaches the primary's state.
+     *
+     * @return The sequence number of the next mutation.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    long headSeq() throws RemoteException;
+}
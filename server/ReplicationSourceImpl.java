@@ -0,0 +1,44 @@
+package server;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+
+/**
+ * Implementation of the ReplicationSource interface, serving a primary's {@link ReplicationLog}.
+ */
+public class ReplicationSourceImpl extends UnicastRemoteObject implements ReplicationSource {
+
+    private static final long serialVersionUID = 1L;
+    /** Pulls wait at most this long, so an idle replica still reports its freshness regularly. */
+    private static final long MAX_WAIT_MILLIS = 1000;
+    private static final int MAX_RECORDS = 10000;
+
+    private final transient ReplicationLog log;
+
+    /**
+     * Constructs a source serving the given log.
+     *
+     * @param log The replication log of the primary's store.
+     * @throws RemoteException If the object cannot be exported.
+     */
+    public ReplicationSourceImpl(ReplicationLog log) throws RemoteException {
+        super();
+        this.log = log;
+    }
+
+    @Override
+    public ReplicationBatch pull(long fromSeq, int maxRecords, long waitMillis) throws RemoteException {
+        try {
+            return log.read(fromSeq, Math.max(1, Math.min(maxRecords, MAX_RECORDS)),
+                    Math.max(0, Math.min(waitMillis, MAX_WAIT_MILLIS)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for mutations", e);
+        }
+    }
+
+    @Override
+    public long headSeq() throws RemoteException {
+        return log.headSeq();
+    }
+}
@@ -0,0 +1,101 @@
+package server;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SampledKeySet is a set of tracked keys that can hand out the least recently used of a few random members.
+ * <p>
+ * Members live in arrays split into stripes with a lock each, so adding and removing a key only locks its
+ * stripe, and a random member is found in O(1) by picking a random slot. Removal moves the last member of the
+ * stripe into the freed slot.
+ */
+class SampledKeySet {
+
+    private static final int STRIPES = 64;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final AtomicInteger size = new AtomicInteger();
+
+    SampledKeySet() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Adds a key that is in no set.
+     */
+    void add(MemoryBudget.TrackedKey key) {
+        Stripe stripe = stripes[key.hash & (STRIPES - 1)];
+        synchronized (stripe) {
+            if (stripe.size == stripe.members.length) {
+                MemoryBudget.TrackedKey[] grown = new MemoryBudget.TrackedKey[stripe.members.length * 2];
+                System.arraycopy(stripe.members, 0, grown, 0, stripe.size);
+                stripe.members = grown;
+            }
+            key.slot = stripe.size;
+            stripe.members[stripe.size++] = key;
+        }
+        size.incrementAndGet();
+    }
+
+    /**
+     * Removes a key.
+     *
+     * @return True if the key was in this set.
+     */
+    boolean remove(MemoryBudget.TrackedKey key) {
+        Stripe stripe = stripes[key.hash & (STRIPES - 1)];
+        synchronized (stripe) {
+            int slot = key.slot;
+            if (slot < 0 || slot >= stripe.size || stripe.members[slot] != key) {
+                return false;
+            }
+            MemoryBudget.TrackedKey last = stripe.members[--stripe.size];
+            stripe.members[slot] = last;
+            last.slot = slot;
+            stripe.members[stripe.size] = null;
+            key.slot = -1;
+        }
+        size.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the least recently accessed of a few randomly chosen members.
+     *
+     * @param samples The number of members to look at.
+     * @return The oldest sampled member, or null if the set is empty.
+     */
+    MemoryBudget.TrackedKey sampleOldest(int samples) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        MemoryBudget.TrackedKey oldest = null;
+        for (int i = 0; i < samples && size.get() > 0; i++) {
+            MemoryBudget.TrackedKey sample = null;
+            int start = random.nextInt(STRIPES);
+            // Skip empty stripes, so small sets are still sampled evenly enough
+            for (int j = 0; j < STRIPES && sample == null; j++) {
+                Stripe stripe = stripes[(start + j) & (STRIPES - 1)];
+                synchronized (stripe) {
+                    if (stripe.size > 0) {
+                        sample = stripe.members[random.nextInt(stripe.size)];
+                    }
+                }
+            }
+            if (sample != null && (oldest == null || sample.lastAccess - oldest.lastAccess < 0)) {
+                oldest = sample;
+            }
+        }
+        return oldest;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    private static final class Stripe {
+        private MemoryBudget.TrackedKey[] members = new MemoryBudget.TrackedKey[16];
+        private int size;
+    }
+}
@@ -0,0 +1,37 @@
+package server;
+
+/**
+ * SampledLruPolicy approximates least-recently-used eviction: it evicts the least recently read of a few randomly
+ * sampled keys.
+ * <p>
+ * A read only stores a timestamp in the key, so no list has to be reordered under a lock, and with five samples the
+ * victims are nearly as old as with exact LRU.
+ */
+public class SampledLruPolicy implements EvictionPolicy {
+
+    static final int SAMPLES = 5;
+
+    private final SampledKeySet keys = new SampledKeySet();
+
+    @Override
+    public void onAccess(String key, MemoryBudget.TrackedKey tracked) {
+        if (tracked != null) {
+            tracked.lastAccess = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void onInsert(MemoryBudget.TrackedKey tracked) {
+        keys.add(tracked);
+    }
+
+    @Override
+    public void onRemove(MemoryBudget.TrackedKey tracked) {
+        keys.remove(tracked);
+    }
+
+    @Override
+    public MemoryBudget.TrackedKey selectVictim() {
+        return keys.sampleOldest(SAMPLES);
+    }
+}
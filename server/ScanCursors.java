@@ -0,0 +1,128 @@
+package server;
+
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * ScanCursors keeps the server-side state of open scans.
+ * <p>
+ * Each scan holds a weakly consistent iterator over the store, so a page costs time proportional to its size
+ * and the server never materializes the whole store. Keys that exist for the whole duration of a scan are
+ * returned exactly once; keys added or removed meanwhile may or may not be returned. Cursors that are not
+ * used for a while are discarded, and the number of open cursors is bounded.
+ */
+public class ScanCursors {
+
+    /** The largest page a single call may return. */
+    public static final int MAX_LIMIT = 10000;
+
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int MAX_OPEN_CURSORS = 10000;
+    // How many non-matching entries a prefix scan may skip per requested entry before returning a short page
+    private static final int SKIP_BUDGET_FACTOR = 16;
+
+    private final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+    private final String idPrefix = Long.toHexString(new SecureRandom().nextLong() >>> 1) + "-";
+    private final AtomicLong nextId = new AtomicLong();
+    private volatile long lastSweep = System.nanoTime();
+
+    /**
+     * Returns the next page of a scan.
+     *
+     * @param cursor The cursor returned by the previous page, or null or empty to start a new scan.
+     * @param limit  The maximum number of entries to return; capped at {@link #MAX_LIMIT}.
+     * @param prefix Only return keys starting with this prefix; null or empty for all keys.
+     * @param source Supplies a fresh iterator over the store when a new scan starts.
+     * @return The page and its continuation cursor.
+     * @throws IllegalArgumentException If the cursor is unknown or has expired, or the limit is not positive.
+     */
+    public ScanResult next(String cursor, int limit, String prefix,
+                           Supplier<Iterator<Map.Entry<String, String>>> source) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Scan limit must be positive: " + limit);
+        }
+        sweepIfDue();
+
+        String id;
+        Cursor state;
+        if (cursor == null || cursor.isEmpty()) {
+            if (cursors.size() >= MAX_OPEN_CURSORS) {
+                throw new IllegalArgumentException("Too many open scans; finish or abandon existing scans first.");
+            }
+            id = idPrefix + Long.toHexString(nextId.incrementAndGet());
+            state = new Cursor(source.get(), prefix == null ? "" : prefix);
+        } else {
+            id = cursor;
+            state = cursors.get(cursor);
+            if (state == null) {
+                throw new IllegalArgumentException("Unknown or expired scan cursor: " + cursor);
+            }
+        }
+
+        int pageSize = Math.min(limit, MAX_LIMIT);
+        Map<String, String> page = new LinkedHashMap<>((int) (pageSize / 0.75f) + 1);
+        boolean exhausted;
+        synchronized (state) {
+            long budget = (long) pageSize * SKIP_BUDGET_FACTOR;
+            while (page.size() < pageSize && budget > 0 && state.iterator.hasNext()) {
+                Map.Entry<String, String> entry = state.iterator.next();
+                if (entry.getKey().startsWith(state.prefix)) {
+                    page.put(entry.getKey(), entry.getValue());
+                } else {
+                    budget--;
+                }
+            }
+            exhausted = !state.iterator.hasNext();
+            state.lastUsed = System.nanoTime();
+        }
+
+        if (exhausted) {
+            cursors.remove(id);
+            return new ScanResult(page, null);
+        }
+        cursors.put(id, state);
+        return new ScanResult(page, id);
+    }
+
+    /**
+     * Returns the number of scans currently open.
+     *
+     * @return The number of live cursors.
+     */
+    public int openCursors() {
+        return cursors.size();
+    }
+
+    /**
+     * Discards cursors that have been idle for too long, at most once per sweep interval.
+     */
+    private void sweepIfDue() {
+        long now = System.nanoTime();
+        if (now - lastSweep < SWEEP_INTERVAL_NANOS) {
+            return;
+        }
+        lastSweep = now;
+        cursors.values().removeIf(state -> now - state.lastUsed > IDLE_TIMEOUT_NANOS);
+    }
+
+    /**
+     * The state of one open scan.
+     */
+    private static final class Cursor {
+        private final Iterator<Map.Entry<String, String>> iterator;
+        private final String prefix;
+        private volatile long lastUsed = System.nanoTime();
+
+        Cursor(Iterator<Map.Entry<String, String>> iterator, String prefix) {
+            this.iterator = iterator;
+            this.prefix = prefix;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package server;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * ScanResult is one page of key-value pairs returned by a cursor-based scan of the store.
+ * A page carries the cursor to pass to the next call, or null once the scan is complete.
+ */
+public class ScanResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, String> entries;
+    private final String cursor;
+
+    /**
+     * Constructs a page of scan results.
+     *
+     * @param entries The key-value pairs of this page.
+     * @param cursor  The cursor for the next page, or null if the scan is complete.
+     */
+    public ScanResult(Map<String, String> entries, String cursor) {
+        this.entries = entries;
+        this.cursor = cursor;
+    }
+
+    /**
+     * Returns the key-value pairs of this page. A page may be empty even if the scan is not complete.
+     *
+     * @return An unmodifiable view of the entries.
+     */
+    public Map<String, String> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Returns the cursor to pass to the next scan call.
+     *
+     * @return The continuation cursor, or null if there are no more pages.
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Checks whether this is the last page of the scan.
+     *
+     * @return True if there are no more pages.
+     */
+    public boolean isComplete() {
+        return cursor == null;
+    }
+}
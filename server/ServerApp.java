@@ -1,58 +1,137 @@
 package server;
 
 import utils.ILogger;
-import utils.Logger;
+import utils.LogLevel;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.RMISocketFactory;
 import java.rmi.server.UnicastRemoteObject;
 
 /**
  * ServerApp is the entry point for the Key-Value Store RMI server.
- * It initializes the remote object and binds it to the RMI registry.
+ * It initializes the remote object and binds it to the RMI registry, and can also serve it over the NIO
+ * binary transport.
  */
 public class ServerApp {
 
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Usage: java server.ServerApp <port-number>");
-            System.exit(1);
-        }
-
-        int port;
+        ServerConfig config;
         try {
-            port = Integer.parseInt(args[0]);
-        } catch (NumberFormatException e) {
-            System.out.println("Invalid port number. Please enter a valid integer.");
+            config = ServerConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(ServerConfig.USAGE);
             System.exit(1);
             return; // Unreachable, but added to satisfy the compiler
         }
+        int port = config.getPort();
 
-        ILogger logger = new Logger("ServerLogger", "ServerLog.log");
+        // A single logger is shared with the store so that all server records go through one writer
+        ILogger logger = config.createLogger("ServerLogger", "ServerLog.log");
 
         try {
+            // Remote objects are exported as they are constructed, so the connection limit is installed first
+            ConnectionLimitingSocketFactory socketFactory = config.createSocketFactory(logger);
+            if (socketFactory != null) {
+                RMISocketFactory.setSocketFactory(socketFactory);
+            }
+
             // Instantiate the remote object
-            KeyValueStoreImpl keyValueStore = new KeyValueStoreImpl();
+            WriteAheadLog wal = config.createWriteAheadLog(logger);
+            ReplicationLog replicationLog = config.createReplicationLog();
+            KeyValueStoreImpl keyValueStore = new KeyValueStoreImpl(logger, config.createStorageEngine(), wal,
+                    config.createSnapshotManager(wal, logger), replicationLog, config.createMemoryBudget(logger));
+            keyValueStore.limitInFlight(config.createAdmissionControl());
+            keyValueStore.reportHotKeys(config.getHotKeyReportSeconds());
+            WatchPublisher watchPublisher = config.createWatchPublisher(replicationLog, logger);
+            keyValueStore.publishWatches(watchPublisher);
+            // Replicas pull mutations through a second binding in the RMI registry
+            ReplicationSourceImpl replicationSource =
+                    replicationLog != null ? new ReplicationSourceImpl(replicationLog) : null;
+            // Caching clients subscribe to changed keys through a third one
+            InvalidationPublisher invalidationPublisher = config.isCacheInvalidation()
+                    ? new InvalidationPublisher(replicationLog, logger)
+                    : null;
+
+            boolean rmi = config.getTransport() != ServerConfig.Transport.NIO;
+            boolean nio = config.getTransport() != ServerConfig.Transport.RMI;
+
+            if (rmi) {
+                // Create RMI registry on the specified port
+                Registry registry = LocateRegistry.createRegistry(port);
+
+                // Bind the remote object to the registry with the name "KeyValueStore"
+                registry.rebind("KeyValueStore", keyValueStore);
+                logger.log("Server is ready and bound to registry on port " + port + ".");
+                System.out.println("Server is ready on port " + port + ".");
 
-            // Create RMI registry on the specified port
-            Registry registry = LocateRegistry.createRegistry(port);
+                if (replicationSource != null) {
+                    registry.rebind("Replication", replicationSource);
+                    logger.log("Server is accepting replicas on port " + port + ".");
+                }
+                if (invalidationPublisher != null) {
+                    registry.rebind("Invalidation", invalidationPublisher);
+                    logger.log("Server is publishing cache invalidations on port " + port + ".");
+                }
+            }
+
+            ReplicaSync replicaSync = config.createReplicaSync(keyValueStore, logger);
+            if (replicaSync != null) {
+                replicaSync.start();
+                logger.log("Server is a read-only replica of " + replicaSync.getPrimary() + ".");
+                System.out.println("Server is a read-only replica of " + replicaSync.getPrimary() + ".");
+            }
 
-            // Bind the remote object to the registry with the name "KeyValueStore"
-            registry.rebind("KeyValueStore", keyValueStore);
-            logger.log("Server is ready and bound to registry on port " + port + ".");
+            NioServer nioServer = nio
+                    ? new NioServer(keyValueStore, config.getNioPort(), config.getNioThreads(), config.getNioWorkers(),
+                            keyValueStore::writesMayWait, logger)
+                    : null;
+            if (nioServer != null) {
+                nioServer.start();
+                logger.log("Server is ready for NIO clients on port " + config.getNioPort() + ".");
+                System.out.println("Server is ready for NIO clients on port " + config.getNioPort() + ".");
+            }
 
-            System.out.println("Server is ready on port " + port + ".");
+            // Operation counters and latencies are published over JMX as well as through stats()
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName metricsName = new ObjectName("kvstore:type=KeyValueStore,port=" + port);
+            mbeanServer.registerMBean(new MetricsMBean("Key-value store metrics", keyValueStore::metrics), metricsName);
+            logger.log("Server metrics are registered with JMX as " + metricsName + ".");
 
             // Add shutdown hook for graceful termination
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 try {
+                    if (nioServer != null) {
+                        nioServer.close();
+                    }
+                    if (replicaSync != null) {
+                        replicaSync.close();
+                    }
+                    if (replicationSource != null) {
+                        UnicastRemoteObject.unexportObject(replicationSource, true);
+                    }
+                    if (invalidationPublisher != null) {
+                        invalidationPublisher.close();
+                        UnicastRemoteObject.unexportObject(invalidationPublisher, true);
+                    }
+                    if (watchPublisher != null) {
+                        watchPublisher.close();
+                    }
+                    mbeanServer.unregisterMBean(metricsName);
                     UnicastRemoteObject.unexportObject(keyValueStore, true);
+                    keyValueStore.close();
                     logger.log("Server shut down gracefully.");
-                    logger.close();
                     System.out.println("Server shut down gracefully.");
                 } catch (Exception e) {
-                    logger.log("Error during server shutdown: " + e.getMessage());
+                    logger.log(LogLevel.ERROR, "Error during server shutdown: " + e.getMessage());
                     System.err.println("Error during server shutdown: " + e.getMessage());
+                } finally {
+                    // Flushes any records still buffered by an asynchronous logger
+                    logger.close();
                 }
             }));
 
@@ -66,7 +145,7 @@ public class ServerApp {
             }
 
         } catch (Exception e) {
-            logger.log("Server exception: " + e.toString());
+            logger.log(LogLevel.ERROR, "Server exception: " + e.toString());
             e.printStackTrace();
         }
     }
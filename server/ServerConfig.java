@@ -0,0 +1,554 @@
+package server;
+
+import utils.AsyncLogger;
+import utils.ILogger;
+import utils.LogLevel;
+import utils.Logger;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.Deflater;
+
+/**
+ * ServerConfig holds the settings of a ServerApp instance.
+ * Settings are given on the command line after the port number as {@code --name=value} options.
+ */
+public class ServerConfig {
+
+    /**
+     * Usage text describing every supported option.
+     */
+    public static final String USAGE =
+            "Usage: java server.ServerApp <port-number> [options]\n"
+                    + "Options:\n"
+                    + "  --log-level=debug|info|warn|error Minimum level of server log records (default info)\n"
+                    + "  --log-mode=async|sync             Log through a background writer thread (default async)\n"
+                    + "  --log-capacity=<records>          Capacity of the async log buffer (default 65536)\n"
+                    + "  --log-overflow=block|drop|sample  What to do when the async log buffer is full (default block)\n"
+                    + "  --log-sample-rate=<n>             With sample overflow, keep 1 of every n records (default 100)\n"
+                    + "  --data-dir=<directory>            Persist mutations to a write-ahead log in this directory\n"
+                    + "  --wal-sync=always|interval|os     When logged mutations are synced to disk (default always)\n"
+                    + "  --wal-sync-interval=<ms>          Sync period for --wal-sync=interval (default 10)\n"
+                    + "  --snapshot-interval=<seconds>     Snapshot the store to --data-dir periodically (default 300, 0 = off)\n"
+                    + "  --snapshot-loaders=<threads>      Threads decoding the snapshot on startup (default: CPU count)\n"
+                    + "  --transport=rmi|nio|both          How clients reach the store (default rmi)\n"
+                    + "  --nio-port=<port>                 Port of the NIO transport (default: port, or port + 1 with both)\n"
+                    + "  --nio-threads=<threads>           Event loop threads of the NIO transport (default: CPU count)\n"
+                    + "  --nio-workers=<threads>           Threads running NIO requests that may block (default 64)\n"
+                    + "  --storage=heap|offheap            Keep data on the Java heap or in direct memory (default heap)\n"
+                    + "  --compression=off|deflate         Compress large values in memory (default off)\n"
+                    + "  --compression-threshold=<chars>   Compress values of at least this length (default 1024)\n"
+                    + "  --ordered-index=on|off            Keep keys sorted for range and prefix scans (default off)\n"
+                    + "  --replication-buffer=<records>    Serve replicas, keeping this many recent mutations (default 0 = off)\n"
+                    + "  --replica-of=<host:port>          Run as a read-only replica of the primary at this RMI address\n"
+                    + "  --cache-invalidation=on|off       Push changed keys to caching clients over RMI (default off)\n"
+                    + "  --watches=on|off                  Push changes of watched keys to clients over RMI (default off)\n"
+                    + "  --max-memory=<bytes>[k|m|g]       Evict keys once keys and values take about this much (default 0 = off)\n"
+                    + "  --eviction=tinylfu|lru            Which keys --max-memory evicts (default tinylfu)\n"
+                    + "  --max-connections=<n>             Close RMI connections beyond this many at once (default 0 = no limit)\n"
+                    + "  --max-in-flight=<n>               Reject requests beyond this many at once as busy (default 0 = no limit)\n"
+                    + "  --hot-key-report=<seconds>        Log the most requested keys periodically (default 60, 0 = off)";
+
+    /** Mutations kept for the invalidation and watch publishers when replicas are not served as well. */
+    private static final int DEFAULT_PUBLISHER_BUFFER = 65536;
+
+    /**
+     * The transports a server can expose the store through.
+     */
+    public enum Transport {
+        RMI, NIO, BOTH
+    }
+
+    /**
+     * The storage engines a server can keep its data in.
+     */
+    public enum Storage {
+        HEAP, OFFHEAP
+    }
+
+    /**
+     * The codecs a server can compress large values with.
+     */
+    public enum Compression {
+        OFF, DEFLATE
+    }
+
+    /**
+     * The policies a memory-bounded server can evict keys by.
+     */
+    public enum Eviction {
+        LRU, TINYLFU
+    }
+
+    private final int port;
+    private LogLevel logLevel = LogLevel.INFO;
+    private boolean asyncLogging = true;
+    private int logCapacity = 65536;
+    private AsyncLogger.OverflowPolicy logOverflow = AsyncLogger.OverflowPolicy.BLOCK;
+    private int logSampleRate = 100;
+    private Path dataDir;
+    private WriteAheadLog.SyncPolicy walSync = WriteAheadLog.SyncPolicy.ALWAYS;
+    private int walSyncIntervalMillis = 10;
+    private int snapshotIntervalSeconds = 300;
+    private int snapshotLoaders = Runtime.getRuntime().availableProcessors();
+    private Transport transport = Transport.RMI;
+    private int nioPort = -1;
+    private int nioThreads = Runtime.getRuntime().availableProcessors();
+    private int nioWorkers = 64;
+    private Storage storage = Storage.HEAP;
+    private Compression compression = Compression.OFF;
+    private int compressionThreshold = 1024;
+    private boolean orderedIndex;
+    private int replicationBuffer;
+    private String primaryHost;
+    private int primaryPort;
+    private boolean cacheInvalidation;
+    private boolean watches;
+    private long maxMemory;
+    private Eviction eviction = Eviction.TINYLFU;
+    private int maxConnections;
+    private int maxInFlight;
+    private int hotKeyReportSeconds = 60;
+
+    private ServerConfig(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Parses the command-line arguments of ServerApp.
+     *
+     * @param args The port number followed by any number of {@code --name=value} options.
+     * @return The parsed configuration.
+     * @throws IllegalArgumentException If an argument is missing, unknown or malformed.
+     */
+    public static ServerConfig parse(String[] args) {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Missing port number.");
+        }
+
+        ServerConfig config;
+        try {
+            config = new ServerConfig(Integer.parseInt(args[0]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid port number. Please enter a valid integer.");
+        }
+
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Invalid option: " + arg);
+            }
+            config.apply(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        config.validate();
+        return config;
+    }
+
+    /**
+     * Checks that the options can be combined.
+     */
+    private void validate() {
+        if (replicationBuffer > 0 && transport == Transport.NIO) {
+            throw new IllegalArgumentException(
+                    "Replicas pull over RMI; --replication-buffer requires --transport=rmi or both.");
+        }
+        if (isReplica() && dataDir != null) {
+            throw new IllegalArgumentException("A replica reloads its data from the primary; remove --data-dir.");
+        }
+        if (isReplica() && replicationBuffer > 0) {
+            throw new IllegalArgumentException(
+                    "A replica cannot serve replicas of its own; remove --replication-buffer.");
+        }
+        if (cacheInvalidation && transport == Transport.NIO) {
+            throw new IllegalArgumentException(
+                    "Invalidations are pushed over RMI; --cache-invalidation requires --transport=rmi or both.");
+        }
+        if (cacheInvalidation && isReplica()) {
+            throw new IllegalArgumentException(
+                    "A replica does not track its changes; enable --cache-invalidation on the primary.");
+        }
+        if (watches && transport == Transport.NIO) {
+            throw new IllegalArgumentException(
+                    "Watch callbacks are made over RMI; --watches requires --transport=rmi or both.");
+        }
+        if (watches && isReplica()) {
+            throw new IllegalArgumentException(
+                    "A replica does not track its changes; enable --watches on the primary.");
+        }
+        if (maxMemory > 0 && isReplica()) {
+            throw new IllegalArgumentException(
+                    "A replica removes the keys its primary evicts; set --max-memory on the primary.");
+        }
+        if (maxConnections > 0 && transport == Transport.NIO) {
+            throw new IllegalArgumentException(
+                    "The NIO transport serves every connection on --nio-threads and --nio-workers; "
+                            + "--max-connections applies to RMI.");
+        }
+    }
+
+    /**
+     * Applies a single option.
+     *
+     * @param name  The option name without the leading dashes.
+     * @param value The option value.
+     */
+    private void apply(String name, String value) {
+        switch (name) {
+            case "log-level":
+                logLevel = parseEnum(LogLevel.class, name, value);
+                break;
+            case "log-mode":
+                if (value.equalsIgnoreCase("async")) {
+                    asyncLogging = true;
+                } else if (value.equalsIgnoreCase("sync")) {
+                    asyncLogging = false;
+                } else {
+                    throw new IllegalArgumentException("Invalid log mode: " + value);
+                }
+                break;
+            case "log-capacity":
+                logCapacity = parsePositiveInt(name, value);
+                break;
+            case "log-overflow":
+                logOverflow = parseEnum(AsyncLogger.OverflowPolicy.class, name, value);
+                break;
+            case "log-sample-rate":
+                logSampleRate = parsePositiveInt(name, value);
+                break;
+            case "data-dir":
+                dataDir = Paths.get(value);
+                break;
+            case "wal-sync":
+                walSync = parseEnum(WriteAheadLog.SyncPolicy.class, name, value);
+                break;
+            case "wal-sync-interval":
+                walSyncIntervalMillis = parsePositiveInt(name, value);
+                break;
+            case "snapshot-interval":
+                snapshotIntervalSeconds = parseNonNegativeInt(name, value);
+                break;
+            case "snapshot-loaders":
+                snapshotLoaders = parsePositiveInt(name, value);
+                break;
+            case "transport":
+                transport = parseEnum(Transport.class, name, value);
+                break;
+            case "nio-port":
+                nioPort = parsePositiveInt(name, value);
+                break;
+            case "nio-threads":
+                nioThreads = parsePositiveInt(name, value);
+                break;
+            case "nio-workers":
+                nioWorkers = parsePositiveInt(name, value);
+                break;
+            case "storage":
+                storage = parseEnum(Storage.class, name, value);
+                break;
+            case "compression":
+                compression = parseEnum(Compression.class, name, value);
+                break;
+            case "compression-threshold":
+                compressionThreshold = parsePositiveInt(name, value);
+                break;
+            case "ordered-index":
+                if (value.equalsIgnoreCase("on")) {
+                    orderedIndex = true;
+                } else if (value.equalsIgnoreCase("off")) {
+                    orderedIndex = false;
+                } else {
+                    throw new IllegalArgumentException("Invalid value for --ordered-index: " + value);
+                }
+                break;
+            case "replication-buffer":
+                replicationBuffer = parseNonNegativeInt(name, value);
+                break;
+            case "replica-of": {
+                int colon = value.lastIndexOf(':');
+                if (colon <= 0) {
+                    throw new IllegalArgumentException("Option --replica-of requires host:port: " + value);
+                }
+                primaryHost = value.substring(0, colon);
+                primaryPort = parsePositiveInt(name, value.substring(colon + 1));
+                break;
+            }
+            case "cache-invalidation":
+                if (value.equalsIgnoreCase("on")) {
+                    cacheInvalidation = true;
+                } else if (value.equalsIgnoreCase("off")) {
+                    cacheInvalidation = false;
+                } else {
+                    throw new IllegalArgumentException("Invalid value for --cache-invalidation: " + value);
+                }
+                break;
+            case "watches":
+                if (value.equalsIgnoreCase("on")) {
+                    watches = true;
+                } else if (value.equalsIgnoreCase("off")) {
+                    watches = false;
+                } else {
+                    throw new IllegalArgumentException("Invalid value for --watches: " + value);
+                }
+                break;
+            case "max-memory":
+                maxMemory = parseBytes(name, value);
+                break;
+            case "eviction":
+                eviction = parseEnum(Eviction.class, name, value);
+                break;
+            case "max-connections":
+                maxConnections = parseNonNegativeInt(name, value);
+                break;
+            case "max-in-flight":
+                maxInFlight = parseNonNegativeInt(name, value);
+                break;
+            case "hot-key-report":
+                hotKeyReportSeconds = parseNonNegativeInt(name, value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: --" + name);
+        }
+    }
+
+    private static int parsePositiveInt(String name, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Option --" + name + " requires a positive integer: " + value);
+    }
+
+    private static int parseNonNegativeInt(String name, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Option --" + name + " requires a non-negative integer: " + value);
+    }
+
+    /**
+     * Parses a non-negative byte count with an optional k, m or g suffix for binary kilo-, mega- or gigabytes.
+     */
+    private static long parseBytes(String name, String value) {
+        String digits = value;
+        int shift = 0;
+        if (!value.isEmpty()) {
+            int unit = "kmg".indexOf(Character.toLowerCase(value.charAt(value.length() - 1)));
+            if (unit >= 0) {
+                digits = value.substring(0, value.length() - 1);
+                shift = 10 * (unit + 1);
+            }
+        }
+        try {
+            long parsed = Long.parseLong(digits);
+            if (parsed >= 0 && parsed <= Long.MAX_VALUE >> shift) {
+                return parsed << shift;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Option --" + name + " requires a byte count such as 512m: " + value);
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String name, String value) {
+        try {
+            return Enum.valueOf(type, value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value for --" + name + ": " + value);
+        }
+    }
+
+    /**
+     * Creates the logger described by the logging options.
+     *
+     * @param loggerName  The name of the logger.
+     * @param logFileName The name of the log file.
+     * @return A new logger.
+     */
+    public ILogger createLogger(String loggerName, String logFileName) {
+        ILogger logger;
+        if (asyncLogging) {
+            logger = new AsyncLogger(loggerName, logFileName, logCapacity, logOverflow, logSampleRate);
+        } else {
+            logger = new Logger(loggerName, logFileName);
+        }
+        logger.setLevel(logLevel);
+        return logger;
+    }
+
+    /**
+     * Creates the storage engine described by the storage, compression and ordered index options.
+     *
+     * @return A new, empty storage engine.
+     */
+    public StorageEngine createStorageEngine() {
+        StorageEngine engine = storage == Storage.OFFHEAP ? new OffHeapStorageEngine() : new HeapStorageEngine();
+        if (compression == Compression.DEFLATE) {
+            // Values are compressed on the request path, so favour speed over ratio
+            engine = new CompressingStorageEngine(engine, new DeflateCodec(Deflater.BEST_SPEED), compressionThreshold);
+        }
+        return orderedIndex ? new OrderedStorageEngine(engine) : engine;
+    }
+
+    /**
+     * Creates the replication log described by the replication, cache invalidation and watch options.
+     * Invalidations and watched changes are published from the same log, which then keeps a default number of
+     * mutations.
+     *
+     * @return A new replication log, or null if this server neither serves replicas nor publishes changes.
+     */
+    public ReplicationLog createReplicationLog() {
+        if (replicationBuffer > 0) {
+            return new ReplicationLog(replicationBuffer);
+        }
+        return cacheInvalidation || watches ? new ReplicationLog(DEFAULT_PUBLISHER_BUFFER) : null;
+    }
+
+    /**
+     * Checks whether changed keys are pushed to caching clients.
+     *
+     * @return True if cache invalidation is on.
+     */
+    public boolean isCacheInvalidation() {
+        return cacheInvalidation;
+    }
+
+    /**
+     * Creates the watch publisher described by the watch option.
+     *
+     * @param log    The replication log created by {@link #createReplicationLog}.
+     * @param logger The logger for watches and failed callbacks.
+     * @return A new, started watch publisher, or null if watches are off.
+     */
+    public WatchPublisher createWatchPublisher(ReplicationLog log, ILogger logger) {
+        return watches && log != null ? new WatchPublisher(log, logger) : null;
+    }
+
+    /**
+     * Creates the memory budget described by the eviction options.
+     *
+     * @param logger The logger for eviction statistics.
+     * @return A new, empty memory budget, or null if the store is unbounded.
+     */
+    public MemoryBudget createMemoryBudget(ILogger logger) {
+        if (maxMemory == 0) {
+            return null;
+        }
+        EvictionPolicy policy;
+        if (eviction == Eviction.LRU) {
+            policy = new SampledLruPolicy();
+        } else {
+            // Sizes the frequency sketch for entries of a few dozen characters
+            policy = new TinyLfuPolicy(maxMemory / (MemoryBudget.ENTRY_OVERHEAD + 64));
+        }
+        return new MemoryBudget(maxMemory, policy, logger);
+    }
+
+    /**
+     * Creates the RMI socket factory described by the connection limit option.
+     *
+     * @param logger The logger for rejected connections.
+     * @return A new socket factory to install before exporting any remote object, or null for no limit.
+     */
+    public ConnectionLimitingSocketFactory createSocketFactory(ILogger logger) {
+        return maxConnections > 0 ? new ConnectionLimitingSocketFactory(maxConnections, logger) : null;
+    }
+
+    /**
+     * Creates the admission control described by the in-flight limit option.
+     *
+     * @return A new admission control, or null for no limit.
+     */
+    public AdmissionControl createAdmissionControl() {
+        return maxInFlight > 0 ? new AdmissionControl(maxInFlight) : null;
+    }
+
+    /**
+     * Creates the replica synchronizer described by the replication options.
+     *
+     * @param store  The store to keep up to date with the primary.
+     * @param logger The logger for replication progress and problems.
+     * @return A new, not yet started synchronizer, or null if this server is not a replica.
+     */
+    public ReplicaSync createReplicaSync(KeyValueStoreImpl store, ILogger logger) {
+        return isReplica() ? new ReplicaSync(store, primaryHost, primaryPort, logger) : null;
+    }
+
+    /**
+     * Checks whether this server is a read-only replica.
+     *
+     * @return True if a primary is configured.
+     */
+    public boolean isReplica() {
+        return primaryHost != null;
+    }
+
+    /**
+     * Creates the write-ahead log described by the persistence options.
+     *
+     * @param logger The logger for recovery and I/O problems.
+     * @return A new, not yet recovered write-ahead log, or null if no data directory is configured.
+     */
+    public WriteAheadLog createWriteAheadLog(ILogger logger) {
+        if (dataDir == null) {
+            return null;
+        }
+        return new WriteAheadLog(dataDir.resolve("wal"), walSync, walSyncIntervalMillis, logger);
+    }
+
+    /**
+     * Creates the snapshot manager described by the persistence options.
+     *
+     * @param wal    The write-ahead log created by {@link #createWriteAheadLog}.
+     * @param logger The logger for snapshot progress and problems.
+     * @return A new snapshot manager, or null if no data directory is configured.
+     */
+    public SnapshotManager createSnapshotManager(WriteAheadLog wal, ILogger logger) {
+        if (dataDir == null || wal == null) {
+            return null;
+        }
+        return new SnapshotManager(dataDir, wal, logger, snapshotLoaders, snapshotIntervalSeconds);
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Returns the port of the NIO transport. Unless configured, it is the server port, or the next port when
+     * RMI is served as well.
+     *
+     * @return The NIO port.
+     */
+    public int getNioPort() {
+        if (nioPort > 0) {
+            return nioPort;
+        }
+        return transport == Transport.BOTH ? port + 1 : port;
+    }
+
+    public int getNioThreads() {
+        return nioThreads;
+    }
+
+    public int getNioWorkers() {
+        return nioWorkers;
+    }
+
+    public int getHotKeyReportSeconds() {
+        return hotKeyReportSeconds;
+    }
+}
@@ -0,0 +1,357 @@
+package server;
+
+import utils.ILogger;
+import utils.LogLevel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * SnapshotManager writes point-in-time snapshots of the store and loads them back on startup.
+ * <p>
+ * A snapshot is taken while writers keep running: the write-ahead log is rotated first, then the storage
+ * engine is iterated without blocking writers. Each entry is captured at some point between the rotation and
+ * the end of the iteration, and every change made in that window is also in the log segments that are kept,
+ * so replaying them over the snapshot yields the current state. Once the snapshot is safely renamed into place, older
+ * log segments are deleted, which keeps restart time independent of the store's mutation history.
+ * State the snapshot does not hold, such as key deadlines, is appended to the new segment by a
+ * {@link RotationHook} right after the rotation.
+ * <p>
+ * The file is a sequence of independently checksummed chunks. Loading maps each chunk into memory with a
+ * {@link FileChannel} and decodes the chunks in parallel.
+ */
+public class SnapshotManager {
+
+    /**
+     * Runs right after the log is rotated for a snapshot.
+     */
+    public interface RotationHook {
+        /**
+         * Appends records for state the snapshot does not hold to the new log segment and makes them durable.
+         *
+         * @throws IOException If the records cannot be made durable; the snapshot is abandoned.
+         */
+        void afterRotate() throws IOException;
+    }
+
+    private static final int MAGIC = 0x4B56534E; // "KVSN"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 16; // magic + version + replay sequence number
+    private static final int CHUNK_HEADER_SIZE = 12; // data length + entry count + CRC32
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final String FILE_NAME = "snapshot.bin";
+
+    private final Path file;
+    private final Path tempFile;
+    private final WriteAheadLog wal;
+    private final ILogger logger;
+    private final int loaderThreads;
+    private final long intervalSeconds;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile RotationHook rotationHook;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Constructs a SnapshotManager that keeps its snapshot in the given directory.
+     *
+     * @param directory       The data directory of the server.
+     * @param wal             The write-ahead log to rotate and trim around snapshots.
+     * @param logger          The logger for snapshot progress and problems.
+     * @param loaderThreads   The number of threads that decode chunks when loading.
+     * @param intervalSeconds The time between periodic snapshots, or 0 to take them only on request.
+     */
+    public SnapshotManager(Path directory, WriteAheadLog wal, ILogger logger, int loaderThreads,
+                           long intervalSeconds) {
+        this.file = directory.resolve(FILE_NAME);
+        this.tempFile = directory.resolve(FILE_NAME + ".tmp");
+        this.wal = wal;
+        this.logger = logger;
+        this.loaderThreads = loaderThreads;
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    /**
+     * Loads the latest snapshot, if one exists, into the target storage engine.
+     *
+     * @param target The storage engine to fill.
+     * @return The first sequence number of the oldest log segment to replay on top of the snapshot,
+     * or 1 if there is no snapshot.
+     * @throws IOException If the snapshot exists but cannot be read or is corrupt.
+     */
+    public long load(StorageEngine target) throws IOException {
+        if (!Files.exists(file)) {
+            return 1;
+        }
+        long start = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = readAt(channel, 0, FILE_HEADER_SIZE);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Unrecognized snapshot file " + file);
+            }
+            long replayFromSeq = header.getLong(8);
+
+            // Walk the chunk headers only, so that the chunk bodies can be decoded in parallel
+            List<long[]> chunks = new ArrayList<>();
+            long position = FILE_HEADER_SIZE;
+            long entries = 0;
+            while (true) {
+                ByteBuffer chunkHeader = readAt(channel, position, CHUNK_HEADER_SIZE);
+                int length = chunkHeader.getInt(0);
+                if (length == 0) {
+                    break;
+                }
+                chunks.add(new long[]{position + CHUNK_HEADER_SIZE, length,
+                        chunkHeader.getInt(4), chunkHeader.getInt(8)});
+                entries += chunkHeader.getInt(4);
+                position += CHUNK_HEADER_SIZE + length;
+            }
+
+            int threads = Math.max(1, Math.min(loaderThreads, chunks.size()));
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> results = new ArrayList<>(chunks.size());
+                for (long[] chunk : chunks) {
+                    results.add(pool.submit(() -> {
+                        decodeChunk(channel, chunk[0], (int) chunk[1], (int) chunk[2], (int) chunk[3], target);
+                        return null;
+                    }));
+                }
+                for (Future<?> result : results) {
+                    result.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading snapshot", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Unable to load snapshot: " + e.getCause().getMessage(), e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+
+            logger.log("SNAPSHOT: Loaded " + entries + " keys from " + chunks.size() + " chunks in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+            return replayFromSeq;
+        }
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Snapshot file is truncated");
+            }
+        }
+        return buf;
+    }
+
+    /**
+     * Maps one chunk into memory, verifies its checksum and inserts its entries into the target engine.
+     */
+    private static void decodeChunk(FileChannel channel, long offset, int length, int count, int checksum,
+                                    StorageEngine target) throws IOException {
+        MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        byte[] scratch = new byte[Math.min(length, 64 * 1024)];
+
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Snapshot chunk at offset " + offset + " is corrupt");
+        }
+
+        for (int i = 0; i < count; i++) {
+            int keyLength = data.getInt();
+            if (scratch.length < keyLength) {
+                scratch = new byte[keyLength];
+            }
+            data.get(scratch, 0, keyLength);
+            String key = new String(scratch, 0, keyLength, StandardCharsets.UTF_8);
+
+            int valueLength = data.getInt();
+            if (scratch.length < valueLength) {
+                scratch = new byte[valueLength];
+            }
+            data.get(scratch, 0, valueLength);
+            target.put(key, new String(scratch, 0, valueLength, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Takes periodic snapshots of the source engine on a background thread, if an interval is configured.
+     *
+     * @param source The storage engine to snapshot.
+     */
+    public synchronized void start(StorageEngine source) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot(source);
+            } catch (IOException e) {
+                logger.log(LogLevel.ERROR, "SNAPSHOT: Failed: {}", e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes a snapshot of the source engine and deletes the log segments it makes obsolete.
+     * Does nothing if another snapshot is already in progress.
+     *
+     * @param source The storage engine to snapshot; writers are not blocked while it is iterated.
+     * @return True if a snapshot was written.
+     * @throws IOException If the snapshot or the log rotation fails; the previous snapshot stays valid.
+     */
+    public boolean snapshot(StorageEngine source) throws IOException {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            long start = System.nanoTime();
+            // Mutations still completing when the log rotates are recorded in the segment that was current,
+            // so that segment is replayed after the snapshot as well
+            long replayFromSeq = wal.rotate();
+            RotationHook hook = rotationHook;
+            if (hook != null) {
+                hook.afterRotate();
+            }
+            long entries = write(source, replayFromSeq);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // The rename is only durable once the directory is synced; until then a crash may bring back the
+            // previous snapshot, which still needs the segments about to be deleted
+            syncDirectory(file.toAbsolutePath().getParent());
+            int deleted = wal.deleteSegmentsBefore(replayFromSeq);
+
+            logger.log("SNAPSHOT: Wrote " + entries + " keys in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms, removed "
+                    + deleted + " log segments.");
+            return true;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Forces the entries of a directory to disk.
+     */
+    private static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        }
+    }
+
+    /**
+     * Writes the source engine to the temporary snapshot file and syncs it.
+     *
+     * @return The number of entries written.
+     */
+    private long write(StorageEngine source, long replayFromSeq) throws IOException {
+        long entries = 0;
+        try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(replayFromSeq).flip();
+            writeFully(out, header);
+
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_HEADER_SIZE + CHUNK_SIZE);
+            chunk.position(CHUNK_HEADER_SIZE);
+            int count = 0;
+            for (Iterator<Map.Entry<String, String>> it = source.iterator(); it.hasNext(); ) {
+                Map.Entry<String, String> entry = it.next();
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                byte[] value = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                int needed = 8 + key.length + value.length;
+
+                if (chunk.remaining() < needed && count > 0) {
+                    writeChunk(out, chunk, count);
+                    count = 0;
+                }
+                if (chunk.remaining() < needed) {
+                    // A single entry larger than the chunk size gets a chunk of its own
+                    chunk = ByteBuffer.allocate(CHUNK_HEADER_SIZE + needed);
+                    chunk.position(CHUNK_HEADER_SIZE);
+                }
+                chunk.putInt(key.length).put(key).putInt(value.length).put(value);
+                count++;
+                entries++;
+            }
+            if (count > 0) {
+                writeChunk(out, chunk, count);
+            }
+
+            // A zero-length chunk marks the end of a complete snapshot
+            ByteBuffer end = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+            writeFully(out, end);
+            out.force(true);
+        }
+        return entries;
+    }
+
+    /**
+     * Fills in the chunk header, writes the chunk and resets the buffer for the next chunk.
+     */
+    private static void writeChunk(FileChannel out, ByteBuffer chunk, int count) throws IOException {
+        int length = chunk.position() - CHUNK_HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(chunk.array(), CHUNK_HEADER_SIZE, length);
+        chunk.putInt(0, length).putInt(4, count).putInt(8, (int) crc.getValue());
+        chunk.flip();
+        writeFully(out, chunk);
+        chunk.clear();
+        chunk.position(CHUNK_HEADER_SIZE);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    /**
+     * Sets the hook to run after each rotation of the log for a snapshot.
+     *
+     * @param hook The hook, or null for none.
+     */
+    public void setRotationHook(RotationHook hook) {
+        this.rotationHook = hook;
+    }
+
+    /**
+     * Stops taking periodic snapshots, waiting for one in progress to finish.
+     */
+    public synchronized void close() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package server;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * StorageEngine holds the key-value pairs of the store.
+ * <p>
+ * Implementations must be safe for concurrent use. The compute methods run their function while the key is
+ * locked, so callers can attach side effects, such as appending to the write-ahead log, that must happen in the
+ * same order as the changes to each key; the function must be short and must not access the engine itself.
+ * Iteration is weakly consistent: it never fails because of concurrent changes, and keys present for the whole
+ * iteration are returned exactly once.
+ */
+public interface StorageEngine {
+
+    /**
+     * Returns the value of a key.
+     *
+     * @param key The key to look up.
+     * @return The value, or null if the key is absent.
+     */
+    String get(String key);
+
+    /**
+     * Sets the value of a key.
+     *
+     * @param key   The key to set.
+     * @param value The new value.
+     * @return The previous value, or null if the key was absent.
+     */
+    String put(String key, String value);
+
+    /**
+     * Sets the value of a key if it is absent.
+     *
+     * @param key   The key to set.
+     * @param value The value to insert.
+     * @return The existing value, or null if the value was inserted.
+     */
+    String putIfAbsent(String key, String value);
+
+    /**
+     * Removes a key.
+     *
+     * @param key The key to remove.
+     * @return The removed value, or null if the key was absent.
+     */
+    String remove(String key);
+
+    /**
+     * Inserts the value computed by the function if the key is absent.
+     *
+     * @param key      The key to look up.
+     * @param function Computes the value to insert, or null to insert nothing.
+     * @return The existing or inserted value, or null if nothing was inserted.
+     */
+    String computeIfAbsent(String key, Function<? super String, ? extends String> function);
+
+    /**
+     * Replaces the value of a key with the value computed by the function if the key is present.
+     *
+     * @param key      The key to look up.
+     * @param function Computes the new value from the key and the current value, or null to remove the key.
+     * @return The new value, or null if the key is absent or was removed.
+     */
+    String computeIfPresent(String key, BiFunction<? super String, ? super String, ? extends String> function);
+
+    /**
+     * Replaces the value of a key with the value computed by the function.
+     *
+     * @param key      The key to look up.
+     * @param function Computes the new value from the key and the current value, which is null if the key is
+     *                 absent; returns null to remove the key or leave it absent.
+     * @return The new value, or null if the key is absent afterwards.
+     */
+    String compute(String key, BiFunction<? super String, ? super String, ? extends String> function);
+
+    /**
+     * Returns the number of keys.
+     *
+     * @return The number of keys; may be approximate while the engine is being modified.
+     */
+    int size();
+
+    /**
+     * Checks whether the engine holds no keys.
+     *
+     * @return True if there are no keys.
+     */
+    boolean isEmpty();
+
+    /**
+     * Returns a weakly consistent iterator over the key-value pairs.
+     *
+     * @return A new iterator; it does not support removal.
+     */
+    Iterator<Map.Entry<String, String>> iterator();
+
+    /**
+     * Returns a weakly consistent iterator over the key-value pairs in key order, if the engine keeps its keys
+     * sorted. The default implementation keeps no order.
+     *
+     * @param from The lowest key to return, or null to start at the lowest key in the engine.
+     * @return A new iterator that does not support removal, or null if the engine cannot iterate in key order.
+     */
+    default Iterator<Map.Entry<String, String>> orderedIterator(String from) {
+        return null;
+    }
+
+    /**
+     * Returns the length in characters of the form the engine would keep a value in, for memory accounting.
+     * A store may call this inside a compute function for the value the function is about to return.
+     *
+     * @param value The value.
+     * @return The stored length; the default implementation keeps values as they are.
+     */
+    default int storedLength(String value) {
+        return value.length();
+    }
+
+    /**
+     * Returns the length in characters of the form the engine keeps a key's value in, for memory accounting.
+     *
+     * @param key The key.
+     * @return The stored length, or -1 if the key is absent.
+     */
+    default int storedLengthOf(String key) {
+        String value = get(key);
+        return value != null ? value.length() : -1;
+    }
+
+    /**
+     * Adds the engine's own statistics, if it keeps any, to a snapshot of the store's metrics.
+     *
+     * @param metrics The snapshot to add to.
+     */
+    default void addMetrics(Map<String, Number> metrics) {
+    }
+
+    /**
+     * Releases the memory held by the engine. The engine must not be used afterwards.
+     */
+    void close();
+}
@@ -0,0 +1,205 @@
+package server;
+
+import utils.LatencyHistogram;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * StoreMetrics counts the operations served by a KeyValueStoreImpl and records how long each took.
+ * <p>
+ * Every operation has a {@link LatencyHistogram} and a {@link LongAdder} of failed calls, and reads count their
+ * hits and misses. Recording takes two clock reads and a few uncontended atomic additions: the adders are striped
+ * across threads and concurrent calls mostly land in different histogram buckets, so the metrics stay on in
+ * production. The figures are cumulative since the server started; monitoring tools derive rates from the
+ * differences between two snapshots.
+ */
+public class StoreMetrics {
+
+    /**
+     * The operations that are measured, named like their log records.
+     */
+    public enum Operation {
+        PUT("put"),
+        GET("get"),
+        DELETE("delete"),
+        EXPIRE("expire"),
+        REPLACE("replace"),
+        COMPARE_AND_SET("cas"),
+        INCREMENT("increment"),
+        APPEND("append"),
+        SHOW("show"),
+        SCAN("scan"),
+        RANGE_SCAN("range-scan"),
+        PREFIX_SCAN("prefix-scan"),
+        MULTI_PUT("multi-put"),
+        MULTI_GET("multi-get"),
+        MULTI_DELETE("multi-delete"),
+        TRANSACTION("transaction"),
+        BULK_LOAD("bulk-load");
+
+        private final String metricName;
+
+        Operation(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+    private final LongAdder[] errors = new LongAdder[OPERATIONS.length];
+    /** Keys sent in batch operations. */
+    private final LongAdder[] batchKeys = new LongAdder[OPERATIONS.length];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final long startedAt = System.nanoTime();
+
+    public StoreMetrics() {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            latencies[i] = new LatencyHistogram();
+            errors[i] = new LongAdder();
+            batchKeys[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a call that returned a status message.
+     *
+     * @param op         The operation.
+     * @param startNanos The {@link System#nanoTime()} at which the call started.
+     * @param response   The status message; one starting with "ERROR" counts as failed.
+     * @return The response, so that a call can return through this method.
+     */
+    public String record(Operation op, long startNanos, String response) {
+        latencies[op.ordinal()].record(System.nanoTime() - startNanos);
+        if (response.startsWith("ERROR")) {
+            errors[op.ordinal()].increment();
+        }
+        return response;
+    }
+
+    /**
+     * Records a batch call; each key with an error message counts as failed.
+     *
+     * @param op         The operation.
+     * @param startNanos The {@link System#nanoTime()} at which the call started.
+     * @param results    The status message of each key.
+     * @return The results, so that a call can return through this method.
+     */
+    public Map<String, String> record(Operation op, long startNanos, Map<String, String> results) {
+        recordBatch(op, startNanos, results.values());
+        return results;
+    }
+
+    /**
+     * Records a transaction; each step with an error message counts as failed, and each step as a key.
+     *
+     * @param op         The operation.
+     * @param startNanos The {@link System#nanoTime()} at which the call started.
+     * @param results    The status message of each step.
+     * @return The results, so that a call can return through this method.
+     */
+    public List<String> record(Operation op, long startNanos, List<String> results) {
+        recordBatch(op, startNanos, results);
+        return results;
+    }
+
+    private void recordBatch(Operation op, long startNanos, Collection<String> responses) {
+        int failed = 0;
+        for (String response : responses) {
+            if (response.startsWith("ERROR")) {
+                failed++;
+            }
+        }
+        record(op, startNanos, responses.size(), failed);
+    }
+
+    /**
+     * Records a batch call from its counts.
+     *
+     * @param op         The operation.
+     * @param startNanos The {@link System#nanoTime()} at which the call started.
+     * @param keys       The number of keys in the batch.
+     * @param failed     The number of keys that failed.
+     */
+    public void record(Operation op, long startNanos, long keys, long failed) {
+        latencies[op.ordinal()].record(System.nanoTime() - startNanos);
+        batchKeys[op.ordinal()].add(keys);
+        if (failed > 0) {
+            errors[op.ordinal()].add(failed);
+        }
+    }
+
+    /**
+     * Records a call that cannot fail.
+     *
+     * @param op         The operation.
+     * @param startNanos The {@link System#nanoTime()} at which the call started.
+     */
+    public void record(Operation op, long startNanos) {
+        latencies[op.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records the lookup of one key by a single or batch read.
+     *
+     * @param hit True if the key was found.
+     */
+    public void recordRead(boolean hit) {
+        (hit ? hits : misses).increment();
+    }
+
+    /**
+     * Records the removal of a key whose time to live ended.
+     */
+    public void recordExpiration() {
+        expirations.increment();
+    }
+
+    /**
+     * Adds the current figures to a map, in a fixed order: the totals, then count, failures and latency of each
+     * operation. Latencies are in microseconds, since most calls spend far less than a millisecond in the store.
+     *
+     * @param metrics The map to add the metrics to, by name.
+     */
+    public void snapshotInto(Map<String, Number> metrics) {
+        long total = 0;
+        for (LatencyHistogram latency : latencies) {
+            total += latency.count();
+        }
+        double uptimeSeconds = (System.nanoTime() - startedAt) / (double) TimeUnit.SECONDS.toNanos(1);
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+        metrics.put("uptime-s", (long) uptimeSeconds);
+        metrics.put("ops.total", total);
+        metrics.put("ops.per-second", uptimeSeconds > 0 ? total / uptimeSeconds : 0.0);
+        metrics.put("reads.hits", hitCount);
+        metrics.put("reads.misses", lookups - hitCount);
+        metrics.put("reads.hit-ratio", lookups > 0 ? (double) hitCount / lookups : 0.0);
+        metrics.put("expirations", expirations.sum());
+        for (Operation op : OPERATIONS) {
+            LatencyHistogram latency = latencies[op.ordinal()];
+            String prefix = op.metricName + ".";
+            metrics.put(prefix + "count", latency.count());
+            if (op == Operation.MULTI_PUT || op == Operation.MULTI_GET || op == Operation.MULTI_DELETE
+                    || op == Operation.TRANSACTION || op == Operation.BULK_LOAD) {
+                metrics.put(prefix + "keys", batchKeys[op.ordinal()].sum());
+            }
+            metrics.put(prefix + "errors", errors[op.ordinal()].sum());
+            metrics.put(prefix + "mean-us", toMicros(latency.mean()));
+            metrics.put(prefix + "p50-us", toMicros(latency.percentile(50)));
+            metrics.put(prefix + "p99-us", toMicros(latency.percentile(99)));
+            metrics.put(prefix + "p999-us", toMicros(latency.percentile(99.9)));
+            metrics.put(prefix + "max-us", toMicros(latency.max()));
+        }
+    }
+
+    private static double toMicros(double nanos) {
+        return nanos / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,126 @@
+package server;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * StripedLocks isolates multi-key transactions from each other and from single-key writes, without a lock per key.
+ * <p>
+ * Every key maps to one of a fixed number of {@link StampedLock} stripes. A transaction write-locks the stripes of
+ * all its keys in ascending stripe order, so two transactions never wait for each other in a cycle, and those on
+ * disjoint stripes run in parallel. Single-key writes hold their stripe's read lock while they change the key,
+ * which writers on the same stripe share. Single-key reads take no lock: they read under an optimistic stamp and
+ * only lock the stripe if a transaction held it meanwhile, so a read never sees a transaction half applied.
+ * Stripes are not reentrant: a thread must not lock a stripe it already holds.
+ */
+public class StripedLocks {
+
+    private final StampedLock[] stripes;
+    private final int mask;
+
+    /**
+     * Constructs the locks.
+     *
+     * @param count The number of stripes; rounded up to a power of two.
+     */
+    public StripedLocks(int count) {
+        int size = Integer.highestOneBit(Math.max(1, count - 1)) << 1;
+        stripes = new StampedLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new StampedLock();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Returns the stripe of a key.
+     */
+    private StampedLock stripeOf(String key) {
+        return stripes[indexOf(key)];
+    }
+
+    private int indexOf(String key) {
+        int h = key.hashCode();
+        return ((h >>> 16) ^ h) & mask;
+    }
+
+    /**
+     * Locks a key's stripe in shared mode, for a single-key write or for a read that has to wait for a
+     * transaction. Other single-key calls on the stripe may hold it at the same time.
+     *
+     * @return The stamp to pass to {@link #unlockKey}.
+     */
+    public long lockKey(String key) {
+        return stripeOf(key).readLock();
+    }
+
+    /**
+     * Releases the lock taken by {@link #lockKey}.
+     */
+    public void unlockKey(String key, long stamp) {
+        stripeOf(key).unlockRead(stamp);
+    }
+
+    /**
+     * Returns a stamp for an optimistic read of a key, or 0 if a transaction holds the key's stripe.
+     */
+    public long tryOptimisticRead(String key) {
+        return stripeOf(key).tryOptimisticRead();
+    }
+
+    /**
+     * Checks that no transaction held the key's stripe since {@link #tryOptimisticRead} returned the stamp.
+     */
+    public boolean validate(String key, long stamp) {
+        return stamp != 0 && stripeOf(key).validate(stamp);
+    }
+
+    /**
+     * Locks the stripes of a set of keys exclusively, in ascending order.
+     *
+     * @param keys The keys of a transaction; duplicates are allowed.
+     * @return The held stripes, to pass to {@link #unlockAll}.
+     */
+    public Held lockAll(Collection<String> keys) {
+        int[] indexes = new int[keys.size()];
+        int count = 0;
+        for (String key : keys) {
+            indexes[count++] = indexOf(key);
+        }
+        Arrays.sort(indexes);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || indexes[distinct - 1] != indexes[i]) {
+                indexes[distinct++] = indexes[i];
+            }
+        }
+        Held held = new Held(Arrays.copyOf(indexes, distinct));
+        for (int i = 0; i < distinct; i++) {
+            held.stamps[i] = stripes[held.indexes[i]].writeLock();
+        }
+        return held;
+    }
+
+    /**
+     * Releases the stripes taken by {@link #lockAll}, in reverse order.
+     */
+    public void unlockAll(Held held) {
+        for (int i = held.indexes.length - 1; i >= 0; i--) {
+            stripes[held.indexes[i]].unlockWrite(held.stamps[i]);
+        }
+    }
+
+    /**
+     * The stripes a transaction holds and their stamps.
+     */
+    public static final class Held {
+        private final int[] indexes;
+        private final long[] stamps;
+
+        private Held(int[] indexes) {
+            this.indexes = indexes;
+            this.stamps = new long[indexes.length];
+        }
+    }
+}
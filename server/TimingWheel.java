@@ -0,0 +1,222 @@
+package server;
+
+import utils.ILogger;
+import utils.LogLevel;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TimingWheel fires key expirations at their deadlines from a background thread.
+ * <p>
+ * The wheel is hierarchical: level 0 has one slot per tick and every higher level has slots 64 times as wide.
+ * A timer goes into the lowest level whose span covers its deadline and moves down a level each time the wheel
+ * reaches its slot, so scheduling, firing and each move cost O(1) however many timers are pending, and no timer is
+ * looked at before its slot comes up.
+ * <p>
+ * Timers cannot be cancelled. The handler gets the deadline a timer was scheduled with and is expected to ignore
+ * timers whose key has been given another deadline or no deadline since.
+ */
+public class TimingWheel {
+
+    /**
+     * Receives the expirations that are due.
+     */
+    public interface ExpiryHandler {
+        /**
+         * Expires a key whose timer is due.
+         *
+         * @param key            The key.
+         * @param deadlineMillis The deadline the timer was scheduled with, in epoch milliseconds.
+         */
+        void expire(String key, long deadlineMillis);
+    }
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    /** With 10 ms ticks six levels reach about 20 years ahead; later timers wait in the top level. */
+    private static final int LEVELS = 6;
+
+    private final long tickMillis;
+    private final ExpiryHandler handler;
+    private final ILogger logger;
+    // Guarded by this
+    private final Timer[][] slots = new Timer[LEVELS][SLOTS];
+    private Timer due;
+    private long currentTick;
+    private long pending;
+    private boolean running;
+    private Thread thread;
+
+    /**
+     * Constructs a stopped wheel.
+     *
+     * @param tickMillis The resolution of the wheel; timers fire up to one tick late.
+     * @param handler    The handler to call with due timers, on the wheel's thread.
+     * @param logger     The logger for failing handlers.
+     */
+    public TimingWheel(long tickMillis, ExpiryHandler handler, ILogger logger) {
+        this.tickMillis = tickMillis;
+        this.handler = handler;
+        this.logger = logger;
+        this.currentTick = System.currentTimeMillis() / tickMillis;
+    }
+
+    /**
+     * Starts firing timers, including those scheduled before.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "expiry-wheel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Schedules an expiration.
+     *
+     * @param key            The key to expire.
+     * @param deadlineMillis When to expire it, in epoch milliseconds.
+     */
+    public synchronized void schedule(String key, long deadlineMillis) {
+        Timer timer = new Timer(key, deadlineMillis, Math.floorDiv(deadlineMillis, tickMillis));
+        if (timer.tick <= currentTick) {
+            timer.next = due;
+            due = timer;
+        } else {
+            place(timer);
+        }
+        if (pending++ == 0) {
+            notifyAll(); // Wakes an idle wheel thread
+        }
+    }
+
+    /**
+     * Puts a timer that is not yet due into the lowest level that reaches its tick.
+     */
+    private void place(Timer timer) {
+        long delta = timer.tick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) ((timer.tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+        timer.next = slots[level][slot];
+        slots[level][slot] = timer;
+    }
+
+    /**
+     * Advances the wheel to the given tick and collects the timers that became due.
+     *
+     * @return The due timers as a linked list, or null.
+     */
+    private Timer advanceTo(long tick) {
+        while (currentTick < tick) {
+            currentTick++;
+            // Move the timers of each higher-level slot that starts at this tick down the wheel
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                    continue;
+                }
+                int slot = (int) ((currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+                Timer timer = slots[level][slot];
+                slots[level][slot] = null;
+                while (timer != null) {
+                    Timer next = timer.next;
+                    place(timer);
+                    timer = next;
+                }
+            }
+
+            int slot = (int) (currentTick & (SLOTS - 1));
+            Timer timer = slots[0][slot];
+            slots[0][slot] = null;
+            while (timer != null) {
+                Timer next = timer.next;
+                timer.next = due;
+                due = timer;
+                timer = next;
+            }
+        }
+        Timer fired = due;
+        due = null;
+        return fired;
+    }
+
+    private void run() {
+        while (true) {
+            Timer fired;
+            synchronized (this) {
+                try {
+                    while (running && pending == 0) {
+                        wait();
+                    }
+                    if (!running) {
+                        return;
+                    }
+                    long now = System.currentTimeMillis();
+                    long nextTickAt = (currentTick + 1) * tickMillis;
+                    if (due == null && now < nextTickAt) {
+                        TimeUnit.MILLISECONDS.timedWait(this, nextTickAt - now);
+                        continue;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                fired = advanceTo(System.currentTimeMillis() / tickMillis);
+            }
+
+            // Call the handler without holding the wheel, so it can schedule new timers
+            long count = 0;
+            for (Timer timer = fired; timer != null; timer = timer.next) {
+                try {
+                    handler.expire(timer.key, timer.deadlineMillis);
+                } catch (RuntimeException e) {
+                    logger.log(LogLevel.ERROR, "EXPIRY: Failed to expire key \"{}\": {}", timer.key, e.getMessage());
+                }
+                count++;
+            }
+            synchronized (this) {
+                pending -= count;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of timers that have not fired yet, including those of keys since given another deadline.
+     *
+     * @return The number of pending timers.
+     */
+    public synchronized long pending() {
+        return pending;
+    }
+
+    /**
+     * Stops firing timers.
+     */
+    public synchronized void close() {
+        running = false;
+        notifyAll();
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * A scheduled expiration, linked into a slot.
+     */
+    private static final class Timer {
+        private final String key;
+        private final long deadlineMillis;
+        private final long tick;
+        private Timer next;
+
+        Timer(String key, long deadlineMillis, long tick) {
+            this.key = key;
+            this.deadlineMillis = deadlineMillis;
+            this.tick = tick;
+        }
+    }
+}
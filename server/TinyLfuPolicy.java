@@ -0,0 +1,72 @@
+package server;
+
+/**
+ * TinyLfuPolicy evicts in the manner of W-TinyLFU: new keys must prove themselves popular before they may push
+ * out established ones.
+ * <p>
+ * New keys enter a small window, about one percent of the keys, and the rest form the main region. When the window
+ * overflows its least recently read sampled key moves to the main region. To free memory the least recently read
+ * sampled key of the window is matched against that of the main region, and whichever a {@link FrequencySketch}
+ * says has been read less often recently is evicted. A burst of keys that are read once therefore cycles through
+ * the window without flushing the frequently read ones, while the window still gives a new key time to collect
+ * reads.
+ */
+public class TinyLfuPolicy implements EvictionPolicy {
+
+    private static final int WINDOW_PERCENT = 1;
+
+    private final SampledKeySet window = new SampledKeySet();
+    private final SampledKeySet main = new SampledKeySet();
+    private final FrequencySketch sketch;
+
+    /**
+     * Constructs an empty policy.
+     *
+     * @param expectedKeys Roughly how many keys fit in the budget, which sizes the frequency sketch.
+     */
+    public TinyLfuPolicy(long expectedKeys) {
+        this.sketch = new FrequencySketch(expectedKeys);
+    }
+
+    /**
+     * Counts the read. Reads of absent keys count too, so a key that is asked for often is admitted once written.
+     */
+    @Override
+    public void onAccess(String key, MemoryBudget.TrackedKey tracked) {
+        sketch.increment(key);
+        if (tracked != null) {
+            tracked.lastAccess = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void onInsert(MemoryBudget.TrackedKey tracked) {
+        sketch.increment(tracked.key);
+        window.add(tracked);
+        int windowMax = Math.max(1, (window.size() + main.size()) * WINDOW_PERCENT / 100);
+        if (window.size() > windowMax) {
+            MemoryBudget.TrackedKey candidate = window.sampleOldest(SampledLruPolicy.SAMPLES);
+            // Only the thread that takes the key out of the window moves it
+            if (candidate != null && window.remove(candidate)) {
+                main.add(candidate);
+            }
+        }
+    }
+
+    @Override
+    public void onRemove(MemoryBudget.TrackedKey tracked) {
+        if (!window.remove(tracked)) {
+            main.remove(tracked);
+        }
+    }
+
+    @Override
+    public MemoryBudget.TrackedKey selectVictim() {
+        MemoryBudget.TrackedKey candidate = window.sampleOldest(SampledLruPolicy.SAMPLES);
+        MemoryBudget.TrackedKey victim = main.sampleOldest(SampledLruPolicy.SAMPLES);
+        if (candidate == null || victim == null) {
+            return candidate == null ? victim : candidate;
+        }
+        return sketch.frequency(candidate.key) > sketch.frequency(victim.key) ? victim : candidate;
+    }
+}
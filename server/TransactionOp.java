@@ -0,0 +1,110 @@
+package server;
+
+import java.io.Serializable;
+
+/**
+ * TransactionOp is one step of a transaction: a read, a write, or a check that aborts the transaction when it
+ * fails.
+ */
+public class TransactionOp implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The kinds of steps.
+     */
+    public enum Type {
+        /** Reads a key; a missing key does not abort the transaction. */
+        GET,
+        /** Sets a key, creating it or replacing its value; a replaced key keeps its time to live. */
+        PUT,
+        /** Deletes a key; a missing key does not abort the transaction. */
+        DELETE,
+        /** Aborts the transaction unless the key holds the given value. */
+        CHECK,
+        /** Aborts the transaction unless the key exists. */
+        EXISTS,
+        /** Aborts the transaction if the key exists. */
+        ABSENT
+    }
+
+    private final Type type;
+    private final String key;
+    private final String value;
+
+    /**
+     * Constructs a step.
+     *
+     * @param type  The kind of step.
+     * @param key   The key the step reads, writes or checks.
+     * @param value The value to write or expect for {@link Type#PUT} and {@link Type#CHECK}, otherwise null.
+     * @throws IllegalArgumentException If the key is null, or the value is missing or not expected.
+     */
+    public TransactionOp(Type type, String key, String value) {
+        if (type == null || key == null) {
+            throw new IllegalArgumentException("A transaction step requires a type and a key.");
+        }
+        boolean needsValue = type == Type.PUT || type == Type.CHECK;
+        if (needsValue != (value != null)) {
+            throw new IllegalArgumentException(type + " " + (needsValue ? "requires" : "does not take") + " a value.");
+        }
+        this.type = type;
+        this.key = key;
+        this.value = value;
+    }
+
+    public static TransactionOp get(String key) {
+        return new TransactionOp(Type.GET, key, null);
+    }
+
+    public static TransactionOp put(String key, String value) {
+        return new TransactionOp(Type.PUT, key, value);
+    }
+
+    public static TransactionOp delete(String key) {
+        return new TransactionOp(Type.DELETE, key, null);
+    }
+
+    public static TransactionOp check(String key, String expected) {
+        return new TransactionOp(Type.CHECK, key, expected);
+    }
+
+    public static TransactionOp exists(String key) {
+        return new TransactionOp(Type.EXISTS, key, null);
+    }
+
+    public static TransactionOp absent(String key) {
+        return new TransactionOp(Type.ABSENT, key, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the value to write or expect.
+     *
+     * @return The value, or null for steps that do not take one.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Checks whether the step changes the store if the transaction commits.
+     *
+     * @return True for PUT and DELETE.
+     */
+    public boolean isWrite() {
+        return type == Type.PUT || type == Type.DELETE;
+    }
+
+    @Override
+    public String toString() {
+        return value == null ? type + " " + key : type + " " + key + " " + value;
+    }
+}
@@ -0,0 +1,37 @@
+package server;
+
+/**
+ * ValueCodec compresses the values a {@link CompressingStorageEngine} keeps.
+ * <p>
+ * Implementations must be safe for concurrent use. Values are only compressed in memory, never in the write-ahead
+ * log or snapshots, so a codec can be replaced between restarts.
+ */
+public interface ValueCodec {
+
+    /**
+     * Returns the character that marks the values compressed by this codec.
+     *
+     * @return An ASCII letter other than {@code r}, which marks uncompressed values.
+     */
+    char id();
+
+    /**
+     * Compresses bytes.
+     *
+     * @param data The bytes to compress.
+     * @return The compressed bytes.
+     */
+    byte[] compress(byte[] data);
+
+    /**
+     * Restores bytes compressed by {@link #compress}.
+     *
+     * @param data           An array holding the compressed bytes.
+     * @param offset         The index of the first compressed byte.
+     * @param length         The number of compressed bytes.
+     * @param originalLength The number of bytes before compression.
+     * @return The original bytes.
+     * @throws IllegalStateException If the data is corrupt.
+     */
+    byte[] decompress(byte[] data, int offset, int length, int originalLength);
+}
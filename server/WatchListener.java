@@ -0,0 +1,31 @@
+package server;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.Map;
+
+/**
+ * Remote callback through which a server pushes the changes of watched keys to a client.
+ * <p>
+ * Calls for one watch never overlap and arrive in the order the changes were made. Changes made while a call is
+ * in progress are coalesced, so the next call carries only the latest value of each key.
+ */
+public interface WatchListener extends Remote {
+
+    /**
+     * Receives the latest changes of the watched keys.
+     *
+     * @param changes The new value of each changed key, or null for a key that was deleted, expired or evicted,
+     *                in the order the keys first changed.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    void changed(Map<String, String> changes) throws RemoteException;
+
+    /**
+     * Learns that changes were dropped because the client fell too far behind; the watched keys should be read
+     * again. Changes made after this call are delivered as usual.
+     *
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    void changesLost() throws RemoteException;
+}
@@ -0,0 +1,317 @@
+package server;
+
+import utils.ILogger;
+import utils.LogLevel;
+
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * WatchPublisher pushes the changes of watched keys and prefixes to the clients watching them.
+ * <p>
+ * A background thread follows the store's {@link ReplicationLog}, so puts and deletes do no more work than
+ * appending to the log. It hands the changes of each run of mutations to the matching watches, each of which keeps
+ * the latest value of every changed key until its listener takes them. A watch has at most one callback in
+ * progress, on a delivery thread of its own, so a slow client only delays its own changes, which keep coalescing
+ * meanwhile; a client that falls too far behind is told that changes were lost. A watch whose callback fails is
+ * dropped. Like the invalidation publisher, it starts from the log's head when constructed, so a watch may receive
+ * a few changes made just before it started.
+ */
+public class WatchPublisher {
+
+    /** The largest number of watches a server keeps. */
+    public static final int MAX_WATCHES = 10000;
+
+    private static final int BATCH_SIZE = 10000;
+    private static final long POLL_WAIT_MILLIS = 1000;
+    /** Changed keys a watch keeps for its listener before it drops them and reports them lost. */
+    private static final int MAX_PENDING = 100000;
+
+    private final ReplicationLog log;
+    private final ILogger logger;
+    private final Map<Long, Watch> watches = new ConcurrentHashMap<>();
+    private final Map<String, Set<Watch>> keyWatches = new ConcurrentHashMap<>();
+    private final List<Watch> prefixWatches = new CopyOnWriteArrayList<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final LongAdder delivered = new LongAdder();
+    private final ExecutorService delivery;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private long nextSeq;
+
+    /**
+     * Constructs a publisher for the mutations appended to a log and starts following it.
+     *
+     * @param log    The replication log of the store.
+     * @param logger The logger for watches and failed callbacks.
+     */
+    public WatchPublisher(ReplicationLog log, ILogger logger) {
+        this.log = log;
+        this.logger = logger;
+        this.nextSeq = log.headSeq();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.delivery = Executors.newCachedThreadPool(r -> {
+            Thread deliveryThread = new Thread(r, "watch-delivery-" + threadCount.incrementAndGet());
+            deliveryThread.setDaemon(true);
+            return deliveryThread;
+        });
+        this.thread = new Thread(this::run, "watch-publisher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts pushing the changes of a key, or of every key with a prefix, to a listener.
+     *
+     * @param keyOrPrefix A key, or a prefix followed by {@code *}; {@code *} alone watches every key.
+     * @param listener    The callback to push changes to.
+     * @return The watch id.
+     * @throws IllegalArgumentException If the key is empty or the server has too many watches.
+     */
+    public long watch(String keyOrPrefix, WatchListener listener) {
+        if (keyOrPrefix == null || keyOrPrefix.isEmpty()) {
+            throw new IllegalArgumentException("Watch requires a key or a prefix followed by *.");
+        }
+        if (watches.size() >= MAX_WATCHES) {
+            throw new IllegalArgumentException("Too many watches; remove existing watches first.");
+        }
+        boolean prefix = keyOrPrefix.endsWith("*");
+        String pattern = prefix ? keyOrPrefix.substring(0, keyOrPrefix.length() - 1) : keyOrPrefix;
+        Watch watch = new Watch(nextId.getAndIncrement(), pattern, prefix, listener);
+        watches.put(watch.id, watch);
+        if (prefix) {
+            prefixWatches.add(watch);
+        } else {
+            keyWatches.computeIfAbsent(pattern, k -> ConcurrentHashMap.newKeySet()).add(watch);
+        }
+        logger.log(LogLevel.INFO, "WATCH: Watch #{} on \"{}\" started.", watch.id, keyOrPrefix);
+        return watch.id;
+    }
+
+    /**
+     * Stops a watch.
+     *
+     * @param watchId The id returned by {@link #watch}.
+     * @return True if the watch was active.
+     */
+    public boolean unwatch(long watchId) {
+        Watch watch = remove(watchId);
+        if (watch != null) {
+            logger.log(LogLevel.INFO, "WATCH: Watch #{} ended.", watchId);
+        }
+        return watch != null;
+    }
+
+    private Watch remove(long watchId) {
+        Watch watch = watches.remove(watchId);
+        if (watch == null) {
+            return null;
+        }
+        if (watch.prefix) {
+            prefixWatches.remove(watch);
+        } else {
+            keyWatches.computeIfPresent(watch.pattern, (k, set) -> {
+                set.remove(watch);
+                return set.isEmpty() ? null : set;
+            });
+        }
+        return watch;
+    }
+
+    /**
+     * Returns the number of active watches.
+     *
+     * @return The number of watches.
+     */
+    public int activeWatches() {
+        return watches.size();
+    }
+
+    /**
+     * Returns the number of changes delivered to listeners since the publisher started.
+     *
+     * @return The number of changed keys delivered, counting a key once per watch and call.
+     */
+    public long deliveredChanges() {
+        return delivered.sum();
+    }
+
+    private void run() {
+        while (running) {
+            ReplicationBatch batch;
+            try {
+                batch = log.read(nextSeq, BATCH_SIZE, POLL_WAIT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (batch.isResyncRequired()) {
+                // The log wrapped past mutations not yet published
+                logger.log(LogLevel.WARN, "WATCH: Fell behind the replication log at #{}.", nextSeq);
+                for (Watch watch : watches.values()) {
+                    watch.lose();
+                }
+            } else if (batch.size() > 0 && !watches.isEmpty()) {
+                publish(batch);
+            }
+            nextSeq = batch.getNextSeq();
+        }
+    }
+
+    /**
+     * Hands the changes of a batch of mutations, coalesced by key, to the watches they match. The log returns a
+     * transaction whole, so its changes reach each watch together.
+     */
+    private void publish(ReplicationBatch batch) {
+        Map<String, String> changes = new LinkedHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            byte op = batch.getOp(i);
+            if (op == WriteAheadLog.OP_PUT || op == WriteAheadLog.OP_DELETE) {
+                changes.put(batch.getKey(i), op == WriteAheadLog.OP_PUT ? batch.getValue(i) : null);
+            }
+        }
+
+        Map<Watch, Map<String, String>> matched = new HashMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String key = change.getKey();
+            Set<Watch> exact = keyWatches.get(key);
+            if (exact != null) {
+                for (Watch watch : exact) {
+                    matched.computeIfAbsent(watch, w -> new LinkedHashMap<>()).put(key, change.getValue());
+                }
+            }
+            for (Watch watch : prefixWatches) {
+                if (key.startsWith(watch.pattern)) {
+                    matched.computeIfAbsent(watch, w -> new LinkedHashMap<>()).put(key, change.getValue());
+                }
+            }
+        }
+        for (Map.Entry<Watch, Map<String, String>> entry : matched.entrySet()) {
+            entry.getKey().offer(entry.getValue());
+        }
+    }
+
+    /**
+     * Stops publishing and drops every watch.
+     */
+    public void close() {
+        running = false;
+        thread.interrupt();
+        delivery.shutdownNow();
+        watches.clear();
+        keyWatches.clear();
+        prefixWatches.clear();
+    }
+
+    /**
+     * A watched key or prefix and the changes waiting for its listener.
+     */
+    private final class Watch {
+        private final long id;
+        private final String pattern;
+        private final boolean prefix;
+        private final WatchListener listener;
+        private Map<String, String> pending = new LinkedHashMap<>();
+        private boolean lost;
+        /** Set while a delivery task is queued or running. */
+        private boolean delivering;
+
+        Watch(long id, String pattern, boolean prefix, WatchListener listener) {
+            this.id = id;
+            this.pattern = pattern;
+            this.prefix = prefix;
+            this.listener = listener;
+        }
+
+        /**
+         * Adds changes to the pending ones, replacing older values of the same keys.
+         */
+        void offer(Map<String, String> changes) {
+            synchronized (this) {
+                if (!lost) {
+                    pending.putAll(changes);
+                    if (pending.size() > MAX_PENDING) {
+                        // The listener re-reads the keys once told, so the pending changes are of no use
+                        pending = new LinkedHashMap<>();
+                        lost = true;
+                    }
+                }
+                if (delivering) {
+                    return;
+                }
+                delivering = true;
+            }
+            schedule();
+        }
+
+        /**
+         * Drops the pending changes and reports them lost.
+         */
+        void lose() {
+            synchronized (this) {
+                pending = new LinkedHashMap<>();
+                lost = true;
+                if (delivering) {
+                    return;
+                }
+                delivering = true;
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            try {
+                delivery.execute(this::deliver);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+            }
+        }
+
+        /**
+         * Calls the listener until no changes are pending.
+         */
+        private void deliver() {
+            while (true) {
+                Map<String, String> changes;
+                boolean wasLost;
+                synchronized (this) {
+                    if (pending.isEmpty() && !lost) {
+                        delivering = false;
+                        return;
+                    }
+                    changes = pending;
+                    wasLost = lost;
+                    pending = new LinkedHashMap<>();
+                    lost = false;
+                }
+                try {
+                    if (wasLost) {
+                        listener.changesLost();
+                    }
+                    if (!changes.isEmpty()) {
+                        listener.changed(changes);
+                        delivered.add(changes.size());
+                    }
+                } catch (RemoteException | RuntimeException e) {
+                    // Leaves delivering set, so the dropped watch is never scheduled again
+                    if (remove(id) != null) {
+                        logger.log(LogLevel.WARN, "WATCH: Dropped watch #{}: {}", id, e.getMessage());
+                    }
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,646 @@
+package server;
+
+import utils.ILogger;
+import utils.LogLevel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * WriteAheadLog is an append-only binary log of the mutations applied to the store.
+ * <p>
+ * Records are encoded by the calling thread, then copied into a shared in-memory buffer under a short lock,
+ * which also assigns their sequence number. Making records durable uses group commit: the first thread that
+ * needs a flush writes and syncs everything buffered so far, and every thread whose record was part of that
+ * batch returns without issuing its own sync.
+ * <p>
+ * The log is split into segment files named after the sequence number of their first record. Each start of
+ * the server replays all segments and then opens a new one, and {@link #rotate} starts a new segment on demand
+ * so that segments covered by a snapshot can be deleted.
+ * <p>
+ * The records of a transaction are appended together between {@link #OP_TX_BEGIN} and {@link #OP_TX_COMMIT}
+ * markers. Recovery passes them on only once it reads the commit marker, so a transaction cut short by a crash
+ * is dropped as a whole.
+ * <p>
+ * A failed write or sync fails the log for good: the records it held may not be on disk, and after a failed sync
+ * the operating system may have dropped them while a later sync still succeeds. From then on appends are discarded
+ * and {@link #awaitDurable} throws, so no mutation is acknowledged as durable until the server is restarted and
+ * recovers from what the segments actually hold.
+ */
+public class WriteAheadLog {
+
+    /**
+     * Determines when appended records are forced to disk.
+     */
+    public enum SyncPolicy {
+        /** Every mutation waits until its record is synced; concurrent mutations share one sync. */
+        ALWAYS,
+        /** Records are synced by a background thread every sync interval; mutations never wait. */
+        INTERVAL,
+        /** Records are written before the mutation returns, but syncing is left to the operating system. */
+        OS
+    }
+
+    /**
+     * Receives the records read back during recovery, in sequence order.
+     */
+    public interface RecordHandler {
+        /**
+         * Applies a recovered record.
+         *
+         * @param op    The record type, {@link #OP_PUT}, {@link #OP_DELETE} or {@link #OP_EXPIRE}.
+         * @param key   The key of the mutation.
+         * @param value The new value for {@link #OP_PUT}, the deadline for {@link #OP_EXPIRE}, null for
+         *              {@link #OP_DELETE}.
+         */
+        void apply(byte op, String key, String value);
+    }
+
+    /** A key was set to a value. */
+    public static final byte OP_PUT = 1;
+    /** A key was removed. */
+    public static final byte OP_DELETE = 2;
+    /** A key was given a deadline, stored in the value as epoch milliseconds in decimal. */
+    public static final byte OP_EXPIRE = 3;
+    /** Starts the records of a transaction; the value is their number in decimal, the key is empty. */
+    public static final byte OP_TX_BEGIN = 4;
+    /** Ends the records of a transaction; the key and the value are empty. */
+    public static final byte OP_TX_COMMIT = 5;
+
+    private static final int SEGMENT_MAGIC = 0x4B56574C; // "KVWL"
+    private static final int SEGMENT_HEADER_SIZE = 4;
+    private static final int RECORD_HEADER_SIZE = 8; // payload length + CRC32
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CORRUPT_SUFFIX = ".corrupt";
+
+    private final Path directory;
+    private final SyncPolicy syncPolicy;
+    private final long syncIntervalMillis;
+    private final ILogger logger;
+
+    // Guarded by appendLock
+    private final Object appendLock = new Object();
+    private byte[] buffer = new byte[64 * 1024];
+    private int bufferLength;
+    private long nextSeq = 1;
+
+    // Guarded by flushLock
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private byte[] spare = new byte[64 * 1024];
+    private FileChannel channel;
+    private long segmentFirstSeq;
+    private long previousSegmentFirstSeq;
+
+    private volatile long writtenSeq;
+    private volatile long durableSeq;
+    private volatile IOException failure;
+    private volatile boolean closed;
+    private Thread syncThread;
+
+    /**
+     * Constructs a WriteAheadLog over the given directory. No file is opened until {@link #recover} is called.
+     *
+     * @param directory          The directory holding the segment files; created if missing.
+     * @param syncPolicy         When records are forced to disk.
+     * @param syncIntervalMillis The sync period for {@link SyncPolicy#INTERVAL}.
+     * @param logger             The logger for recovery and I/O problems.
+     */
+    public WriteAheadLog(Path directory, SyncPolicy syncPolicy, long syncIntervalMillis, ILogger logger) {
+        this.directory = directory;
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.logger = logger;
+    }
+
+    /**
+     * Replays every existing segment into the handler and opens a new segment for appending.
+     * A corrupt or partially written record ends its segment; the segment is truncated there.
+     *
+     * @param handler Receives the recovered records in order.
+     * @return The number of records replayed.
+     * @throws IOException If the directory or a segment cannot be read, or the new segment cannot be created.
+     */
+    public long recover(RecordHandler handler) throws IOException {
+        return recover(1, handler);
+    }
+
+    /**
+     * Replays the segments starting at or after the given sequence number into the handler and opens a new
+     * segment for appending. Older segments are skipped because a snapshot already covers them.
+     *
+     * @param fromSeq The first sequence number of the oldest segment to replay.
+     * @param handler Receives the recovered records in order.
+     * @return The number of records replayed.
+     * @throws IOException If the directory or a segment cannot be read, or the new segment cannot be created.
+     */
+    public long recover(long fromSeq, RecordHandler handler) throws IOException {
+        Files.createDirectories(directory);
+        long replayed = 0;
+        nextSeq = Math.max(nextSeq, fromSeq);
+        for (Path segment : listSegments()) {
+            long firstSeq = segmentSeq(segment);
+            if (firstSeq < fromSeq) {
+                continue;
+            }
+            long count = replaySegment(segment, handler);
+            if (count < 0) {
+                // Kept for inspection under a name that is neither replayed again nor clashes with a new segment
+                Path renamed = segment.resolveSibling(segment.getFileName() + CORRUPT_SUFFIX);
+                Files.move(segment, renamed, StandardCopyOption.REPLACE_EXISTING);
+                logger.log(LogLevel.WARN, "WAL: Moved segment {} without a valid header to {}.", segment, renamed);
+                continue;
+            }
+            if (count == 0 && Files.size(segment) <= SEGMENT_HEADER_SIZE) {
+                // Holds nothing to recover, and may clash with the name of the segment opened below
+                Files.delete(segment);
+                continue;
+            }
+            replayed += count;
+            nextSeq = Math.max(nextSeq, firstSeq + count);
+        }
+        writtenSeq = durableSeq = nextSeq - 1;
+
+        openSegment(nextSeq);
+        previousSegmentFirstSeq = segmentFirstSeq;
+        if (syncPolicy == SyncPolicy.INTERVAL) {
+            syncThread = new Thread(this::syncLoop, "wal-sync");
+            syncThread.setDaemon(true);
+            syncThread.start();
+        }
+        return replayed;
+    }
+
+    /**
+     * Returns the segment files of the log, ordered by their first sequence number.
+     */
+    private List<Path> listSegments() {
+        List<Path> segments = new ArrayList<>();
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    segments.add(file.toPath());
+                }
+            }
+        }
+        Collections.sort(segments, (a, b) -> Long.compare(segmentSeq(a), segmentSeq(b)));
+        return segments;
+    }
+
+    private static long segmentSeq(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private Path segmentPath(long firstSeq) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSeq, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Replays a single segment, truncating it after its last intact record. The records of a transaction are
+     * held back until its commit marker; those of a transaction without one are dropped.
+     *
+     * @return The number of intact records in the segment, markers included, or -1 if it does not start with the
+     * segment header.
+     */
+    private long replaySegment(Path segment, RecordHandler handler) throws IOException {
+        long count = 0;
+        List<byte[]> transaction = null;
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            if (size < SEGMENT_HEADER_SIZE) {
+                // Created by a crash before its header was written
+                return 0;
+            }
+            if (readFully(in, header, 0, SEGMENT_HEADER_SIZE).getInt(0) != SEGMENT_MAGIC) {
+                return -1;
+            }
+
+            CRC32 crc = new CRC32();
+            long position = SEGMENT_HEADER_SIZE;
+            while (position + RECORD_HEADER_SIZE <= size) {
+                readFully(in, header, position, RECORD_HEADER_SIZE);
+                int length = header.getInt(0);
+                int checksum = header.getInt(4);
+                if (length < 5 || position + RECORD_HEADER_SIZE + length > size) {
+                    break;
+                }
+                ByteBuffer payload = readFully(in, ByteBuffer.allocate(length), position + RECORD_HEADER_SIZE, length);
+                crc.reset();
+                crc.update(payload.array(), 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                byte op = payload.get(0);
+                if (op == OP_TX_BEGIN) {
+                    transaction = new ArrayList<>();
+                } else if (op == OP_TX_COMMIT) {
+                    if (transaction != null) {
+                        for (byte[] record : transaction) {
+                            applyPayload(record, record.length, handler);
+                        }
+                    }
+                    transaction = null;
+                } else if (transaction != null) {
+                    transaction.add(payload.array());
+                } else {
+                    applyPayload(payload.array(), length, handler);
+                }
+                position += RECORD_HEADER_SIZE + length;
+                count++;
+            }
+            if (transaction != null) {
+                logger.log(LogLevel.WARN, "WAL: Dropping {} records of a transaction without a commit in {}.",
+                        transaction.size(), segment);
+            }
+
+            if (position < size) {
+                logger.log(LogLevel.WARN, "WAL: Truncating {} bytes of incomplete records at the end of {}.",
+                        size - position, segment);
+                in.truncate(position);
+            }
+        }
+        return count;
+    }
+
+    private static ByteBuffer readFully(FileChannel in, ByteBuffer buf, long position, int length) throws IOException {
+        buf.clear();
+        buf.limit(length);
+        while (buf.hasRemaining()) {
+            if (in.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        return buf;
+    }
+
+    private static void applyPayload(byte[] payload, int length, RecordHandler handler) {
+        byte op = payload[0];
+        int keyLength = getInt(payload, 1);
+        String key = new String(payload, 5, keyLength, StandardCharsets.UTF_8);
+        String value = null;
+        if (op != OP_DELETE) {
+            int valueOffset = 5 + keyLength;
+            value = new String(payload, valueOffset, length - valueOffset, StandardCharsets.UTF_8);
+        }
+        handler.apply(op, key, value);
+    }
+
+    /**
+     * Creates a new segment starting at the given sequence number and makes it the append target.
+     */
+    private void openSegment(long firstSeq) throws IOException {
+        FileChannel segment = FileChannel.open(segmentPath(firstSeq),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE).putInt(0, SEGMENT_MAGIC);
+        while (header.hasRemaining()) {
+            segment.write(header);
+        }
+        segment.force(true);
+        channel = segment;
+        segmentFirstSeq = firstSeq;
+    }
+
+    /**
+     * Syncs the current segment and starts a new one. Records appended after this call go to the new segment.
+     *
+     * @return The first sequence number of the segment that was current before the call, or of the segment before
+     * that if the current one is still empty.
+     * @throws IOException If the current segment cannot be synced or the new one cannot be created.
+     */
+    public long rotate() throws IOException {
+        flushLock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Write-ahead log is closed");
+            }
+            long pending;
+            synchronized (appendLock) {
+                pending = nextSeq - 1;
+            }
+            flushLocked(true, pending);
+            if (durableSeq < segmentFirstSeq) {
+                // Nothing was written since the last rotation, so keep using the current segment
+                return previousSegmentFirstSeq;
+            }
+
+            previousSegmentFirstSeq = segmentFirstSeq;
+            channel.close();
+            openSegment(durableSeq + 1);
+            return previousSegmentFirstSeq;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the segments whose records all precede the given sequence number's segment.
+     *
+     * @param seq The first sequence number of the oldest segment to keep.
+     * @return The number of segments deleted.
+     * @throws IOException If a segment cannot be deleted.
+     */
+    public int deleteSegmentsBefore(long seq) throws IOException {
+        int deleted = 0;
+        for (Path segment : listSegments()) {
+            if (segmentSeq(segment) < seq) {
+                Files.delete(segment);
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Appends a record to the in-memory log buffer. The record is not durable until
+     * {@link #awaitDurable} returns for its sequence number.
+     * <p>
+     * Callers that need the log order to match the order in which a key changes must call this while
+     * holding whatever lock orders the changes to that key.
+     *
+     * @param op    The record type, {@link #OP_PUT}, {@link #OP_DELETE} or {@link #OP_EXPIRE}.
+     * @param key   The key of the mutation.
+     * @param value The new value for {@link #OP_PUT}, the deadline for {@link #OP_EXPIRE}, ignored for
+     *              {@link #OP_DELETE}.
+     * @return The sequence number of the record. Once the log has failed, the record is discarded and
+     * {@link #awaitDurable} throws for it.
+     */
+    public long append(byte op, String key, String value) {
+        if (failure != null) {
+            synchronized (appendLock) {
+                return nextSeq++;
+            }
+        }
+        return appendEncoded(encode(op, key, value), 1);
+    }
+
+    /**
+     * Appends the records of a transaction between begin and commit markers, with no other record in between.
+     * Recovery applies either all of them or none.
+     *
+     * @param ops    The record type of each mutation.
+     * @param keys   The key of each mutation.
+     * @param values The value of each mutation, as for {@link #append}.
+     * @return The sequence number of the commit marker; once it is durable, so is the whole transaction.
+     */
+    public long appendTransaction(byte[] ops, String[] keys, String[] values) {
+        if (failure != null) {
+            synchronized (appendLock) {
+                nextSeq += ops.length + 2;
+                return nextSeq - 1;
+            }
+        }
+        byte[][] records = new byte[ops.length + 2][];
+        records[0] = encode(OP_TX_BEGIN, "", Integer.toString(ops.length));
+        for (int i = 0; i < ops.length; i++) {
+            records[i + 1] = encode(ops[i], keys[i], values[i]);
+        }
+        records[records.length - 1] = encode(OP_TX_COMMIT, "", "");
+        int length = 0;
+        for (byte[] record : records) {
+            length += record.length;
+        }
+        byte[] joined = new byte[length];
+        int offset = 0;
+        for (byte[] record : records) {
+            System.arraycopy(record, 0, joined, offset, record.length);
+            offset += record.length;
+        }
+        return appendEncoded(joined, records.length);
+    }
+
+    /**
+     * Copies encoded records into the buffer in one piece.
+     *
+     * @return The sequence number of the last of them.
+     */
+    private long appendEncoded(byte[] records, int count) {
+        synchronized (appendLock) {
+            if (bufferLength + records.length > buffer.length) {
+                byte[] grown = new byte[Math.max(buffer.length * 2, bufferLength + records.length)];
+                System.arraycopy(buffer, 0, grown, 0, bufferLength);
+                buffer = grown;
+            }
+            System.arraycopy(records, 0, buffer, bufferLength, records.length);
+            bufferLength += records.length;
+            nextSeq += count;
+            return nextSeq - 1;
+        }
+    }
+
+    private static byte[] encode(byte op, String key, String value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = op != OP_DELETE ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int payloadLength = 1 + 4 + keyBytes.length + valueBytes.length;
+
+        byte[] record = new byte[RECORD_HEADER_SIZE + payloadLength];
+        putInt(record, 0, payloadLength);
+        record[RECORD_HEADER_SIZE] = op;
+        putInt(record, RECORD_HEADER_SIZE + 1, keyBytes.length);
+        System.arraycopy(keyBytes, 0, record, RECORD_HEADER_SIZE + 5, keyBytes.length);
+        System.arraycopy(valueBytes, 0, record, RECORD_HEADER_SIZE + 5 + keyBytes.length, valueBytes.length);
+
+        CRC32 crc = new CRC32();
+        crc.update(record, RECORD_HEADER_SIZE, payloadLength);
+        putInt(record, 4, (int) crc.getValue());
+        return record;
+    }
+
+    /**
+     * Waits until the record with the given sequence number is as durable as the sync policy requires.
+     * With {@link SyncPolicy#INTERVAL} this returns immediately unless the log has failed.
+     *
+     * @param seq The sequence number returned by {@link #append}.
+     * @throws IOException If writing or syncing the log fails, or failed before.
+     */
+    public void awaitDurable(long seq) throws IOException {
+        checkFailure();
+        switch (syncPolicy) {
+            case ALWAYS:
+                while (durableSeq < seq) {
+                    flush(true, seq);
+                }
+                break;
+            case OS:
+                while (writtenSeq < seq) {
+                    flush(false, seq);
+                }
+                break;
+            case INTERVAL:
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Writes out everything buffered so far, unless another thread already did so for the given sequence number
+     * while this one was waiting for the flush lock.
+     */
+    private void flush(boolean force, long seq) throws IOException {
+        flushLock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Write-ahead log is closed");
+            }
+            flushLocked(force, seq);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        IOException failed = failure;
+        if (failed != null) {
+            throw new IOException("Write-ahead log failed earlier: " + failed.getMessage(), failed);
+        }
+    }
+
+    /**
+     * Writes out everything buffered so far while holding the flush lock. If the write or sync fails, the log is
+     * failed and the sequence numbers it covers are never reported written or durable.
+     */
+    private void flushLocked(boolean force, long seq) throws IOException {
+        checkFailure();
+        if ((force ? durableSeq : writtenSeq) >= seq) {
+            return;
+        }
+
+        byte[] data;
+        int length;
+        long upTo;
+        synchronized (appendLock) {
+            data = buffer;
+            length = bufferLength;
+            upTo = nextSeq - 1;
+            buffer = spare;
+            bufferLength = 0;
+        }
+
+        long start = channel.position();
+        try {
+            ByteBuffer out = ByteBuffer.wrap(data, 0, length);
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            if (force) {
+                channel.force(false);
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e instanceof IOException ? (IOException) e : new IOException(e), start);
+            throw e;
+        }
+        // Only reused once its bytes are in the file
+        spare = data;
+        writtenSeq = upTo;
+        if (force) {
+            durableSeq = upTo;
+        }
+    }
+
+    /**
+     * Marks the log failed and tries to cut a partially written batch off the segment, so that the records
+     * before it remain recoverable.
+     */
+    private void fail(IOException cause, long position) {
+        failure = cause;
+        synchronized (appendLock) {
+            buffer = new byte[0];
+            bufferLength = 0;
+        }
+        logger.log(LogLevel.ERROR, "WAL: Write failed, refusing further changes until restart: {}",
+                cause.getMessage());
+        try {
+            channel.truncate(position);
+        } catch (IOException e) {
+            logger.log(LogLevel.WARN, "WAL: Unable to truncate the failed batch: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Body of the background sync thread used by {@link SyncPolicy#INTERVAL}.
+     */
+    private void syncLoop() {
+        while (!closed) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(syncIntervalMillis);
+                long pending;
+                synchronized (appendLock) {
+                    pending = nextSeq - 1;
+                }
+                if (durableSeq < pending) {
+                    flush(true, pending);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                if (failure != null) {
+                    return;
+                }
+                if (!closed) {
+                    logger.log(LogLevel.ERROR, "WAL: Periodic sync failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Syncs all buffered records and closes the current segment.
+     *
+     * @throws IOException If the final write or sync fails.
+     */
+    public void close() throws IOException {
+        if (channel == null || closed) {
+            return;
+        }
+        long pending;
+        synchronized (appendLock) {
+            pending = nextSeq - 1;
+        }
+        try {
+            flush(true, pending);
+        } finally {
+            flushLock.lock();
+            try {
+                closed = true;
+                channel.close();
+            } finally {
+                flushLock.unlock();
+            }
+            if (syncThread != null) {
+                syncThread.interrupt();
+            }
+        }
+    }
+
+    public SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    private static void putInt(byte[] b, int offset, int v) {
+        b[offset] = (byte) (v >>> 24);
+        b[offset + 1] = (byte) (v >>> 16);
+        b[offset + 2] = (byte) (v >>> 8);
+        b[offset + 3] = (byte) v;
+    }
+
+    private static int getInt(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16)
+                | ((b[offset + 2] & 0xFF) << 8) | (b[offset + 3] & 0xFF);
+    }
+}
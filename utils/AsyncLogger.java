@@ -0,0 +1,333 @@
+package utils;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The AsyncLogger class is a non-blocking ILogger implementation.
+ * Callers only publish a record into a bounded lock-free ring buffer; a single background
+ * writer thread drains the buffer in batches, formats the records and writes them to the
+ * log file through a buffered writer that is flushed once per batch instead of once per record.
+ */
+public class AsyncLogger implements ILogger {
+
+    /**
+     * Determines what happens to a record that is logged while the ring buffer is full.
+     */
+    public enum OverflowPolicy {
+        /** The caller waits until the writer thread frees a slot. */
+        BLOCK,
+        /** The record is discarded and counted. */
+        DROP,
+        /** One record out of every {@code sampleRate} is kept by waiting for a slot, the rest are discarded. */
+        SAMPLE
+    }
+
+    private static final String FORMAT_PATTERN = "MM-dd-yyyy HH:mm:ss.SSS";
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MIN_IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final AtomicReferenceArray<LogEvent> ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    private final OverflowPolicy overflowPolicy;
+    private final int sampleRate;
+    private final AtomicLong overflowCount = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Writer writer;
+    private final Thread writerThread;
+    private volatile boolean closed;
+    private volatile LogLevel level = LogLevel.INFO;
+
+    /**
+     * Constructs a new AsyncLogger with a default capacity of 65536 records that blocks when full.
+     *
+     * @param loggerName  The name of the logger, used to name the writer thread.
+     * @param logFileName The name of the log file where messages will be recorded.
+     */
+    public AsyncLogger(String loggerName, String logFileName) {
+        this(loggerName, logFileName, 65536, OverflowPolicy.BLOCK, 1);
+    }
+
+    /**
+     * Constructs a new AsyncLogger and starts its writer thread.
+     *
+     * @param loggerName     The name of the logger, used to name the writer thread.
+     * @param logFileName    The name of the log file where messages will be recorded.
+     * @param capacity       The number of records the ring buffer can hold; rounded up to a power of two.
+     * @param overflowPolicy What to do with records logged while the ring buffer is full.
+     * @param sampleRate     For {@link OverflowPolicy#SAMPLE}, keep one out of this many overflowing records.
+     */
+    public AsyncLogger(String loggerName, String logFileName, int capacity,
+                       OverflowPolicy overflowPolicy, int sampleRate) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Sample rate must be positive: " + sampleRate);
+        }
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.overflowPolicy = overflowPolicy;
+        this.sampleRate = sampleRate;
+        this.writer = openWriter(logFileName);
+
+        this.writerThread = new Thread(this::drainLoop, loggerName + "-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Opens the log file in append mode, falling back to standard error if it cannot be opened.
+     *
+     * @param logFileName The name of the log file.
+     * @return The writer that records are written to.
+     */
+    private static Writer openWriter(String logFileName) {
+        try {
+            return new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(logFileName, true), StandardCharsets.UTF_8), 64 * 1024);
+        } catch (IOException e) {
+            System.err.println("Unable to open log file " + logFileName + ": " + e.getMessage());
+            return new BufferedWriter(new OutputStreamWriter(System.err, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Logs a message at the given level by handing it to the writer thread.
+     *
+     * @param level The level of the message.
+     * @param msg   The message to be logged.
+     */
+    @Override
+    public void log(LogLevel level, String msg) {
+        if (closed || !isEnabled(level)) {
+            return;
+        }
+        LogEvent event = new LogEvent(System.currentTimeMillis(), level, msg);
+        if (tryPublish(event)) {
+            return;
+        }
+
+        switch (overflowPolicy) {
+            case DROP:
+                dropped.incrementAndGet();
+                return;
+            case SAMPLE:
+                if (overflowCount.getAndIncrement() % sampleRate != 0) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                publishBlocking(event);
+                return;
+            case BLOCK:
+            default:
+                publishBlocking(event);
+        }
+    }
+
+    /**
+     * Returns the current threshold level.
+     *
+     * @return The minimum level that is recorded.
+     */
+    @Override
+    public LogLevel getLevel() {
+        return level;
+    }
+
+    /**
+     * Changes the threshold level.
+     *
+     * @param level The new minimum level that is recorded.
+     */
+    @Override
+    public void setLevel(LogLevel level) {
+        this.level = level;
+    }
+
+    /**
+     * Attempts to claim a slot in the ring buffer and publish the event into it.
+     *
+     * @param event The event to publish.
+     * @return True if the event was published, false if the ring buffer is full.
+     */
+    private boolean tryPublish(LogEvent event) {
+        while (true) {
+            long t = tail.get();
+            if (t - head > mask) {
+                return false;
+            }
+            if (tail.compareAndSet(t, t + 1)) {
+                ring.lazySet((int) (t & mask), event);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Waits for a free slot and publishes the event, giving up if the logger is closed meanwhile.
+     *
+     * @param event The event to publish.
+     */
+    private void publishBlocking(LogEvent event) {
+        while (!tryPublish(event)) {
+            if (closed) {
+                dropped.incrementAndGet();
+                return;
+            }
+            LockSupport.parkNanos(MIN_IDLE_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Body of the writer thread: drains published events in batches until the logger is closed.
+     */
+    private void drainLoop() {
+        DateFormatter formatter = new DateFormatter();
+        StringBuilder line = new StringBuilder(256);
+        long idlePark = MIN_IDLE_PARK_NANOS;
+
+        while (true) {
+            boolean stopping = closed;
+            int written = drainBatch(formatter, line);
+            if (written > 0) {
+                idlePark = MIN_IDLE_PARK_NANOS;
+                continue;
+            }
+            if (stopping && tail.get() == head) {
+                break;
+            }
+            LockSupport.parkNanos(idlePark);
+            idlePark = Math.min(idlePark * 2, MAX_IDLE_PARK_NANOS);
+        }
+
+        try {
+            writer.close();
+        } catch (IOException e) {
+            System.err.println("Error closing log file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes every event that is currently published and flushes the writer once at the end.
+     *
+     * @param formatter The formatter used for record timestamps.
+     * @param line      A reusable buffer for building each line.
+     * @return The number of events written.
+     */
+    private int drainBatch(DateFormatter formatter, StringBuilder line) {
+        int written = 0;
+        long h = head;
+        try {
+            long droppedSoFar = dropped.getAndSet(0);
+            if (droppedSoFar > 0) {
+                line.setLength(0);
+                formatter.append(line, System.currentTimeMillis());
+                line.append(" - ").append(LogLevel.WARN)
+                        .append(" - ").append(droppedSoFar).append(" log records dropped due to overflow.\n");
+                writer.append(line);
+                written++;
+            }
+
+            while (true) {
+                int slot = (int) (h & mask);
+                LogEvent event = ring.get(slot);
+                if (event == null) {
+                    // Either empty, or a producer claimed the slot but has not published it yet
+                    break;
+                }
+                ring.lazySet(slot, null);
+                head = ++h;
+
+                line.setLength(0);
+                formatter.append(line, event.millis);
+                line.append(" - ").append(event.level).append(" - ").append(event.message).append('\n');
+                writer.append(line);
+                written++;
+            }
+            if (written > 0) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing log file: " + e.getMessage());
+        }
+        return written;
+    }
+
+    /**
+     * Closes the logger, waiting for the writer thread to flush every record logged before this call.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A log record waiting in the ring buffer.
+     */
+    private static final class LogEvent {
+        private final long millis;
+        private final LogLevel level;
+        private final String message;
+
+        LogEvent(long millis, LogLevel level, String message) {
+            this.millis = millis;
+            this.level = level;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Formats timestamps for the writer thread, reusing the formatted date and time
+     * for all records that fall into the same second.
+     */
+    private static final class DateFormatter {
+        private final SimpleDateFormat secondsFormat =
+                new SimpleDateFormat(FORMAT_PATTERN.substring(0, FORMAT_PATTERN.lastIndexOf('.')));
+        private final Date date = new Date();
+        private long cachedSecond = Long.MIN_VALUE;
+        private String cachedPrefix;
+
+        void append(StringBuilder sb, long millis) {
+            long second = Math.floorDiv(millis, 1000L);
+            if (second != cachedSecond) {
+                date.setTime(second * 1000L);
+                cachedPrefix = secondsFormat.format(date);
+                cachedSecond = second;
+            }
+            int ms = (int) Math.floorMod(millis, 1000L);
+            sb.append(cachedPrefix).append('.');
+            if (ms < 100) {
+                sb.append('0');
+            }
+            if (ms < 10) {
+                sb.append('0');
+            }
+            sb.append(ms);
+        }
+    }
+}
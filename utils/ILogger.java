@@ -1,8 +1,12 @@
 package utils;
 
+import java.util.function.Supplier;
+
 /**
  * The ILogger interface defines the contract for logging mechanisms.
  * It ensures that all logger implementations provide methods to log messages and close the logger.
+ * Messages below the logger's threshold level are discarded; the supplier and parameterized
+ * variants only build the message text once the level is known to be enabled.
  */
 public interface ILogger {
 
@@ -11,7 +15,93 @@ public interface ILogger {
      *
      * @param msg The message to be logged.
      */
-    void log(String msg);
+    default void log(String msg) {
+        log(LogLevel.INFO, msg);
+    }
+
+    /**
+     * Logs a message at the given level.
+     *
+     * @param level The level of the message.
+     * @param msg   The message to be logged.
+     */
+    void log(LogLevel level, String msg);
+
+    /**
+     * Logs a message at the given level, building it only if the level is enabled.
+     *
+     * @param level       The level of the message.
+     * @param msgSupplier Supplies the message to be logged.
+     */
+    default void log(LogLevel level, Supplier<String> msgSupplier) {
+        if (isEnabled(level)) {
+            log(level, msgSupplier.get());
+        }
+    }
+
+    /**
+     * Logs a message with one parameter at the given level, formatting it only if the level is enabled.
+     *
+     * @param level   The level of the message.
+     * @param pattern The message pattern, where {@code {}} is replaced by the argument.
+     * @param arg     The argument.
+     */
+    default void log(LogLevel level, String pattern, Object arg) {
+        if (isEnabled(level)) {
+            log(level, LogMessages.format(pattern, arg));
+        }
+    }
+
+    /**
+     * Logs a message with two parameters at the given level, formatting it only if the level is enabled.
+     *
+     * @param level   The level of the message.
+     * @param pattern The message pattern, where each {@code {}} is replaced by the next argument.
+     * @param arg1    The first argument.
+     * @param arg2    The second argument.
+     */
+    default void log(LogLevel level, String pattern, Object arg1, Object arg2) {
+        if (isEnabled(level)) {
+            log(level, LogMessages.format(pattern, arg1, arg2));
+        }
+    }
+
+    /**
+     * Logs a message with any number of parameters at the given level, formatting it only if the level is enabled.
+     *
+     * @param level   The level of the message.
+     * @param pattern The message pattern, where each {@code {}} is replaced by the next argument.
+     * @param args    The arguments.
+     */
+    default void log(LogLevel level, String pattern, Object... args) {
+        if (isEnabled(level)) {
+            log(level, LogMessages.format(pattern, args));
+        }
+    }
+
+    /**
+     * Checks whether messages of the given level are currently recorded.
+     *
+     * @param level The level to check.
+     * @return True if the level is at or above the threshold.
+     */
+    default boolean isEnabled(LogLevel level) {
+        return level.isAtLeast(getLevel());
+    }
+
+    /**
+     * Returns the current threshold level.
+     *
+     * @return The minimum level that is recorded.
+     */
+    LogLevel getLevel();
+
+    /**
+     * Changes the threshold level; takes effect immediately for all threads.
+     *
+     * @param level The new minimum level that is recorded.
+     */
+    void setLevel(LogLevel level);
 
     /**
      * Closes the logger, releasing any held resources.
@@ -0,0 +1,169 @@
+package utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts recorded durations in logarithmic buckets, in the manner of HdrHistogram.
+ * <p>
+ * Durations below 128 ns get a bucket each; above that every power of two is split into 64 buckets, so any
+ * percentile is reported within 1.6% of the recorded value across the whole range of a long, in a fixed 29 KB.
+ * Recording is lock-free and safe from any number of threads. Readers see a consistent enough picture while
+ * recording continues; {@link #drainInto} moves the counts out, so a reporter can publish intervals without
+ * stopping the recording threads.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    /** Enough buckets for every non-negative long. */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * HALF_SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos The duration in nanoseconds; negative durations count as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        total.increment();
+        sum.add(value);
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the largest value that falls into a bucket.
+     */
+    private static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF_SUB_BUCKETS - 1;
+        long lowest = (long) (index - shift * HALF_SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Returns the number of recorded durations.
+     *
+     * @return The count.
+     */
+    public long count() {
+        return total.sum();
+    }
+
+    /**
+     * Returns the mean of the recorded durations.
+     *
+     * @return The mean in nanoseconds, or 0 if nothing was recorded.
+     */
+    public double mean() {
+        long count = total.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Returns the duration that the given percentage of the recorded durations do not exceed.
+     *
+     * @param percent The percentile, from 0 to 100.
+     * @return The duration in nanoseconds, rounded up to the end of its bucket, or 0 if nothing was recorded.
+     */
+    public long percentile(double percent) {
+        long[] snapshot = snapshot();
+        long count = 0;
+        for (long c : snapshot) {
+            count += c;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return highestValueAt(i);
+            }
+        }
+        return max();
+    }
+
+    /**
+     * Returns the longest recorded duration.
+     *
+     * @return The duration in nanoseconds, rounded up to the end of its bucket, or 0 if nothing was recorded.
+     */
+    public long max() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) {
+                return highestValueAt(i);
+            }
+        }
+        return 0;
+    }
+
+    private long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     *
+     * @param other The histogram to add; it is not changed.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        total.add(other.total.sum());
+        sum.add(other.sum.sum());
+    }
+
+    /**
+     * Moves the counts of this histogram into another one, leaving this one empty apart from durations recorded
+     * meanwhile.
+     *
+     * @param target The histogram to add the counts to.
+     */
+    public void drainInto(LatencyHistogram target) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.getAndSet(i, 0);
+            if (c != 0) {
+                target.counts.addAndGet(i, c);
+            }
+        }
+        target.total.add(total.sumThenReset());
+        target.sum.add(sum.sumThenReset());
+    }
+
+    /**
+     * Formats a duration in nanoseconds as milliseconds with three decimals.
+     *
+     * @param nanos The duration.
+     * @return The formatted duration, e.g. "0.125 ms".
+     */
+    public static String formatMillis(double nanos) {
+        return String.format("%.3f ms", nanos / TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
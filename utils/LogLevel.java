@@ -0,0 +1,22 @@
+package utils;
+
+/**
+ * The LogLevel enum defines the severities a log record can have, from least to most severe.
+ * A logger only records messages whose level is at or above its current threshold.
+ */
+public enum LogLevel {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR;
+
+    /**
+     * Checks whether a record of this level passes the given threshold.
+     *
+     * @param threshold The minimum level that is recorded.
+     * @return True if records of this level should be recorded.
+     */
+    public boolean isAtLeast(LogLevel threshold) {
+        return compareTo(threshold) >= 0;
+    }
+}
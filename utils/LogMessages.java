@@ -0,0 +1,33 @@
+package utils;
+
+/**
+ * Helper for formatting parameterized log messages.
+ * Each {@code {}} in a pattern is replaced by the string value of the next argument;
+ * surplus placeholders are left as-is and surplus arguments are ignored.
+ */
+final class LogMessages {
+
+    private LogMessages() {
+    }
+
+    /**
+     * Substitutes the arguments into the pattern.
+     *
+     * @param pattern The message pattern.
+     * @param args    The arguments.
+     * @return The formatted message.
+     */
+    static String format(String pattern, Object... args) {
+        StringBuilder sb = new StringBuilder(pattern.length() + 16 * args.length);
+        int start = 0;
+        for (Object arg : args) {
+            int placeholder = pattern.indexOf("{}", start);
+            if (placeholder < 0) {
+                break;
+            }
+            sb.append(pattern, start, placeholder).append(arg);
+            start = placeholder + 2;
+        }
+        return sb.append(pattern, start, pattern.length()).toString();
+    }
+}
@@ -3,6 +3,7 @@ package utils;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.logging.FileHandler;
+import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.SimpleFormatter;
 
@@ -13,6 +14,7 @@ import java.util.logging.SimpleFormatter;
 public class Logger implements ILogger {
     private java.util.logging.Logger logger;
     private FileHandler fileHandler;
+    private volatile LogLevel level = LogLevel.INFO;
     private static final String FORMAT = "MM-dd-yyyy HH:mm:ss.SSS";
 
     /**
@@ -36,14 +38,18 @@ public class Logger implements ILogger {
         try {
             this.fileHandler = new FileHandler(logFileName, true); // Append mode
             this.fileHandler.setFormatter(new SimpleFormatter() {
-                private static final String FORMAT_PATTERN = "MM-dd-yyyy HH:mm:ss.SSS";
+                // FileHandler.publish() is synchronized, so a single instance is never used concurrently
+                private final SimpleDateFormat sdf = new SimpleDateFormat(FORMAT);
 
                 @Override
                 public String format(LogRecord record) {
-                    SimpleDateFormat sdf = new SimpleDateFormat(FORMAT_PATTERN);
-                    return sdf.format(record.getMillis()) + " - " + record.getMessage() + "\n";
+                    return sdf.format(record.getMillis()) + " - " + toLogLevel(record.getLevel())
+                            + " - " + record.getMessage() + "\n";
                 }
             });
+            // Filtering is done by this class's own threshold, so let every record through
+            this.fileHandler.setLevel(Level.ALL);
+            this.logger.setLevel(Level.ALL);
             this.logger.addHandler(this.fileHandler);
             this.logger.setUseParentHandlers(false); // Disable console logging
         } catch (IOException e) {
@@ -54,13 +60,67 @@ public class Logger implements ILogger {
     }
 
     /**
-     * Logs an informational message.
+     * Logs a message at the given level if it passes the current threshold.
      *
-     * @param msg The message to be logged.
+     * @param level The level of the message.
+     * @param msg   The message to be logged.
      */
     @Override
-    public void log(String msg) {
-        this.logger.info(msg);
+    public void log(LogLevel level, String msg) {
+        if (isEnabled(level)) {
+            this.logger.log(toJulLevel(level), msg);
+        }
+    }
+
+    /**
+     * Returns the current threshold level.
+     *
+     * @return The minimum level that is recorded.
+     */
+    @Override
+    public LogLevel getLevel() {
+        return level;
+    }
+
+    /**
+     * Changes the threshold level.
+     *
+     * @param level The new minimum level that is recorded.
+     */
+    @Override
+    public void setLevel(LogLevel level) {
+        this.level = level;
+    }
+
+    /**
+     * Maps a LogLevel to the corresponding java.util.logging level.
+     */
+    private static Level toJulLevel(LogLevel level) {
+        switch (level) {
+            case DEBUG:
+                return Level.FINE;
+            case WARN:
+                return Level.WARNING;
+            case ERROR:
+                return Level.SEVERE;
+            case INFO:
+            default:
+                return Level.INFO;
+        }
+    }
+
+    /**
+     * Maps a java.util.logging level back to the LogLevel it was created from.
+     */
+    private static LogLevel toLogLevel(Level level) {
+        if (level.intValue() >= Level.SEVERE.intValue()) {
+            return LogLevel.ERROR;
+        } else if (level.intValue() >= Level.WARNING.intValue()) {
+            return LogLevel.WARN;
+        } else if (level.intValue() >= Level.INFO.intValue()) {
+            return LogLevel.INFO;
+        }
+        return LogLevel.DEBUG;
     }
 
     /**